@@ -0,0 +1,75 @@
+package org.juanjo.stock.benchmark;
+
+import org.juanjo.stock.StockApplication;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.ConfigurableWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Starts the application for the benchmarks on its own in-memory database
+ */
+final class BenchmarkApplication {
+	/**
+	 * Ids follow the ones loaded at startup without gaps, so the benchmarks can pick existing stocks at random, and the
+	 * sequence of the entity is restarted after them as data.sql does
+	 */
+	private static final String SEED_STOCKS = "INSERT INTO stock (id, name, current_price, last_update) "
+			+ "SELECT (SELECT COALESCE(MAX(id), 0) FROM stock) + X, CONCAT('Stock ', X), ROUND(RAND() * 1000, 2), CURRENT_TIMESTAMP "
+			+ "FROM SYSTEM_RANGE(1, ?)";
+	private static final String RESTART_SEQUENCE = "ALTER SEQUENCE stock_seq RESTART WITH ";
+
+	private BenchmarkApplication() {
+	}
+
+	/**
+	 * Starts the application with a database holding about {@code rows} stocks
+	 *
+	 * @param database   name of the in-memory database, so each benchmark starts from a clean one
+	 * @param rows       number of stocks to add to the ones loaded at startup
+	 * @param properties additional properties, as {@code key=value}
+	 * @return started application context
+	 */
+	static ConfigurableApplicationContext start(String database, int rows, String... properties) {
+		return start(WebApplicationType.NONE, database, rows, properties);
+	}
+
+	/**
+	 * Starts the application like {@link #start(String, int, String...)}, with the web server listening on a random port
+	 *
+	 * @param database   name of the in-memory database, so each benchmark starts from a clean one
+	 * @param rows       number of stocks to add to the ones loaded at startup
+	 * @param properties additional properties, as {@code key=value}
+	 * @return started web application context
+	 */
+	static ConfigurableWebServerApplicationContext startServer(String database, int rows, String... properties) {
+		return (ConfigurableWebServerApplicationContext) start(WebApplicationType.SERVLET, database, rows, properties);
+	}
+
+	/**
+	 * Gets the highest stock id in the database
+	 *
+	 * @param context started by {@link #start(String, int, String...)}
+	 * @return highest stock id
+	 */
+	static long maxStockId(ConfigurableApplicationContext context) {
+		return context.getBean(JdbcTemplate.class).queryForObject("SELECT MAX(id) FROM stock", Long.class);
+	}
+
+	private static ConfigurableApplicationContext start(WebApplicationType type, String database, int rows, String... properties) {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(StockApplication.class)
+				.web(type)
+				.properties("spring.datasource.url=jdbc:h2:mem:" + database + ";LAZY_QUERY_EXECUTION=TRUE",
+						"stock.reactive.url=r2dbc:pool:h2:mem:///" + database,
+						"server.port=0",
+						"spring.main.banner-mode=off",
+						"logging.level.root=WARN")
+				.properties(properties)
+				.run();
+		JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+		jdbcTemplate.update(SEED_STOCKS, rows);
+		jdbcTemplate.execute(RESTART_SEQUENCE + (maxStockId(context) + 1));
+		return context;
+	}
+}
@@ -0,0 +1,89 @@
+package org.juanjo.stock.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.web.context.ConfigurableWebServerApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reads by id through a running server with many concurrent connections, handling the requests on the pool
+ * of platform threads, on virtual threads, and with the reactive read endpoints. The cache is disabled so every request
+ * reaches the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class StockConcurrencyBenchmark {
+	private static final int ROWS = 100_000;
+
+	@Param({"platform", "virtual", "reactive"})
+	private String mode;
+	@Param({"10000"})
+	private int connections;
+
+	private ConfigurableWebServerApplicationContext context;
+	private ExecutorService clientExecutor;
+	private HttpClient client;
+	private String baseUri;
+	private long maxStockId;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = BenchmarkApplication.startServer("concurrency" + mode, ROWS,
+				"stock.cache.maximum-size=0B",
+				"spring.threads.virtual.enabled=" + "virtual".equals(mode),
+				"stock.reactive.enabled=" + "reactive".equals(mode),
+				// every connection is accepted instead of waiting in the backlog
+				"server.tomcat.max-connections=" + (2 * connections),
+				"server.tomcat.accept-count=" + connections);
+		clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+		client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).executor(clientExecutor).build();
+		baseUri = "http://localhost:" + context.getWebServer().getPort() +
+				("reactive".equals(mode) ? "/api/reactive/stocks/" : "/api/stocks/");
+		maxStockId = BenchmarkApplication.maxStockId(context);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		client.close();
+		clientExecutor.close();
+		context.close();
+	}
+
+	/**
+	 * Sends {@code connections} requests of random stocks at once and waits for all the responses
+	 *
+	 * @return number of successful responses
+	 */
+	@Benchmark
+	public long getByIdConcurrently() {
+		CompletableFuture<?>[] responses = new CompletableFuture<?>[connections];
+		for (int i = 0; i < connections; i++) {
+			HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + randomStockId())).GET().build();
+			responses[i] = client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+		}
+		CompletableFuture.allOf(responses).join();
+		long successful = 0;
+		for (CompletableFuture<?> response : responses) {
+			if (((HttpResponse<?>) response.join()).statusCode() == 200) {
+				successful++;
+			}
+		}
+		return successful;
+	}
+
+	private long randomStockId() {
+		return ThreadLocalRandom.current().nextLong(1, maxStockId + 1);
+	}
+}
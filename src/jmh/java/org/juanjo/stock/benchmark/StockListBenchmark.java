@@ -0,0 +1,117 @@
+package org.juanjo.stock.benchmark;
+
+import org.juanjo.stock.controller.StockController;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.StockService;
+import org.juanjo.stock.service.StockVersion;
+import org.juanjo.stock.utils.StockConstants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks listing every stock at the repository, service and controller layers, as JSON and in the binary format,
+ * reading the first page, and validating the list with a conditional request
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class StockListBenchmark {
+	@Param({"1000", "100000", "1000000"})
+	private int rows;
+
+	private ConfigurableApplicationContext context;
+	private StockRepository stockRepository;
+	private StockService stockService;
+	private StockController stockController;
+	private StockVersion stockVersion;
+	private TransactionTemplate readOnlyTransaction;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = BenchmarkApplication.start("list" + rows, rows);
+		stockRepository = context.getBean(StockRepository.class);
+		stockService = context.getBean(StockService.class);
+		stockController = context.getBean(StockController.class);
+		stockVersion = context.getBean(StockVersion.class);
+		readOnlyTransaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+		readOnlyTransaction.setReadOnly(true);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public void repositoryStreamAll(Blackhole blackhole) {
+		readOnlyTransaction.executeWithoutResult(status -> stockRepository.streamAll().forEach(blackhole::consume));
+	}
+
+	@Benchmark
+	public void serviceListStocks(Blackhole blackhole) {
+		stockService.listStocks(blackhole::consume);
+	}
+
+	/**
+	 * Lists every stock as JSON, including the serialization to the response
+	 */
+	@Benchmark
+	public int controllerListStocks() throws IOException, BadRequestException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		stockController.listStocks(null, new MockHttpServletRequest("GET", "/api/stocks"), response);
+		return response.getContentAsByteArray().length;
+	}
+
+	/**
+	 * Lists only the id and the price of every stock as JSON, reading only their columns
+	 */
+	@Benchmark
+	public int controllerListStockFields() throws IOException, BadRequestException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		stockController.listStocks("id,currentPrice", new MockHttpServletRequest("GET", "/api/stocks"), response);
+		return response.getContentAsByteArray().length;
+	}
+
+	/**
+	 * Lists every stock in the compact binary format, including the serialization to the response
+	 */
+	@Benchmark
+	public int controllerListStocksBinary() throws IOException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/stocks");
+		request.addHeader(HttpHeaders.ACCEPT, StockConstants.BINARY_MEDIA_TYPE);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		stockController.listStocksBinary(request, response);
+		return response.getContentAsByteArray().length;
+	}
+
+	/**
+	 * Answers a conditional request for the list when no stock has changed
+	 */
+	@Benchmark
+	public int controllerListStocksNotModified() throws IOException, BadRequestException {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/stocks");
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, stockVersion.getETag());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		stockController.listStocks(null, request, response);
+		return response.getStatus();
+	}
+
+	@Benchmark
+	public StockPageDTO serviceFirstPage() throws BadRequestException {
+		return stockService.listStocks(null, StockConstants.PAGE_DEFAULT_LIMIT);
+	}
+}
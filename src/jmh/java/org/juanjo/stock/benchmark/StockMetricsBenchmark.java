@@ -0,0 +1,49 @@
+package org.juanjo.stock.benchmark;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.juanjo.stock.service.StockMetrics;
+import org.juanjo.stock.service.StockMetrics.Operation;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of recording the latency of a service call in a Prometheus registry with the percentiles and
+ * histogram buckets of the application. Run it with {@code -prof gc} to check that recording does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockMetricsBenchmark {
+	private StockMetrics stockMetrics;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+		registry.config().meterFilter(new MeterFilter() {
+			@Override
+			public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+				return DistributionStatisticConfig.builder().percentiles(0.5, 0.99, 0.999).percentilesHistogram(true).build()
+						.merge(config);
+			}
+		});
+		stockMetrics = new StockMetrics(registry);
+	}
+
+	@Benchmark
+	public void recordServiceCall() {
+		stockMetrics.record(Operation.GET_BY_ID, System.nanoTime() - 1000);
+	}
+
+	@Benchmark
+	public void recordMapping() {
+		stockMetrics.recordMapping(System.nanoTime() - 100);
+	}
+}
@@ -0,0 +1,83 @@
+package org.juanjo.stock.benchmark;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.service.StockSearchIndex;
+import org.juanjo.stock.utils.StockConstants;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the name search over an index of one million random names, for the first page of prefix, infix and short
+ * queries
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class StockSearchBenchmark {
+	private static final int ROWS = 1_000_000;
+	private static final int QUERIES = 1024;
+
+	private StockSearchIndex index;
+	private String[] prefixQueries;
+	private String[] infixQueries;
+	private String[] shortQueries;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		index = new StockSearchIndex();
+		LocalDateTime now = LocalDateTime.now();
+		String[] names = new String[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			names[i] = randomWord(random) + " " + randomWord(random) + (random.nextBoolean() ? " Inc" : " Corp");
+			index.put(new StockDTO(i + 1L, names[i], 1.0, now, 0L));
+		}
+		prefixQueries = new String[QUERIES];
+		infixQueries = new String[QUERIES];
+		shortQueries = new String[QUERIES];
+		for (int i = 0; i < QUERIES; i++) {
+			String name = names[random.nextInt(ROWS)];
+			prefixQueries[i] = name.substring(0, 4);
+			int space = name.indexOf(' ');
+			infixQueries[i] = name.substring(space + 2, space + 7);
+			shortQueries[i] = name.substring(0, 2);
+		}
+	}
+
+	@Benchmark
+	public List<Long> searchPrefix() {
+		return index.search(prefixQueries[nextQuery()], 0, StockConstants.PAGE_DEFAULT_LIMIT);
+	}
+
+	@Benchmark
+	public List<Long> searchInfix() {
+		return index.search(infixQueries[nextQuery()], 0, StockConstants.PAGE_DEFAULT_LIMIT);
+	}
+
+	@Benchmark
+	public List<Long> searchShort() {
+		return index.search(shortQueries[nextQuery()], 0, StockConstants.PAGE_DEFAULT_LIMIT);
+	}
+
+	private int nextQuery() {
+		next = (next + 1) & (QUERIES - 1);
+		return next;
+	}
+
+	private static String randomWord(Random random) {
+		char[] word = new char[4 + random.nextInt(7)];
+		word[0] = (char) ('A' + random.nextInt(26));
+		for (int i = 1; i < word.length; i++) {
+			word[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(word);
+	}
+}
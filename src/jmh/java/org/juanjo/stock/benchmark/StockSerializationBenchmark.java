@@ -0,0 +1,98 @@
+package org.juanjo.stock.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.utils.StockBinaryReader;
+import org.juanjo.stock.utils.StockBinaryWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the JSON serialization of {@link StockDTO}, with an object mapper configured as the application one, and
+ * its compact binary format
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockSerializationBenchmark {
+	private static final int PAGE_SIZE = 100;
+
+	private ObjectWriter stockWriter;
+	private ObjectWriter pageWriter;
+	private ObjectReader stockReader;
+	private StockDTO stock;
+	private List<StockDTO> page;
+	private byte[] stockJson;
+	private byte[] stockBinary;
+
+	@Setup
+	public void setup() throws IOException {
+		ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		stockWriter = objectMapper.writerFor(StockDTO.class);
+		pageWriter = objectMapper.writerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, StockDTO.class));
+		stockReader = objectMapper.readerFor(StockDTO.class);
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+		stock = new StockDTO(1L, "Apple Inc", 141.20, now, 3L);
+		page = new ArrayList<>(PAGE_SIZE);
+		for (long i = 1; i <= PAGE_SIZE; i++) {
+			page.add(new StockDTO(i, "Stock " + i, i * 1.25, now, 1L));
+		}
+		stockJson = stockWriter.writeValueAsBytes(stock);
+		stockBinary = serializeStockBinary();
+	}
+
+	@Benchmark
+	public byte[] serializeStock() throws JsonProcessingException {
+		return stockWriter.writeValueAsBytes(stock);
+	}
+
+	@Benchmark
+	public byte[] serializePage() throws JsonProcessingException {
+		return pageWriter.writeValueAsBytes(page);
+	}
+
+	@Benchmark
+	public StockDTO deserializeStock() throws IOException {
+		return stockReader.readValue(stockJson);
+	}
+
+	@Benchmark
+	public byte[] serializeStockBinary() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StockBinaryWriter writer = new StockBinaryWriter(out);
+		writer.write(stock);
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] serializePageBinary() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StockBinaryWriter writer = new StockBinaryWriter(out);
+		for (StockDTO pageStock : page) {
+			writer.write(pageStock);
+		}
+		writer.flush();
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public StockDTO deserializeStockBinary() throws IOException {
+		return new StockBinaryReader(new ByteArrayInputStream(stockBinary)).readStock();
+	}
+}
@@ -0,0 +1,101 @@
+package org.juanjo.stock.benchmark;
+
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.service.StockCache;
+import org.juanjo.stock.service.StockService;
+import org.juanjo.stock.utils.StockETag;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the reads by id and the writes of single stocks through {@link StockService}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StockServiceBenchmark {
+	private static final int ROWS = 100_000;
+
+	private ConfigurableApplicationContext context;
+	private StockService stockService;
+	private StockCache stockCache;
+	private long maxStockId;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = BenchmarkApplication.start("service", ROWS);
+		stockService = context.getBean(StockService.class);
+		stockCache = context.getBean(StockCache.class);
+		maxStockId = BenchmarkApplication.maxStockId(context);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	/**
+	 * Reads random stocks by id, which are served from the cache once warmed up
+	 */
+	@Benchmark
+	public StockDTO getById() throws NotFoundException {
+		return stockService.getById(randomStockId());
+	}
+
+	/**
+	 * Reads random stocks by id from the database, bypassing the cache
+	 */
+	@Benchmark
+	public StockDTO getByIdUncached() throws NotFoundException {
+		long stockId = randomStockId();
+		stockCache.invalidate(stockId);
+		return stockService.getById(stockId);
+	}
+
+	@Benchmark
+	public StockDTO createStock() {
+		CreateStockDTO request = new CreateStockDTO();
+		request.setName("Benchmark stock");
+		request.setCurrentPrice(ThreadLocalRandom.current().nextDouble(1000));
+		return stockService.createStock(request);
+	}
+
+	/**
+	 * Overwrites random stocks with a single statement
+	 */
+	@Benchmark
+	public StockDTO updateStock() throws NotFoundException, PreconditionFailedException {
+		return stockService.updateStock(randomStockId(), randomUpdate(), null);
+	}
+
+	/**
+	 * Reads random stocks and updates them only if they have not changed since, as a client sending If-Match would
+	 */
+	@Benchmark
+	public StockDTO updateStockIfMatch() throws NotFoundException, PreconditionFailedException {
+		long stockId = randomStockId();
+		String eTag = StockETag.of(stockService.getById(stockId));
+		return stockService.updateStock(stockId, randomUpdate(), eTag);
+	}
+
+	private static UpdateStockDTO randomUpdate() {
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName("Benchmark stock");
+		request.setCurrentPrice(ThreadLocalRandom.current().nextDouble(1000));
+		return request;
+	}
+
+	private long randomStockId() {
+		return ThreadLocalRandom.current().nextLong(1, maxStockId + 1);
+	}
+}
@@ -2,8 +2,10 @@ package org.juanjo.stock;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.r2dbc.R2dbcAutoConfiguration;
 
-@SpringBootApplication
+// the reactive reads build their own connection factory, a bean would replace the JDBC data source
+@SpringBootApplication(exclude = R2dbcAutoConfiguration.class)
 public class StockApplication {
 
 	public static void main(String[] args) {
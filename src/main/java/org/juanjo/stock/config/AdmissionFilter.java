@@ -0,0 +1,172 @@
+package org.juanjo.stock.config;
+
+import org.juanjo.stock.service.StockAdmission;
+import org.juanjo.stock.service.StockCluster;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits the requests to the API through {@link StockAdmission} before anything else is done for them. Requests over
+ * the rate of their client are rejected with 429, and requests over the concurrency limit with 503, both with a
+ * {@code Retry-After} header. Clients are told apart by their address, or by a header when it is trusted, for instance
+ * behind a gateway that sets it, as otherwise clients could pick a new bucket on every request. Streams and web sockets
+ * stay open for as long as their clients listen, so they are not admitted, and requests forwarded by other nodes of
+ * the cluster were already rated on the node that received them, so they are not rated again when they come from the
+ * address of a node. Imports and exports are admitted, but their latency is not sampled, as it grows with the stocks
+ * they carry rather than with the load.
+ */
+@Component
+@ConditionalOnProperty(name = "stock.admission.enabled", havingValue = "true")
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class AdmissionFilter extends OncePerRequestFilter {
+	private static final String API_PATH = "/api/";
+	private static final String STREAM_PATH = "/api/stocks/stream";
+	private static final String LIST_PATH = "/api/stocks";
+	private static final String EXPORT_PATH = "/api/stocks/export";
+	private static final String LOOKUP_PATH = "/api/stocks/lookup";
+	private static final String IMPORT_PATH = "/api/stocks/import";
+	private static final String SHED_RETRY_AFTER = "1";
+
+	private final StockAdmission stockAdmission;
+	private final String clientHeader;
+
+	@Autowired(required = false)
+	private StockCluster stockCluster;
+
+	public AdmissionFilter(StockAdmission stockAdmission, @Value("${stock.admission.client-header:X-Client-Id}") String clientHeader,
+			@Value("${stock.admission.trust-client-header:false}") boolean trustClientHeader) {
+		this.stockAdmission = stockAdmission;
+		this.clientHeader = trustClientHeader ? clientHeader : null;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String path = path(request);
+		return !path.startsWith(API_PATH) || path.equals(STREAM_PATH) || request.getHeader(HttpHeaders.UPGRADE) != null;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		if (!isForwardedByPeer(request)) {
+			long wait = stockAdmission.throttle(client(request));
+			if (wait > 0) {
+				// whole seconds, rounded up so the client does not come back before it has a token
+				response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(TimeUnit.NANOSECONDS.toSeconds(wait - 1) + 1));
+				response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Too many requests from the client");
+				return;
+			}
+		}
+		if (!stockAdmission.acquire(priority(request))) {
+			response.setHeader(HttpHeaders.RETRY_AFTER, SHED_RETRY_AFTER);
+			response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "The service is overloaded");
+			return;
+		}
+		long start = System.nanoTime();
+		boolean sampled = !isTransfer(request);
+		boolean async = false;
+		try {
+			filterChain.doFilter(request, response);
+			async = request.isAsyncStarted();
+		} finally {
+			if (async) {
+				request.getAsyncContext().addListener(new CompletionListener(start, sampled));
+			} else {
+				release(start, sampled);
+			}
+		}
+	}
+
+	/**
+	 * Classifies the request by what it costs: writes first, then the reads of a bounded number of stocks, and last
+	 * the reads of every stock
+	 */
+	static StockAdmission.Priority priority(HttpServletRequest request) {
+		String path = path(request);
+		if (HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod())) {
+			boolean bulk = (path.equals(LIST_PATH) && request.getParameter("ids") == null) || path.equals(EXPORT_PATH);
+			return bulk ? StockAdmission.Priority.BULK : StockAdmission.Priority.READ;
+		}
+		return path.equals(LOOKUP_PATH) ? StockAdmission.Priority.READ : StockAdmission.Priority.WRITE;
+	}
+
+	/**
+	 * Tells whether the request imports or exports stocks, which takes as long as the stocks it carries
+	 */
+	static boolean isTransfer(HttpServletRequest request) {
+		String path = path(request);
+		return (HttpMethod.POST.matches(request.getMethod()) && path.equals(IMPORT_PATH)) ||
+				(HttpMethod.GET.matches(request.getMethod()) && path.equals(EXPORT_PATH));
+	}
+
+	private void release(long start, boolean sampled) {
+		if (sampled) {
+			stockAdmission.release(start);
+		} else {
+			stockAdmission.release();
+		}
+	}
+
+	private boolean isForwardedByPeer(HttpServletRequest request) {
+		return stockCluster != null && request.getHeader(StockConstants.CLUSTER_FORWARDED_HEADER) != null &&
+				stockCluster.isPeer(request.getRemoteAddr());
+	}
+
+	private String client(HttpServletRequest request) {
+		String client = clientHeader != null ? request.getHeader(clientHeader) : null;
+		return client != null ? client : request.getRemoteAddr();
+	}
+
+	private static String path(HttpServletRequest request) {
+		return request.getRequestURI().substring(request.getContextPath().length());
+	}
+
+	/**
+	 * Releases an asynchronous request once it is complete, whether it succeeds, fails or times out
+	 */
+	private final class CompletionListener implements AsyncListener {
+		private final long start;
+		private final boolean sampled;
+
+		private CompletionListener(long start, boolean sampled) {
+			this.start = start;
+			this.sampled = sampled;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			release(start, sampled);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			event.getAsyncContext().addListener(this);
+		}
+	}
+}
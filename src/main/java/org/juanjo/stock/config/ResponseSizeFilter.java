@@ -0,0 +1,200 @@
+package org.juanjo.stock.config;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the size of every response body by the route that handled it. Bodies are counted while they are written, so
+ * streamed lists and asynchronous responses are measured too. The summary of every route is registered the first time
+ * it is used, and looked up afterwards without allocating.
+ */
+@Component
+public class ResponseSizeFilter extends OncePerRequestFilter {
+	private static final String UNKNOWN_URI = "UNKNOWN";
+
+	private final MeterRegistry registry;
+	private final Map<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+
+	public ResponseSizeFilter(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		// upgraded connections, such as web sockets, are not written through the response
+		return request.getHeader(HttpHeaders.UPGRADE) != null;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		CountingResponse countingResponse = new CountingResponse(response);
+		try {
+			filterChain.doFilter(request, countingResponse);
+		} finally {
+			if (request.isAsyncStarted()) {
+				request.getAsyncContext().addListener(new CompletionListener(request, countingResponse));
+			} else {
+				record(request, countingResponse);
+			}
+		}
+	}
+
+	private void record(HttpServletRequest request, CountingResponse response) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		String uri = pattern != null ? pattern.toString() : UNKNOWN_URI;
+		// computeIfAbsent allocates its lambda and may lock the bin even when the summary exists, so it is left to misses
+		DistributionSummary summary = summaries.get(uri);
+		if (summary == null) {
+			summary = summaries.computeIfAbsent(uri, key -> DistributionSummary.builder("stock.response.size")
+					.description("Size of the response bodies").baseUnit("bytes").tag("uri", key).register(registry));
+		}
+		summary.record(response.outputStream.count);
+	}
+
+	/**
+	 * Records the size of an asynchronous response once it is complete
+	 */
+	private final class CompletionListener implements AsyncListener {
+		private final HttpServletRequest request;
+		private final CountingResponse response;
+
+		private CompletionListener(HttpServletRequest request, CountingResponse response) {
+			this.request = request;
+			this.response = response;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			record(request, response);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			event.getAsyncContext().addListener(this);
+		}
+	}
+
+	/**
+	 * Response that counts the bytes written to its output stream, which is where every message converter writes. The
+	 * writer, used for instance by error pages, encodes into the same stream so its bytes are counted too.
+	 */
+	private static final class CountingResponse extends HttpServletResponseWrapper {
+		private final CountingOutputStream outputStream = new CountingOutputStream();
+		private PrintWriter writer;
+
+		private CountingResponse(HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (outputStream.delegate == null) {
+				outputStream.delegate = super.getOutputStream();
+			}
+			return outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new FlushingWriter(getOutputStream(), getCharacterEncoding());
+			}
+			return writer;
+		}
+	}
+
+	/**
+	 * Writer that passes every write on to the stream at once, as the container completes the response without
+	 * flushing the writers of wrappers
+	 */
+	private static final class FlushingWriter extends PrintWriter {
+		private FlushingWriter(OutputStream outputStream, String characterEncoding) throws UnsupportedEncodingException {
+			super(new OutputStreamWriter(outputStream, characterEncoding));
+		}
+
+		@Override
+		public void write(int c) {
+			super.write(c);
+			super.flush();
+		}
+
+		@Override
+		public void write(char[] buf, int off, int len) {
+			super.write(buf, off, len);
+			super.flush();
+		}
+
+		@Override
+		public void write(String s, int off, int len) {
+			super.write(s, off, len);
+			super.flush();
+		}
+	}
+
+	private static final class CountingOutputStream extends ServletOutputStream {
+		private ServletOutputStream delegate;
+		private long count;
+
+		@Override
+		public void write(int b) throws IOException {
+			delegate.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			delegate.write(b, off, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			delegate.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return delegate.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			delegate.setWriteListener(writeListener);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package org.juanjo.stock.config;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.utils.StockBinaryReader;
+import org.juanjo.stock.utils.StockBinaryWriter;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Converts single stocks and pages of stocks from and to the compact binary format of
+ * {@link StockConstants#BINARY_MEDIA_TYPE}. Stocks are encoded straight into the response stream, without building any
+ * intermediate representation.
+ */
+@Component
+public class StockBinaryMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+	public StockBinaryMessageConverter() {
+		super(MediaType.valueOf(StockConstants.BINARY_MEDIA_TYPE));
+	}
+
+	@Override
+	protected boolean supports(Class<?> clazz) {
+		return StockDTO.class == clazz || StockPageDTO.class == clazz;
+	}
+
+	@Override
+	protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) throws IOException {
+		StockBinaryReader reader = new StockBinaryReader(inputMessage.getBody());
+		if (StockPageDTO.class == clazz) {
+			return reader.readPage();
+		}
+		StockDTO stock = reader.readStock();
+		if (stock == null) {
+			throw new HttpMessageNotReadableException("Empty stock", inputMessage);
+		}
+		return stock;
+	}
+
+	@Override
+	protected void writeInternal(Object value, HttpOutputMessage outputMessage) throws IOException {
+		StockBinaryWriter writer = new StockBinaryWriter(outputMessage.getBody());
+		if (value instanceof StockPageDTO page) {
+			writer.write(page);
+		} else {
+			writer.write((StockDTO) value);
+		}
+		writer.flush();
+	}
+}
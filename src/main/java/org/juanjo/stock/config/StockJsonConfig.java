@@ -0,0 +1,25 @@
+package org.juanjo.stock.config;
+
+import com.fasterxml.jackson.annotation.JsonFilter;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.utils.StockField;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Writes the stocks through a JSON filter, so only the requested fields are written. The filter writes every field
+ * unless a projection replaces it.
+ */
+@Configuration
+public class StockJsonConfig {
+
+	@Bean
+	public Jackson2ObjectMapperBuilderCustomizer stockFieldsCustomizer() {
+		return builder -> builder.mixIn(StockDTO.class, StockFieldsMixIn.class).filters(StockField.all());
+	}
+
+	@JsonFilter(StockField.FILTER_ID)
+	private abstract static class StockFieldsMixIn {
+	}
+}
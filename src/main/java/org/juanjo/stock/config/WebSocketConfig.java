@@ -0,0 +1,25 @@
+package org.juanjo.stock.config;
+
+import org.juanjo.stock.controller.StockWebSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Registers the WebSocket endpoints
+ */
+@Configuration
+@ConditionalOnWebApplication
+@EnableWebSocket
+public class WebSocketConfig implements WebSocketConfigurer {
+	@Autowired
+	private StockWebSocketHandler stockWebSocketHandler;
+
+	@Override
+	public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+		registry.addHandler(stockWebSocketHandler, "/api/ws/stocks");
+	}
+}
@@ -0,0 +1,79 @@
+package org.juanjo.stock.controller;
+
+import org.juanjo.stock.dto.ClusterNodeDTO;
+import org.juanjo.stock.dto.ClusterStateDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockVersionDTO;
+import org.juanjo.stock.exception.ForbiddenException;
+import org.juanjo.stock.service.ClusterStockService;
+import org.juanjo.stock.service.StockCluster;
+import org.juanjo.stock.service.StockVersion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.List;
+
+
+/**
+ * Controller for the calls between the nodes of a cluster. The calls that change the cluster or its stocks are only
+ * accepted from the address of a node, as they are served on the same port as the API.
+ */
+@RestController
+@RequestMapping(value = "/internal/cluster", produces = MediaType.APPLICATION_JSON_VALUE)
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+public class ClusterController {
+	@Autowired
+	private StockCluster stockCluster;
+	@Autowired
+	private ClusterStockService clusterStockService;
+	@Autowired
+	private StockVersion stockVersion;
+
+	/**
+	 * Adds a node that is joining the cluster
+	 *
+	 * @param request     with the base URL of the joining node
+	 * @param httpRequest with the address of the caller
+	 * @return nodes of the cluster and the highest stock id of this node
+	 * @throws ForbiddenException when the caller is not a node of the cluster
+	 */
+	@PostMapping(value = "/nodes", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ClusterStateDTO join(@RequestBody ClusterNodeDTO request, HttpServletRequest httpRequest) throws ForbiddenException {
+		checkPeer(httpRequest);
+		return stockCluster.accept(request.getUrl());
+	}
+
+	/**
+	 * Stores the stocks moved to this node by another one
+	 *
+	 * @param stocks      now owned by this node
+	 * @param httpRequest with the address of the caller
+	 * @throws ForbiddenException when the caller is not a node of the cluster
+	 */
+	@PostMapping(value = "/stocks", consumes = MediaType.APPLICATION_JSON_VALUE)
+	@ResponseStatus(value = HttpStatus.NO_CONTENT)
+	public void receiveStocks(@RequestBody List<StockDTO> stocks, HttpServletRequest httpRequest) throws ForbiddenException {
+		checkPeer(httpRequest);
+		clusterStockService.receive(stocks);
+	}
+
+	/**
+	 * Gets the version of the stocks of this node
+	 *
+	 * @return entity tag and last modification of the stocks of this node
+	 */
+	@GetMapping("/version")
+	public StockVersionDTO getVersion() {
+		return stockVersion.current();
+	}
+
+	private void checkPeer(HttpServletRequest request) throws ForbiddenException {
+		if (!stockCluster.isPeer(request.getRemoteAddr())) {
+			throw new ForbiddenException("Only the nodes of the cluster may call it");
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.juanjo.stock.controller;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.service.ReactiveStockService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+
+/**
+ * Controller to read stocks without blocking the request thread. Responses are written asynchronously once the
+ * reactive service completes, so the servlet thread is released while the database is queried.
+ */
+@RestController
+@ConditionalOnProperty(name = "stock.reactive.enabled", havingValue = "true")
+@RequestMapping(value = "/api/reactive/stocks", produces = MediaType.APPLICATION_JSON_VALUE)
+public class ReactiveStockController {
+	@Autowired
+	private ReactiveStockService reactiveStockService;
+
+	/**
+	 * Gets the stock by the {@code stockId} provided
+	 *
+	 * @param stockId that identify the stock
+	 * @return found stock, or {@link NotFoundException} when the resource is not found
+	 */
+	@GetMapping("/{stockId}")
+	public Mono<StockDTO> getStockById(@PathVariable long stockId) {
+		return reactiveStockService.getById(stockId);
+	}
+
+	/**
+	 * Retrieves the full list of existing stocks
+	 *
+	 * @return list of stocks
+	 */
+	@GetMapping
+	public Flux<StockDTO> listStocks() {
+		return reactiveStockService.listStocks();
+	}
+
+	/**
+	 * Retrieves one page of stocks using keyset pagination
+	 *
+	 * @param cursor opaque cursor returned with the previous page. The first page is returned when it is not provided
+	 * @param limit  maximum number of stocks to return
+	 * @return page of stocks and the cursor of the next one, or {@link BadRequestException} when the cursor or the limit
+	 * are not valid
+	 */
+	@GetMapping("/page")
+	public Mono<StockPageDTO> listStocksPage(@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit) {
+		return reactiveStockService.listStocks(cursor, limit);
+	}
+}
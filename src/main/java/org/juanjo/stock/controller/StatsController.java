@@ -0,0 +1,49 @@
+package org.juanjo.stock.controller;
+
+import org.juanjo.stock.dto.CacheStatsDTO;
+import org.juanjo.stock.dto.WriteBehindStatsDTO;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.service.StockCache;
+import org.juanjo.stock.service.StockWriteBehind;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+
+/**
+ * Controller to expose the internal statistics of the service
+ */
+@RestController
+@RequestMapping(value = "/api/stats", produces = MediaType.APPLICATION_JSON_VALUE)
+public class StatsController {
+	@Autowired
+	private StockCache stockCache;
+	@Autowired(required = false)
+	private StockWriteBehind stockWriteBehind;
+
+	/**
+	 * Gets the hit, miss and eviction counters of the stock cache
+	 *
+	 * @return cache statistics
+	 */
+	@GetMapping("/cache")
+	public CacheStatsDTO getCacheStats() {
+		return stockCache.stats();
+	}
+
+	/**
+	 * Gets the counters and the flush lag of the write-behind queue
+	 *
+	 * @return write-behind statistics
+	 * @throws NotFoundException when the write-behind queue is not enabled
+	 */
+	@GetMapping("/write-behind")
+	public WriteBehindStatsDTO getWriteBehindStats() throws NotFoundException {
+		if (stockWriteBehind == null) {
+			throw new NotFoundException();
+		}
+		return stockWriteBehind.stats();
+	}
+}
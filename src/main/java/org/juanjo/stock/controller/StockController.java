@@ -1,17 +1,61 @@
 package org.juanjo.stock.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.juanjo.stock.dto.CandleDTO;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
 import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.dto.StockVersionDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
 import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.service.StockListSnapshot;
 import org.juanjo.stock.service.StockService;
+import org.juanjo.stock.service.StockVersion;
+import org.juanjo.stock.utils.StockBinaryWriter;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockCsvWriter;
+import org.juanjo.stock.utils.StockETag;
+import org.juanjo.stock.utils.StockField;
+import org.juanjo.stock.utils.StockTextReader;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJacksonValue;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
-import javax.validation.Valid;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 
 /**
@@ -20,29 +64,257 @@ import java.util.List;
 @RestController
 @RequestMapping(value = "/api/stocks", produces = MediaType.APPLICATION_JSON_VALUE)
 public class StockController {
+	private static final String RETURN_REPRESENTATION = "return=representation";
+	private static final String GZIP_ENCODING = "gzip";
+	private static final Pattern ZERO_QUALITY = Pattern.compile("[qQ]\\s*=\\s*0(\\.0*)?");
+
 	@Autowired
 	private StockService stockService;
+	@Autowired
+	private ObjectMapper objectMapper;
+	@Autowired
+	private StockVersion stockVersion;
+	@Autowired(required = false)
+	private StockListSnapshot stockListSnapshot;
 
 	/**
-	 * Gets the stock by the {@code stockId} provided.
+	 * Gets the stock by the {@code stockId} provided. The response carries a strong ETag and the Last-Modified date of
+	 * the stock, and conditional requests for an unchanged stock are answered with 304 Not Modified and no body. The
+	 * stock is written as JSON or in the compact binary format, as requested in the Accept header. When only some fields
+	 * are requested, only their columns are read and only they are written as JSON.
 	 *
 	 * @param stockId that identify the stock
+	 * @param fields  to return, separated by commas. Every field is returned when it is not provided
 	 * @return found stock
-	 * @throws NotFoundException when the resource is not found
+	 * @throws NotFoundException   when the resource is not found
+	 * @throws BadRequestException when any of the fields is not valid
+	 */
+	@GetMapping(value = "/{stockId}", produces = {MediaType.APPLICATION_JSON_VALUE, StockConstants.BINARY_MEDIA_TYPE})
+	public ResponseEntity<Object> getStockById(@PathVariable long stockId, @RequestParam(required = false) String fields)
+			throws NotFoundException, BadRequestException {
+		Set<StockField> projection = fields == null ? null : StockField.parse(fields);
+		StockDTO stock = projection == null ? stockService.getById(stockId) : stockService.getById(stockId, projection);
+		// a projection is tagged by its own fields, as the service may return the whole stock or only those fields
+		ResponseEntity.BodyBuilder response =
+				ResponseEntity.ok().eTag(projection == null ? StockETag.of(stock) : StockETag.of(stock, projection));
+		if (stock.getLastUpdate() != null) {
+			response.lastModified(stock.getLastUpdate().atZone(ZoneId.systemDefault()));
+		}
+		return response.body(projection == null ? stock : project(stock, projection));
+	}
+
+	/**
+	 * Gets many stocks by their ids in a single request. Ids without a stock are reported along with the found stocks.
+	 *
+	 * @param ids that identify the stocks, separated by commas
+	 * @return found stocks and missing ids, in the order of the requested ids
+	 * @throws BadRequestException when no ids are provided or there are more than allowed
 	 */
-	@GetMapping("/{stockId}")
-	public StockDTO getStockById(@PathVariable long stockId) throws NotFoundException {
-		return stockService.getById(stockId);
+	@GetMapping(params = "ids")
+	public StockBatchDTO getStocks(@RequestParam List<Long> ids) throws BadRequestException {
+		return stockService.getByIds(ids);
 	}
 
 	/**
-	 * Retrieves the full list of existing stocks
+	 * Gets many stocks by the ids in the body, for lists of ids too long to fit in the URL
 	 *
-	 * @return list of stocks
+	 * @param ids that identify the stocks
+	 * @return found stocks and missing ids, in the order of the requested ids
+	 * @throws BadRequestException when no ids are provided, there are more than allowed or any of them is null
+	 */
+	@PostMapping(value = "/lookup", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public StockBatchDTO lookupStocks(@RequestBody List<Long> ids) throws BadRequestException {
+		return stockService.getByIds(ids);
+	}
+
+	/**
+	 * Retrieves the full list of existing stocks. Conditional requests are validated against the version of the whole
+	 * collection, so they are answered with 304 Not Modified without reading any stock when nothing has changed. The
+	 * JSON array is kept serialized for the current version, and written gzipped to clients that accept it. When the list
+	 * snapshot is disabled or the list is too large to keep, the array is written incrementally while the stocks are
+	 * read, so memory use does not depend on the number of stocks. Lists of only some fields are always written
+	 * incrementally, reading only the columns of those fields.
+	 *
+	 * @param fields   to return, separated by commas. Every field is returned when it is not provided
+	 * @param request  with the conditional and accepted encoding headers, if any
+	 * @param response where the list of stocks is written
+	 * @throws IOException         when the response cannot be written
+	 * @throws BadRequestException when any of the fields is not valid
 	 */
 	@GetMapping
-	public List<StockDTO> listStocks() {
-		return stockService.listStocks();
+	public void listStocks(@RequestParam(required = false) String fields, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, BadRequestException {
+		Set<StockField> projection = fields == null ? null : StockField.parse(fields);
+		StockVersionDTO version = stockVersion.current();
+		if (isNotModified(projection == null ? version : project(version, projection), request, response)) {
+			return;
+		}
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		if (projection != null) {
+			ObjectWriter writer = objectMapper.writerFor(StockDTO.class).with(StockField.filter(projection))
+					.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+				generator.writeStartArray();
+				stockService.listStockFields(projection, stock -> writeStock(writer, generator, stock));
+				generator.writeEndArray();
+			}
+			return;
+		}
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+		StockListSnapshot.Snapshot snapshot = stockListSnapshot != null ? stockListSnapshot.get(version) : null;
+		if (snapshot != null) {
+			byte[] body = snapshot.getJson();
+			if (acceptsGzip(request)) {
+				response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP_ENCODING);
+				body = snapshot.getGzip();
+			}
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+			return;
+		}
+		ObjectWriter writer = objectMapper.writerFor(StockDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.writeStartArray();
+			stockService.listStocks(stock -> writeStock(writer, generator, stock));
+			generator.writeEndArray();
+		}
+	}
+
+	/**
+	 * Retrieves the full list of existing stocks in the compact binary format. Like the JSON list, stocks are written
+	 * incrementally while they are read, and conditional requests are validated against the version of the collection.
+	 *
+	 * @param request  with the conditional headers, if any
+	 * @param response where the list of stocks is written
+	 * @throws IOException when the response cannot be written
+	 */
+	@GetMapping(produces = StockConstants.BINARY_MEDIA_TYPE)
+	public void listStocksBinary(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		if (isNotModified(stockVersion.current(), request, response)) {
+			return;
+		}
+		response.setContentType(StockConstants.BINARY_MEDIA_TYPE);
+		StockBinaryWriter writer = new StockBinaryWriter(response.getOutputStream());
+		stockService.listStocks(stock -> writeStock(writer, stock));
+		writer.flush();
+	}
+
+	/**
+	 * Exports every stock as CSV, with a header line. Like the full list, the lines are written while the stocks are read
+	 * from a database cursor, so memory use does not depend on the number of stocks.
+	 *
+	 * @param response where the stocks are written
+	 * @throws IOException when the response cannot be written
+	 */
+	@GetMapping(value = "/export", produces = StockConstants.CSV_MEDIA_TYPE)
+	public void exportStocksCsv(HttpServletResponse response) throws IOException {
+		response.setContentType(StockConstants.CSV_MEDIA_TYPE + ";charset=UTF-8");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"stocks.csv\"");
+		StockCsvWriter writer = new StockCsvWriter(response.getOutputStream());
+		writer.writeHeader();
+		stockService.listStocks(stock -> writeStock(writer, stock));
+		writer.flush();
+	}
+
+	/**
+	 * Exports every stock as NDJSON, with a JSON stock per line. Like the full list, the lines are written while the
+	 * stocks are read from a database cursor, so memory use does not depend on the number of stocks.
+	 *
+	 * @param response where the stocks are written
+	 * @throws IOException when the response cannot be written
+	 */
+	@GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public void exportStocksNdjson(HttpServletResponse response) throws IOException {
+		response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"stocks.ndjson\"");
+		ObjectWriter writer = objectMapper.writerFor(StockDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+			generator.setRootValueSeparator(null);
+			stockService.listStocks(stock -> writeLine(writer, generator, stock));
+		}
+	}
+
+	/**
+	 * Retrieves one page of stocks using keyset pagination. Like the full list, it is validated against the version of
+	 * the whole collection, and it is written as JSON or in the compact binary format. When only some fields are
+	 * requested, only their columns are read and only they are written as JSON.
+	 *
+	 * @param cursor opaque cursor returned with the previous page. The first page is returned when it is not provided
+	 * @param limit  maximum number of stocks to return
+	 * @param fields to return, separated by commas. Every field is returned when it is not provided
+	 * @return page of stocks and the cursor of the next one
+	 * @throws BadRequestException when the cursor, the limit or any of the fields are not valid
+	 */
+	@GetMapping(value = "/page", produces = {MediaType.APPLICATION_JSON_VALUE, StockConstants.BINARY_MEDIA_TYPE})
+	public ResponseEntity<Object> listStocksPage(@RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit, @RequestParam(required = false) String fields) throws BadRequestException {
+		Set<StockField> projection = fields == null ? null : StockField.parse(fields);
+		StockVersionDTO version = projection == null ? stockVersion.current() : project(stockVersion.current(), projection);
+		ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(version.getETag()).lastModified(version.getLastModified());
+		return projection == null ? response.body(stockService.listStocks(cursor, limit)) :
+				response.body(project(stockService.listStocks(cursor, limit, projection), projection));
+	}
+
+	/**
+	 * Retrieves the stocks created or updated after a watermark, in the order they changed, so a copy of the stocks can
+	 * be kept up to date by reading only what changed
+	 *
+	 * @param since opaque watermark returned by the previous call. Every stock is returned when it is not provided
+	 * @param limit maximum number of stocks to return
+	 * @return changed stocks and the watermark to read the next changes from
+	 * @throws BadRequestException when the watermark or the limit are not valid
+	 */
+	@GetMapping("/changes")
+	public StockChangesDTO getChanges(@RequestParam(required = false) String since, @RequestParam(required = false) Integer limit)
+			throws BadRequestException {
+		return stockService.getChanges(since, limit);
+	}
+
+	/**
+	 * Searches the stocks whose name contains the given query, ignoring case, ranked by how well they match. Like the
+	 * pages of the full list, it is validated against the version of the whole collection.
+	 *
+	 * @param q      text to find in the names. Queries shorter than three characters only match the start of the names
+	 * @param cursor opaque cursor returned with the previous page. The first page is returned when it is not provided
+	 * @param limit  maximum number of stocks to return
+	 * @return page of matching stocks and the cursor of the next one
+	 * @throws BadRequestException when the query, the cursor or the limit are not valid
+	 * @throws NotFoundException   when the search is not enabled
+	 */
+	@GetMapping(value = "/search", produces = {MediaType.APPLICATION_JSON_VALUE, StockConstants.BINARY_MEDIA_TYPE})
+	public ResponseEntity<StockPageDTO> searchStocks(@RequestParam String q, @RequestParam(required = false) String cursor,
+			@RequestParam(required = false) Integer limit) throws BadRequestException, NotFoundException {
+		StockVersionDTO version = stockVersion.current();
+		return ResponseEntity.ok().eTag(version.getETag()).lastModified(version.getLastModified())
+				.body(stockService.searchStocks(q, cursor, limit));
+	}
+
+	/**
+	 * Gets the stocks at the top of a ranking, by percent change since the open of the current session or by current
+	 * price
+	 *
+	 * @param by    ranking to read: change or price. Change when not provided
+	 * @param order desc to get the highest values first or asc to get the lowest ones. Desc when not provided
+	 * @param n     maximum number of stocks to return
+	 * @return stocks in ranking order
+	 * @throws BadRequestException when the ranking, the order or the number of stocks are not valid
+	 * @throws NotFoundException   when the rankings are not enabled
+	 */
+	@GetMapping("/top")
+	public List<StockMoverDTO> getTopStocks(@RequestParam(required = false) String by, @RequestParam(required = false) String order,
+			@RequestParam(required = false) Integer n) throws BadRequestException, NotFoundException {
+		return stockService.getTopStocks(by, order, n);
+	}
+
+	/**
+	 * Gets the aggregate statistics of the stocks in the current session
+	 *
+	 * @return statistics of the stocks
+	 * @throws NotFoundException when the rankings are not enabled
+	 */
+	@GetMapping("/stats")
+	public MarketStatsDTO getStats() throws NotFoundException {
+		return stockService.getStats();
 	}
 
 	/**
@@ -58,15 +330,220 @@ public class StockController {
 	}
 
 	/**
-	 * Updates the attributes of the given {@code stockId}
+	 * Creates many stocks in a single request. Either all of them are created or, when any of them is not valid, none.
+	 *
+	 * @param request with the needed parameters to create every stock
+	 * @return ids of the created stocks, in the order of the request
+	 * @throws BadRequestException when no stocks are provided, there are more than allowed or any of them is not valid
+	 */
+	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, value = "/batch")
+	@ResponseStatus(value = HttpStatus.CREATED)
+	public List<Long> createStocks(@RequestBody List<CreateStockDTO> request) throws BadRequestException {
+		return stockService.createStocks(request);
+	}
+
+	/**
+	 * Creates many stocks from a body with a JSON stock per line, which is read as a stream instead of being parsed as
+	 * a whole. Either all of them are created or, when any of them is not valid, none.
+	 *
+	 * @param request whose body has the needed parameters to create every stock, one per line
+	 * @return ids of the created stocks, in the order of the request
+	 * @throws BadRequestException when no stocks are provided, there are more than allowed or any line is not valid
+	 * @throws IOException         when the body cannot be read
+	 */
+	@PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE, value = "/batch")
+	@ResponseStatus(value = HttpStatus.CREATED)
+	public List<Long> createStocksNdjson(HttpServletRequest request) throws BadRequestException, IOException {
+		List<CreateStockDTO> stocks = new ArrayList<>();
+		try (MappingIterator<CreateStockDTO> lines = objectMapper.readerFor(CreateStockDTO.class).readValues(request.getInputStream())) {
+			while (lines.hasNextValue()) {
+				if (stocks.size() == StockConstants.BATCH_CREATE_MAX_SIZE) {
+					throw new BadRequestException("Between 1 and " + StockConstants.BATCH_CREATE_MAX_SIZE + " stocks must be provided");
+				}
+				stocks.add(lines.nextValue());
+			}
+		} catch (JsonProcessingException e) {
+			throw new BadRequestException("Invalid NDJSON line: " + e.getOriginalMessage());
+		}
+		return stockService.createStocks(stocks);
+	}
+
+	/**
+	 * Imports stocks from CSV, as exported, inserting the ones that do not exist with their own ids and overwriting the
+	 * name and current price of the rest. The body is read as a stream and written in chunks, each one in its own
+	 * transaction, so it can be of any size. Lines that are not valid are skipped and reported.
+	 *
+	 * @param request whose body has a line per stock, with an optional header line
+	 * @return number of imported stocks and the errors found
+	 * @throws ConflictException when a stock is updated concurrently, so the import has to be retried
+	 * @throws IOException       when the body cannot be read
+	 */
+	@PostMapping(consumes = StockConstants.CSV_MEDIA_TYPE, value = "/import")
+	public StockImportResultDTO importStocksCsv(HttpServletRequest request) throws ConflictException, IOException {
+		return importStocks(new StockTextReader(request.getInputStream()).csv());
+	}
+
+	/**
+	 * Imports stocks from NDJSON, as exported, with a JSON stock per line. Like the CSV import, the body is read as a
+	 * stream and written in chunks, and lines that are not valid are skipped and reported.
+	 *
+	 * @param request whose body has a JSON stock per line
+	 * @return number of imported stocks and the errors found
+	 * @throws ConflictException when a stock is updated concurrently, so the import has to be retried
+	 * @throws IOException       when the body cannot be read
+	 */
+	@PostMapping(consumes = MediaType.APPLICATION_NDJSON_VALUE, value = "/import")
+	public StockImportResultDTO importStocksNdjson(HttpServletRequest request) throws ConflictException, IOException {
+		return importStocks(new StockTextReader(request.getInputStream()).ndjson(objectMapper.readerFor(StockDTO.class)));
+	}
+
+	/**
+	 * Updates the attributes of the given {@code stockId}. With an If-Match header holding the entity tag of the stock,
+	 * it is only updated while nobody else has updated it since it was read, and 412 Precondition Failed is returned
+	 * otherwise. A single entity tag is supported, and {@code *} updates the stock unconditionally. The response carries
+	 * the entity tag of the updated stock, so further conditional updates do not need to read it again, and the updated
+	 * stock itself when it is asked for with {@code Prefer: return=representation}.
 	 *
 	 * @param stockId to update
+	 * @param ifMatch entity tag the stock must match, if any
+	 * @param prefer  preferences of the client, if any
 	 * @param request with all stock attributes to update
-	 * @throws NotFoundException when the resource is not found
+	 * @return no content or the updated stock, with its entity tag
+	 * @throws NotFoundException           when the resource is not found
+	 * @throws PreconditionFailedException when the stock does not match the If-Match header
 	 */
 	@PutMapping(consumes = MediaType.APPLICATION_JSON_VALUE, value = "/{stockId}")
-	@ResponseStatus(value = HttpStatus.NO_CONTENT)
-	public void updateStock(@PathVariable long stockId, @RequestBody @Valid UpdateStockDTO request) throws NotFoundException {
-		stockService.updateStock(stockId, request);
+	public ResponseEntity<StockDTO> updateStock(@PathVariable long stockId,
+			@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+			@RequestHeader(value = StockConstants.PREFER_HEADER, required = false) String prefer,
+			@RequestBody @Valid UpdateStockDTO request) throws NotFoundException, PreconditionFailedException {
+		String eTag = ifMatch == null || ifMatch.trim().equals("*") ? null : ifMatch.trim();
+		StockDTO stock = stockService.updateStock(stockId, request, eTag);
+		if (prefer != null && prefer.contains(RETURN_REPRESENTATION)) {
+			return ResponseEntity.ok().eTag(StockETag.of(stock)).body(stock);
+		}
+		return ResponseEntity.noContent().eTag(StockETag.of(stock)).build();
+	}
+
+	/**
+	 * Updates the current price of many stocks in a single request. Entries that cannot be applied, because the stock
+	 * does not exist or the price is not valid, are reported by id while the rest are updated.
+	 *
+	 * @param request with the new current price of every stock
+	 * @return number of updated stocks and the failed entries
+	 * @throws BadRequestException when no prices are provided or there are more than allowed
+	 * @throws ConflictException   when any stock is updated concurrently, so the request has to be retried
+	 */
+	@PatchMapping(consumes = MediaType.APPLICATION_JSON_VALUE, value = "/prices")
+	public PriceUpdateResultDTO updatePrices(@RequestBody List<PriceUpdateDTO> request) throws BadRequestException, ConflictException {
+		return stockService.updatePrices(request);
+	}
+
+	/**
+	 * Gets the price history of the given {@code stockId} aggregated in OHLC candles
+	 *
+	 * @param stockId  that identify the stock
+	 * @param from     start of the history, as ISO date-time. One day before {@code to} when not provided
+	 * @param to       end of the history, as ISO date-time. Now when not provided
+	 * @param interval covered by every candle: 1m, 5m, 15m, 1h, 4h or 1d. One minute when not provided
+	 * @return candles in time order
+	 * @throws NotFoundException   when the resource is not found
+	 * @throws BadRequestException when the range or the interval are not valid
+	 */
+	@GetMapping("/{stockId}/history")
+	public List<CandleDTO> getStockHistory(@PathVariable long stockId,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+			@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+			@RequestParam(required = false) String interval) throws NotFoundException, BadRequestException {
+		return stockService.getHistory(stockId, from, to, interval);
+	}
+
+	/**
+	 * Checks the conditional headers of a list request against the version of the whole collection
+	 *
+	 * @param version  of the collection, read before the stocks so it is never newer than them
+	 * @param request  with the conditional headers, if any
+	 * @param response where the validators are set, and the status when the list has not been modified
+	 * @return true when the list has not been modified, so nothing has to be written
+	 */
+	private boolean isNotModified(StockVersionDTO version, HttpServletRequest request, HttpServletResponse response) {
+		return new ServletWebRequest(request, response).checkNotModified(version.getETag(), version.getLastModified());
+	}
+
+	/**
+	 * Wraps a response so only the given fields of its stocks are written as JSON
+	 */
+	private static MappingJacksonValue project(Object body, Set<StockField> fields) {
+		MappingJacksonValue projected = new MappingJacksonValue(body);
+		projected.setFilters(StockField.filter(fields));
+		return projected;
+	}
+
+	/**
+	 * Gets the version of a projection of the collection, which is told apart from the one of the whole stocks
+	 */
+	private static StockVersionDTO project(StockVersionDTO version, Set<StockField> fields) {
+		return new StockVersionDTO(StockField.eTag(version.getETag(), fields), version.getLastModified());
+	}
+
+	/**
+	 * Checks whether the client accepts gzipped responses, which is the case unless gzip is missing from the accepted
+	 * encodings or has a zero quality
+	 *
+	 * @param request with the accepted encodings, if any
+	 * @return true when the response can be gzipped
+	 */
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		for (Enumeration<String> headers = request.getHeaders(HttpHeaders.ACCEPT_ENCODING); headers.hasMoreElements(); ) {
+			for (String encoding : headers.nextElement().split(",")) {
+				String[] parameters = encoding.split(";");
+				if (parameters[0].trim().equalsIgnoreCase(GZIP_ENCODING)) {
+					return Arrays.stream(parameters).skip(1).map(String::trim)
+							.noneMatch(parameter -> ZERO_QUALITY.matcher(parameter).matches());
+				}
+			}
+		}
+		return false;
+	}
+
+	private StockImportResultDTO importStocks(Iterator<StockDTO> stocks) throws ConflictException, IOException {
+		try {
+			return stockService.importStocks(stocks);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private void writeStock(StockCsvWriter writer, StockDTO stock) {
+		try {
+			writer.write(stock);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeLine(ObjectWriter writer, JsonGenerator generator, StockDTO stock) {
+		try {
+			writer.writeValue(generator, stock);
+			generator.writeRaw('\n');
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeStock(StockBinaryWriter writer, StockDTO stock) {
+		try {
+			writer.write(stock);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void writeStock(ObjectWriter writer, JsonGenerator generator, StockDTO stock) {
+		try {
+			writer.writeValue(generator, stock);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 }
@@ -0,0 +1,71 @@
+package org.juanjo.stock.controller;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.service.StockBroadcaster;
+import org.juanjo.stock.service.StockSink;
+import org.juanjo.stock.service.StockSubscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Controller to push stock changes to the clients, instead of them polling the list of stocks
+ */
+@RestController
+@RequestMapping(value = "/api/stocks")
+public class StockStreamController {
+	@Autowired
+	private StockBroadcaster stockBroadcaster;
+	@Value("${stock.stream.timeout:30m}")
+	private Duration timeout;
+
+	/**
+	 * Streams the changes of the stocks as Server-Sent Events. Every event carries the latest state of one stock, and
+	 * rapid changes of the same stock may be conflated into one event.
+	 *
+	 * @param ids of the stocks to receive the changes of. Every stock when not provided
+	 * @return event stream, completed after the configured timeout so the client reconnects
+	 * @throws IOException when the stream cannot be opened
+	 */
+	@GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamStocks(@RequestParam(required = false) Set<Long> ids) throws IOException {
+		SseEmitter emitter = new SseEmitter(timeout.toMillis());
+		// commits the response, so the client knows it is subscribed before any change happens
+		emitter.send(SseEmitter.event().comment("subscribed"));
+		StockSubscription subscription = stockBroadcaster.subscribe(ids, new SseStockSink(emitter));
+		emitter.onCompletion(() -> stockBroadcaster.unsubscribe(subscription));
+		emitter.onTimeout(emitter::complete);
+		emitter.onError(e -> stockBroadcaster.unsubscribe(subscription));
+		return emitter;
+	}
+
+	private static class SseStockSink implements StockSink {
+		private final SseEmitter emitter;
+
+		private SseStockSink(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+
+		@Override
+		public void send(List<StockDTO> stocks) throws IOException {
+			for (StockDTO stock : stocks) {
+				emitter.send(SseEmitter.event().name("stock").id(String.valueOf(stock.getId())).data(stock, MediaType.APPLICATION_JSON));
+			}
+		}
+
+		@Override
+		public void close() {
+			emitter.complete();
+		}
+	}
+}
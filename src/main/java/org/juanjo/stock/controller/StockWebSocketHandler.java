@@ -0,0 +1,95 @@
+package org.juanjo.stock.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.service.StockBroadcaster;
+import org.juanjo.stock.service.StockSink;
+import org.juanjo.stock.service.StockSubscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Pushes the changes of the stocks through a WebSocket. The stocks to receive are given as a comma separated {@code ids}
+ * query parameter of the handshake, and every message is a JSON array with the latest state of the changed stocks.
+ */
+@Component
+@Slf4j
+public class StockWebSocketHandler extends TextWebSocketHandler {
+	private static final String SUBSCRIPTION = "subscription";
+
+	@Autowired
+	private StockBroadcaster stockBroadcaster;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Override
+	public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+		Set<Long> stockIds;
+		try {
+			stockIds = parseStockIds(session);
+		} catch (NumberFormatException e) {
+			log.debug("Invalid stock ids in WebSocket handshake {}", session.getUri());
+			session.close(CloseStatus.BAD_DATA.withReason("Ids must be numbers"));
+			return;
+		}
+		StockSubscription subscription = stockBroadcaster.subscribe(stockIds, new WebSocketStockSink(session));
+		session.getAttributes().put(SUBSCRIPTION, subscription);
+	}
+
+	@Override
+	public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+		StockSubscription subscription = (StockSubscription) session.getAttributes().remove(SUBSCRIPTION);
+		if (subscription != null) {
+			stockBroadcaster.unsubscribe(subscription);
+		}
+	}
+
+	private static Set<Long> parseStockIds(WebSocketSession session) {
+		Set<Long> stockIds = new HashSet<>();
+		if (session.getUri() == null) {
+			return stockIds;
+		}
+		List<String> values = UriComponentsBuilder.fromUri(session.getUri()).build().getQueryParams().get("ids");
+		if (values != null) {
+			for (String value : values) {
+				for (String stockId : value.split(",")) {
+					stockIds.add(Long.parseLong(stockId.trim()));
+				}
+			}
+		}
+		return stockIds;
+	}
+
+	private class WebSocketStockSink implements StockSink {
+		private final WebSocketSession session;
+
+		private WebSocketStockSink(WebSocketSession session) {
+			this.session = session;
+		}
+
+		@Override
+		public void send(List<StockDTO> stocks) throws IOException {
+			session.sendMessage(new TextMessage(objectMapper.writeValueAsString(stocks)));
+		}
+
+		@Override
+		public void close() {
+			try {
+				session.close(CloseStatus.POLICY_VIOLATION.withReason("Too many pending changes"));
+			} catch (IOException e) {
+				log.debug("WebSocket session could not be closed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package org.juanjo.stock.dao;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@Entity(name = "price_tick")
+@Table(indexes = @Index(name = "price_tick_stock_time_idx", columnList = "stockId, tickTime"))
+public class PriceTick {
+	@Id
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "price_tick_seq")
+	@SequenceGenerator(name = "price_tick_seq", allocationSize = 50)
+	private Long id;
+	private Long stockId;
+	private Double price;
+	private LocalDateTime tickTime;
+
+	public PriceTick(Long stockId, Double price, LocalDateTime tickTime) {
+		this.stockId = stockId;
+		this.price = price;
+		this.tickTime = tickTime;
+	}
+}
@@ -1,23 +1,48 @@
 package org.juanjo.stock.dao;
 
 import lombok.Data;
+import org.hibernate.annotations.ColumnDefault;
+import org.juanjo.stock.service.StockChangeSequence;
+import org.juanjo.stock.utils.StockConstants;
 
-import javax.persistence.*;
+import jakarta.persistence.*;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 
 @Data
 @Entity(name = "stock")
+@Table(indexes = @Index(name = "stock_change_seq_idx", columnList = "changeSeq, id"))
+@EntityListeners(StockChangeSequence.Listener.class)
 public class Stock {
+	/**
+	 * Allocated from a sequence in blocks, so new stocks are inserted in JDBC batches
+	 */
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stock_seq")
+	@SequenceGenerator(name = "stock_seq", allocationSize = StockConstants.ID_ALLOCATION_SIZE)
 	private Long id;
 	private String name;
 	private Double currentPrice;
 	private LocalDateTime lastUpdate;
+	/**
+	 * Incremented on every write, so concurrent updates of the same stock are detected instead of overwritten
+	 */
+	@Version
+	@ColumnDefault("0")
+	@Column(nullable = false)
+	private Long version;
+	/**
+	 * Taken from a sequence on every write, so the stocks changed since any point can be read in the order they changed.
+	 * Stocks that have not been written by the service since they were loaded have 0.
+	 */
+	@ColumnDefault("0")
+	@Column(nullable = false)
+	private Long changeSeq;
 
 	@PreUpdate
 	@PrePersist
 	protected void onModification() {
-		lastUpdate = LocalDateTime.now();
+		// timestamps are stored with microsecond precision
+		lastUpdate = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
 	}
 }
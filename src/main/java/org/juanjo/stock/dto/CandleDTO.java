@@ -0,0 +1,25 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CandleDTO {
+	/**
+	 * Start of the interval covered by the candle
+	 */
+	private LocalDateTime time;
+	private Double open;
+	private Double high;
+	private Double low;
+	private Double close;
+	/**
+	 * Number of price updates in the interval
+	 */
+	private int ticks;
+}
@@ -0,0 +1,12 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterNodeDTO {
+	private String url;
+}
@@ -4,9 +4,9 @@ package org.juanjo.stock.dto;
 import lombok.Data;
 import org.juanjo.stock.utils.StockConstants;
 
-import javax.validation.constraints.Min;
-import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Size;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
 
 @Data
 public class CreateStockDTO {
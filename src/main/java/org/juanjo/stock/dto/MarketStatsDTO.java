@@ -0,0 +1,30 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MarketStatsDTO {
+	/**
+	 * Number of stocks with a price
+	 */
+	private long count;
+	private Double minPrice;
+	private Double maxPrice;
+	private Double averagePrice;
+	/**
+	 * Number of stocks whose price is above, below and the same as their open
+	 */
+	private long advancing;
+	private long declining;
+	private long unchanged;
+	/**
+	 * Start of the current session, when the opening prices were taken
+	 */
+	private LocalDateTime sessionStart;
+}
@@ -0,0 +1,21 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockBatchDTO {
+	/**
+	 * Stocks found, in the order of the requested ids
+	 */
+	private List<StockDTO> stocks;
+	/**
+	 * Requested ids without a stock, in the order they were requested
+	 */
+	private List<Long> missing;
+}
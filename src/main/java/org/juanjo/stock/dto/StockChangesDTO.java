@@ -0,0 +1,25 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockChangesDTO {
+	/**
+	 * Stocks changed after the requested watermark, in the order they changed
+	 */
+	private List<StockDTO> stocks;
+	/**
+	 * Opaque watermark to read the next changes from. It is the same one requested when nothing has changed.
+	 */
+	private String watermark;
+	/**
+	 * Whether there are more changes after the returned ones that can be read right away
+	 */
+	private boolean more;
+}
@@ -1,5 +1,6 @@
 package org.juanjo.stock.dto;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.juanjo.stock.dao.Stock;
@@ -8,16 +9,19 @@ import java.time.LocalDateTime;
 
 @Data
 @NoArgsConstructor
+@AllArgsConstructor
 public class StockDTO {
 	private Long id;
 	private String name;
 	private Double currentPrice;
 	private LocalDateTime lastUpdate;
+	private Long version;
 
 	public StockDTO(Stock stock) {
 		this.id = stock.getId();
 		this.name = stock.getName();
 		this.currentPrice = stock.getCurrentPrice();
 		this.lastUpdate = stock.getLastUpdate();
+		this.version = stock.getVersion();
 	}
 }
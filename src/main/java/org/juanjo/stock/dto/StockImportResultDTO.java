@@ -0,0 +1,16 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockImportResultDTO {
+	private long imported;
+	private long failed;
+	private List<String> errors;
+}
@@ -0,0 +1,22 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockMoverDTO {
+	private Long id;
+	private String name;
+	private Double currentPrice;
+	/**
+	 * Price of the stock when the current session started
+	 */
+	private Double openPrice;
+	/**
+	 * Percent change of the current price since the open
+	 */
+	private Double change;
+}
@@ -0,0 +1,15 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockPageDTO {
+	private List<StockDTO> stocks;
+	private String nextCursor;
+}
@@ -0,0 +1,19 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StockSummaryDTO {
+	private Long count;
+	private Long maxId;
+	/**
+	 * Latest last update of any stock, or null when there are no stocks
+	 */
+	private LocalDateTime lastUpdate;
+}
@@ -0,0 +1,20 @@
+package org.juanjo.stock.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WriteBehindStatsDTO {
+	private int pending;
+	private int capacity;
+	private long queuedCount;
+	private long coalescedCount;
+	private long rejectedCount;
+	private long flushedCount;
+	private long failedCount;
+	private long flushLagMillis;
+	private long lastFlushLagMillis;
+}
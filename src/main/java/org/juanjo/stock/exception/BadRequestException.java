@@ -0,0 +1,14 @@
+package org.juanjo.stock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * BadRequestException that will return 400 BAD REQUEST
+ */
+@ResponseStatus(value = HttpStatus.BAD_REQUEST)
+public class BadRequestException extends Exception {
+	public BadRequestException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,14 @@
+package org.juanjo.stock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * ConflictException that will return 409 CONFLICT
+ */
+@ResponseStatus(value = HttpStatus.CONFLICT)
+public class ConflictException extends Exception {
+	public ConflictException(String message) {
+		super(message);
+	}
+}
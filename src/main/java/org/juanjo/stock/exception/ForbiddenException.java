@@ -0,0 +1,14 @@
+package org.juanjo.stock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * ForbiddenException that will return 403 FORBIDDEN
+ */
+@ResponseStatus(value = HttpStatus.FORBIDDEN)
+public class ForbiddenException extends Exception {
+	public ForbiddenException(String message) {
+		super(message);
+	}
+}
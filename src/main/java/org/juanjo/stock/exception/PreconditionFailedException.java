@@ -0,0 +1,11 @@
+package org.juanjo.stock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * PreconditionFailedException that will return 412 PRECONDITION FAILED
+ */
+@ResponseStatus(value = HttpStatus.PRECONDITION_FAILED)
+public class PreconditionFailedException extends Exception {
+}
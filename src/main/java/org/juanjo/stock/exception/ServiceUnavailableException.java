@@ -0,0 +1,15 @@
+package org.juanjo.stock.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * ServiceUnavailableException that will return 503 SERVICE UNAVAILABLE. Unchecked, since it signals a temporary
+ * overload that callers cannot handle besides retrying later.
+ */
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class ServiceUnavailableException extends RuntimeException {
+	public ServiceUnavailableException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,51 @@
+package org.juanjo.stock.persistence;
+
+import org.juanjo.stock.dao.PriceTick;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import jakarta.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * Database repository for the price ticks of the stocks
+ */
+@Repository
+public interface PriceTickRepository extends JpaRepository<PriceTick, Long> {
+
+	/**
+	 * Reads the ticks of a stock between {@code from}, inclusive, and {@code to}, exclusive, in the order they were
+	 * recorded. Ticks are built by a constructor expression, so they are not attached to the persistence context. Must be
+	 * consumed inside a transaction and closed afterwards.
+	 *
+	 * @param stockId that identify the stock
+	 * @param from    first time included
+	 * @param to      first time excluded
+	 * @return stream of ticks
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE, value = StockConstants.STREAM_FETCH_SIZE))
+	@Query("select new org.juanjo.stock.dao.PriceTick(t.stockId, t.price, t.tickTime) from price_tick t " +
+			"where t.stockId = :stockId and t.tickTime >= :from and t.tickTime < :to order by t.tickTime, t.id")
+	Stream<PriceTick> streamTicks(@Param("stockId") long stockId, @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+	/**
+	 * Reads the opening price of every stock for a session: its last price before the start of the session or, for a
+	 * stock without prices before it, its first price after it. Every price is found with a seek on the index of the
+	 * ticks of the stock, so the cost depends on the number of stocks rather than of ticks. Must be consumed inside a
+	 * transaction and closed afterwards.
+	 *
+	 * @param start of the session
+	 * @return stream of stock id and opening price pairs, with a null price for stocks without ticks
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE, value = StockConstants.STREAM_FETCH_SIZE))
+	@Query(value = "select s.id, coalesce(" +
+			"(select t.price from price_tick t where t.stock_id = s.id and t.tick_time < :start order by t.tick_time desc, t.id desc limit 1), " +
+			"(select t.price from price_tick t where t.stock_id = s.id and t.tick_time >= :start order by t.tick_time, t.id limit 1)) " +
+			"from stock s", nativeQuery = true)
+	Stream<Object[]> streamOpenPrices(@Param("start") LocalDateTime start);
+}
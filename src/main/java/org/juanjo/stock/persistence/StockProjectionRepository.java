@@ -0,0 +1,45 @@
+package org.juanjo.stock.persistence;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.utils.StockField;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Reads only some fields of the stocks. Rows are selected as scalar columns, so no entity is hydrated into the
+ * persistence context and no snapshot is kept for dirty checking. The id and the version are always read, as cursors
+ * and entity tags are built from them, and the rest of the fields are left null unless requested.
+ */
+public interface StockProjectionRepository {
+
+	/**
+	 * Finds the given fields of a stock
+	 *
+	 * @param stockId that identify the stock
+	 * @param fields  to read
+	 * @return stock with the given fields, or empty when it does not exist
+	 */
+	Optional<StockDTO> findProjectionById(long stockId, Set<StockField> fields);
+
+	/**
+	 * Seeks the given fields of the stocks with an id greater than {@code afterId}, in ascending id order
+	 *
+	 * @param afterId id of the last stock already returned
+	 * @param fields  to read
+	 * @param limit   maximum number of stocks to return
+	 * @return stocks after the given id
+	 */
+	List<StockDTO> findProjectionPageAfter(long afterId, Set<StockField> fields, int limit);
+
+	/**
+	 * Reads the given fields of every stock in ascending id order through a forward-only cursor. Must be consumed inside
+	 * a transaction and closed afterwards.
+	 *
+	 * @param fields to read
+	 * @return stream of stocks
+	 */
+	Stream<StockDTO> streamAllProjections(Set<StockField> fields);
+}
@@ -0,0 +1,67 @@
+package org.juanjo.stock.persistence;
+
+import org.hibernate.jpa.HibernateHints;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockField;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds the query of every projection from the requested fields
+ */
+public class StockProjectionRepositoryImpl implements StockProjectionRepository {
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public Optional<StockDTO> findProjectionById(long stockId, Set<StockField> fields) {
+		List<StockField> columns = columns(fields);
+		return query(columns, "where s.id = :stockId").setParameter("stockId", stockId).getResultList().stream()
+				.map(row -> toStockDTO(columns, row)).findFirst();
+	}
+
+	@Override
+	public List<StockDTO> findProjectionPageAfter(long afterId, Set<StockField> fields, int limit) {
+		List<StockField> columns = columns(fields);
+		return query(columns, "where s.id > :afterId order by s.id").setParameter("afterId", afterId).setMaxResults(limit)
+				.getResultList().stream().map(row -> toStockDTO(columns, row)).collect(Collectors.toList());
+	}
+
+	@Override
+	public Stream<StockDTO> streamAllProjections(Set<StockField> fields) {
+		List<StockField> columns = columns(fields);
+		return query(columns, "order by s.id").setHint(HibernateHints.HINT_FETCH_SIZE, StockConstants.STREAM_FETCH_SIZE)
+				.getResultStream().map(row -> toStockDTO(columns, row));
+	}
+
+	private TypedQuery<Object[]> query(List<StockField> columns, String condition) {
+		String select = columns.stream().map(field -> "s." + field.getProperty()).collect(Collectors.joining(", "));
+		return entityManager.createQuery("select " + select + " from stock s " + condition, Object[].class);
+	}
+
+	/**
+	 * Gets the columns to read, in a fixed order so every projection of the same fields is the same query
+	 */
+	private static List<StockField> columns(Set<StockField> fields) {
+		Set<StockField> columns = EnumSet.of(StockField.ID, StockField.VERSION);
+		columns.addAll(fields);
+		return List.copyOf(columns);
+	}
+
+	private static StockDTO toStockDTO(List<StockField> columns, Object[] row) {
+		StockDTO stock = new StockDTO();
+		for (int i = 0; i < row.length; i++) {
+			columns.get(i).set(stock, row[i]);
+		}
+		return stock;
+	}
+}
@@ -1,13 +1,220 @@
 package org.juanjo.stock.persistence;
 
 import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockSummaryDTO;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import jakarta.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 /**
  * Database repository for Stocks
  */
 @Repository
-public interface StockRepository extends JpaRepository<Stock, Long> {
+public interface StockRepository extends JpaRepository<Stock, Long>, StockProjectionRepository {
+
+	/**
+	 * Seeks the stocks with an id greater than {@code afterId}, in ascending id order. Rows are projected straight into
+	 * {@link StockDTO} so no entity is attached to the persistence context.
+	 *
+	 * @param afterId  id of the last stock already returned
+	 * @param pageable maximum number of stocks to return. Only its size is used
+	 * @return stocks after the given id
+	 */
+	@Query("select new org.juanjo.stock.dto.StockDTO(s.id, s.name, s.currentPrice, s.lastUpdate, s.version) from stock s " +
+			"where s.id > :afterId order by s.id")
+	List<StockDTO> findPageAfter(@Param("afterId") long afterId, Pageable pageable);
+
+	/**
+	 * Reads every stock in ascending id order through a forward-only cursor. Must be consumed inside a transaction and
+	 * closed afterwards.
+	 *
+	 * @return stream of stocks
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE, value = StockConstants.STREAM_FETCH_SIZE))
+	@Query("select new org.juanjo.stock.dto.StockDTO(s.id, s.name, s.currentPrice, s.lastUpdate, s.version) from stock s order by s.id")
+	Stream<StockDTO> streamAll();
+
+	/**
+	 * Seeks the stocks changed after the given position and up to a change sequence, in the order they changed. Stocks
+	 * with the same change sequence, which only happens to the ones never written by the service, are ordered by id.
+	 *
+	 * @param changeSeq change sequence of the last stock already returned
+	 * @param afterId   id of the last stock already returned
+	 * @param maxSeq    highest change sequence to return
+	 * @param pageable  maximum number of stocks to return. Only its size is used
+	 * @return stocks changed after the given position
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.HibernateHints.HINT_READ_ONLY, value = "true"))
+	@Query("select s from stock s where (s.changeSeq > :changeSeq or (s.changeSeq = :changeSeq and s.id > :afterId)) " +
+			"and s.changeSeq <= :maxSeq order by s.changeSeq, s.id")
+	List<Stock> findChangesAfter(@Param("changeSeq") long changeSeq, @Param("afterId") long afterId,
+			@Param("maxSeq") long maxSeq, Pageable pageable);
+
+	/**
+	 * Gets the highest change sequence of the stocks
+	 *
+	 * @return highest change sequence, or 0 when there are no stocks
+	 */
+	@Query("select coalesce(max(s.changeSeq), 0) from stock s")
+	long findMaxChangeSeq();
+
+	/**
+	 * Overwrites a stock and increments its version with a single statement, without reading it first. The H2 data
+	 * change delta table returns the new version in the same round trip.
+	 *
+	 * @param stockId      that identify the stock
+	 * @param name         new name of the stock
+	 * @param currentPrice new current price of the stock
+	 * @param lastUpdate   time of the update
+	 * @param changeSeq    change sequence of the update
+	 * @return new version of the stock, or empty when it does not exist
+	 */
+	@Query(value = "select version from final table (update stock set name = :name, current_price = :currentPrice, " +
+			"last_update = :lastUpdate, version = version + 1, change_seq = :changeSeq where id = :stockId)", nativeQuery = true)
+	Optional<Long> updateReturningVersion(@Param("stockId") long stockId, @Param("name") String name,
+			@Param("currentPrice") double currentPrice, @Param("lastUpdate") LocalDateTime lastUpdate,
+			@Param("changeSeq") long changeSeq);
+
+	/**
+	 * Writes an update queued for write-behind and increments the version with a single statement, keeping the time the
+	 * update was queued as the last update, so the database agrees with the state published when it was queued
+	 *
+	 * @param stockId      that identify the stock
+	 * @param name         new name of the stock, or null to keep the current one
+	 * @param currentPrice new current price of the stock
+	 * @param lastUpdate   time the update was queued
+	 * @param changeSeq    change sequence of the update
+	 * @return name and new version of the stock, or empty when it does not exist
+	 */
+	@Query(value = "select name, version from final table (update stock set name = coalesce(cast(:name as varchar), name), " +
+			"current_price = :currentPrice, last_update = :lastUpdate, version = version + 1, change_seq = :changeSeq " +
+			"where id = :stockId)", nativeQuery = true)
+	Optional<WrittenStock> updateQueued(@Param("stockId") long stockId, @Param("name") String name,
+			@Param("currentPrice") double currentPrice, @Param("lastUpdate") LocalDateTime lastUpdate,
+			@Param("changeSeq") long changeSeq);
+
+	/**
+	 * Overwrites a stock and increments its version with a single statement, only when it still has the expected
+	 * version
+	 *
+	 * @param stockId      that identify the stock
+	 * @param version      expected current version of the stock
+	 * @param name         new name of the stock
+	 * @param currentPrice new current price of the stock
+	 * @param lastUpdate   time of the update
+	 * @param changeSeq    change sequence of the update
+	 * @return new version of the stock, or empty when it does not exist or its version is a different one
+	 */
+	@Query(value = "select version from final table (update stock set name = :name, current_price = :currentPrice, " +
+			"last_update = :lastUpdate, version = version + 1, change_seq = :changeSeq where id = :stockId and version = :version)",
+			nativeQuery = true)
+	Optional<Long> updateIfVersion(@Param("stockId") long stockId, @Param("version") long version, @Param("name") String name,
+			@Param("currentPrice") double currentPrice, @Param("lastUpdate") LocalDateTime lastUpdate,
+			@Param("changeSeq") long changeSeq);
+
+	/**
+	 * Gets the highest id of the stocks
+	 *
+	 * @return highest id, or 0 when there are no stocks
+	 */
+	@Query("select coalesce(max(s.id), 0) from stock s")
+	long findMaxId();
+
+	/**
+	 * Gets the number of stocks, their highest id and their latest update with a single query, to tell cheaply whether
+	 * the stocks have changed
+	 *
+	 * @return summary of the stocks
+	 */
+	@Query("select new org.juanjo.stock.dto.StockSummaryDTO(count(s), coalesce(max(s.id), 0), max(s.lastUpdate)) from stock s")
+	StockSummaryDTO findSummary();
+
+	/**
+	 * Inserts a stock with the given id instead of a generated one, as the nodes of a cluster assign the ids they own and
+	 * imported stocks keep theirs
+	 *
+	 * @param stockId      that identify the stock
+	 * @param name         name of the stock
+	 * @param currentPrice current price of the stock
+	 * @param lastUpdate   time of the creation
+	 * @param changeSeq    change sequence of the creation
+	 */
+	@Modifying
+	@Query(value = "insert into stock (id, name, current_price, last_update, version, change_seq) " +
+			"values (:stockId, :name, :currentPrice, :lastUpdate, 0, :changeSeq)", nativeQuery = true)
+	void insert(@Param("stockId") long stockId, @Param("name") String name, @Param("currentPrice") double currentPrice,
+			@Param("lastUpdate") LocalDateTime lastUpdate, @Param("changeSeq") long changeSeq);
+
+	/**
+	 * Gets the next value of the sequence the ids of new stocks are allocated from
+	 *
+	 * @return next value of the sequence
+	 */
+	@Query(value = "select base_value from information_schema.sequences where sequence_name = 'STOCK_SEQ'", nativeQuery = true)
+	long findNextSequenceValue();
+
+	/**
+	 * Restarts the sequence the ids of new stocks are allocated from. It commits the current transaction.
+	 *
+	 * @param value next value of the sequence
+	 */
+	@Modifying
+	@Query(value = "alter sequence stock_seq restart with :value", nativeQuery = true)
+	void restartSequence(@Param("value") long value);
+
+	/**
+	 * Inserts a stock moved from another node, or overwrites it when the existing one has an older version, so copies
+	 * moved more than once never replace a newer state
+	 *
+	 * @param stockId      that identify the stock
+	 * @param name         name of the stock
+	 * @param currentPrice current price of the stock
+	 * @param lastUpdate   time of the last update of the stock
+	 * @param version      version of the stock
+	 * @param changeSeq    change sequence of this node for the write
+	 * @return 1 when the stock has been written, 0 when the existing one is as new or newer
+	 */
+	@Modifying
+	@Query(value = "merge into stock s using (values (cast(:stockId as bigint), cast(:name as varchar), " +
+			"cast(:currentPrice as double precision), cast(:lastUpdate as timestamp(6)), cast(:version as bigint), " +
+			"cast(:changeSeq as bigint))) v(id, name, current_price, last_update, version, change_seq) on s.id = v.id " +
+			"when matched and s.version < v.version then update set name = v.name, current_price = v.current_price, " +
+			"last_update = v.last_update, version = v.version, change_seq = v.change_seq " +
+			"when not matched then insert (id, name, current_price, last_update, version, change_seq) " +
+			"values (v.id, v.name, v.current_price, v.last_update, v.version, v.change_seq)", nativeQuery = true)
+	int mergeIfNewer(@Param("stockId") long stockId, @Param("name") String name, @Param("currentPrice") double currentPrice,
+			@Param("lastUpdate") LocalDateTime lastUpdate, @Param("version") long version, @Param("changeSeq") long changeSeq);
+
+	/**
+	 * Deletes a stock only when it still has the given version, so a stock updated after being copied somewhere else is
+	 * kept
+	 *
+	 * @param stockId that identify the stock
+	 * @param version expected current version of the stock
+	 * @return 1 when the stock has been deleted, 0 otherwise
+	 */
+	@Modifying
+	@Query(value = "delete from stock where id = :stockId and version = :version", nativeQuery = true)
+	int deleteIfVersion(@Param("stockId") long stockId, @Param("version") long version);
+
+	/**
+	 * State of a stock returned by the statement that wrote it
+	 */
+	interface WrittenStock {
+		String getName();
+
+		Long getVersion();
+	}
 }
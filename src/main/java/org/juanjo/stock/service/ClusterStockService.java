@@ -0,0 +1,676 @@
+package org.juanjo.stock.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.CandleDTO;
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateFailureDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockCursor;
+import org.juanjo.stock.utils.StockField;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClientException;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Stock service that routes every call to the nodes of the cluster that own the stocks. Calls on a single stock are
+ * served locally when this node owns it, and forwarded to its owner otherwise. Lists and searches are scattered to every
+ * node and their results merged as they are read, a page of every node at a time, so their memory use does not depend
+ * on the number of stocks. Requests forwarded by another node are always served locally. Nodes read from each other in
+ * the compact binary format.
+ */
+@Service
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+@Slf4j
+public class ClusterStockService implements StockService {
+	private static final String PREFER_REPRESENTATION = "return=representation";
+	private static final int REBALANCE_PASSES = 3;
+
+	@Autowired
+	private StockServiceImpl stockService;
+	@Autowired
+	private StockCluster stockCluster;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@PostConstruct
+	public void init() {
+		stockCluster.onChange(this::rebalance);
+	}
+
+	@Override
+	public StockDTO getById(Long stockId) throws NotFoundException {
+		if (isLocal(stockId)) {
+			return stockService.getById(stockId);
+		}
+		String owner = stockCluster.owner(stockId);
+		try {
+			return remote(owner, () -> stockCluster.restClient().get().uri(owner + "/api/stocks/{stockId}", stockId)
+					.accept(MediaType.valueOf(StockConstants.BINARY_MEDIA_TYPE)).retrieve().body(StockDTO.class));
+		} catch (HttpClientErrorException.NotFound e) {
+			throw new NotFoundException();
+		}
+	}
+
+	/**
+	 * Reads only the given fields when this node owns the stock, and gets the whole stock from its owner otherwise
+	 */
+	@Override
+	public StockDTO getById(Long stockId, Set<StockField> fields) throws NotFoundException {
+		return isLocal(stockId) ? stockService.getById(stockId, fields) : getById(stockId);
+	}
+
+	/**
+	 * Gets the stocks of every node at once, asking every node only for the ids it owns, and merges them in the order of
+	 * the requested ids
+	 */
+	@Override
+	public StockBatchDTO getByIds(List<Long> stockIds) throws BadRequestException {
+		if (StockCluster.isForwarded()) {
+			return stockService.getByIds(stockIds);
+		}
+		List<Long> distinctIds = StockServiceImpl.distinctIds(stockIds);
+		Map<String, List<Long>> owned = distinctIds.stream().collect(Collectors.groupingBy(stockCluster::owner));
+		String self = stockCluster.self();
+		Map<String, StockBatchDTO> batches = stockCluster.onEveryNode(node -> {
+			List<Long> nodeIds = owned.get(node);
+			if (nodeIds == null) {
+				return new StockBatchDTO(Collections.emptyList(), Collections.emptyList());
+			}
+			try {
+				return node.equals(self) ? stockService.getByIds(nodeIds) :
+						remote(node, () -> stockCluster.restClient().post().uri(node + "/api/stocks/lookup")
+								.contentType(MediaType.APPLICATION_JSON).body(nodeIds).retrieve().body(StockBatchDTO.class));
+			} catch (BadRequestException e) {
+				throw new IllegalStateException("Node " + node + " rejected valid ids", e);
+			}
+		});
+		Map<Long, StockDTO> found = new HashMap<>();
+		batches.values().forEach(batch -> batch.getStocks().forEach(stock -> found.put(stock.getId(), stock)));
+		List<StockDTO> stocks = new ArrayList<>(found.size());
+		List<Long> missing = new ArrayList<>();
+		for (Long stockId : distinctIds) {
+			StockDTO stock = found.get(stockId);
+			if (stock != null) {
+				stocks.add(stock);
+			} else {
+				missing.add(stockId);
+			}
+		}
+		return new StockBatchDTO(stocks, missing);
+	}
+
+	@Override
+	public void listStocks(Consumer<StockDTO> consumer) {
+		if (StockCluster.isForwarded()) {
+			stockService.listStocks(consumer);
+			return;
+		}
+		try {
+			merge(open(null, StockConstants.PAGE_MAX_LIMIT, this::page), Comparator.comparing(StockDTO::getId))
+					.forEachRemaining(consumer);
+		} catch (BadRequestException | NotFoundException e) {
+			throw new IllegalStateException("First page of stocks cannot be read", e);
+		}
+	}
+
+	/**
+	 * Reads only the given fields when the request comes from another node, and merges whole stocks from every node
+	 * otherwise, as nodes read from each other in the binary format
+	 */
+	@Override
+	public void listStockFields(Set<StockField> fields, Consumer<StockDTO> consumer) {
+		if (StockCluster.isForwarded()) {
+			stockService.listStockFields(fields, consumer);
+			return;
+		}
+		listStocks(consumer);
+	}
+
+	/**
+	 * Reads only the given fields when the request comes from another node, and merges whole stocks from every node
+	 * otherwise
+	 */
+	@Override
+	public StockPageDTO listStocks(String cursor, Integer limit, Set<StockField> fields) throws BadRequestException {
+		return StockCluster.isForwarded() ? stockService.listStocks(cursor, limit, fields) : listStocks(cursor, limit);
+	}
+
+	@Override
+	public StockPageDTO listStocks(String cursor, Integer limit) throws BadRequestException {
+		if (StockCluster.isForwarded()) {
+			return stockService.listStocks(cursor, limit);
+		}
+		int pageSize = StockServiceImpl.pageSize(limit);
+		Iterator<StockDTO> stocks;
+		try {
+			// every node seeks after the same id, so a page never needs more than a page of every node
+			stocks = merge(open(cursor, pageSize, this::page), Comparator.comparing(StockDTO::getId));
+		} catch (NotFoundException e) {
+			throw new IllegalStateException("First page of stocks cannot be read", e);
+		}
+		List<StockDTO> page = take(stocks, pageSize);
+		return new StockPageDTO(page, stocks.hasNext() ? StockCursor.encode(page.get(page.size() - 1).getId()) : null);
+	}
+
+	/**
+	 * Gets the changes of every node at once. Every node numbers its own changes, so the watermark of the cluster holds
+	 * the watermark of every node and the limit is shared among them.
+	 */
+	@Override
+	public StockChangesDTO getChanges(String watermark, Integer limit) throws BadRequestException {
+		if (StockCluster.isForwarded()) {
+			return stockService.getChanges(watermark, limit);
+		}
+		int pageSize = StockServiceImpl.pageSize(limit);
+		Map<String, String> watermarks = decodeWatermarks(watermark);
+		int nodePageSize = Math.max(1, pageSize / stockCluster.nodes().size());
+		String self = stockCluster.self();
+		StockChangesDTO local = stockService.getChanges(watermarks.get(self), nodePageSize);
+		Map<String, StockChangesDTO> changes = stockCluster.onEveryNode(node -> node.equals(self) ? local :
+				remote(node, () -> stockCluster.restClient().get().uri(node + "/api/stocks/changes", builder -> {
+					Optional.ofNullable(watermarks.get(node)).ifPresent(value -> builder.queryParam("since", value));
+					return builder.queryParam("limit", nodePageSize).build();
+				}).retrieve().body(StockChangesDTO.class)));
+		List<StockDTO> stocks = new ArrayList<>();
+		// nodes that have left are dropped, as their stocks are read again from the nodes they moved to
+		Map<String, String> next = new TreeMap<>();
+		boolean more = false;
+		for (Map.Entry<String, StockChangesDTO> node : changes.entrySet()) {
+			stocks.addAll(node.getValue().getStocks());
+			next.put(node.getKey(), node.getValue().getWatermark());
+			more |= node.getValue().isMore();
+		}
+		return new StockChangesDTO(stocks, encodeWatermarks(next), more);
+	}
+
+	@Override
+	public StockPageDTO searchStocks(String query, String cursor, Integer limit) throws BadRequestException, NotFoundException {
+		if (StockCluster.isForwarded()) {
+			return stockService.searchStocks(query, cursor, limit);
+		}
+		int pageSize = StockServiceImpl.pageSize(limit);
+		long offset = cursor == null ? 0 : StockCursor.decode(cursor);
+		if (offset < 0 || offset > StockConstants.SEARCH_MAX_OFFSET) {
+			throw new BadRequestException("Invalid cursor");
+		}
+		// the ranking spans every node, so the matches of every node are read from the first one
+		int nodePageSize = (int) Math.min(offset + pageSize, StockConstants.PAGE_MAX_LIMIT);
+		Iterator<StockDTO> matches = merge(open(null, nodePageSize, (node, nodeCursor, size) -> search(node, query, nodeCursor, size)),
+				StockSearchIndex.ranking(query));
+		for (long skipped = 0; skipped < offset && matches.hasNext(); skipped++) {
+			matches.next();
+		}
+		List<StockDTO> page = take(matches, pageSize);
+		return new StockPageDTO(page, matches.hasNext() ? StockCursor.encode(offset + pageSize) : null);
+	}
+
+	@Override
+	public StockDTO createStock(CreateStockDTO request) {
+		// the new id is owned by this node, so the stock is never forwarded
+		return stockService.createStock(request, stockCluster.nextId());
+	}
+
+	@Override
+	public List<Long> createStocks(List<CreateStockDTO> requests) throws BadRequestException {
+		// like a single stock, they are all created in this node with ids it owns
+		return stockService.createStocks(requests, stockCluster::nextId);
+	}
+
+	/**
+	 * Imports stocks, sending to every node the stocks it owns, a chunk at a time. Every node writes its stocks in its
+	 * own transaction, and records their ids so it never assigns them to new stocks.
+	 */
+	@Override
+	public StockImportResultDTO importStocks(Iterator<StockDTO> stocks) throws ConflictException {
+		if (StockCluster.isForwarded()) {
+			return stockService.importStocks(stocks, this::importLocal);
+		}
+		return stockService.importStocks(stocks, chunk -> {
+			Map<String, List<StockDTO>> stocksByNode = chunk.stream()
+					.collect(Collectors.groupingBy(stock -> stockCluster.owner(stock.getId()), LinkedHashMap::new, Collectors.toList()));
+			int imported = 0;
+			for (Map.Entry<String, List<StockDTO>> nodeStocks : stocksByNode.entrySet()) {
+				String node = nodeStocks.getKey();
+				imported += node.equals(stockCluster.self()) ? importLocal(nodeStocks.getValue()) :
+						importRemote(node, nodeStocks.getValue());
+			}
+			return imported;
+		});
+	}
+
+	@Override
+	public StockDTO updateStock(Long stockId, UpdateStockDTO request, String eTag) throws NotFoundException, PreconditionFailedException {
+		if (isLocal(stockId)) {
+			return stockService.updateStock(stockId, request, eTag);
+		}
+		String owner = stockCluster.owner(stockId);
+		try {
+			return remote(owner, () -> stockCluster.restClient().put().uri(owner + "/api/stocks/{stockId}", stockId)
+					.headers(headers -> {
+						if (eTag != null) {
+							headers.setIfMatch(eTag);
+						}
+					})
+					.header(StockConstants.PREFER_HEADER, PREFER_REPRESENTATION).contentType(MediaType.APPLICATION_JSON)
+					.body(request).retrieve().body(StockDTO.class));
+		} catch (HttpClientErrorException.NotFound e) {
+			throw new NotFoundException();
+		} catch (HttpClientErrorException e) {
+			if (e.getStatusCode() == HttpStatus.PRECONDITION_FAILED) {
+				throw new PreconditionFailedException();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Updates the prices of many stocks, sending to every node the prices of the stocks it owns. Every node applies its
+	 * prices in its own transaction, so a conflict in one node does not undo the prices applied by the others.
+	 */
+	@Override
+	public PriceUpdateResultDTO updatePrices(List<PriceUpdateDTO> prices) throws BadRequestException, ConflictException {
+		if (StockCluster.isForwarded()) {
+			return stockService.updatePrices(prices);
+		}
+		if (prices == null || prices.isEmpty() || prices.size() > StockConstants.BULK_UPDATE_MAX_SIZE) {
+			throw new BadRequestException("Between 1 and " + StockConstants.BULK_UPDATE_MAX_SIZE + " prices must be provided");
+		}
+		// entries without id are reported by this node
+		Map<String, List<PriceUpdateDTO>> pricesByNode = prices.stream().collect(Collectors.groupingBy(
+				price -> price.getId() == null ? stockCluster.self() : stockCluster.owner(price.getId()), LinkedHashMap::new,
+				Collectors.toList()));
+		int updated = 0;
+		List<PriceUpdateFailureDTO> failures = new ArrayList<>();
+		for (Map.Entry<String, List<PriceUpdateDTO>> nodePrices : pricesByNode.entrySet()) {
+			String node = nodePrices.getKey();
+			PriceUpdateResultDTO result;
+			if (node.equals(stockCluster.self())) {
+				result = stockService.updatePrices(nodePrices.getValue());
+			} else {
+				try {
+					result = remote(node, () -> stockCluster.restClient().patch().uri(node + "/api/stocks/prices")
+							.contentType(MediaType.APPLICATION_JSON).body(nodePrices.getValue()).retrieve()
+							.body(PriceUpdateResultDTO.class));
+				} catch (HttpClientErrorException.Conflict e) {
+					throw new ConflictException("Stocks have been updated concurrently, retry the request");
+				}
+			}
+			updated += result.getUpdated();
+			failures.addAll(result.getFailures());
+		}
+		return new PriceUpdateResultDTO(updated, failures);
+	}
+
+	@Override
+	public List<CandleDTO> getHistory(Long stockId, LocalDateTime from, LocalDateTime to, String interval)
+			throws NotFoundException, BadRequestException {
+		if (isLocal(stockId)) {
+			return stockService.getHistory(stockId, from, to, interval);
+		}
+		String owner = stockCluster.owner(stockId);
+		try {
+			return remote(owner, () -> stockCluster.restClient().get().uri(owner + "/api/stocks/{stockId}/history", builder -> {
+				Optional.ofNullable(from).ifPresent(value -> builder.queryParam("from", value));
+				Optional.ofNullable(to).ifPresent(value -> builder.queryParam("to", value));
+				Optional.ofNullable(interval).ifPresent(value -> builder.queryParam("interval", value));
+				return builder.build(stockId);
+			}).retrieve().body(new ParameterizedTypeReference<List<CandleDTO>>() {
+			}));
+		} catch (HttpClientErrorException.NotFound e) {
+			throw new NotFoundException();
+		} catch (HttpClientErrorException.BadRequest e) {
+			Map<?, ?> error = e.getResponseBodyAs(Map.class);
+			throw new BadRequestException(error != null ? String.valueOf(error.get("message")) : e.getStatusText());
+		}
+	}
+
+	/**
+	 * Gets the top stocks of every node at once, and keeps the top ones among them
+	 */
+	@Override
+	public List<StockMoverDTO> getTopStocks(String by, String order, Integer limit) throws BadRequestException, NotFoundException {
+		// the local ranking validates the request before any other node is called
+		List<StockMoverDTO> local = stockService.getTopStocks(by, order, limit);
+		if (StockCluster.isForwarded()) {
+			return local;
+		}
+		String self = stockCluster.self();
+		Map<String, List<StockMoverDTO>> tops = stockCluster.onEveryNode(node -> node.equals(self) ? local :
+				remote(node, () -> stockCluster.restClient().get().uri(node + "/api/stocks/top", builder -> {
+					Optional.ofNullable(by).ifPresent(value -> builder.queryParam("by", value));
+					Optional.ofNullable(order).ifPresent(value -> builder.queryParam("order", value));
+					Optional.ofNullable(limit).ifPresent(value -> builder.queryParam("n", value));
+					return builder.build();
+				}).retrieve().body(new ParameterizedTypeReference<List<StockMoverDTO>>() {
+				})));
+		Function<StockMoverDTO, Double> value = StockServiceImpl.ranking(by) == StockMovers.Ranking.CHANGE ?
+				StockMoverDTO::getChange : StockMoverDTO::getCurrentPrice;
+		Comparator<StockMoverDTO> ranking = StockServiceImpl.ascending(order) ? Comparator.comparing(value) :
+				Comparator.comparing(value).reversed();
+		return tops.values().stream().flatMap(List::stream).sorted(ranking.thenComparing(StockMoverDTO::getId))
+				.limit(limit == null ? StockConstants.TOP_DEFAULT_LIMIT : limit).toList();
+	}
+
+	/**
+	 * Gets the statistics of every node at once, and aggregates them
+	 */
+	@Override
+	public MarketStatsDTO getStats() throws NotFoundException {
+		MarketStatsDTO local = stockService.getStats();
+		if (StockCluster.isForwarded()) {
+			return local;
+		}
+		String self = stockCluster.self();
+		Map<String, MarketStatsDTO> nodes = stockCluster.onEveryNode(node -> node.equals(self) ? local :
+				remote(node, () -> stockCluster.restClient().get().uri(node + "/api/stocks/stats").retrieve().body(MarketStatsDTO.class)));
+		MarketStatsDTO stats = new MarketStatsDTO(0, null, null, null, 0, 0, 0, local.getSessionStart());
+		double priceSum = 0;
+		for (MarketStatsDTO node : nodes.values()) {
+			if (node.getCount() == 0) {
+				continue;
+			}
+			stats.setCount(stats.getCount() + node.getCount());
+			stats.setMinPrice(stats.getMinPrice() == null ? node.getMinPrice() : Math.min(stats.getMinPrice(), node.getMinPrice()));
+			stats.setMaxPrice(stats.getMaxPrice() == null ? node.getMaxPrice() : Math.max(stats.getMaxPrice(), node.getMaxPrice()));
+			priceSum += node.getAveragePrice() * node.getCount();
+			stats.setAdvancing(stats.getAdvancing() + node.getAdvancing());
+			stats.setDeclining(stats.getDeclining() + node.getDeclining());
+			stats.setUnchanged(stats.getUnchanged() + node.getUnchanged());
+		}
+		stats.setAveragePrice(stats.getCount() == 0 ? null : priceSum / stats.getCount());
+		return stats;
+	}
+
+	/**
+	 * Stores the stocks moved to this node by another one
+	 *
+	 * @param stocks now owned by this node
+	 */
+	public void receive(List<StockDTO> stocks) {
+		stocks.forEach(stock -> stockCluster.seen(stock.getId()));
+		stockService.importStocks(stocks);
+	}
+
+	/**
+	 * Moves the stocks this node no longer owns to their owners. A stock is only deleted here once its owner has it, and
+	 * only if it has not been updated meanwhile, in which case it is moved again on the next pass.
+	 */
+	private void rebalance() {
+		for (int pass = 0; pass < REBALANCE_PASSES; pass++) {
+			int pending = 0;
+			int moved = 0;
+			String cursor = null;
+			do {
+				StockPageDTO page;
+				try {
+					page = stockService.listStocks(cursor, StockConstants.PAGE_MAX_LIMIT);
+				} catch (BadRequestException e) {
+					throw new IllegalStateException("Stocks cannot be read", e);
+				}
+				Map<String, List<StockDTO>> foreign = page.getStocks().stream().filter(stock -> !stockCluster.isLocal(stock.getId()))
+						.collect(Collectors.groupingBy(stock -> stockCluster.owner(stock.getId())));
+				for (Map.Entry<String, List<StockDTO>> owned : foreign.entrySet()) {
+					String owner = owned.getKey();
+					try {
+						stockCluster.restClient().post().uri(owner + "/internal/cluster/stocks").contentType(MediaType.APPLICATION_JSON)
+								.body(owned.getValue()).retrieve().toBodilessEntity();
+					} catch (RestClientException e) {
+						log.warn("Stocks cannot be moved to node {}: {}", owner, e.getMessage());
+						return;
+					}
+					pending += owned.getValue().size();
+					moved += stockService.removeStocks(owned.getValue());
+				}
+				cursor = page.getNextCursor();
+			} while (cursor != null);
+			log.info("{} stocks have been moved to other nodes", moved);
+			if (moved == pending) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reads the first page of every node at once
+	 *
+	 * @param cursor   of every node, or null to start from the first stock
+	 * @param pageSize number of stocks per page
+	 * @param pages    that reads a page of a node
+	 * @return pages of every node, ready to be merged
+	 * @throws BadRequestException when the request is not valid
+	 * @throws NotFoundException   when the request is not supported
+	 */
+	private List<NodePages> open(String cursor, int pageSize, PageReader pages) throws BadRequestException, NotFoundException {
+		// the local page validates the request before any other node is called
+		String self = stockCluster.self();
+		StockPageDTO local = pages.read(self, cursor, pageSize);
+		Map<String, StockPageDTO> remote = stockCluster.onEveryNode(node -> {
+			if (node.equals(self)) {
+				return local;
+			}
+			try {
+				return pages.read(node, cursor, pageSize);
+			} catch (BadRequestException | NotFoundException e) {
+				throw new IllegalStateException("Node " + node + " rejected a valid page", e);
+			}
+		});
+		List<NodePages> nodePages = new ArrayList<>(remote.size());
+		remote.forEach((node, first) -> nodePages.add(new NodePages(first, nodeCursor -> pages.read(node, nodeCursor, pageSize))));
+		return nodePages;
+	}
+
+	private StockPageDTO page(String node, String cursor, int pageSize) throws BadRequestException {
+		if (node.equals(stockCluster.self())) {
+			return stockService.listStocks(cursor, pageSize);
+		}
+		return remote(node, () -> stockCluster.restClient().get().uri(node + "/api/stocks/page", builder -> {
+			Optional.ofNullable(cursor).ifPresent(value -> builder.queryParam("cursor", value));
+			return builder.queryParam("limit", pageSize).build();
+		}).accept(MediaType.valueOf(StockConstants.BINARY_MEDIA_TYPE)).retrieve().body(StockPageDTO.class));
+	}
+
+	private StockPageDTO search(String node, String query, String cursor, int pageSize) throws BadRequestException, NotFoundException {
+		if (node.equals(stockCluster.self())) {
+			return stockService.searchStocks(query, cursor, pageSize);
+		}
+		return remote(node, () -> stockCluster.restClient().get().uri(node + "/api/stocks/search", builder -> {
+			builder.queryParam("q", "{q}");
+			Optional.ofNullable(cursor).ifPresent(value -> builder.queryParam("cursor", value));
+			return builder.queryParam("limit", pageSize).build(query);
+		}).accept(MediaType.valueOf(StockConstants.BINARY_MEDIA_TYPE)).retrieve().body(StockPageDTO.class));
+	}
+
+	/**
+	 * Calls another node, reporting that it cannot be reached or it is unavailable as an unavailable service
+	 */
+	private <T> T remote(String node, Supplier<T> call) {
+		try {
+			return stockCluster.call(node, call);
+		} catch (HttpServerErrorException.ServiceUnavailable e) {
+			throw new ServiceUnavailableException("Node " + node + " is not available");
+		}
+	}
+
+	private int importLocal(List<StockDTO> stocks) throws ConflictException {
+		stocks.forEach(stock -> stockCluster.seen(stock.getId()));
+		return stockService.upsertStocks(stocks);
+	}
+
+	private int importRemote(String node, List<StockDTO> stocks) throws ConflictException {
+		StringBuilder body = new StringBuilder();
+		try {
+			for (StockDTO stock : stocks) {
+				body.append(objectMapper.writeValueAsString(stock)).append('\n');
+			}
+			return (int) remote(node, () -> stockCluster.restClient().post().uri(node + "/api/stocks/import")
+					.contentType(MediaType.APPLICATION_NDJSON).body(body.toString()).retrieve().body(StockImportResultDTO.class))
+					.getImported();
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		} catch (HttpClientErrorException.Conflict e) {
+			throw new ConflictException("Stocks have been updated concurrently, retry the import");
+		}
+	}
+
+	private String encodeWatermarks(Map<String, String> watermarks) {
+		try {
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(watermarks));
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes the watermark of every node, checking them all before any node is called
+	 */
+	private Map<String, String> decodeWatermarks(String watermark) throws BadRequestException {
+		if (watermark == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> watermarks;
+		try {
+			watermarks = objectMapper.readValue(Base64.getUrlDecoder().decode(watermark), new TypeReference<Map<String, String>>() {
+			});
+		} catch (IllegalArgumentException | IOException e) {
+			throw new BadRequestException("Invalid cursor");
+		}
+		for (String nodeWatermark : watermarks.values()) {
+			StockCursor.decode(nodeWatermark, 2);
+		}
+		return watermarks;
+	}
+
+	private boolean isLocal(long stockId) {
+		return StockCluster.isForwarded() || stockCluster.isLocal(stockId);
+	}
+
+	private static List<StockDTO> take(Iterator<StockDTO> stocks, int count) {
+		List<StockDTO> taken = new ArrayList<>(count);
+		while (taken.size() < count && stocks.hasNext()) {
+			taken.add(stocks.next());
+		}
+		return taken;
+	}
+
+	/**
+	 * Merges the sorted stocks of every node in a single sorted sequence, reading the next page of a node once its
+	 * current one has been merged
+	 */
+	private static Iterator<StockDTO> merge(List<NodePages> nodePages, Comparator<StockDTO> order) {
+		PriorityQueue<NodePages> heads = new PriorityQueue<>(nodePages.size(), Comparator.comparing(NodePages::head, order));
+		nodePages.stream().filter(NodePages::hasHead).forEach(heads::add);
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public StockDTO next() {
+				NodePages next = heads.poll();
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				StockDTO stock = next.head();
+				if (next.advance()) {
+					heads.add(next);
+				}
+				return stock;
+			}
+		};
+	}
+
+	/**
+	 * Reads a page of stocks of a node
+	 */
+	@FunctionalInterface
+	private interface PageReader {
+		StockPageDTO read(String node, String cursor, int pageSize) throws BadRequestException, NotFoundException;
+	}
+
+	/**
+	 * Reads the next page of a node, following the cursor of the previous one
+	 */
+	@FunctionalInterface
+	private interface NextPage {
+		StockPageDTO read(String cursor) throws BadRequestException, NotFoundException;
+	}
+
+	/**
+	 * Stocks of a node being merged, with the current page and the cursor of the next one
+	 */
+	private static final class NodePages {
+		private final NextPage nextPage;
+		private List<StockDTO> stocks;
+		private String nextCursor;
+		private int index;
+
+		private NodePages(StockPageDTO first, NextPage nextPage) {
+			this.nextPage = nextPage;
+			this.stocks = first.getStocks();
+			this.nextCursor = first.getNextCursor();
+		}
+
+		private boolean hasHead() {
+			return index < stocks.size();
+		}
+
+		private StockDTO head() {
+			return stocks.get(index);
+		}
+
+		/**
+		 * Moves to the next stock of the node, reading its next page when the current one is over
+		 *
+		 * @return true when there is a next stock
+		 */
+		private boolean advance() {
+			index++;
+			if (index == stocks.size() && nextCursor != null) {
+				StockPageDTO page;
+				try {
+					page = nextPage.read(nextCursor);
+				} catch (BadRequestException | NotFoundException e) {
+					throw new IllegalStateException("Next page cannot be read", e);
+				}
+				stocks = page.getStocks();
+				nextCursor = page.getNextCursor();
+				index = 0;
+			}
+			return hasHead();
+		}
+	}
+}
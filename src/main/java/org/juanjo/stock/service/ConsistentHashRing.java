@@ -0,0 +1,111 @@
+package org.juanjo.stock.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable ring of nodes that partitions stock ids by consistent hashing. Every node is placed at many points of the
+ * ring, and a stock belongs to the node of the first point after the hash of its id, so adding a node only moves the
+ * stocks that fall right before its points, and all of them move to the new node. Points are kept in sorted primitive
+ * arrays, so finding the owner of a stock is a binary search that does not allocate.
+ */
+public final class ConsistentHashRing {
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final List<String> nodes;
+	private final int virtualNodes;
+	private final long[] points;
+	private final String[] owners;
+
+	/**
+	 * Builds the ring of the given nodes
+	 *
+	 * @param nodes        base URLs of the nodes
+	 * @param virtualNodes number of points of every node in the ring
+	 */
+	public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+		if (nodes.isEmpty() || virtualNodes < 1) {
+			throw new IllegalArgumentException("A ring needs at least one node and one point per node");
+		}
+		this.nodes = List.copyOf(new TreeSet<>(nodes));
+		this.virtualNodes = virtualNodes;
+		TreeMap<Long, String> ring = new TreeMap<>();
+		for (String node : this.nodes) {
+			for (int i = 0; i < virtualNodes; i++) {
+				// on the rare collision of two points, the lowest node keeps it so every node builds the same ring
+				ring.merge(hash(node + "#" + i), node, (current, other) -> current.compareTo(other) <= 0 ? current : other);
+			}
+		}
+		points = new long[ring.size()];
+		owners = new String[ring.size()];
+		int index = 0;
+		for (Map.Entry<Long, String> point : ring.entrySet()) {
+			points[index] = point.getKey();
+			owners[index++] = point.getValue();
+		}
+	}
+
+	/**
+	 * Gets the node that owns a stock
+	 *
+	 * @param stockId that identify the stock
+	 * @return base URL of the owner node
+	 */
+	public String owner(long stockId) {
+		int index = Arrays.binarySearch(points, mix(stockId));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	/**
+	 * Builds a ring with one more node
+	 *
+	 * @param node base URL of the node to add
+	 * @return new ring, or this one when the node is already part of it
+	 */
+	public ConsistentHashRing with(String node) {
+		if (nodes.contains(node)) {
+			return this;
+		}
+		List<String> extended = new ArrayList<>(nodes);
+		extended.add(node);
+		return new ConsistentHashRing(extended, virtualNodes);
+	}
+
+	/**
+	 * Gets the nodes of the ring
+	 *
+	 * @return base URLs of the nodes, sorted
+	 */
+	public List<String> nodes() {
+		return nodes;
+	}
+
+	/**
+	 * FNV-1a of the UTF-8 bytes, spread with the finalizer of MurmurHash3
+	 */
+	private static long hash(String value) {
+		long hash = FNV_OFFSET;
+		for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, which spreads consecutive ids all over the ring
+	 */
+	private static long mix(long value) {
+		long hash = value;
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
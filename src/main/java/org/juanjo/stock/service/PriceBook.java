@@ -0,0 +1,264 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * In-memory book with the latest state of every stock, indexed by id. Stocks are kept in fixed-size pages of primitive
+ * arrays that are allocated as ids grow. Every slot is published with a sequence lock: a writer takes the slot by moving
+ * its sequence to an odd value and releases it with the next even one, while readers never block and just retry when the
+ * sequence changed during the read.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "stock.price-book.enabled", havingValue = "true")
+@Slf4j
+public class PriceBook {
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+	private static final long EMPTY = 0;
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+	private static final long NO_DATE = Long.MIN_VALUE;
+	private static final long NO_VERSION = Long.MIN_VALUE;
+
+	private final long capacity;
+	private final AtomicReferenceArray<Page> pages;
+	private final AtomicLong maxId = new AtomicLong();
+	private final AtomicInteger size = new AtomicInteger();
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired(required = false)
+	private StockChangeLog stockChangeLog;
+
+	public PriceBook(@Value("${stock.price-book.capacity:16777216}") long capacity) {
+		this.capacity = capacity;
+		this.pages = new AtomicReferenceArray<>((int) ((capacity + PAGE_SIZE - 1) >>> PAGE_SHIFT));
+	}
+
+	/**
+	 * Loads every existing stock from the change log when it is enabled, or from the database otherwise
+	 */
+	@PostConstruct
+	public void load() {
+		if (stockChangeLog != null) {
+			stockChangeLog.restore(this::put);
+			log.info("Price book restored with {} stocks", size.get());
+			return;
+		}
+		long afterId = 0;
+		List<StockDTO> stocks;
+		do {
+			stocks = stockRepository.findPageAfter(afterId, PageRequest.of(0, StockConstants.PAGE_MAX_LIMIT));
+			stocks.forEach(this::put);
+			if (!stocks.isEmpty()) {
+				afterId = stocks.get(stocks.size() - 1).getId();
+			}
+		} while (stocks.size() == StockConstants.PAGE_MAX_LIMIT);
+		log.info("Price book loaded with {} stocks", size.get());
+	}
+
+	/**
+	 * Gets the stock by the {@code stockId} provided
+	 *
+	 * @param stockId that identify the stock
+	 * @return found stock, or null when it is not in the book
+	 */
+	public StockDTO get(long stockId) {
+		Page page = pageOf(stockId);
+		return page == null ? null : read(page, slot(stockId), stockId);
+	}
+
+	/**
+	 * Adds the stock to the book, or replaces it when it already exists and the stock is not older than the one in the
+	 * book, by version and then by last update, so a stale copy published late does not overwrite a newer one
+	 *
+	 * @param stock to add
+	 * @throws IllegalArgumentException when the id of the stock exceeds the capacity of the book
+	 */
+	public void put(StockDTO stock) {
+		long stockId = stock.getId();
+		Page page = pageForWrite(stockId);
+		int slot = slot(stockId);
+		long sequence = lock(page, slot);
+		if (sequence != EMPTY && isNewer(page, slot, stock)) {
+			// nothing was written, so readers that saw the sequence before the lock are still consistent
+			page.sequences.set(slot, sequence);
+			return;
+		}
+		write(page, slot, stock.getName(), stock.getCurrentPrice(), stock.getLastUpdate(), stock.getVersion());
+		page.sequences.set(slot, sequence + 2);
+		if (sequence == EMPTY) {
+			size.incrementAndGet();
+			maxId.accumulateAndGet(stockId, Math::max);
+		}
+	}
+
+	/**
+	 * Gets the stocks with an id greater than {@code afterId}, in ascending id order
+	 *
+	 * @param afterId id of the last stock already returned
+	 * @param limit   maximum number of stocks to return
+	 * @return stocks after the given id
+	 */
+	public List<StockDTO> page(long afterId, int limit) {
+		List<StockDTO> stocks = new ArrayList<>(Math.min(limit, size.get()));
+		scan(afterId, stocks::add, limit);
+		return stocks;
+	}
+
+	/**
+	 * Gives every stock of the book, in ascending id order, to the {@code consumer}
+	 *
+	 * @param consumer that receives every stock
+	 */
+	public void forEach(Consumer<StockDTO> consumer) {
+		scan(0, consumer, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Gets the number of stocks in the book
+	 *
+	 * @return number of stocks
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	private void scan(long afterId, Consumer<StockDTO> consumer, int limit) {
+		long lastId = maxId.get();
+		int found = 0;
+		long stockId = Math.max(afterId + 1, 0);
+		while (stockId <= lastId && found < limit) {
+			Page page = pageOf(stockId);
+			if (page == null) {
+				stockId = ((stockId >>> PAGE_SHIFT) + 1) << PAGE_SHIFT;
+				continue;
+			}
+			StockDTO stock = read(page, slot(stockId), stockId);
+			if (stock != null) {
+				consumer.accept(stock);
+				found++;
+			}
+			stockId++;
+		}
+	}
+
+	private Page pageOf(long stockId) {
+		if (stockId < 0 || stockId >= capacity) {
+			return null;
+		}
+		return pages.get((int) (stockId >>> PAGE_SHIFT));
+	}
+
+	private Page pageForWrite(long stockId) {
+		if (stockId < 0 || stockId >= capacity) {
+			throw new IllegalArgumentException("Stock id " + stockId + " exceeds the price book capacity of " + capacity);
+		}
+		int index = (int) (stockId >>> PAGE_SHIFT);
+		Page page = pages.get(index);
+		if (page == null) {
+			pages.compareAndSet(index, null, new Page());
+			page = pages.get(index);
+		}
+		return page;
+	}
+
+	private static int slot(long stockId) {
+		return (int) (stockId & PAGE_MASK);
+	}
+
+	private static long lock(Page page, int slot) {
+		while (true) {
+			long sequence = page.sequences.get(slot);
+			if ((sequence & 1) == 0 && page.sequences.compareAndSet(slot, sequence, sequence + 1)) {
+				return sequence;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private static void write(Page page, int slot, String name, double currentPrice, LocalDateTime lastUpdate, Long version) {
+		page.names.set(slot, name);
+		page.prices.set(slot, Double.doubleToRawLongBits(currentPrice));
+		page.lastUpdates.set(slot, toEpochNanos(lastUpdate));
+		page.versions.set(slot, version == null ? NO_VERSION : version);
+	}
+
+	/**
+	 * Tells whether the stock in a locked slot is newer than the candidate, with the rule of
+	 * {@link StockCache#isNewer(StockDTO, StockDTO)} on the primitive values of the slot
+	 */
+	private static boolean isNewer(Page page, int slot, StockDTO candidate) {
+		long version = page.versions.get(slot);
+		if (version != NO_VERSION && candidate.getVersion() != null && version != candidate.getVersion()) {
+			return version > candidate.getVersion();
+		}
+		long lastUpdate = page.lastUpdates.get(slot);
+		return lastUpdate != NO_DATE && candidate.getLastUpdate() != null && lastUpdate > toEpochNanos(candidate.getLastUpdate());
+	}
+
+	private static StockDTO read(Page page, int slot, long stockId) {
+		while (true) {
+			long sequence = page.sequences.get(slot);
+			if (sequence == EMPTY) {
+				return null;
+			}
+			if ((sequence & 1) == 0) {
+				String name = page.names.get(slot);
+				long price = page.prices.get(slot);
+				long lastUpdate = page.lastUpdates.get(slot);
+				long version = page.versions.get(slot);
+				if (page.sequences.get(slot) == sequence) {
+					return new StockDTO(stockId, name, Double.longBitsToDouble(price), toDateTime(lastUpdate),
+							version == NO_VERSION ? null : version);
+				}
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private static long toEpochNanos(LocalDateTime dateTime) {
+		return dateTime == null ? NO_DATE : dateTime.toEpochSecond(ZoneOffset.UTC) * NANOS_PER_SECOND + dateTime.getNano();
+	}
+
+	private static LocalDateTime toDateTime(long epochNanos) {
+		if (epochNanos == NO_DATE) {
+			return null;
+		}
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND), (int) Math.floorMod(epochNanos, NANOS_PER_SECOND),
+				ZoneOffset.UTC);
+	}
+
+	/**
+	 * Fixed-size block of slots. Sequences are even when the slot is stable, odd while it is being written, and
+	 * zero when no stock has been written yet.
+	 */
+	private static final class Page {
+		private final AtomicLongArray sequences = new AtomicLongArray(PAGE_SIZE);
+		private final AtomicLongArray prices = new AtomicLongArray(PAGE_SIZE);
+		private final AtomicLongArray lastUpdates = new AtomicLongArray(PAGE_SIZE);
+		private final AtomicLongArray versions = new AtomicLongArray(PAGE_SIZE);
+		private final AtomicReferenceArray<String> names = new AtomicReferenceArray<>(PAGE_SIZE);
+	}
+}
@@ -0,0 +1,209 @@
+package org.juanjo.stock.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Data;
+import org.juanjo.stock.dao.PriceTick;
+import org.juanjo.stock.dto.CandleDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.persistence.PriceTickRepository;
+import org.juanjo.stock.utils.CandleInterval;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Append-only history of stock prices, aggregated in OHLC candles. Candles are computed in blocks of consecutive
+ * intervals. Blocks that ended before the settle time are kept in a bounded cache and only the latest blocks are
+ * aggregated from the ticks again on every request. A late tick committed into a settled block, like a retried
+ * write-behind batch, evicts that block.
+ */
+@Component
+public class PriceHistory {
+	@Autowired
+	private PriceTickRepository priceTickRepository;
+
+	private final Cache<BlockKey, List<CandleDTO>> completedBlocks;
+	private final Duration settleTime;
+	private final AtomicLong lateTicks = new AtomicLong();
+
+	public PriceHistory(@Value("${stock.history.cache-size:1000000}") long cacheSize, @Value("${stock.history.settle-time:10s}") Duration settleTime) {
+		this.settleTime = settleTime;
+		// weighted by candles, and empty blocks still cost their entry
+		this.completedBlocks = Caffeine.newBuilder()
+				.maximumWeight(cacheSize)
+				.weigher((BlockKey key, List<CandleDTO> candles) -> candles.size() + 1)
+				.build();
+	}
+
+	/**
+	 * Appends a price to the history of a stock, in the current transaction
+	 *
+	 * @param stockId that identify the stock
+	 * @param price   new price of the stock
+	 * @param time    when the price was set
+	 */
+	public void record(Long stockId, Double price, LocalDateTime time) {
+		priceTickRepository.save(new PriceTick(stockId, price, time));
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					evictSettled(stockId, time);
+				}
+			});
+		} else {
+			evictSettled(stockId, time);
+		}
+	}
+
+	/**
+	 * Evicts the cached blocks of every interval that already settled before a tick of them was committed
+	 *
+	 * @param stockId that identify the stock
+	 * @param time    of the committed tick
+	 */
+	private void evictSettled(Long stockId, LocalDateTime time) {
+		long settled = toEpochSecond(LocalDateTime.now().minus(settleTime));
+		long tick = toEpochSecond(time);
+		List<BlockKey> late = new ArrayList<>();
+		for (CandleInterval interval : CandleInterval.values()) {
+			long blockSpan = interval.getDuration().getSeconds() * StockConstants.HISTORY_BLOCK_CANDLES;
+			long blockStart = Math.floorDiv(tick, blockSpan) * blockSpan;
+			if (blockStart + blockSpan <= settled) {
+				late.add(new BlockKey(stockId, interval, blockStart));
+			}
+		}
+		if (!late.isEmpty()) {
+			lateTicks.incrementAndGet();
+			completedBlocks.invalidateAll(late);
+		}
+	}
+
+	/**
+	 * Gets the candles of a stock between {@code from} and {@code to}, widened to whole intervals. Intervals without
+	 * ticks have no candle.
+	 *
+	 * @param stockId  that identify the stock
+	 * @param from     start of the history
+	 * @param to       end of the history
+	 * @param interval covered by every candle
+	 * @return candles in time order
+	 * @throws BadRequestException when more candles than allowed would be returned
+	 */
+	@Transactional(readOnly = true)
+	public List<CandleDTO> getCandles(Long stockId, LocalDateTime from, LocalDateTime to, CandleInterval interval)
+			throws BadRequestException {
+		long step = interval.getDuration().getSeconds();
+		long start = Math.floorDiv(toEpochSecond(from), step) * step;
+		long end = -Math.floorDiv(-toEpochSecond(to), step) * step;
+		if ((end - start) / step > StockConstants.HISTORY_MAX_CANDLES) {
+			throw new BadRequestException("At most " + StockConstants.HISTORY_MAX_CANDLES + " intervals can be requested");
+		}
+		long blockSpan = step * StockConstants.HISTORY_BLOCK_CANDLES;
+		long settled = toEpochSecond(LocalDateTime.now().minus(settleTime));
+		List<BlockKey> completed = new ArrayList<>();
+		long blockStart = Math.floorDiv(start, blockSpan) * blockSpan;
+		for (; blockStart < end && blockStart + blockSpan <= settled; blockStart += blockSpan) {
+			completed.add(new BlockKey(stockId, interval, blockStart));
+		}
+		List<CandleDTO> candles = new ArrayList<>();
+		long evictions = lateTicks.get();
+		Map<BlockKey, List<CandleDTO>> blocks = completedBlocks.getAll(completed, this::aggregateBlocks);
+		if (lateTicks.get() != evictions) {
+			// a late tick may have been committed after these blocks were read
+			completedBlocks.invalidateAll(completed);
+		}
+		completed.forEach(key -> candles.addAll(blocks.get(key)));
+		if (blockStart < end) {
+			candles.addAll(aggregate(stockId, step, blockStart, end));
+		}
+		candles.removeIf(candle -> toEpochSecond(candle.getTime()) < start || toEpochSecond(candle.getTime()) >= end);
+		return candles;
+	}
+
+	/**
+	 * Aggregates the missing blocks of the cache with a single read of their ticks
+	 *
+	 * @param keys of the blocks, all of them of the same stock and interval
+	 * @return candles of every block
+	 */
+	private Map<BlockKey, List<CandleDTO>> aggregateBlocks(Iterable<? extends BlockKey> keys) {
+		Map<BlockKey, List<CandleDTO>> blocks = new HashMap<>();
+		keys.forEach(key -> blocks.put(key, new ArrayList<>()));
+		BlockKey first = blocks.keySet().iterator().next();
+		long step = first.getInterval().getDuration().getSeconds();
+		long blockSpan = step * StockConstants.HISTORY_BLOCK_CANDLES;
+		long start = blocks.keySet().stream().mapToLong(BlockKey::getStart).min().getAsLong();
+		long end = blocks.keySet().stream().mapToLong(BlockKey::getStart).max().getAsLong() + blockSpan;
+		for (CandleDTO candle : aggregate(first.getStockId(), step, start, end)) {
+			long candleBlock = Math.floorDiv(toEpochSecond(candle.getTime()), blockSpan) * blockSpan;
+			List<CandleDTO> block = blocks.get(new BlockKey(first.getStockId(), first.getInterval(), candleBlock));
+			if (block != null) {
+				block.add(candle);
+			}
+		}
+		return blocks;
+	}
+
+	/**
+	 * Aggregates the ticks of a stock in candles
+	 *
+	 * @param stockId that identify the stock
+	 * @param step    seconds covered by every candle
+	 * @param start   epoch second of the first candle
+	 * @param end     epoch second after the last candle
+	 * @return candles in time order
+	 */
+	private List<CandleDTO> aggregate(Long stockId, long step, long start, long end) {
+		List<CandleDTO> candles = new ArrayList<>();
+		CandleDTO candle = null;
+		long candleStart = Long.MIN_VALUE;
+		try (Stream<PriceTick> ticks = priceTickRepository.streamTicks(stockId, toLocalDateTime(start), toLocalDateTime(end))) {
+			Iterator<PriceTick> iterator = ticks.iterator();
+			while (iterator.hasNext()) {
+				PriceTick tick = iterator.next();
+				long tickStart = Math.floorDiv(toEpochSecond(tick.getTickTime()), step) * step;
+				if (candle == null || tickStart != candleStart) {
+					candleStart = tickStart;
+					candle = new CandleDTO(toLocalDateTime(tickStart), tick.getPrice(), tick.getPrice(), tick.getPrice(), tick.getPrice(), 0);
+					candles.add(candle);
+				}
+				candle.setHigh(Math.max(candle.getHigh(), tick.getPrice()));
+				candle.setLow(Math.min(candle.getLow(), tick.getPrice()));
+				candle.setClose(tick.getPrice());
+				candle.setTicks(candle.getTicks() + 1);
+			}
+		}
+		return candles;
+	}
+
+	private static long toEpochSecond(LocalDateTime time) {
+		return time.toEpochSecond(ZoneOffset.UTC);
+	}
+
+	private static LocalDateTime toLocalDateTime(long epochSecond) {
+		return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Block of candles of a stock, identified by the epoch second it starts
+	 */
+	@Data
+	private static class BlockKey {
+		private final Long stockId;
+		private final CandleInterval interval;
+		private final long start;
+	}
+}
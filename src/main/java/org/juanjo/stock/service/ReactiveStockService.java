@@ -0,0 +1,40 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.NotFoundException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking service to read the stock. Stocks are read from the database through a reactive driver, so no thread is
+ * held while a query is running.
+ */
+public interface ReactiveStockService {
+
+	/**
+	 * Gets the stock by the {@code stockId} provided.
+	 *
+	 * @param stockId that identify the stock
+	 * @return found stock, or an error with {@link NotFoundException} when stock is not found
+	 */
+	Mono<StockDTO> getById(Long stockId);
+
+	/**
+	 * Streams the full list of existing stocks, in ascending id order
+	 *
+	 * @return every stock
+	 */
+	Flux<StockDTO> listStocks();
+
+	/**
+	 * Retrieves one page of stocks, in ascending id order, starting after the given {@code cursor}
+	 *
+	 * @param cursor opaque cursor returned with the previous page, or null to get the first page
+	 * @param limit  maximum number of stocks to return, or null to use the default one
+	 * @return page of stocks with the cursor of the next page, or an error with {@link BadRequestException} when the
+	 * cursor or the limit are not valid
+	 */
+	Mono<StockPageDTO> listStocks(String cursor, Integer limit);
+}
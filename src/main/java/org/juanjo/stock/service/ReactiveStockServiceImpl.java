@@ -0,0 +1,154 @@
+package org.juanjo.stock.service;
+
+import io.r2dbc.spi.Closeable;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Readable;
+import io.r2dbc.spi.Result;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.service.StockWriteBehind.PendingUpdate;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockCursor;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads the stocks with the R2DBC driver of the database, on the same database the JPA repositories use. Like
+ * {@link StockServiceImpl}, stocks are served from the price book or the cache whenever possible. The connection
+ * factory is not exposed as a bean, so the JDBC data source keeps being configured for the rest of the application.
+ */
+@Service
+@ConditionalOnProperty(name = "stock.reactive.enabled", havingValue = "true")
+@Slf4j
+public class ReactiveStockServiceImpl implements ReactiveStockService {
+	private static final String SELECT_STOCK = "SELECT id, name, current_price, last_update, version FROM stock ";
+
+	private final ConnectionFactory connectionFactory;
+
+	@Autowired
+	private StockCache stockCache;
+	@Autowired(required = false)
+	private PriceBook priceBook;
+	@Autowired(required = false)
+	private StockWriteBehind stockWriteBehind;
+
+	public ReactiveStockServiceImpl(@Value("${stock.reactive.url}") String url,
+			@Value("${spring.datasource.username:}") String username, @Value("${spring.datasource.password:}") String password) {
+		this.connectionFactory = ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+				.option(ConnectionFactoryOptions.USER, username)
+				.option(ConnectionFactoryOptions.PASSWORD, password)
+				.build());
+	}
+
+	@Override
+	public Mono<StockDTO> getById(Long stockId) {
+		if (priceBook != null) {
+			return Mono.justOrEmpty(priceBook.get(stockId)).switchIfEmpty(notFound(stockId));
+		}
+		StockDTO cached = stockCache.get(stockId);
+		if (cached != null) {
+			return Mono.just(cached);
+		}
+		return query(connection -> connection.createStatement(SELECT_STOCK + "WHERE id = $1").bind(0, stockId).execute())
+				.next()
+				.map(this::withPendingUpdate)
+				.doOnNext(stockCache::put)
+				.switchIfEmpty(notFound(stockId));
+	}
+
+	@Override
+	public Flux<StockDTO> listStocks() {
+		if (priceBook != null) {
+			return Flux.create(sink -> {
+				priceBook.forEach(sink::next);
+				sink.complete();
+			});
+		}
+		return query(connection -> connection.createStatement(SELECT_STOCK + "ORDER BY id")
+				.fetchSize(Integer.parseInt(StockConstants.STREAM_FETCH_SIZE)).execute())
+				.map(this::withPendingUpdate);
+	}
+
+	@Override
+	public Mono<StockPageDTO> listStocks(String cursor, Integer limit) {
+		int pageSize;
+		long afterId;
+		try {
+			pageSize = StockServiceImpl.pageSize(limit);
+			afterId = cursor == null ? 0 : StockCursor.decode(cursor);
+		} catch (BadRequestException e) {
+			return Mono.error(e);
+		}
+		// one extra row tells whether there is a next page without a count query
+		Mono<List<StockDTO>> stocks = priceBook != null ? Mono.fromSupplier(() -> priceBook.page(afterId, pageSize + 1)) :
+				query(connection -> connection.createStatement(SELECT_STOCK + "WHERE id > $1 ORDER BY id LIMIT $2")
+						.bind(0, afterId).bind(1, pageSize + 1).execute()).map(this::withPendingUpdate).collectList();
+		return stocks.map(page -> {
+			if (page.size() <= pageSize) {
+				return new StockPageDTO(page, null);
+			}
+			List<StockDTO> result = page.subList(0, pageSize);
+			return new StockPageDTO(result, StockCursor.encode(result.get(pageSize - 1).getId()));
+		});
+	}
+
+	/**
+	 * Closes the connections of the pool, if any
+	 */
+	@PreDestroy
+	public void close() {
+		if (connectionFactory instanceof Closeable closeable) {
+			Mono.from(closeable.close()).block();
+		}
+	}
+
+	/**
+	 * Runs a query on a connection that is released once the stocks are consumed
+	 *
+	 * @param statement that runs the query on the connection
+	 * @return stocks found
+	 */
+	private Flux<StockDTO> query(Function<Connection, Publisher<? extends Result>> statement) {
+		return Flux.usingWhen(connectionFactory.create(),
+				connection -> Flux.from(statement.apply(connection)).flatMap(result -> result.map(ReactiveStockServiceImpl::toStockDTO)),
+				Connection::close);
+	}
+
+	private StockDTO withPendingUpdate(StockDTO stock) {
+		PendingUpdate pendingUpdate = stockWriteBehind != null ? stockWriteBehind.get(stock.getId()) : null;
+		if (pendingUpdate == null) {
+			return stock;
+		}
+		// the database lags behind the queue, which holds the latest state
+		String name = pendingUpdate.getName() != null ? pendingUpdate.getName() : stock.getName();
+		return new StockDTO(stock.getId(), name, pendingUpdate.getCurrentPrice(), pendingUpdate.getLastUpdate(), stock.getVersion());
+	}
+
+	private static <T> Mono<T> notFound(Long stockId) {
+		return Mono.defer(() -> {
+			log.debug("Stock id {} not found", stockId);
+			return Mono.error(new NotFoundException());
+		});
+	}
+
+	private static StockDTO toStockDTO(Readable row) {
+		return new StockDTO(row.get("id", Long.class), row.get("name", String.class), row.get("current_price", Double.class),
+				row.get("last_update", LocalDateTime.class), row.get("version", Long.class));
+	}
+}
@@ -0,0 +1,259 @@
+package org.juanjo.stock.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control of the requests, which keeps the latency bounded under overload by rejecting the excess at once
+ * instead of queueing it. Every client has a token bucket that limits its rate of requests, and the requests of all
+ * clients share a concurrency limit.
+ * <p>
+ * The limit adapts to the measured latency with a gradient: the average latency of every window of requests is
+ * compared with the long-term average, and the limit shrinks as soon as requests queue and their latency grows, and
+ * grows again while it stays low. Each priority may only take a share of the limit, so bulk reads are shed first and
+ * writes last.
+ */
+@Component
+@ConditionalOnProperty(name = "stock.admission.enabled", havingValue = "true")
+@Slf4j
+public class StockAdmission implements MeterBinder {
+	private static final int MAX_CLIENTS = 100_000;
+	/**
+	 * Ratio over the long-term latency that is not taken as queueing
+	 */
+	private static final double TOLERANCE = 1.5;
+	/**
+	 * Weight of every new limit, to smooth the changes from one window to the next
+	 */
+	private static final double SMOOTHING = 0.2;
+	/**
+	 * Weight of the latency of every window in the long-term average, which follows about the last hundred windows
+	 */
+	private static final double LONG_RTT_WEIGHT = 0.01;
+
+	private final Cache<String, TokenBucket> buckets;
+	private final double clientRate;
+	private final double clientBurst;
+	private final double minLimit;
+	private final double maxLimit;
+	private final long windowNanos;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+	private final LongAdder windowRtt = new LongAdder();
+	private final LongAdder windowCount = new LongAdder();
+	private final ReentrantLock update = new ReentrantLock();
+	private final Map<Priority, LongAdder> admitted = new EnumMap<>(Priority.class);
+	private final Map<Priority, LongAdder> shed = new EnumMap<>(Priority.class);
+	private final LongAdder throttled = new LongAdder();
+	private volatile double limit;
+	private volatile long windowEnd;
+	private double longRtt;
+
+	public StockAdmission(@Value("${stock.admission.client-rate:500}") double clientRate,
+			@Value("${stock.admission.client-burst:1000}") double clientBurst,
+			@Value("${stock.admission.initial-limit:100}") int initialLimit, @Value("${stock.admission.min-limit:10}") int minLimit,
+			@Value("${stock.admission.max-limit:1000}") int maxLimit, @Value("${stock.admission.window:100ms}") Duration window) {
+		this.buckets = Caffeine.newBuilder().maximumSize(MAX_CLIENTS).expireAfterAccess(Duration.ofMinutes(1)).build();
+		this.clientRate = clientRate;
+		this.clientBurst = clientBurst;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+		this.windowNanos = window.toNanos();
+		this.windowEnd = System.nanoTime() + windowNanos;
+		for (Priority priority : Priority.values()) {
+			admitted.put(priority, new LongAdder());
+			shed.put(priority, new LongAdder());
+		}
+	}
+
+	/**
+	 * Takes a token from the bucket of the client
+	 *
+	 * @param client that sends the request
+	 * @return 0 when the request is allowed, or the nanoseconds until the client may send it again
+	 */
+	public long throttle(String client) {
+		long wait = buckets.get(client, key -> new TokenBucket(clientBurst)).take(System.nanoTime(), clientRate, clientBurst);
+		if (wait > 0) {
+			throttled.increment();
+		}
+		return wait;
+	}
+
+	/**
+	 * Admits a request if its priority has not taken its share of the concurrency limit. Every admitted request must
+	 * be released once it is complete.
+	 *
+	 * @param priority of the request
+	 * @return whether the request is admitted
+	 */
+	public boolean acquire(Priority priority) {
+		int allowed = Math.max(1, (int) (limit * priority.share));
+		while (true) {
+			int current = inFlight.get();
+			if (current >= allowed) {
+				shed.get(priority).increment();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				maxInFlight.accumulateAndGet(current + 1, Math::max);
+				admitted.get(priority).increment();
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases an admitted request and samples its latency, updating the limit at the end of every window
+	 *
+	 * @param startNanos {@link System#nanoTime()} when the request was admitted
+	 */
+	public void release(long startNanos) {
+		long now = System.nanoTime();
+		inFlight.decrementAndGet();
+		sample(now, now - startNanos);
+	}
+
+	/**
+	 * Releases an admitted request without sampling its latency, for requests that take as long as the data they
+	 * carry, such as imports and exports, whose latency says nothing about the load and would collapse the limit
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	private void sample(long now, long rtt) {
+		windowRtt.add(rtt);
+		windowCount.increment();
+		// a single thread updates the limit, the rest just leave their sample for the next window
+		if (now - windowEnd >= 0 && update.tryLock()) {
+			try {
+				if (now - windowEnd >= 0) {
+					windowEnd = now + windowNanos;
+					updateLimit();
+				}
+			} finally {
+				update.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Gets the current concurrency limit
+	 *
+	 * @return maximum number of requests in flight
+	 */
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	/**
+	 * Gets the number of admitted requests not released yet
+	 *
+	 * @return requests in flight
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("stock.admission.limit", this, StockAdmission::getLimit).description("Concurrency limit of the requests")
+				.register(registry);
+		Gauge.builder("stock.admission.in-flight", this, StockAdmission::getInFlight).description("Requests in flight")
+				.register(registry);
+		for (Priority priority : Priority.values()) {
+			FunctionCounter.builder("stock.admission", admitted.get(priority), LongAdder::sum).description("Requests admitted or rejected")
+					.tag("result", "admitted").tag("priority", priority.tag).register(registry);
+			FunctionCounter.builder("stock.admission", shed.get(priority), LongAdder::sum).description("Requests admitted or rejected")
+					.tag("result", "shed").tag("priority", priority.tag).register(registry);
+		}
+		FunctionCounter.builder("stock.admission.throttled", throttled, LongAdder::sum)
+				.description("Requests rejected by the rate limit of their client").register(registry);
+	}
+
+	private void updateLimit() {
+		long count = windowCount.sumThenReset();
+		long rtt = windowRtt.sumThenReset();
+		int peak = maxInFlight.getAndSet(inFlight.get());
+		if (count == 0) {
+			return;
+		}
+		double shortRtt = (double) rtt / count;
+		// the long-term latency drifts up under sustained load, so it follows the short one back down at once
+		longRtt = longRtt == 0 ? shortRtt : Math.min(longRtt * (1 - LONG_RTT_WEIGHT) + shortRtt * LONG_RTT_WEIGHT, shortRtt * 2);
+		if (peak < limit / 2) {
+			// the limit is not what bounds the requests, so their latency says nothing about it
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+		double newLimit = limit * gradient + Math.sqrt(limit);
+		newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+		limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		log.trace("Admission limit {} for a latency of {} ns over {} ns", (int) limit, (long) shortRtt, (long) longRtt);
+	}
+
+	/**
+	 * Priorities of the requests, by the share of the concurrency limit they may take
+	 */
+	public enum Priority {
+		/**
+		 * Requests that create or update stocks
+		 */
+		WRITE("write", 1.0),
+		/**
+		 * Requests that read a bounded number of stocks
+		 */
+		READ("read", 0.9),
+		/**
+		 * Requests that read every stock
+		 */
+		BULK("bulk", 0.5);
+
+		private final String tag;
+		private final double share;
+
+		Priority(String tag, double share) {
+			this.tag = tag;
+			this.share = share;
+		}
+	}
+
+	/**
+	 * Tokens of a client, refilled at a fixed rate up to the burst size
+	 */
+	private static final class TokenBucket {
+		private double tokens;
+		private long refilledAt = System.nanoTime();
+
+		private TokenBucket(double tokens) {
+			this.tokens = tokens;
+		}
+
+		private synchronized long take(long now, double rate, double burst) {
+			tokens = Math.min(burst, tokens + (now - refilledAt) * rate / 1e9);
+			refilledAt = now;
+			if (tokens >= 1) {
+				tokens--;
+				return 0;
+			}
+			return (long) Math.ceil((1 - tokens) * 1e9 / rate);
+		}
+	}
+}
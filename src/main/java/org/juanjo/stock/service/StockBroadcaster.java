@@ -0,0 +1,136 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans out stock changes to the subscribed connections. Publishing only buffers the change in every matching
+ * subscription, and a pool of dispatch threads sends the buffers, so a slow connection never delays the writers nor the
+ * rest of the connections. Connections whose buffer fills up are closed.
+ */
+@Component
+@Slf4j
+public class StockBroadcaster {
+	private final Set<StockSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+	private final int bufferSize;
+	private final ExecutorService dispatcher;
+
+	public StockBroadcaster(@Value("${stock.stream.buffer-size:10000}") int bufferSize,
+			@Value("${stock.stream.dispatch-threads:4}") int dispatchThreads) {
+		this.bufferSize = bufferSize;
+		AtomicInteger threads = new AtomicInteger();
+		this.dispatcher = Executors.newFixedThreadPool(dispatchThreads,
+				runnable -> new Thread(runnable, "stock-stream-" + threads.incrementAndGet()));
+	}
+
+	/**
+	 * Subscribes a sink to the changes of the given stocks
+	 *
+	 * @param stockIds to receive the changes of, or null or empty to receive every change
+	 * @param sink     where the changes are sent
+	 * @return subscription, to cancel it when the connection is closed
+	 */
+	public StockSubscription subscribe(Set<Long> stockIds, StockSink sink) {
+		StockSubscription subscription = new StockSubscription(stockIds, sink, bufferSize);
+		subscriptions.add(subscription);
+		log.debug("Stock subscription added, {} active", subscriptions.size());
+		return subscription;
+	}
+
+	/**
+	 * Cancels a subscription. Changes still buffered are discarded.
+	 *
+	 * @param subscription to cancel
+	 */
+	public void unsubscribe(StockSubscription subscription) {
+		if (subscriptions.remove(subscription)) {
+			log.debug("Stock subscription removed, {} active", subscriptions.size());
+		}
+	}
+
+	/**
+	 * Publishes the new state of a stock to every subscription interested in it
+	 *
+	 * @param stock changed
+	 */
+	public void publish(StockDTO stock) {
+		for (StockSubscription subscription : subscriptions) {
+			if (!subscription.accepts(stock.getId())) {
+				continue;
+			}
+			try {
+				if (subscription.offer(stock)) {
+					dispatcher.execute(() -> deliver(subscription));
+				}
+			} catch (IllegalStateException e) {
+				log.warn("Closing stock subscription that cannot keep up with the changes");
+				close(subscription);
+			} catch (RejectedExecutionException e) {
+				// shutting down, every subscription is closed by shutdown()
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of active subscriptions
+	 *
+	 * @return number of subscriptions
+	 */
+	public int size() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Closes every subscription and stops the dispatch threads
+	 */
+	@PreDestroy
+	public void shutdown() {
+		dispatcher.shutdownNow();
+		subscriptions.forEach(this::close);
+	}
+
+	/**
+	 * Sends the buffered changes of a subscription, and schedules it again so changes buffered meanwhile are sent too
+	 *
+	 * @param subscription to deliver
+	 */
+	private void deliver(StockSubscription subscription) {
+		List<StockDTO> stocks = subscription.drain();
+		if (stocks.isEmpty() || !subscriptions.contains(subscription)) {
+			return;
+		}
+		try {
+			subscription.getSink().send(stocks);
+		} catch (IOException | RuntimeException e) {
+			log.debug("Stock subscription connection is broken", e);
+			unsubscribe(subscription);
+			return;
+		}
+		try {
+			dispatcher.execute(() -> deliver(subscription));
+		} catch (RejectedExecutionException e) {
+			// shutting down
+		}
+	}
+
+	private void close(StockSubscription subscription) {
+		unsubscribe(subscription);
+		try {
+			subscription.getSink().close();
+		} catch (RuntimeException e) {
+			log.debug("Stock subscription connection could not be closed", e);
+		}
+	}
+}
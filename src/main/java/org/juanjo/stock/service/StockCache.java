@@ -0,0 +1,121 @@
+package org.juanjo.stock.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.juanjo.stock.dto.CacheStatsDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * In-process cache of stocks by id. It is bounded by the estimated memory of its entries and evicts them with the
+ * W-TinyLFU policy of Caffeine, besides expiring them after a fixed time since they were written. Its hits, misses and
+ * evictions are published as metrics of the {@code stocks} cache.
+ */
+@Component
+public class StockCache implements MeterBinder {
+	/**
+	 * Estimated bytes of a cached stock without its name: DTO, boxed fields, date and cache node
+	 */
+	private static final int ENTRY_OVERHEAD = 160;
+
+	private final Cache<Long, StockDTO> cache;
+
+	public StockCache(@Value("${stock.cache.maximum-size:64MB}") DataSize maximumSize,
+			@Value("${stock.cache.expire-after-write:10m}") Duration expireAfterWrite) {
+		this.cache = Caffeine.newBuilder().maximumWeight(maximumSize.toBytes())
+				.weigher((Long stockId, StockDTO stock) -> ENTRY_OVERHEAD + 2 * stock.getName().length())
+				.expireAfterWrite(expireAfterWrite).recordStats().build();
+	}
+
+	/**
+	 * Gets the cached stock
+	 *
+	 * @param stockId that identify the stock
+	 * @return cached stock, or null when it is not cached
+	 */
+	public StockDTO get(Long stockId) {
+		return cache.getIfPresent(stockId);
+	}
+
+	/**
+	 * Caches the given stock unless a newer version of it is already cached. Readers and writers may race to cache the
+	 * same stock, and writers may publish in a different order than they commit, so comparing the versions keeps a stale
+	 * read or write from replacing a fresher one.
+	 *
+	 * @param stock to cache
+	 */
+	public void put(StockDTO stock) {
+		cache.asMap().merge(stock.getId(), stock, (cached, candidate) -> isNewer(cached, candidate) ? cached : candidate);
+	}
+
+	/**
+	 * Removes the stock from the cache
+	 *
+	 * @param stockId that identify the stock
+	 */
+	public void invalidate(Long stockId) {
+		cache.invalidate(stockId);
+	}
+
+	/**
+	 * Gets the usage counters of the cache
+	 *
+	 * @return cache statistics
+	 */
+	public CacheStatsDTO stats() {
+		CacheStats stats = cache.stats();
+		long weight = cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L);
+		return new CacheStatsDTO(cache.estimatedSize(), weight, stats.hitCount(), stats.missCount(), stats.hitRate(),
+				stats.evictionCount(), stats.evictionWeight());
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, cache, "stocks");
+	}
+
+	/**
+	 * Runs the pending maintenance of the cache, such as evictions, which is otherwise done asynchronously
+	 */
+	void cleanUp() {
+		cache.cleanUp();
+	}
+
+	/**
+	 * Tells whether a stock is newer than another copy of it. The version decides, as the last update is taken before
+	 * the row is locked and may not follow the order of the commits. Updates queued for write-behind keep the version
+	 * stored, so the last update only decides between equal versions.
+	 *
+	 * @param current   copy of the stock already kept
+	 * @param candidate copy of the stock to keep instead
+	 * @return whether the current copy is newer than the candidate
+	 */
+	static boolean isNewer(StockDTO current, StockDTO candidate) {
+		return isNewer(current.getVersion(), current.getLastUpdate(), candidate.getVersion(), candidate.getLastUpdate());
+	}
+
+	/**
+	 * Tells whether a stock is newer than another copy of it, by the version and last update of both copies
+	 *
+	 * @param version             of the copy already kept, or null when unknown
+	 * @param lastUpdate          of the copy already kept, or null when unknown
+	 * @param candidateVersion    of the copy to keep instead, or null when unknown
+	 * @param candidateLastUpdate of the copy to keep instead, or null when unknown
+	 * @return whether the copy already kept is newer than the candidate
+	 */
+	static boolean isNewer(Long version, LocalDateTime lastUpdate, Long candidateVersion, LocalDateTime candidateLastUpdate) {
+		if (version != null && candidateVersion != null && !version.equals(candidateVersion)) {
+			return version > candidateVersion;
+		}
+		return lastUpdate != null && candidateLastUpdate != null && lastUpdate.isAfter(candidateLastUpdate);
+	}
+}
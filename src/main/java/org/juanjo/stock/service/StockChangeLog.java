@@ -0,0 +1,675 @@
+package org.juanjo.stock.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockSummaryDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.utils.StockBinaryReader;
+import org.juanjo.stock.utils.StockBinaryWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of every stock change, compacted into snapshots, so the in-memory state is restored at startup by
+ * reading files sequentially instead of querying the database, and other consumers can follow the changes. Changes are
+ * appended to memory-mapped segments of a fixed size, named after the sequence of their first change. Every record is:
+ * <ul>
+ *     <li>length of the change, as an int. Zero marks the end of the records of the segment</li>
+ *     <li>CRC32C of the change, as an int</li>
+ *     <li>sequence of the change, as a long</li>
+ *     <li>type, as a byte: 1 when the stock has been written and 2 when it has been removed</li>
+ *     <li>id of the stock, as a long</li>
+ *     <li>for written stocks, the current price as a double, the last update as epoch microseconds in UTC and the
+ *     version as longs, with {@link Long#MIN_VALUE} when unknown, and the name as the int length of its UTF-8 bytes,
+ *     or -1 for null, followed by them</li>
+ * </ul>
+ * Numbers are big-endian. A snapshot is the list of every stock in the compact binary format of
+ * {@link StockBinaryWriter}, named after the sequence of the last change it includes. Snapshots are taken on a fixed
+ * interval by merging the previous one with the changes appended since, whose segments are then deleted, so the
+ * database is only read when the log is started.
+ * <p>
+ * Segments are not forced to disk on every change, so the log is only trusted when it was closed cleanly and the
+ * database still has the same number of stocks, highest id and latest update it had then. Otherwise, it is started
+ * again with a snapshot read from the database.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "stock.change-log.enabled", havingValue = "true")
+@Slf4j
+public class StockChangeLog {
+	private static final String SEGMENT_PREFIX = "changes-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+	private static final String CLOSED_FILE = "closed";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+	/**
+	 * Bytes of every change: sequence, type and id
+	 */
+	private static final int CHANGE_SIZE = Long.BYTES + 1 + Long.BYTES;
+	/**
+	 * Bytes of a written stock besides its name: price, last update, version and name length
+	 */
+	private static final int STOCK_SIZE = Double.BYTES + 2 * Long.BYTES + Integer.BYTES;
+	private static final byte WRITTEN = 1;
+	private static final byte REMOVED = 2;
+	private static final long UNKNOWN = Long.MIN_VALUE;
+	private static final long MICROS_PER_SECOND = 1_000_000L;
+	private static final int NANOS_PER_MICRO = 1000;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Duration snapshotInterval;
+	/**
+	 * Segments with the changes after the latest snapshot, in sequence order. The last one is the one being appended.
+	 */
+	private final List<Segment> segments = new CopyOnWriteArrayList<>();
+	private final ReentrantLock appendLock = new ReentrantLock();
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+	private final CRC32C checksum = new CRC32C();
+	private final ScheduledExecutorService snapshotter =
+			Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "stock-change-log"));
+	private volatile long lastSequence;
+	private volatile long snapshotSequence;
+	private boolean closed;
+	private boolean failed;
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired(required = false)
+	private StockWriteBehind stockWriteBehind;
+
+	public StockChangeLog(@Value("${stock.change-log.directory:./stock-changes}") String directory,
+			@Value("${stock.change-log.segment-size:64MB}") DataSize segmentSize,
+			@Value("${stock.change-log.snapshot-interval:5m}") Duration snapshotInterval) {
+		this.directory = Paths.get(directory);
+		this.segmentSize = (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE);
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * Recovers the log left by the previous run, or starts it again from the database when it cannot be trusted, and
+	 * starts taking snapshots on the configured interval
+	 *
+	 * @throws IOException when the log cannot be read or written
+	 */
+	@PostConstruct
+	public void open() throws IOException {
+		Files.createDirectories(directory);
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setReadOnly(true);
+		if (!recover()) {
+			rebuild();
+		}
+		roll();
+		long interval = snapshotInterval.toMillis();
+		snapshotter.scheduleWithFixedDelay(() -> {
+			try {
+				snapshot();
+			} catch (IOException | RuntimeException e) {
+				log.error("Stock snapshot could not be written", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Appends the new state of a stock. It must be called once the change is visible to readers. A change that cannot
+	 * be appended is logged without failing the caller, and the log is not trusted on the next startup.
+	 *
+	 * @param stock written
+	 */
+	public void put(StockDTO stock) {
+		append(WRITTEN, stock.getId(), stock);
+	}
+
+	/**
+	 * Appends the removal of a stock
+	 *
+	 * @param stockId that identify the stock
+	 */
+	public void remove(long stockId) {
+		append(REMOVED, stockId, null);
+	}
+
+	/**
+	 * Gives every stock of the latest snapshot, with the changes appended since applied, to the {@code consumer}, in
+	 * ascending id order. It loads the in-memory state at startup without reading the database.
+	 *
+	 * @param consumer that receives every stock
+	 */
+	public void restore(Consumer<StockDTO> consumer) {
+		snapshotLock.lock();
+		try {
+			merge(snapshotSequence, changes(segments, lastSequence), consumer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the changes appended after the given sequence, so other consumers can follow the log. Changes compacted
+	 * into a snapshot are no longer in the log, so a consumer that falls behind has to {@link #restore} the stocks
+	 * again.
+	 *
+	 * @param afterSequence sequence of the last change already read, or of the snapshot the stocks were restored from
+	 * @param limit         maximum number of changes to return
+	 * @return changes in sequence order, empty when nothing was appended after the given sequence
+	 * @throws IllegalArgumentException when the changes after the given sequence have been compacted
+	 */
+	public List<Change> read(long afterSequence, int limit) {
+		if (afterSequence < snapshotSequence) {
+			throw new IllegalArgumentException("Stock changes up to " + snapshotSequence + " have been compacted");
+		}
+		long upToSequence = lastSequence;
+		if (afterSequence >= upToSequence) {
+			// nothing to read, and a consumer ahead of the log would otherwise size the list below with a negative capacity
+			return Collections.emptyList();
+		}
+		List<Segment> current = List.copyOf(segments);
+		List<Change> changes = new ArrayList<>(Math.min(limit, (int) Math.min(upToSequence - afterSequence, Integer.MAX_VALUE)));
+		for (int i = 0; i < current.size() && changes.size() < limit; i++) {
+			if (i + 1 < current.size() && current.get(i + 1).firstSequence <= afterSequence + 1) {
+				continue;
+			}
+			ByteBuffer buffer = current.get(i).buffer.duplicate().position(0);
+			Change change;
+			while (changes.size() < limit && (change = readChange(buffer)) != null && change.getSequence() <= upToSequence) {
+				if (change.getSequence() > afterSequence) {
+					changes.add(change);
+				}
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Gets the sequence of the last change appended
+	 *
+	 * @return last sequence, or the one of the latest snapshot when nothing has been appended since
+	 */
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Gets the sequence of the last change included in the latest snapshot
+	 *
+	 * @return snapshot sequence
+	 */
+	public long getSnapshotSequence() {
+		return snapshotSequence;
+	}
+
+	/**
+	 * Writes a new snapshot with the changes appended since the previous one, and deletes the segments and the snapshot
+	 * it replaces. Changes are appended to a new segment meanwhile.
+	 *
+	 * @throws IOException when the snapshot cannot be written
+	 */
+	public void snapshot() throws IOException {
+		snapshotLock.lock();
+		try {
+			List<Segment> compacted;
+			long sequence;
+			appendLock.lock();
+			try {
+				sequence = lastSequence;
+				if (closed || sequence == snapshotSequence) {
+					return;
+				}
+				compacted = List.copyOf(segments);
+				roll();
+			} finally {
+				appendLock.unlock();
+			}
+			NavigableMap<Long, Change> changes = changes(compacted, sequence);
+			long previous = snapshotSequence;
+			writeSnapshot(sequence, consumer -> merge(previous, changes, consumer));
+			snapshotSequence = sequence;
+			segments.removeAll(compacted);
+			Files.deleteIfExists(snapshotPath(previous));
+			for (Segment segment : compacted) {
+				Files.deleteIfExists(segment.path);
+			}
+			log.info("Stock snapshot written up to change {}, with {} changed stocks", sequence, changes.size());
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+
+	/**
+	 * Stops taking snapshots and, once the pending writes have reached the database, records that the log is complete,
+	 * so the next startup can restore the stocks from it
+	 *
+	 * @throws InterruptedException when interrupted while waiting for the running snapshot
+	 * @throws IOException          when the log cannot be closed
+	 */
+	@PreDestroy
+	public void close() throws InterruptedException, IOException {
+		snapshotter.shutdown();
+		if (!snapshotter.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			log.warn("Stock snapshot still running after {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+		}
+		if (stockWriteBehind != null) {
+			// the database is only summarized once the queued updates are in it
+			stockWriteBehind.flush();
+		}
+		long sequence;
+		appendLock.lock();
+		try {
+			closed = true;
+			segments.forEach(segment -> segment.buffer.force());
+			if (failed) {
+				log.warn("Stock change log closed with missing changes, it will be started again from the database");
+				return;
+			}
+			sequence = lastSequence;
+		} finally {
+			appendLock.unlock();
+		}
+		StockSummaryDTO summary = stockRepository.findSummary();
+		Path temp = directory.resolve(CLOSED_FILE + TEMP_SUFFIX);
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+			out.writeLong(sequence);
+			out.writeLong(summary.getCount());
+			out.writeLong(summary.getMaxId());
+			out.writeLong(summary.getLastUpdate() == null ? UNKNOWN : toEpochMicros(summary.getLastUpdate()));
+		}
+		Files.move(temp, directory.resolve(CLOSED_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		log.info("Stock change log closed at change {}", sequence);
+	}
+
+	private void append(byte type, long stockId, StockDTO stock) {
+		byte[] name = stock == null || stock.getName() == null ? null : stock.getName().getBytes(StandardCharsets.UTF_8);
+		int length = CHANGE_SIZE + (stock == null ? 0 : STOCK_SIZE + (name == null ? 0 : name.length));
+		appendLock.lock();
+		try {
+			if (closed) {
+				// the database may have a change the log has missed
+				failed = true;
+				Files.deleteIfExists(directory.resolve(CLOSED_FILE));
+				log.warn("Stock id {} changed after the change log was closed", stockId);
+				return;
+			}
+			if (HEADER_SIZE + length > segmentSize) {
+				throw new IllegalStateException("Stock change of " + length + " bytes does not fit in a log segment");
+			}
+			Segment segment = segments.get(segments.size() - 1);
+			if (segment.buffer.remaining() < HEADER_SIZE + length) {
+				segment = roll();
+			}
+			long sequence = lastSequence + 1;
+			write(segment.buffer, length, sequence, type, stockId, stock, name);
+			lastSequence = sequence;
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+			log.error("Stock id {} change could not be appended to the log", stockId, e);
+		} finally {
+			appendLock.unlock();
+		}
+	}
+
+	private void write(ByteBuffer buffer, int length, long sequence, byte type, long stockId, StockDTO stock, byte[] name) {
+		int start = buffer.position();
+		buffer.position(start + HEADER_SIZE);
+		buffer.putLong(sequence).put(type).putLong(stockId);
+		if (stock != null) {
+			buffer.putDouble(stock.getCurrentPrice() == null ? Double.NaN : stock.getCurrentPrice());
+			buffer.putLong(stock.getLastUpdate() == null ? UNKNOWN : toEpochMicros(stock.getLastUpdate()));
+			buffer.putLong(stock.getVersion() == null ? UNKNOWN : stock.getVersion());
+			buffer.putInt(name == null ? -1 : name.length);
+			if (name != null) {
+				buffer.put(name);
+			}
+		}
+		checksum.reset();
+		checksum.update(buffer.slice(start + HEADER_SIZE, length));
+		buffer.putInt(start + Integer.BYTES, (int) checksum.getValue());
+		// the length goes last, so a reader never finds a record before its change is complete
+		buffer.putInt(start, length);
+	}
+
+	/**
+	 * Reads the next change of a segment
+	 *
+	 * @param buffer positioned at the record
+	 * @return change read, or null at the end of the records or at a record that is not complete
+	 */
+	private static Change readChange(ByteBuffer buffer) {
+		int start = buffer.position();
+		if (buffer.remaining() < HEADER_SIZE) {
+			return null;
+		}
+		int length = buffer.getInt(start);
+		if (length < CHANGE_SIZE || length > buffer.remaining() - HEADER_SIZE) {
+			return null;
+		}
+		CRC32C crc = new CRC32C();
+		crc.update(buffer.slice(start + HEADER_SIZE, length));
+		if ((int) crc.getValue() != buffer.getInt(start + Integer.BYTES)) {
+			return null;
+		}
+		buffer.position(start + HEADER_SIZE);
+		long sequence = buffer.getLong();
+		byte type = buffer.get();
+		long stockId = buffer.getLong();
+		StockDTO stock = null;
+		if (type == WRITTEN) {
+			double currentPrice = buffer.getDouble();
+			long lastUpdate = buffer.getLong();
+			long version = buffer.getLong();
+			int nameLength = buffer.getInt();
+			String name = null;
+			if (nameLength >= 0) {
+				byte[] bytes = new byte[nameLength];
+				buffer.get(bytes);
+				name = new String(bytes, StandardCharsets.UTF_8);
+			}
+			stock = new StockDTO(stockId, name, Double.isNaN(currentPrice) ? null : currentPrice,
+					lastUpdate == UNKNOWN ? null : toDateTime(lastUpdate), version == UNKNOWN ? null : version);
+		} else if (type != REMOVED) {
+			return null;
+		}
+		buffer.position(start + HEADER_SIZE + length);
+		return new Change(sequence, stockId, stock);
+	}
+
+	/**
+	 * Gets the latest change of every stock in the given segments
+	 *
+	 * @param segments     to read
+	 * @param upToSequence sequence of the last change to read
+	 * @return latest change by stock id
+	 */
+	private static NavigableMap<Long, Change> changes(List<Segment> segments, long upToSequence) {
+		NavigableMap<Long, Change> changes = new TreeMap<>();
+		for (Segment segment : segments) {
+			ByteBuffer buffer = segment.buffer.duplicate().position(0);
+			Change change;
+			while ((change = readChange(buffer)) != null && change.getSequence() <= upToSequence) {
+				changes.merge(change.getStockId(), change, StockChangeLog::latest);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Merges a snapshot with the latest changes of the stocks, both sorted by id
+	 */
+	private void merge(long sequence, NavigableMap<Long, Change> changes, Consumer<StockDTO> consumer) throws IOException {
+		Iterator<Change> pending = changes.values().iterator();
+		Change next = pending.hasNext() ? pending.next() : null;
+		try (InputStream in = Files.newInputStream(snapshotPath(sequence))) {
+			StockBinaryReader reader = new StockBinaryReader(in);
+			StockDTO stock;
+			while ((stock = reader.readStock()) != null) {
+				while (next != null && next.getStockId() < stock.getId()) {
+					accept(next, consumer);
+					next = pending.hasNext() ? pending.next() : null;
+				}
+				if (next == null || next.getStockId() != stock.getId()) {
+					consumer.accept(stock);
+					continue;
+				}
+				if (next.getStock() != null) {
+					consumer.accept(isNewer(stock, next.getStock()) ? stock : next.getStock());
+				}
+				next = pending.hasNext() ? pending.next() : null;
+			}
+		}
+		while (next != null) {
+			accept(next, consumer);
+			next = pending.hasNext() ? pending.next() : null;
+		}
+	}
+
+	/**
+	 * Checks that the log left by the previous run was closed cleanly with the database as it is now, and that it holds
+	 * every change after its latest snapshot
+	 *
+	 * @return true when the log has been recovered
+	 */
+	private boolean recover() throws IOException {
+		Path closedFile = directory.resolve(CLOSED_FILE);
+		if (!Files.exists(closedFile)) {
+			log.info("No stock change log closed cleanly in {}, it is started from the database", directory);
+			return false;
+		}
+		long closedSequence;
+		StockSummaryDTO closedSummary;
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(closedFile))) {
+			closedSequence = in.readLong();
+			long count = in.readLong();
+			long maxId = in.readLong();
+			long lastUpdate = in.readLong();
+			closedSummary = new StockSummaryDTO(count, maxId, lastUpdate == UNKNOWN ? null : toDateTime(lastUpdate));
+		}
+		// a crash from now on must not find the log closed
+		Files.delete(closedFile);
+		if (!closedSummary.equals(stockRepository.findSummary())) {
+			log.info("Stocks have changed in the database since the change log was closed, it is started from the database");
+			return false;
+		}
+		List<Long> snapshots = sequences(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+		if (snapshots.isEmpty()) {
+			return false;
+		}
+		long snapshot = snapshots.get(snapshots.size() - 1);
+		List<Segment> recovered = new ArrayList<>();
+		for (long firstSequence : sequences(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+			Path path = segmentPath(firstSequence);
+			if (firstSequence <= snapshot || firstSequence > closedSequence) {
+				// already in the snapshot, or empty
+				Files.delete(path);
+			} else {
+				try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+					recovered.add(new Segment(firstSequence, path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+				}
+			}
+		}
+		long sequence = snapshot;
+		for (Segment segment : recovered) {
+			ByteBuffer buffer = segment.buffer.duplicate().position(0);
+			Change change;
+			while ((change = readChange(buffer)) != null && change.getSequence() == sequence + 1) {
+				sequence++;
+			}
+		}
+		if (sequence != closedSequence) {
+			log.warn("Stock change log has changes up to {} instead of {}, it is started from the database", sequence, closedSequence);
+			return false;
+		}
+		for (long previous : snapshots.subList(0, snapshots.size() - 1)) {
+			Files.delete(snapshotPath(previous));
+		}
+		segments.addAll(recovered);
+		snapshotSequence = snapshot;
+		lastSequence = closedSequence;
+		log.info("Stock change log recovered with snapshot {} and changes up to {}", snapshot, closedSequence);
+		return true;
+	}
+
+	/**
+	 * Deletes the log and writes a snapshot of every stock of the database
+	 */
+	private void rebuild() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path path : files.collect(Collectors.toList())) {
+				String name = path.getFileName().toString();
+				if (name.startsWith(SEGMENT_PREFIX) || name.startsWith(SNAPSHOT_PREFIX) || name.startsWith(CLOSED_FILE)) {
+					Files.delete(path);
+				}
+			}
+		}
+		lastSequence = 0;
+		snapshotSequence = 0;
+		writeSnapshot(0, consumer -> transactionTemplate.executeWithoutResult(status -> {
+			try (Stream<StockDTO> stocks = stockRepository.streamAll()) {
+				stocks.forEach(consumer);
+			}
+		}));
+	}
+
+	/**
+	 * Writes a snapshot to a temporary file that replaces the final one once complete
+	 */
+	private void writeSnapshot(long sequence, StockSource source) throws IOException {
+		Path target = snapshotPath(sequence);
+		Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			StockBinaryWriter writer = new StockBinaryWriter(Channels.newOutputStream(channel));
+			try {
+				source.forEach(stock -> {
+					try {
+						writer.write(stock);
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			writer.flush();
+			channel.force(true);
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Starts a new segment for the changes after the last one
+	 *
+	 * @return new segment
+	 */
+	private Segment roll() throws IOException {
+		long firstSequence = lastSequence + 1;
+		Path path = segmentPath(firstSequence);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			Segment segment = new Segment(firstSequence, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+			segments.add(segment);
+			return segment;
+		}
+	}
+
+	private List<Long> sequences(String prefix, String suffix) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(path -> path.getFileName().toString())
+					.filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+					.map(name -> Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())))
+					.sorted().collect(Collectors.toList());
+		}
+	}
+
+	private Path segmentPath(long firstSequence) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+	}
+
+	private Path snapshotPath(long sequence) {
+		return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, sequence, SNAPSHOT_SUFFIX));
+	}
+
+	private static void accept(Change change, Consumer<StockDTO> consumer) {
+		if (change.getStock() != null) {
+			consumer.accept(change.getStock());
+		}
+	}
+
+	/**
+	 * Keeps the newest of two changes of the same stock. Concurrent writers may append the changes of a stock out of
+	 * order, so a written state only replaces another one with an older version or, for the same version, update.
+	 */
+	private static Change latest(Change current, Change candidate) {
+		return current.getStock() != null && candidate.getStock() != null && isNewer(current.getStock(), candidate.getStock()) ?
+				current : candidate;
+	}
+
+	private static boolean isNewer(StockDTO stock, StockDTO other) {
+		long version = stock.getVersion() == null ? UNKNOWN : stock.getVersion();
+		long otherVersion = other.getVersion() == null ? UNKNOWN : other.getVersion();
+		if (version != otherVersion) {
+			return version > otherVersion;
+		}
+		return stock.getLastUpdate() != null && other.getLastUpdate() != null && stock.getLastUpdate().isAfter(other.getLastUpdate());
+	}
+
+	private static long toEpochMicros(LocalDateTime dateTime) {
+		return dateTime.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + dateTime.getNano() / NANOS_PER_MICRO;
+	}
+
+	private static LocalDateTime toDateTime(long epochMicros) {
+		return LocalDateTime.ofEpochSecond(Math.floorDiv(epochMicros, MICROS_PER_SECOND),
+				(int) Math.floorMod(epochMicros, MICROS_PER_SECOND) * NANOS_PER_MICRO, ZoneOffset.UTC);
+	}
+
+	/**
+	 * Change of a stock in the log
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static final class Change {
+		private final long sequence;
+		private final long stockId;
+		/**
+		 * New state of the stock, or null when it has been removed
+		 */
+		private final StockDTO stock;
+	}
+
+	@AllArgsConstructor
+	private static final class Segment {
+		private final long firstSequence;
+		private final Path path;
+		private final MappedByteBuffer buffer;
+	}
+
+	@FunctionalInterface
+	private interface StockSource {
+		void forEach(Consumer<StockDTO> consumer) throws IOException;
+	}
+}
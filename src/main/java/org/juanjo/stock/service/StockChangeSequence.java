@@ -0,0 +1,106 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.persistence.StockRepository;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Numbers every write of a stock with a strictly increasing change sequence, so clients can read the stocks changed
+ * since the last one they saw without depending on clocks, which can tie or go backwards. The sequence continues from
+ * the highest one stored at startup.
+ * <p>
+ * Numbers are taken before their transactions commit, so they do not become visible in order. The first number taken
+ * by every open transaction is tracked, and the watermark is the highest number below all of them: every write up to
+ * it is either committed or rolled back, so a reader that stops at the watermark never skips a write that commits
+ * later with a lower number.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@Slf4j
+public class StockChangeSequence {
+	private final Object lock = new Object();
+	private final NavigableSet<Long> pending = new TreeSet<>();
+	private long last;
+
+	@Autowired
+	private StockRepository stockRepository;
+
+	/**
+	 * Continues the sequence from the highest change stored
+	 */
+	@PostConstruct
+	public void load() {
+		synchronized (lock) {
+			last = stockRepository.findMaxChangeSeq();
+		}
+		log.info("Stock change sequence continues after {}", last);
+	}
+
+	/**
+	 * Takes the next number of the sequence for a write in the current transaction. Writes outside a transaction are
+	 * taken as committed as soon as they are numbered.
+	 *
+	 * @return change sequence of the write
+	 */
+	public long next() {
+		boolean first = TransactionSynchronizationManager.isSynchronizationActive() && !TransactionSynchronizationManager.hasResource(this);
+		long changeSeq;
+		synchronized (lock) {
+			changeSeq = ++last;
+			if (first) {
+				pending.add(changeSeq);
+			}
+		}
+		if (first) {
+			// later numbers of the same transaction are higher, so only the first one holds the watermark back
+			TransactionSynchronizationManager.bindResource(this, changeSeq);
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(StockChangeSequence.this);
+					synchronized (lock) {
+						pending.remove(changeSeq);
+					}
+				}
+			});
+		}
+		return changeSeq;
+	}
+
+	/**
+	 * Gets the highest change sequence that no open transaction can still write
+	 *
+	 * @return change sequence up to which every write is complete
+	 */
+	public long watermark() {
+		synchronized (lock) {
+			return pending.isEmpty() ? last : pending.first() - 1;
+		}
+	}
+
+	/**
+	 * Numbers the stocks written through the persistence context
+	 */
+	public static class Listener {
+		@Autowired
+		private ObjectProvider<StockChangeSequence> stockChangeSequence;
+
+		@PrePersist
+		@PreUpdate
+		public void onModification(Stock stock) {
+			stock.setChangeSeq(stockChangeSequence.getObject().next());
+		}
+	}
+}
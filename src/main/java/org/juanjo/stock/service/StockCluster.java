@@ -0,0 +1,346 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.ClusterNodeDTO;
+import org.juanjo.stock.dto.ClusterStateDTO;
+import org.juanjo.stock.dto.StockVersionDTO;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Membership of a cluster of nodes that partition the stocks by consistent hashing on their id. Every node has its own
+ * database with the stocks it owns. A node joins the cluster once it is ready, announcing itself to the configured
+ * nodes and to every node they know, and the nodes that learn about it move to it the stocks it now owns. New stocks
+ * get ids owned by the node that creates them, above the highest id known in the cluster, so they never collide.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "stock.cluster.enabled", havingValue = "true")
+@Slf4j
+public class StockCluster {
+	private final String self;
+	private final List<String> seeds;
+	private final RestClient restClient;
+	private final AtomicLong lastId = new AtomicLong();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private final ExecutorService rebalancer =
+			Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "stock-cluster-rebalance"));
+	private final ExecutorService scatter = Executors.newVirtualThreadPerTaskExecutor();
+	private volatile ConsistentHashRing ring;
+	private volatile Set<String> peerAddresses;
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired(required = false)
+	private PriceBook priceBook;
+	@Autowired(required = false)
+	private StockWriteBehind stockWriteBehind;
+
+	public StockCluster(@Value("${stock.cluster.self}") String self, @Value("${stock.cluster.nodes:}") List<String> seeds,
+			@Value("${stock.cluster.virtual-nodes:160}") int virtualNodes, @Value("${stock.cluster.timeout:2s}") Duration timeout,
+			RestClient.Builder restClientBuilder) {
+		this.self = normalize(self);
+		this.seeds = seeds.stream().filter(seed -> !seed.isBlank()).map(StockCluster::normalize).collect(Collectors.toList());
+		this.ring = new ConsistentHashRing(Collections.singleton(this.self), virtualNodes);
+		Set<String> configured = new HashSet<>(this.seeds);
+		configured.add(this.self);
+		this.peerAddresses = addresses(configured);
+		JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(HttpClient.newBuilder()
+				.connectTimeout(timeout).executor(scatter).build());
+		requestFactory.setReadTimeout(timeout);
+		// every call between nodes is marked as forwarded, so the node that receives it serves it locally
+		this.restClient = restClientBuilder.requestFactory(requestFactory)
+				.defaultHeader(StockConstants.CLUSTER_FORWARDED_HEADER, this.self).build();
+	}
+
+	@PostConstruct
+	public void init() {
+		// both keep stocks in memory that would not follow them to their new owner
+		if (priceBook != null || stockWriteBehind != null) {
+			throw new IllegalStateException("The cluster does not support the price book nor the write-behind queue");
+		}
+		lastId.set(stockRepository.findMaxId());
+	}
+
+	/**
+	 * Announces this node to the configured nodes, and to the nodes they know, once it is ready to serve them. Nodes
+	 * that are not running yet are skipped, as they announce themselves when they start.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void join() {
+		Deque<String> pending = new ArrayDeque<>(seeds);
+		Set<String> announced = new HashSet<>(Collections.singleton(self));
+		while (!pending.isEmpty()) {
+			String node = pending.poll();
+			if (!announced.add(node)) {
+				continue;
+			}
+			try {
+				ClusterStateDTO state = restClient.post().uri(node + "/internal/cluster/nodes").body(new ClusterNodeDTO(self))
+						.retrieve().body(ClusterStateDTO.class);
+				state.getNodes().stream().map(StockCluster::normalize).forEach(known -> {
+					addNode(known);
+					pending.add(known);
+				});
+				lastId.accumulateAndGet(state.getMaxId(), Math::max);
+			} catch (RestClientException e) {
+				log.warn("Node {} is not available: {}", node, e.getMessage());
+			}
+		}
+		log.info("Node {} has joined the cluster of {}", self, ring.nodes());
+		rebalancer.execute(this::notifyListeners);
+	}
+
+	/**
+	 * Adds a node that is joining the cluster. The stocks it now owns are moved to it in the background.
+	 *
+	 * @param node base URL of the joining node
+	 * @return nodes of the cluster, with the joining one, and the highest stock id of this node
+	 */
+	public ClusterStateDTO accept(String node) {
+		if (addNode(normalize(node))) {
+			log.info("Node {} has joined the cluster of {}", node, ring.nodes());
+			rebalancer.execute(this::notifyListeners);
+		}
+		return new ClusterStateDTO(ring.nodes(), lastId.get());
+	}
+
+	/**
+	 * Registers an action to run in the background whenever the ring changes, such as moving stocks to new owners
+	 *
+	 * @param listener to run
+	 */
+	public void onChange(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Gets the node that owns a stock
+	 *
+	 * @param stockId that identify the stock
+	 * @return base URL of the owner node
+	 */
+	public String owner(long stockId) {
+		return ring.owner(stockId);
+	}
+
+	/**
+	 * Checks whether this node owns a stock
+	 *
+	 * @param stockId that identify the stock
+	 * @return true when the stock belongs to this node
+	 */
+	public boolean isLocal(long stockId) {
+		return self.equals(ring.owner(stockId));
+	}
+
+	/**
+	 * Gets the base URL of this node
+	 *
+	 * @return base URL
+	 */
+	public String self() {
+		return self;
+	}
+
+	/**
+	 * Gets the nodes of the cluster
+	 *
+	 * @return base URLs of the nodes, sorted
+	 */
+	public List<String> nodes() {
+		return ring.nodes();
+	}
+
+	/**
+	 * Tells whether a request comes from a node of the cluster, either a configured one or one that joined later
+	 *
+	 * @param remoteAddress IP address the request comes from
+	 * @return whether the address is the one of a node
+	 */
+	public boolean isPeer(String remoteAddress) {
+		return peerAddresses.contains(remoteAddress);
+	}
+
+	/**
+	 * Assigns the id of a new stock, which is owned by this node and greater than any id known in the cluster
+	 *
+	 * @return stock id
+	 */
+	public long nextId() {
+		long stockId;
+		do {
+			stockId = lastId.incrementAndGet();
+		} while (!isLocal(stockId));
+		return stockId;
+	}
+
+	/**
+	 * Records ids assigned somewhere else, so they are never assigned again by this node
+	 *
+	 * @param stockId assigned by another node
+	 */
+	public void seen(long stockId) {
+		lastId.accumulateAndGet(stockId, Math::max);
+	}
+
+	/**
+	 * Gets the client used to call the other nodes
+	 *
+	 * @return client with the timeouts of the cluster
+	 */
+	public RestClient restClient() {
+		return restClient;
+	}
+
+	/**
+	 * Runs a call on every node at once and waits for all of them
+	 *
+	 * @param call to run with the base URL of every node
+	 * @param <T>  type of the result
+	 * @return result of every node, by node in ring order
+	 * @throws ServiceUnavailableException when any node cannot be reached
+	 */
+	public <T> Map<String, T> onEveryNode(Function<String, T> call) {
+		Map<String, CompletableFuture<T>> calls = new LinkedHashMap<>();
+		ring.nodes().forEach(node -> calls.put(node, CompletableFuture.supplyAsync(() -> call.apply(node), scatter)));
+		Map<String, T> results = new LinkedHashMap<>();
+		try {
+			calls.forEach((node, result) -> results.put(node, result.join()));
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+		return results;
+	}
+
+	/**
+	 * Gets the version of the whole collection of stocks in the cluster, made of the versions of every node, so a list
+	 * is only validated when no node has changed
+	 *
+	 * @param local version of this node
+	 * @return version of the cluster
+	 * @throws ServiceUnavailableException when any node cannot be reached
+	 */
+	public StockVersionDTO version(StockVersionDTO local) {
+		Map<String, StockVersionDTO> versions = onEveryNode(node -> node.equals(self) ? local : call(node,
+				() -> restClient.get().uri(node + "/internal/cluster/version").retrieve().body(StockVersionDTO.class)));
+		String eTags = versions.values().stream().map(StockVersionDTO::getETag).collect(Collectors.joining(","));
+		long lastModified = versions.values().stream().mapToLong(StockVersionDTO::getLastModified).max().orElse(0);
+		return new StockVersionDTO("\"" + DigestUtils.md5DigestAsHex(eTags.getBytes(StandardCharsets.UTF_8)) + "\"", lastModified);
+	}
+
+	/**
+	 * Calls another node, reporting that it cannot be reached as an unavailable service
+	 *
+	 * @param node base URL of the node
+	 * @param call to the node
+	 * @param <T>  type of the result
+	 * @return result of the call
+	 * @throws ServiceUnavailableException when the node cannot be reached
+	 */
+	public <T> T call(String node, Supplier<T> call) {
+		try {
+			return call.get();
+		} catch (ResourceAccessException e) {
+			log.warn("Node {} is not available: {}", node, e.getMessage());
+			throw new ServiceUnavailableException("Node " + node + " is not available");
+		}
+	}
+
+	/**
+	 * Checks whether the current request has been forwarded by another node, so it must be served locally
+	 *
+	 * @return true when the request comes from another node
+	 */
+	public static boolean isForwarded() {
+		return RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes &&
+				attributes.getRequest().getHeader(StockConstants.CLUSTER_FORWARDED_HEADER) != null;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		rebalancer.shutdownNow();
+		scatter.shutdownNow();
+	}
+
+	private synchronized boolean addNode(String node) {
+		ConsistentHashRing extended = ring.with(node);
+		if (extended == ring) {
+			return false;
+		}
+		ring = extended;
+		Set<String> addresses = new HashSet<>(peerAddresses);
+		addresses.addAll(addresses(Collections.singleton(node)));
+		peerAddresses = addresses;
+		return true;
+	}
+
+	/**
+	 * Resolves the IP addresses of the hosts of the given nodes
+	 */
+	private static Set<String> addresses(Collection<String> nodes) {
+		Set<String> addresses = new HashSet<>();
+		for (String node : nodes) {
+			try {
+				for (InetAddress address : InetAddress.getAllByName(URI.create(node).getHost())) {
+					addresses.add(address.getHostAddress());
+				}
+			} catch (UnknownHostException | IllegalArgumentException e) {
+				log.warn("Address of node {} could not be resolved", node);
+			}
+		}
+		return addresses;
+	}
+
+	private void notifyListeners() {
+		listeners.forEach(listener -> {
+			try {
+				listener.run();
+			} catch (RuntimeException e) {
+				log.error("Cluster change could not be handled", e);
+			}
+		});
+	}
+
+	private static String normalize(String node) {
+		String trimmed = node.trim();
+		return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+	}
+}
@@ -0,0 +1,168 @@
+package org.juanjo.stock.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockVersionDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full list of stocks already serialized as a JSON array, both plain and gzipped, for the version of the collection it
+ * was read at. The list is only serialized again on the first request after any stock changes, and once per version
+ * however many requests ask for it at the same time, so the rest of the requests just write the bytes. Lists larger
+ * than the maximum size are not kept, and have to be streamed from the stocks instead.
+ */
+@Component
+@ConditionalOnProperty(name = "stock.list-snapshot.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class StockListSnapshot {
+	private final long maxSize;
+	private final Object lock = new Object();
+	private volatile Snapshot snapshot;
+
+	@Autowired
+	private StockService stockService;
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	public StockListSnapshot(@Value("${stock.list-snapshot.max-size:64MB}") DataSize maxSize) {
+		this.maxSize = maxSize.toBytes();
+	}
+
+	/**
+	 * Gets the serialized list at the given version, serializing it when the current one is older
+	 *
+	 * @param version of the collection, read before the stocks so it is never newer than them
+	 * @return serialized list, or null when it is larger than the maximum size
+	 * @throws IOException when the list cannot be serialized
+	 */
+	public Snapshot get(StockVersionDTO version) throws IOException {
+		Snapshot current = snapshot;
+		if (current == null || !current.eTag.equals(version.getETag())) {
+			synchronized (lock) {
+				current = snapshot;
+				if (current == null || !current.eTag.equals(version.getETag())) {
+					current = build(version.getETag());
+					snapshot = current;
+				}
+			}
+		}
+		return current.json != null ? current : null;
+	}
+
+	private Snapshot build(String eTag) throws IOException {
+		long start = System.nanoTime();
+		BoundedOutputStream json = new BoundedOutputStream(maxSize);
+		ObjectWriter writer = objectMapper.writerFor(StockDTO.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(json)) {
+			generator.writeStartArray();
+			stockService.listStocks(stock -> {
+				try {
+					writer.writeValue(generator, stock);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			generator.writeEndArray();
+		} catch (UncheckedIOException e) {
+			if (e.getCause() instanceof TooLargeException) {
+				log.warn("Stock list is larger than {} bytes, so it is not kept serialized", maxSize);
+				return new Snapshot(eTag, null, null);
+			}
+			throw e.getCause();
+		}
+		ByteArrayOutputStream gzip = new ByteArrayOutputStream(json.size() / 4);
+		try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+			json.writeTo(out);
+		}
+		log.debug("Stock list serialized in {} bytes, {} gzipped, in {} ms", json.size(), gzip.size(),
+				(System.nanoTime() - start) / 1_000_000);
+		return new Snapshot(eTag, json.toByteArray(), gzip.toByteArray());
+	}
+
+	/**
+	 * Serialized list at a version of the collection
+	 */
+	public static final class Snapshot {
+		private final String eTag;
+		private final byte[] json;
+		private final byte[] gzip;
+
+		private Snapshot(String eTag, byte[] json, byte[] gzip) {
+			this.eTag = eTag;
+			this.json = json;
+			this.gzip = gzip;
+		}
+
+		/**
+		 * Gets the entity tag of the version of the collection that was serialized
+		 *
+		 * @return quoted entity tag
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Gets the list as a JSON array, which must not be modified
+		 *
+		 * @return UTF-8 bytes of the array
+		 */
+		public byte[] getJson() {
+			return json;
+		}
+
+		/**
+		 * Gets the list as a gzipped JSON array, which must not be modified
+		 *
+		 * @return gzip bytes of the array
+		 */
+		public byte[] getGzip() {
+			return gzip;
+		}
+	}
+
+	/**
+	 * Buffer that fails as soon as more than its maximum size is written to it
+	 */
+	private static final class BoundedOutputStream extends ByteArrayOutputStream {
+		private final long maxSize;
+
+		private BoundedOutputStream(long maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			checkSize(1);
+			super.write(b);
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			checkSize(len);
+			super.write(b, off, len);
+		}
+
+		private void checkSize(int len) {
+			if (count + (long) len > maxSize) {
+				throw new UncheckedIOException(new TooLargeException());
+			}
+		}
+	}
+
+	private static final class TooLargeException extends IOException {
+	}
+}
@@ -0,0 +1,75 @@
+package org.juanjo.stock.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters of the stock service. They are registered once at startup, so recording a time on the hot path only reads the
+ * clock and updates the histogram of a meter that is already known, without looking it up in the registry or allocating
+ * any object. Percentiles and histogram buckets are configured in the {@code management.metrics.distribution}
+ * properties.
+ */
+@Component
+public class StockMetrics {
+	private final Map<Operation, Timer> operations = new EnumMap<>(Operation.class);
+	private final Timer mapping;
+
+	public StockMetrics(MeterRegistry registry) {
+		for (Operation operation : Operation.values()) {
+			operations.put(operation, Timer.builder("stock.service").description("Time spent in the stock service")
+					.tag("method", operation.method).register(registry));
+		}
+		mapping = Timer.builder("stock.mapping").description("Time spent mapping stocks read from the database to DTOs")
+				.register(registry);
+	}
+
+	/**
+	 * Records the time of a call to the stock service
+	 *
+	 * @param operation  called
+	 * @param startNanos {@link System#nanoTime()} when the call started
+	 */
+	public void record(Operation operation, long startNanos) {
+		operations.get(operation).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the time spent mapping a stock read from the database
+	 *
+	 * @param startNanos {@link System#nanoTime()} when the mapping started
+	 */
+	public void recordMapping(long startNanos) {
+		mapping.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Operations of the stock service, tagged by the name of their method
+	 */
+	public enum Operation {
+		GET_BY_ID("getById"),
+		GET_BY_IDS("getByIds"),
+		LIST_STOCKS("listStocks"),
+		LIST_STOCKS_PAGE("listStocksPage"),
+		GET_CHANGES("getChanges"),
+		SEARCH_STOCKS("searchStocks"),
+		CREATE_STOCK("createStock"),
+		CREATE_STOCKS("createStocks"),
+		IMPORT_STOCKS("importStocks"),
+		UPDATE_STOCK("updateStock"),
+		UPDATE_PRICES("updatePrices"),
+		GET_HISTORY("getHistory"),
+		TOP_STOCKS("topStocks"),
+		GET_STATS("getStats");
+
+		private final String method;
+
+		Operation(String method) {
+			this.method = method;
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.persistence.PriceTickRepository;
+import org.juanjo.stock.persistence.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Ranks the stocks by their percent change since the open of the current session and by their price, and keeps the
+ * aggregate statistics of the market, all of them updated as stocks are written. Every stock is an entry in two sorted
+ * sets, so a write costs O(log n) and the top stocks are read from one end of a set, at a cost that only depends on how
+ * many are returned. Statistics are running totals, and the lowest and highest prices are the ends of the set by price.
+ * <p>
+ * The opening price of a stock is its last price before the current session started, read from the price history at
+ * startup, and stocks without prices before the session open at their first price. Sessions start every day at the
+ * configured time, when the current prices become the opening ones and the totals are computed again from scratch, so
+ * rounding errors do not build up.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "stock.movers.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class StockMovers {
+	private static final double PERCENT = 100;
+
+	private final Map<Long, Entry> entries = new HashMap<>();
+	private final NavigableSet<Entry> byChange = new TreeSet<>(
+			Comparator.comparingDouble((Entry entry) -> entry.change).thenComparingLong(entry -> entry.stockId));
+	private final NavigableSet<Entry> byPrice = new TreeSet<>(
+			Comparator.comparingDouble((Entry entry) -> entry.price).thenComparingLong(entry -> entry.stockId));
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final LocalTime sessionStartTime;
+	private final ScheduledExecutorService scheduler =
+			Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "stock-movers"));
+	private double priceSum;
+	private long advancing;
+	private long declining;
+	private LocalDateTime sessionStart;
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired
+	private PriceTickRepository priceTickRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired(required = false)
+	private StockChangeLog stockChangeLog;
+
+	public StockMovers(@Value("${stock.movers.session-start:00:00}") LocalTime sessionStartTime) {
+		this.sessionStartTime = sessionStartTime;
+	}
+
+	/**
+	 * Loads every existing stock with its opening price, from the change log when it is enabled or from the database
+	 * otherwise, and schedules the start of the next session
+	 */
+	@PostConstruct
+	public void load() {
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime start = now.toLocalDate().atTime(sessionStartTime);
+		LocalDateTime currentStart = start.isAfter(now) ? start.minusDays(1) : start;
+		Map<Long, Double> openPrices = new HashMap<>();
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			try (Stream<Object[]> prices = priceTickRepository.streamOpenPrices(currentStart)) {
+				prices.filter(row -> row[1] != null)
+						.forEach(row -> openPrices.put(((Number) row[0]).longValue(), ((Number) row[1]).doubleValue()));
+			}
+			if (stockChangeLog == null) {
+				try (Stream<StockDTO> stocks = stockRepository.streamAll()) {
+					stocks.forEach(stock -> load(stock, openPrices.get(stock.getId())));
+				}
+			}
+		});
+		if (stockChangeLog != null) {
+			stockChangeLog.restore(stock -> load(stock, openPrices.get(stock.getId())));
+		}
+		sessionStart = currentStart;
+		scheduleNextSession();
+		log.info("Stock movers loaded with {} stocks for the session started at {}", entries.size(), sessionStart);
+	}
+
+	/**
+	 * Updates the entry of a stock. A stock seen for the first time in the session opens at its current price. The stock
+	 * is ignored when it is older than the entry, by version and then by last update.
+	 *
+	 * @param stock latest state of the stock
+	 */
+	public void put(StockDTO stock) {
+		if (stock.getCurrentPrice() == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			Entry previous = entries.get(stock.getId());
+			if (previous != null && StockCache.isNewer(previous.version, previous.lastUpdate, stock.getVersion(), stock.getLastUpdate())) {
+				return;
+			}
+			String name = stock.getName() == null && previous != null ? previous.name : stock.getName();
+			double openPrice = previous != null ? previous.openPrice : stock.getCurrentPrice();
+			replace(previous, new Entry(stock, name, openPrice));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the entry of a stock
+	 *
+	 * @param stockId that identify the stock
+	 */
+	public void remove(long stockId) {
+		lock.writeLock().lock();
+		try {
+			replace(entries.get(stockId), null);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the stocks at one end of a ranking
+	 *
+	 * @param ranking   to read
+	 * @param ascending whether the lowest values come first instead of the highest ones
+	 * @param limit     maximum number of stocks to return
+	 * @return stocks in ranking order
+	 */
+	public List<StockMoverDTO> top(Ranking ranking, boolean ascending, int limit) {
+		lock.readLock().lock();
+		try {
+			List<StockMoverDTO> top = new ArrayList<>(Math.min(limit, entries.size()));
+			NavigableSet<Entry> ranked = ranking == Ranking.CHANGE ? byChange : byPrice;
+			for (Entry entry : ascending ? ranked : ranked.descendingSet()) {
+				if (top.size() == limit) {
+					break;
+				}
+				top.add(new StockMoverDTO(entry.stockId, entry.name, entry.price, entry.openPrice, entry.change));
+			}
+			return top;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the aggregate statistics of the stocks
+	 *
+	 * @return statistics of the current session
+	 */
+	public MarketStatsDTO stats() {
+		lock.readLock().lock();
+		try {
+			long count = entries.size();
+			return new MarketStatsDTO(count, count == 0 ? null : byPrice.first().price, count == 0 ? null : byPrice.last().price,
+					count == 0 ? null : priceSum / count, advancing, declining, count - advancing - declining, sessionStart);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * Starts a new session, where every stock opens at its current price
+	 */
+	void startSession() {
+		lock.writeLock().lock();
+		try {
+			List<Entry> opened = entries.values().stream().map(entry -> entry.reopen())
+					.toList();
+			entries.clear();
+			byChange.clear();
+			byPrice.clear();
+			priceSum = 0;
+			advancing = 0;
+			declining = 0;
+			opened.forEach(entry -> replace(null, entry));
+			sessionStart = sessionStart.plusDays(1);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.info("Stock movers session started at {}", sessionStart);
+		scheduleNextSession();
+	}
+
+	private void load(StockDTO stock, Double openPrice) {
+		if (stock.getCurrentPrice() == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			replace(entries.get(stock.getId()), new Entry(stock, stock.getName(), openPrice != null ? openPrice : stock.getCurrentPrice()));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void replace(Entry previous, Entry entry) {
+		if (previous != null) {
+			entries.remove(previous.stockId);
+			byChange.remove(previous);
+			byPrice.remove(previous);
+			priceSum -= previous.price;
+			advancing -= previous.change > 0 ? 1 : 0;
+			declining -= previous.change < 0 ? 1 : 0;
+		}
+		if (entry != null) {
+			entries.put(entry.stockId, entry);
+			byChange.add(entry);
+			byPrice.add(entry);
+			priceSum += entry.price;
+			advancing += entry.change > 0 ? 1 : 0;
+			declining += entry.change < 0 ? 1 : 0;
+		}
+	}
+
+	private void scheduleNextSession() {
+		Duration delay = Duration.between(LocalDateTime.now().atZone(ZoneId.systemDefault()),
+				sessionStart.plusDays(1).atZone(ZoneId.systemDefault()));
+		scheduler.schedule(this::startSession, Math.max(0, delay.toMillis()), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Rankings of the stocks
+	 */
+	public enum Ranking {
+		/**
+		 * Percent change since the open
+		 */
+		CHANGE,
+		/**
+		 * Current price
+		 */
+		PRICE
+	}
+
+	private static final class Entry {
+		private final long stockId;
+		private final String name;
+		private final double price;
+		private final double openPrice;
+		private final double change;
+		private final Long version;
+		private final LocalDateTime lastUpdate;
+
+		private Entry(long stockId, String name, double price, double openPrice, Long version, LocalDateTime lastUpdate) {
+			this.stockId = stockId;
+			this.name = name;
+			this.price = price;
+			this.openPrice = openPrice;
+			this.change = openPrice > 0 ? (price - openPrice) / openPrice * PERCENT : 0;
+			this.version = version;
+			this.lastUpdate = lastUpdate;
+		}
+
+		private Entry(StockDTO stock, String name, double openPrice) {
+			this(stock.getId(), name, stock.getCurrentPrice(), openPrice, stock.getVersion(), stock.getLastUpdate());
+		}
+
+		/**
+		 * Gets the entry of the stock at the start of a new session, which opens at its current price
+		 */
+		private Entry reopen() {
+			return new Entry(stockId, name, price, price, version, lastUpdate);
+		}
+	}
+}
@@ -0,0 +1,341 @@
+package org.juanjo.stock.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.utils.StockConstants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.sql.init.dependency.DependsOnDatabaseInitialization;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of stock names for prefix and infix search. Names are compared in lower case. Names are kept sorted,
+ * so the names starting with the query are a range of them, and every trigram of a name is mapped to the sorted ids of
+ * the stocks whose name contains it, so the names containing the query are the intersection of the ids of its trigrams.
+ * Results are ranked as follows:
+ * <ol>
+ *     <li>names starting with the query, in alphabetical order, so an exact match comes first</li>
+ *     <li>names with a word starting with the query</li>
+ *     <li>any other name containing the query</li>
+ * </ol>
+ * Queries shorter than a trigram only match the start of the names. The index is loaded at startup and kept up to date
+ * as stocks are created and renamed.
+ */
+@Component
+@DependsOnDatabaseInitialization
+@ConditionalOnProperty(name = "stock.search.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class StockSearchIndex {
+	private static final int GRAM = 3;
+	private static final char MAX_CHAR = Character.MAX_VALUE;
+
+	private final Map<Long, Name> names = new ConcurrentHashMap<>();
+	private final NavigableSet<Entry> sortedNames = new TreeSet<>();
+	private final Map<Long, Posting> postings = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired(required = false)
+	private StockChangeLog stockChangeLog;
+
+	/**
+	 * Loads the names of every existing stock from the change log when it is enabled, or from the database otherwise
+	 */
+	@PostConstruct
+	public void load() {
+		if (stockChangeLog != null) {
+			stockChangeLog.restore(this::put);
+			log.info("Search index restored with {} stocks", names.size());
+			return;
+		}
+		long afterId = 0;
+		List<StockDTO> stocks;
+		do {
+			stocks = stockRepository.findPageAfter(afterId, PageRequest.of(0, StockConstants.PAGE_MAX_LIMIT));
+			stocks.forEach(this::put);
+			if (!stocks.isEmpty()) {
+				afterId = stocks.get(stocks.size() - 1).getId();
+			}
+		} while (stocks.size() == StockConstants.PAGE_MAX_LIMIT);
+		log.info("Search index loaded with {} stocks", names.size());
+	}
+
+	/**
+	 * Indexes the name of a stock, replacing the previous one if it has changed. The name is ignored when the stock is
+	 * older than the one indexed, by version and then by last update, so a rename published late is not undone.
+	 *
+	 * @param stock with the current name
+	 */
+	public void put(StockDTO stock) {
+		long stockId = stock.getId();
+		String normalized = normalize(stock.getName());
+		lock.writeLock().lock();
+		try {
+			Name previous = names.get(stockId);
+			if (previous != null && StockCache.isNewer(previous.version, previous.lastUpdate, stock.getVersion(), stock.getLastUpdate())) {
+				return;
+			}
+			names.put(stockId, new Name(normalized, stock.getVersion(), stock.getLastUpdate()));
+			if (previous != null && normalized.equals(previous.value)) {
+				return;
+			}
+			if (previous != null) {
+				unindex(stockId, previous.value);
+			}
+			sortedNames.add(new Entry(normalized, stockId));
+			trigrams(normalized).forEach(trigram -> postings.computeIfAbsent(trigram, key -> new Posting()).add(stockId));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the name of a stock from the index
+	 *
+	 * @param stockId that identify the stock
+	 */
+	public void remove(long stockId) {
+		lock.writeLock().lock();
+		try {
+			Name previous = names.remove(stockId);
+			if (previous != null) {
+				unindex(stockId, previous.value);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the stocks whose name contains the given query, ranked by how well they match
+	 *
+	 * @param query  to find in the names, in any case
+	 * @param offset number of matches to skip
+	 * @param limit  maximum number of ids to return
+	 * @return ids of the matching stocks, in rank order
+	 */
+	public List<Long> search(String query, int offset, int limit) {
+		String normalized = normalize(query);
+		int wanted = offset + limit;
+		List<Long> matches = new ArrayList<>(Math.min(wanted, StockConstants.PAGE_MAX_LIMIT));
+		lock.readLock().lock();
+		try {
+			for (Entry entry : sortedNames.subSet(new Entry(normalized, Long.MIN_VALUE), new Entry(normalized + MAX_CHAR, Long.MIN_VALUE))) {
+				if (matches.size() == wanted) {
+					break;
+				}
+				matches.add(entry.stockId);
+			}
+			if (matches.size() < wanted && normalized.length() >= GRAM) {
+				addInfixMatches(normalized, wanted, matches);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return offset >= matches.size() ? Collections.emptyList() : matches.subList(offset, matches.size());
+	}
+
+	/**
+	 * Gets the number of indexed stocks
+	 *
+	 * @return indexed stocks
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	/**
+	 * Orders stocks the same way the search ranks them, so the matches found by several indexes can be merged
+	 *
+	 * @param query searched in the names
+	 * @return comparator of matching stocks
+	 */
+	public static Comparator<StockDTO> ranking(String query) {
+		String normalized = normalize(query);
+		return Comparator.<StockDTO>comparingInt(stock -> rank(normalize(stock.getName()), normalized))
+				.thenComparing(stock -> normalize(stock.getName())).thenComparing(StockDTO::getId);
+	}
+
+	private static int rank(String name, String query) {
+		if (name.startsWith(query)) {
+			return 0;
+		}
+		int index = name.indexOf(query, 1);
+		return index >= 0 && hasWordStart(name, query, index) ? 1 : 2;
+	}
+
+	private void unindex(long stockId, String name) {
+		sortedNames.remove(new Entry(name, stockId));
+		trigrams(name).forEach(trigram -> {
+			Posting posting = postings.get(trigram);
+			posting.remove(stockId);
+			if (posting.size == 0) {
+				postings.remove(trigram);
+			}
+		});
+	}
+
+	/**
+	 * Adds the names containing the query without starting with it, which have already been added, ranking first the
+	 * names with a word that starts with the query
+	 */
+	private void addInfixMatches(String query, int wanted, List<Long> matches) {
+		List<Posting> queryPostings = new ArrayList<>();
+		for (long trigram : trigrams(query)) {
+			Posting posting = postings.get(trigram);
+			if (posting == null) {
+				return;
+			}
+			queryPostings.add(posting);
+		}
+		queryPostings.sort(Comparator.comparingInt(posting -> posting.size));
+		Posting shortest = queryPostings.get(0);
+		List<Entry> wordStarts = new ArrayList<>();
+		List<Entry> others = new ArrayList<>();
+		for (int i = 0; i < shortest.size; i++) {
+			long stockId = shortest.ids[i];
+			if (!containsInAll(queryPostings, stockId)) {
+				continue;
+			}
+			String name = names.get(stockId).value;
+			int index = name.indexOf(query, 1);
+			if (index < 0 || name.startsWith(query)) {
+				continue;
+			}
+			(hasWordStart(name, query, index) ? wordStarts : others).add(new Entry(name, stockId));
+		}
+		addRanked(wordStarts, wanted, matches);
+		addRanked(others, wanted, matches);
+	}
+
+	private static void addRanked(List<Entry> entries, int wanted, List<Long> matches) {
+		if (matches.size() == wanted) {
+			return;
+		}
+		Collections.sort(entries);
+		for (Entry entry : entries) {
+			if (matches.size() == wanted) {
+				return;
+			}
+			matches.add(entry.stockId);
+		}
+	}
+
+	private static boolean containsInAll(List<Posting> queryPostings, long stockId) {
+		for (int i = 1; i < queryPostings.size(); i++) {
+			if (!queryPostings.get(i).contains(stockId)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean hasWordStart(String name, String query, int firstIndex) {
+		for (int index = firstIndex; index >= 0; index = name.indexOf(query, index + 1)) {
+			if (!Character.isLetterOrDigit(name.charAt(index - 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Set<Long> trigrams(String name) {
+		Set<Long> trigrams = new HashSet<>();
+		for (int i = 0; i + GRAM <= name.length(); i++) {
+			trigrams.add(((long) name.charAt(i) << 32) | ((long) name.charAt(i + 1) << 16) | name.charAt(i + 2));
+		}
+		return trigrams;
+	}
+
+	private static String normalize(String name) {
+		return name.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Normalized name of a stock, sorted by name and then by id
+	 */
+	private static final class Entry implements Comparable<Entry> {
+		private final String name;
+		private final long stockId;
+
+		private Entry(String name, long stockId) {
+			this.name = name;
+			this.stockId = stockId;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int byName = name.compareTo(other.name);
+			return byName != 0 ? byName : Long.compare(stockId, other.stockId);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Entry entry && compareTo(entry) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return name.hashCode() * 31 + Long.hashCode(stockId);
+		}
+	}
+
+	/**
+	 * Normalized name of a stock, with the version and last update of the stock it was taken from
+	 */
+	private static final class Name {
+		private final String value;
+		private final Long version;
+		private final LocalDateTime lastUpdate;
+
+		private Name(String value, Long version, LocalDateTime lastUpdate) {
+			this.value = value;
+			this.version = version;
+			this.lastUpdate = lastUpdate;
+		}
+	}
+
+	/**
+	 * Sorted ids of the stocks whose name contains a trigram. Ids mostly grow, so they are usually appended.
+	 */
+	private static final class Posting {
+		private long[] ids = new long[2];
+		private int size;
+
+		private void add(long stockId) {
+			int index = size == 0 || ids[size - 1] < stockId ? size : Arrays.binarySearch(ids, 0, size, stockId);
+			if (index >= 0 && index < size) {
+				return;
+			}
+			int insertAt = index < 0 ? -index - 1 : index;
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+			ids[insertAt] = stockId;
+			size++;
+		}
+
+		private void remove(long stockId) {
+			int index = Arrays.binarySearch(ids, 0, size, stockId);
+			if (index >= 0) {
+				System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+				size--;
+			}
+		}
+
+		private boolean contains(long stockId) {
+			return Arrays.binarySearch(ids, 0, size, stockId) >= 0;
+		}
+	}
+}
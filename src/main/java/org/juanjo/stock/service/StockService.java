@@ -1,11 +1,28 @@
 package org.juanjo.stock.service;
 
+import org.juanjo.stock.dto.CandleDTO;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
 import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
 import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.utils.StockField;
 
+import java.time.LocalDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Service that manages the stock
@@ -22,11 +39,93 @@ public interface StockService {
 	StockDTO getById(Long stockId) throws NotFoundException;
 
 	/**
-	 * Retrieves the full list of existing stocks
+	 * Gets some fields of the stock by the {@code stockId} provided. A stock in memory is returned whole, and otherwise
+	 * only the columns of the given fields are read from the database, without loading the entity.
 	 *
-	 * @return list of stocks
+	 * @param stockId that identify the stock
+	 * @param fields  to get. The id, the version and the last update are always read, to validate conditional requests
+	 * @return found stock, with at least the given fields
+	 * @throws NotFoundException when stock is not found
+	 */
+	StockDTO getById(Long stockId, Set<StockField> fields) throws NotFoundException;
+
+	/**
+	 * Gets many stocks by their ids at once. Stocks in memory are taken from there, and the rest are read from the
+	 * database with a query per chunk of ids. Ids without a stock are reported instead of failing the whole request, and
+	 * repeated ids are only returned once.
+	 *
+	 * @param stockIds that identify the stocks
+	 * @return found stocks and missing ids, both in the order of the requested ids
+	 * @throws BadRequestException when no ids are provided, there are more than allowed or any of them is null
+	 */
+	StockBatchDTO getByIds(List<Long> stockIds) throws BadRequestException;
+
+	/**
+	 * Streams the full list of existing stocks, in ascending id order, to the given {@code consumer}. Stocks are read
+	 * through a forward-only cursor so the list is never fully loaded in memory.
+	 *
+	 * @param consumer that receives every stock
+	 */
+	void listStocks(Consumer<StockDTO> consumer);
+
+	/**
+	 * Streams some fields of every existing stock, in ascending id order, to the given {@code consumer}. Only the columns
+	 * of the given fields are read from the database.
+	 *
+	 * @param fields   to get. The id and the version are always read
+	 * @param consumer that receives every stock, with at least the given fields
 	 */
-	List<StockDTO> listStocks();
+	void listStockFields(Set<StockField> fields, Consumer<StockDTO> consumer);
+
+	/**
+	 * Retrieves one page of stocks, in ascending id order, starting after the given {@code cursor}
+	 *
+	 * @param cursor opaque cursor returned with the previous page, or null to get the first page
+	 * @param limit  maximum number of stocks to return, or null to use the default one
+	 * @return page of stocks with the cursor of the next page, which is null when there are no more stocks
+	 * @throws BadRequestException when the cursor or the limit are not valid
+	 */
+	StockPageDTO listStocks(String cursor, Integer limit) throws BadRequestException;
+
+	/**
+	 * Retrieves some fields of one page of stocks, in ascending id order, starting after the given {@code cursor}. Only
+	 * the columns of the given fields are read from the database.
+	 *
+	 * @param cursor opaque cursor returned with the previous page, or null to get the first page
+	 * @param limit  maximum number of stocks to return, or null to use the default one
+	 * @param fields to get. The id and the version are always read
+	 * @return page of stocks, with at least the given fields, and the cursor of the next page
+	 * @throws BadRequestException when the cursor or the limit are not valid
+	 */
+	StockPageDTO listStocks(String cursor, Integer limit, Set<StockField> fields) throws BadRequestException;
+
+	/**
+	 * Retrieves the stocks created or updated after the given {@code watermark}, in the order they changed, so clients
+	 * can keep a copy of the stocks up to date by reading only what changed. Every write takes a number from a sequence
+	 * that is indexed along with the stocks, so the cost does not depend on the number of stocks unchanged. A stock
+	 * changed more than once is returned once, in its latest state. Updates written behind are returned once they are
+	 * written to the database, and deleted stocks are not reported.
+	 *
+	 * @param watermark opaque watermark returned by the previous call, or null to read every stock
+	 * @param limit     maximum number of stocks to return, or null to use the default one
+	 * @return changed stocks with the watermark to read the next changes from
+	 * @throws BadRequestException when the watermark or the limit are not valid
+	 */
+	StockChangesDTO getChanges(String watermark, Integer limit) throws BadRequestException;
+
+	/**
+	 * Searches the stocks whose name contains the given {@code query}, ignoring case. Stocks whose name starts with the
+	 * query come first, then the ones with a word starting with it and then the rest. Queries shorter than three
+	 * characters only match the start of the names.
+	 *
+	 * @param query  to find in the names
+	 * @param cursor opaque cursor returned with the previous page, or null to get the first page
+	 * @param limit  maximum number of stocks to return, or null to use the default one
+	 * @return page of matching stocks with the cursor of the next page, which is null when there are no more matches
+	 * @throws BadRequestException when the query, the cursor or the limit are not valid
+	 * @throws NotFoundException   when the search is not enabled
+	 */
+	StockPageDTO searchStocks(String query, String cursor, Integer limit) throws BadRequestException, NotFoundException;
 
 	/**
 	 * Creates the stock providing the necessary data
@@ -37,11 +136,89 @@ public interface StockService {
 	StockDTO createStock(CreateStockDTO request);
 
 	/**
-	 * Updates the attributes of the given {@code stockId}
+	 * Creates many stocks at once. Every stock is validated before any of them is created, and they are inserted in
+	 * chunks of JDBC batches, with ids allocated from a sequence in blocks, in a single transaction.
+	 *
+	 * @param requests with the needed parameters to create every stock
+	 * @return ids of the created stocks, in the order of the requests
+	 * @throws BadRequestException when no stocks are provided, there are more than allowed or any of them is not valid
+	 */
+	List<Long> createStocks(List<CreateStockDTO> requests) throws BadRequestException;
+
+	/**
+	 * Imports stocks as they are read, inserting the ones that do not exist with their own ids and overwriting the name
+	 * and current price of the rest. Stocks are written in chunks, each one in its own transaction, so the import can
+	 * be of any size. Stocks that cannot be read or are not valid are skipped and reported.
+	 *
+	 * @param stocks to import, read one at a time
+	 * @return number of imported stocks and the errors found
+	 * @throws ConflictException when a stock is updated concurrently, so the import has to be retried
+	 */
+	StockImportResultDTO importStocks(Iterator<StockDTO> stocks) throws ConflictException;
+
+	/**
+	 * Updates the attributes of the given {@code stockId}. When an entity tag is provided, the stock is only updated while
+	 * it is still in the state the tag was built from, so an update based on a stale read is rejected instead of silently
+	 * overwriting a newer one. Unless updates are written behind, the stock is written with a single conditional
+	 * statement, without reading it first.
 	 *
 	 * @param stockId to update
 	 * @param request with all stock attributes to update
-	 * @throws NotFoundException when stock is not found
+	 * @param eTag    entity tag the stock must match, or null to update it unconditionally
+	 * @return updated stock
+	 * @throws NotFoundException           when stock is not found
+	 * @throws PreconditionFailedException when the stock does not match the entity tag
+	 */
+	StockDTO updateStock(Long stockId, UpdateStockDTO request, String eTag) throws NotFoundException, PreconditionFailedException;
+
+	/**
+	 * Updates the current price of many stocks at once. Prices are applied in chunks, each one loaded with a single query
+	 * and written with a batch of updates. Entries that cannot be applied are reported by id instead of failing the whole
+	 * request. When the same id is repeated, its last price is applied.
+	 *
+	 * @param prices new current price by stock id
+	 * @return number of updated stocks and the entries that could not be applied
+	 * @throws BadRequestException when no prices are provided or there are more than allowed
+	 * @throws ConflictException   when any stock is updated concurrently, in which case no price is applied
+	 */
+	PriceUpdateResultDTO updatePrices(List<PriceUpdateDTO> prices) throws BadRequestException, ConflictException;
+
+	/**
+	 * Gets the price history of a stock aggregated in OHLC candles. Every price set when the stock is created or updated
+	 * is recorded in the history.
+	 *
+	 * @param stockId  that identify the stock
+	 * @param from     start of the history. One day before {@code to} when not provided
+	 * @param to       end of the history. Now when not provided
+	 * @param interval covered by every candle, such as {@code 1m} or {@code 1h}. One minute when not provided
+	 * @return candles in time order, only for the intervals with any price
+	 * @throws NotFoundException   when stock is not found
+	 * @throws BadRequestException when the range or the interval are not valid
+	 */
+	List<CandleDTO> getHistory(Long stockId, LocalDateTime from, LocalDateTime to, String interval)
+			throws NotFoundException, BadRequestException;
+
+	/**
+	 * Gets the stocks at the top of a ranking, either by their percent change since the open of the current session or
+	 * by their current price. Rankings are kept up to date as stocks are written, so the cost of the query only depends
+	 * on the number of stocks returned.
+	 *
+	 * @param by    ranking to read, {@code change} or {@code price}. Change when not provided
+	 * @param order {@code desc} to get the highest values first or {@code asc} to get the lowest ones. Desc when not provided
+	 * @param limit maximum number of stocks to return, or null to use the default one
+	 * @return stocks in ranking order
+	 * @throws BadRequestException when the ranking, the order or the limit are not valid
+	 * @throws NotFoundException   when the rankings are not enabled
+	 */
+	List<StockMoverDTO> getTopStocks(String by, String order, Integer limit) throws BadRequestException, NotFoundException;
+
+	/**
+	 * Gets the aggregate statistics of the stocks in the current session: their count, lowest, highest and average
+	 * prices, and how many have gone up, down or stayed unchanged since the open. Statistics are kept up to date as
+	 * stocks are written, without scanning them.
+	 *
+	 * @return statistics of the stocks
+	 * @throws NotFoundException when the rankings are not enabled
 	 */
-	void updateStock(Long stockId, UpdateStockDTO request) throws NotFoundException;
+	MarketStatsDTO getStats() throws NotFoundException;
 }
@@ -2,54 +2,925 @@ package org.juanjo.stock.service;
 
 import lombok.extern.slf4j.Slf4j;
 import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.CandleDTO;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateFailureDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
 import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
 import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.exception.ServiceUnavailableException;
 import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.StockWriteBehind.PendingUpdate;
+import org.juanjo.stock.utils.CandleInterval;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockCursor;
+import org.juanjo.stock.utils.StockETag;
+import org.juanjo.stock.utils.StockField;
+import org.juanjo.stock.utils.TransactionUtils;
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.List;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class StockServiceImpl implements StockService {
 	@Autowired
 	private StockRepository stockRepository;
+	@Autowired
+	private StockCache stockCache;
+	@Autowired
+	private PriceHistory priceHistory;
+	@Autowired
+	private StockBroadcaster stockBroadcaster;
+	@Autowired
+	private StockVersion stockVersion;
+	@Autowired
+	private StockMetrics stockMetrics;
+	@Autowired
+	private StockChangeSequence stockChangeSequence;
+	@Autowired(required = false)
+	private PriceBook priceBook;
+	@Autowired(required = false)
+	private StockWriteBehind stockWriteBehind;
+	@Autowired(required = false)
+	private StockSearchIndex stockSearchIndex;
+	@Autowired(required = false)
+	private StockChangeLog stockChangeLog;
+	@Autowired(required = false)
+	private StockMovers stockMovers;
+	@Autowired(required = false)
+	private StockSingleFlight stockSingleFlight;
+	@Autowired
+	private Validator validator;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Publishes the updates written by the write-behind queue, as queued updates are published with the version stored
+	 * before them, which only changes once they are written
+	 */
+	@PostConstruct
+	public void init() {
+		if (stockWriteBehind != null) {
+			stockWriteBehind.onFlushed(this::publish);
+		}
+	}
 
 	@Override
 	public StockDTO getById(Long stockId) throws NotFoundException {
+		if (priceBook != null) {
+			StockDTO stock = priceBook.get(stockId);
+			if (stock == null) {
+				log.debug("Stock id {} not found", stockId);
+				throw new NotFoundException();
+			}
+			return stock;
+		}
+		StockDTO cached = stockCache.get(stockId);
+		if (cached != null) {
+			return cached;
+		}
+		// concurrent misses of the same stock share a single query
+		return stockSingleFlight != null ? stockSingleFlight.load(stockId, () -> load(stockId)) : load(stockId);
+	}
+
+	private StockDTO load(Long stockId) throws NotFoundException {
 		Stock stock = stockRepository.findById(stockId).orElseThrow( () -> {
 			log.debug("Stock id {} not found", stockId);
 			return new NotFoundException();
 		});
-		return new StockDTO(stock);
+		StockDTO result = toStockDTO(stock);
+		stockCache.put(result);
+		return result;
+	}
+
+	@Override
+	public StockDTO getById(Long stockId, Set<StockField> fields) throws NotFoundException {
+		StockDTO inMemory = priceBook != null ? priceBook.get(stockId) : stockCache.get(stockId);
+		if (inMemory != null) {
+			return inMemory;
+		}
+		if (priceBook != null) {
+			log.debug("Stock id {} not found", stockId);
+			throw new NotFoundException();
+		}
+		// a projection is never cached, as the cache only holds whole stocks
+		Set<StockField> columns = EnumSet.copyOf(fields);
+		columns.add(StockField.LAST_UPDATE);
+		StockDTO stock = stockRepository.findProjectionById(stockId, columns).orElseThrow(() -> {
+			log.debug("Stock id {} not found", stockId);
+			return new NotFoundException();
+		});
+		return withQueuedUpdate(stock);
+	}
+
+	@Override
+	public StockBatchDTO getByIds(List<Long> stockIds) throws BadRequestException {
+		List<Long> distinctIds = distinctIds(stockIds);
+		List<StockDTO> stocks = findAllById(distinctIds);
+		if (stocks.size() == distinctIds.size()) {
+			return new StockBatchDTO(stocks, Collections.emptyList());
+		}
+		Set<Long> found = stocks.stream().map(StockDTO::getId).collect(Collectors.toSet());
+		List<Long> missing = distinctIds.stream().filter(stockId -> !found.contains(stockId)).collect(Collectors.toList());
+		log.debug("{} of {} stock ids not found", missing.size(), distinctIds.size());
+		return new StockBatchDTO(stocks, missing);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void listStocks(Consumer<StockDTO> consumer) {
+		if (priceBook != null) {
+			priceBook.forEach(consumer);
+			return;
+		}
+		try (Stream<StockDTO> stocks = stockRepository.streamAll()) {
+			stocks.forEach(consumer);
+		}
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public void listStockFields(Set<StockField> fields, Consumer<StockDTO> consumer) {
+		if (priceBook != null) {
+			priceBook.forEach(consumer);
+			return;
+		}
+		try (Stream<StockDTO> stocks = stockRepository.streamAllProjections(fields)) {
+			stocks.forEach(consumer);
+		}
 	}
 
 	@Override
-	public List<StockDTO> listStocks() {
-		return stockRepository.findAll().stream().map(StockDTO::new).collect(Collectors.toList());
+	public StockPageDTO listStocks(String cursor, Integer limit, Set<StockField> fields) throws BadRequestException {
+		int pageSize = pageSize(limit);
+		long afterId = cursor == null ? 0 : StockCursor.decode(cursor);
+		List<StockDTO> stocks = priceBook != null ? priceBook.page(afterId, pageSize + 1) :
+				stockRepository.findProjectionPageAfter(afterId, fields, pageSize + 1);
+		if (stocks.size() <= pageSize) {
+			return new StockPageDTO(stocks, null);
+		}
+		List<StockDTO> page = stocks.subList(0, pageSize);
+		return new StockPageDTO(page, StockCursor.encode(page.get(pageSize - 1).getId()));
 	}
 
 	@Override
+	public StockPageDTO listStocks(String cursor, Integer limit) throws BadRequestException {
+		int pageSize = pageSize(limit);
+		long afterId = cursor == null ? 0 : StockCursor.decode(cursor);
+		// one extra row tells whether there is a next page without a count query
+		List<StockDTO> stocks = priceBook != null ? priceBook.page(afterId, pageSize + 1) :
+				stockRepository.findPageAfter(afterId, PageRequest.of(0, pageSize + 1));
+		if (stocks.size() <= pageSize) {
+			return new StockPageDTO(stocks, null);
+		}
+		List<StockDTO> page = stocks.subList(0, pageSize);
+		return new StockPageDTO(page, StockCursor.encode(page.get(pageSize - 1).getId()));
+	}
+
+	@Override
+	public StockChangesDTO getChanges(String watermark, Integer limit) throws BadRequestException {
+		int pageSize = pageSize(limit);
+		// the watermark holds the change sequence and the id of the last stock returned, as stocks loaded from outside share 0
+		long[] position = watermark == null ? new long[]{-1, 0} : StockCursor.decode(watermark, 2);
+		// changes numbered after the oldest open transaction are left for later, as lower numbers may still be committed
+		long maxSeq = stockChangeSequence.watermark();
+		List<Stock> stocks = stockRepository.findChangesAfter(position[0], position[1], maxSeq, PageRequest.of(0, pageSize + 1));
+		List<Stock> page = stocks.subList(0, Math.min(pageSize, stocks.size()));
+		if (!page.isEmpty()) {
+			Stock last = page.get(page.size() - 1);
+			position = new long[]{last.getChangeSeq(), last.getId()};
+		}
+		return new StockChangesDTO(page.stream().map(StockDTO::new).collect(Collectors.toList()), StockCursor.encode(position),
+				stocks.size() > pageSize);
+	}
+
+	@Override
+	public StockPageDTO searchStocks(String query, String cursor, Integer limit) throws BadRequestException, NotFoundException {
+		if (stockSearchIndex == null) {
+			throw new NotFoundException();
+		}
+		if (query == null || query.isBlank() || query.length() > StockConstants.NAME_MAX_LENGTH) {
+			throw new BadRequestException("Query must have between " + StockConstants.NAME_MIN_LENGTH + " and " +
+					StockConstants.NAME_MAX_LENGTH + " characters");
+		}
+		int pageSize = pageSize(limit);
+		// the cursor of a search holds the number of matches already returned
+		long offset = cursor == null ? 0 : StockCursor.decode(cursor);
+		if (offset < 0 || offset > StockConstants.SEARCH_MAX_OFFSET) {
+			throw new BadRequestException("Invalid cursor");
+		}
+		// one extra match tells whether there is a next page
+		List<Long> stockIds = stockSearchIndex.search(query, (int) offset, pageSize + 1);
+		List<StockDTO> stocks = findAllById(stockIds.subList(0, Math.min(pageSize, stockIds.size())));
+		return new StockPageDTO(stocks, stockIds.size() > pageSize ? StockCursor.encode(offset + pageSize) : null);
+	}
+
+	@Override
+	@Transactional
 	public StockDTO createStock(CreateStockDTO request) {
 		Stock stock = new Stock();
 		stock.setName(request.getName());
 		stock.setCurrentPrice(request.getCurrentPrice());
 		stockRepository.save(stock);
+		priceHistory.record(stock.getId(), stock.getCurrentPrice(), stock.getLastUpdate());
 		log.debug("Stock id {} has been created", stock.getId());
-		return new StockDTO(stock);
+		StockDTO result = new StockDTO(stock);
+		TransactionUtils.afterCommit(() -> publish(result));
+		return result;
 	}
 
 	@Override
-	public void updateStock(Long stockId, UpdateStockDTO request) throws NotFoundException {
-		Stock stock = stockRepository.findById(stockId).orElseThrow(NotFoundException::new);
-		stock.setName(request.getName());
-		stock.setCurrentPrice(request.getCurrentPrice());
-		stockRepository.save(stock);
+	@Transactional
+	public List<Long> createStocks(List<CreateStockDTO> requests) throws BadRequestException {
+		validate(requests);
+		// the whole chunk goes in a single JDBC batch, as the ids come from the sequence without a round trip per row
+		entityManager.unwrap(Session.class).setJdbcBatchSize(StockConstants.BULK_UPDATE_CHUNK_SIZE);
+		List<StockDTO> created = new ArrayList<>(requests.size());
+		for (int from = 0; from < requests.size(); from += StockConstants.BULK_UPDATE_CHUNK_SIZE) {
+			List<CreateStockDTO> chunk = requests.subList(from, Math.min(from + StockConstants.BULK_UPDATE_CHUNK_SIZE, requests.size()));
+			List<Stock> stocks = new ArrayList<>(chunk.size());
+			for (CreateStockDTO request : chunk) {
+				Stock stock = new Stock();
+				stock.setName(request.getName());
+				stock.setCurrentPrice(request.getCurrentPrice());
+				entityManager.persist(stock);
+				stocks.add(stock);
+			}
+			entityManager.flush();
+			stocks.forEach(stock -> {
+				created.add(new StockDTO(stock));
+				priceHistory.record(stock.getId(), stock.getCurrentPrice(), stock.getLastUpdate());
+			});
+			// the ticks are inserted in their own batch, and clearing keeps the persistence context from growing
+			entityManager.flush();
+			entityManager.clear();
+		}
+		TransactionUtils.afterCommit(() -> created.forEach(this::publish));
+		log.debug("{} stocks have been created", created.size());
+		return created.stream().map(StockDTO::getId).collect(Collectors.toList());
+	}
+
+	@Override
+	@Transactional
+	public StockDTO updateStock(Long stockId, UpdateStockDTO request, String eTag) throws NotFoundException, PreconditionFailedException {
+		if (stockWriteBehind != null) {
+			// checks that the stock exists, from memory whenever possible
+			StockDTO current = getById(stockId);
+			AtomicReference<StockDTO> result = new AtomicReference<>();
+			if (!stockWriteBehind.update(stockId, request.getName(), request.getCurrentPrice(), () -> matches(stockId, eTag),
+					pendingUpdate -> result.set(publishQueued(stockId, pendingUpdate, current)))) {
+				log.debug("Stock id {} does not match {}", stockId, eTag);
+				throw new PreconditionFailedException();
+			}
+			log.debug("Stock id {} update has been queued", stockId);
+			return result.get();
+		}
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+		Optional<Long> version;
+		if (eTag == null) {
+			version = stockRepository.updateReturningVersion(stockId, request.getName(), request.getCurrentPrice(), now,
+					stockChangeSequence.next());
+		} else {
+			Long expectedVersion = StockETag.version(eTag, stockId);
+			version = expectedVersion == null ? Optional.empty() :
+					stockRepository.updateIfVersion(stockId, expectedVersion, request.getName(), request.getCurrentPrice(), now,
+							stockChangeSequence.next());
+		}
+		if (version.isEmpty()) {
+			// only a failed update has to tell a missing stock from a stale one
+			if (eTag != null && stockRepository.existsById(stockId)) {
+				log.debug("Stock id {} does not match {}", stockId, eTag);
+				throw new PreconditionFailedException();
+			}
+			log.debug("Stock id {} not found", stockId);
+			throw new NotFoundException();
+		}
+		priceHistory.record(stockId, request.getCurrentPrice(), now);
+		StockDTO result = new StockDTO(stockId, request.getName(), request.getCurrentPrice(), now, version.get());
+		TransactionUtils.afterCommit(() -> publish(result));
 		log.debug("Stock id {} has been updated", stockId);
+		return result;
+	}
+
+	@Override
+	@Transactional(rollbackFor = ConflictException.class)
+	public PriceUpdateResultDTO updatePrices(List<PriceUpdateDTO> prices) throws BadRequestException, ConflictException {
+		if (prices == null || prices.isEmpty() || prices.size() > StockConstants.BULK_UPDATE_MAX_SIZE) {
+			throw new BadRequestException("Between 1 and " + StockConstants.BULK_UPDATE_MAX_SIZE + " prices must be provided");
+		}
+		List<PriceUpdateFailureDTO> failures = new ArrayList<>();
+		Map<Long, Double> pricesById = new LinkedHashMap<>();
+		for (PriceUpdateDTO price : prices) {
+			if (price.getId() == null) {
+				failures.add(new PriceUpdateFailureDTO(null, "Id is mandatory"));
+			} else if (price.getCurrentPrice() == null) {
+				failures.add(new PriceUpdateFailureDTO(price.getId(), "Current Price is mandatory"));
+			} else if (price.getCurrentPrice() < 0) {
+				failures.add(new PriceUpdateFailureDTO(price.getId(), "Current Price cannot be negative"));
+			} else {
+				pricesById.put(price.getId(), price.getCurrentPrice());
+			}
+		}
+		List<Long> stockIds = new ArrayList<>(pricesById.keySet());
+		List<StockDTO> updated = new ArrayList<>(stockIds.size());
+		int queued = 0;
+		for (int from = 0; from < stockIds.size(); from += StockConstants.BULK_UPDATE_CHUNK_SIZE) {
+			List<Long> chunk = stockIds.subList(from, Math.min(from + StockConstants.BULK_UPDATE_CHUNK_SIZE, stockIds.size()));
+			if (stockWriteBehind != null) {
+				queued += queuePrices(chunk, pricesById, failures);
+			} else {
+				try {
+					updated.addAll(applyPrices(chunk, pricesById, failures));
+				} catch (OptimisticLockException e) {
+					log.debug("Stock prices have been updated concurrently", e);
+					throw new ConflictException("Stocks have been updated concurrently, retry the request");
+				}
+			}
+		}
+		TransactionUtils.afterCommit(() -> updated.forEach(this::publish));
+		log.debug("{} stock prices have been updated, {} failed", updated.size() + queued, failures.size());
+		return new PriceUpdateResultDTO(updated.size() + queued, failures);
+	}
+
+	@Override
+	public List<CandleDTO> getHistory(Long stockId, LocalDateTime from, LocalDateTime to, String interval)
+			throws NotFoundException, BadRequestException {
+		getById(stockId);
+		LocalDateTime end = to == null ? LocalDateTime.now() : to;
+		LocalDateTime start = from == null ? end.minusDays(StockConstants.HISTORY_DEFAULT_DAYS) : from;
+		if (!start.isBefore(end)) {
+			throw new BadRequestException("From must be before to");
+		}
+		CandleInterval candleInterval = interval == null ? CandleInterval.ONE_MINUTE : CandleInterval.fromValue(interval);
+		return priceHistory.getCandles(stockId, start, end, candleInterval);
+	}
+
+	@Override
+	public List<StockMoverDTO> getTopStocks(String by, String order, Integer limit) throws BadRequestException, NotFoundException {
+		if (stockMovers == null) {
+			throw new NotFoundException();
+		}
+		StockMovers.Ranking ranking = ranking(by);
+		boolean ascending = ascending(order);
+		int size = limit == null ? StockConstants.TOP_DEFAULT_LIMIT : pageSize(limit);
+		return stockMovers.top(ranking, ascending, size);
+	}
+
+	@Override
+	public MarketStatsDTO getStats() throws NotFoundException {
+		if (stockMovers == null) {
+			throw new NotFoundException();
+		}
+		return stockMovers.stats();
+	}
+
+	/**
+	 * Creates a stock with the given id instead of a generated one, as the nodes of a cluster assign the ids they own
+	 *
+	 * @param request with the needed parameters to create the stock
+	 * @param stockId that will identify the stock
+	 * @return created stock
+	 */
+	@Transactional
+	public StockDTO createStock(CreateStockDTO request, long stockId) {
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+		stockRepository.insert(stockId, request.getName(), request.getCurrentPrice(), now, stockChangeSequence.next());
+		priceHistory.record(stockId, request.getCurrentPrice(), now);
+		log.debug("Stock id {} has been created", stockId);
+		StockDTO result = new StockDTO(stockId, request.getName(), request.getCurrentPrice(), now, 0L);
+		TransactionUtils.afterCommit(() -> publish(result));
+		return result;
+	}
+
+	/**
+	 * Creates many stocks with the given ids instead of generated ones, as the nodes of a cluster assign the ids they
+	 * own. Every stock is validated before any id is assigned.
+	 *
+	 * @param requests with the needed parameters to create every stock
+	 * @param stockIds supplies the id of every stock, in the order of the requests
+	 * @return ids of the created stocks, in the order of the requests
+	 * @throws BadRequestException when no stocks are provided, there are more than allowed or any of them is not valid
+	 */
+	@Transactional
+	public List<Long> createStocks(List<CreateStockDTO> requests, LongSupplier stockIds) throws BadRequestException {
+		validate(requests);
+		LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+		List<StockDTO> created = new ArrayList<>(requests.size());
+		for (CreateStockDTO request : requests) {
+			long stockId = stockIds.getAsLong();
+			stockRepository.insert(stockId, request.getName(), request.getCurrentPrice(), now, stockChangeSequence.next());
+			priceHistory.record(stockId, request.getCurrentPrice(), now);
+			created.add(new StockDTO(stockId, request.getName(), request.getCurrentPrice(), now, 0L));
+			if (created.size() % StockConstants.BULK_UPDATE_CHUNK_SIZE == 0) {
+				entityManager.flush();
+				entityManager.clear();
+			}
+		}
+		TransactionUtils.afterCommit(() -> created.forEach(this::publish));
+		log.debug("{} stocks have been created", created.size());
+		return created.stream().map(StockDTO::getId).collect(Collectors.toList());
+	}
+
+	@Override
+	public StockImportResultDTO importStocks(Iterator<StockDTO> stocks) throws ConflictException {
+		if (stockWriteBehind != null) {
+			// updates queued before the import must not overwrite it when they are written later
+			stockWriteBehind.flush();
+		}
+		AtomicLong maxId = new AtomicLong();
+		try {
+			return importStocks(stocks, chunk -> {
+				chunk.forEach(stock -> maxId.accumulateAndGet(stock.getId(), Math::max));
+				return upsertStocks(chunk);
+			});
+		} finally {
+			reserveIds(maxId.get());
+		}
+	}
+
+	/**
+	 * Imports stocks as they are read, handing them to the given writer in chunks. Stocks that cannot be read or are not
+	 * valid are skipped and reported by their position in the input. When an id is repeated within a chunk, only its
+	 * last stock is written.
+	 *
+	 * @param stocks to import, read one at a time
+	 * @param writer of every chunk of valid stocks
+	 * @return number of imported stocks and the errors found
+	 * @throws ConflictException when a stock is updated concurrently, so the import has to be retried
+	 */
+	public StockImportResultDTO importStocks(Iterator<StockDTO> stocks, ChunkWriter writer) throws ConflictException {
+		long imported = 0;
+		long failed = 0;
+		List<String> errors = new ArrayList<>();
+		Map<Long, StockDTO> chunk = new LinkedHashMap<>();
+		for (long index = 0; stocks.hasNext(); index++) {
+			String error;
+			try {
+				StockDTO stock = stocks.next();
+				error = validate(stock);
+				if (error == null) {
+					chunk.put(stock.getId(), stock);
+				}
+			} catch (IllegalArgumentException e) {
+				error = e.getMessage();
+			}
+			if (error != null) {
+				failed++;
+				if (errors.size() < StockConstants.IMPORT_MAX_ERRORS) {
+					errors.add("Stock " + index + ": " + error);
+				}
+			}
+			if (chunk.size() == StockConstants.BULK_UPDATE_CHUNK_SIZE) {
+				imported += writer.write(new ArrayList<>(chunk.values()));
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			imported += writer.write(new ArrayList<>(chunk.values()));
+		}
+		log.debug("{} stocks have been imported, {} failed", imported, failed);
+		return new StockImportResultDTO(imported, failed, errors);
+	}
+
+	/**
+	 * Writes a chunk of imported stocks in its own transaction. The stocks that exist are loaded with a single query and
+	 * updated with batched statements, and the rest are inserted with their own ids.
+	 *
+	 * @param stocks to write, with distinct ids
+	 * @return number of stocks written
+	 * @throws ConflictException when a stock is updated or created concurrently
+	 */
+	public int upsertStocks(List<StockDTO> stocks) throws ConflictException {
+		try {
+			return new TransactionTemplate(transactionManager).execute(status -> {
+				Map<Long, StockDTO> missing = new LinkedHashMap<>();
+				stocks.forEach(stock -> missing.put(stock.getId(), stock));
+				List<Stock> existing = stockRepository.findAllById(missing.keySet());
+				existing.forEach(stock -> {
+					StockDTO imported = missing.remove(stock.getId());
+					stock.setName(imported.getName());
+					stock.setCurrentPrice(imported.getCurrentPrice());
+				});
+				entityManager.flush();
+				List<StockDTO> written = new ArrayList<>(stocks.size());
+				existing.forEach(stock -> written.add(new StockDTO(stock)));
+				LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+				missing.values().forEach(stock -> {
+					stockRepository.insert(stock.getId(), stock.getName(), stock.getCurrentPrice(), now, stockChangeSequence.next());
+					written.add(new StockDTO(stock.getId(), stock.getName(), stock.getCurrentPrice(), now, 0L));
+				});
+				written.forEach(stock -> priceHistory.record(stock.getId(), stock.getCurrentPrice(), stock.getLastUpdate()));
+				entityManager.flush();
+				entityManager.clear();
+				TransactionUtils.afterCommit(() -> written.forEach(this::publish));
+				return written.size();
+			});
+		} catch (OptimisticLockException | DataIntegrityViolationException e) {
+			log.debug("Imported stocks have been written concurrently", e);
+			throw new ConflictException("Stocks have been updated concurrently, retry the import");
+		}
+	}
+
+	/**
+	 * Stores stocks moved from another node. A stock that already exists is only overwritten by a newer version.
+	 *
+	 * @param stocks moved to this node
+	 * @return number of stocks written
+	 */
+	@Transactional
+	public int importStocks(List<StockDTO> stocks) {
+		List<StockDTO> written = new ArrayList<>(stocks.size());
+		for (StockDTO stock : stocks) {
+			// the stock gets a change sequence of this node, so the clients of this node read it as changed
+			if (stockRepository.mergeIfNewer(stock.getId(), stock.getName(), stock.getCurrentPrice(), stock.getLastUpdate(),
+					stock.getVersion(), stockChangeSequence.next()) > 0) {
+				written.add(stock);
+			}
+		}
+		TransactionUtils.afterCommit(() -> written.forEach(this::publish));
+		log.debug("{} of {} moved stocks have been stored", written.size(), stocks.size());
+		return written.size();
+	}
+
+	/**
+	 * Deletes stocks that have been moved to another node, unless they have been updated since they were copied
+	 *
+	 * @param stocks as they were copied
+	 * @return number of stocks deleted
+	 */
+	@Transactional
+	public int removeStocks(List<StockDTO> stocks) {
+		List<Long> removed = new ArrayList<>(stocks.size());
+		for (StockDTO stock : stocks) {
+			if (stockRepository.deleteIfVersion(stock.getId(), stock.getVersion()) > 0) {
+				removed.add(stock.getId());
+			}
+		}
+		TransactionUtils.afterCommit(() -> {
+			removed.forEach(stockId -> {
+				stockCache.invalidate(stockId);
+				if (stockSingleFlight != null) {
+					stockSingleFlight.forget(stockId);
+				}
+				if (stockSearchIndex != null) {
+					stockSearchIndex.remove(stockId);
+				}
+				if (stockChangeLog != null) {
+					stockChangeLog.remove(stockId);
+				}
+				if (stockMovers != null) {
+					stockMovers.remove(stockId);
+				}
+			});
+			stockVersion.increment();
+		});
+		log.debug("{} of {} moved stocks have been deleted", removed.size(), stocks.size());
+		return removed.size();
+	}
+
+	/**
+	 * Validates an imported stock
+	 *
+	 * @param stock to validate
+	 * @return errors found, or null when it is valid
+	 */
+	private String validate(StockDTO stock) {
+		if (stock == null) {
+			return "Stock is mandatory";
+		}
+		if (stock.getId() == null || stock.getId() <= 0) {
+			return "Id must be a positive number";
+		}
+		CreateStockDTO request = new CreateStockDTO();
+		request.setName(stock.getName());
+		request.setCurrentPrice(stock.getCurrentPrice());
+		Set<ConstraintViolation<CreateStockDTO>> violations = validator.validate(request);
+		return violations.isEmpty() ? null :
+				violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", "));
+	}
+
+	/**
+	 * Makes sure no id up to the given one is ever generated for a new stock, once stocks have been imported with their
+	 * own ids. The sequence is restarted after the id when it is behind, and the block of ids already allocated in
+	 * memory is used up, as it may still hold imported ids.
+	 *
+	 * @param maxId highest imported id
+	 */
+	private void reserveIds(long maxId) {
+		if (maxId == 0) {
+			return;
+		}
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			if (stockRepository.findNextSequenceValue() <= maxId) {
+				stockRepository.restartSequence(maxId + 1);
+			}
+			SharedSessionContractImplementor session = entityManager.unwrap(SharedSessionContractImplementor.class);
+			IdentifierGenerator generator = (IdentifierGenerator) session.getFactory().getMappingMetamodel()
+					.getEntityDescriptor(Stock.class).getGenerator();
+			long stockId;
+			do {
+				stockId = ((Number) generator.generate(session, null)).longValue();
+			} while (stockId <= maxId);
+		});
+	}
+
+	/**
+	 * Validates every stock of a batch, so none of them is created when any of them is not valid
+	 *
+	 * @param requests to validate
+	 * @throws BadRequestException with the first errors found, by position in the batch
+	 */
+	private void validate(List<CreateStockDTO> requests) throws BadRequestException {
+		if (requests == null || requests.isEmpty() || requests.size() > StockConstants.BATCH_CREATE_MAX_SIZE) {
+			throw new BadRequestException("Between 1 and " + StockConstants.BATCH_CREATE_MAX_SIZE + " stocks must be provided");
+		}
+		List<String> errors = new ArrayList<>();
+		for (int i = 0; i < requests.size() && errors.size() < StockConstants.BATCH_CREATE_MAX_ERRORS; i++) {
+			if (requests.get(i) == null) {
+				errors.add("Stock " + i + ": Stock is mandatory");
+				continue;
+			}
+			for (ConstraintViolation<CreateStockDTO> violation : validator.validate(requests.get(i))) {
+				errors.add("Stock " + i + ": " + violation.getMessage());
+			}
+		}
+		if (!errors.isEmpty()) {
+			throw new BadRequestException(String.join("; ", errors));
+		}
+	}
+
+	/**
+	 * Gets the stocks of the given ids from memory whenever possible, reading the rest from the database with a query
+	 * per chunk of ids
+	 *
+	 * @param stockIds of the stocks to get
+	 * @return found stocks, in the order of the ids
+	 */
+	private List<StockDTO> findAllById(List<Long> stockIds) {
+		Map<Long, StockDTO> found = new HashMap<>();
+		List<Long> missing = new ArrayList<>();
+		for (Long stockId : stockIds) {
+			StockDTO stock = priceBook != null ? priceBook.get(stockId) : stockCache.get(stockId);
+			if (stock != null) {
+				found.put(stockId, stock);
+			} else if (priceBook == null) {
+				missing.add(stockId);
+			}
+		}
+		for (int from = 0; from < missing.size(); from += StockConstants.BULK_UPDATE_CHUNK_SIZE) {
+			stockRepository.findAllById(missing.subList(from, Math.min(from + StockConstants.BULK_UPDATE_CHUNK_SIZE, missing.size())))
+					.forEach(entity -> {
+						StockDTO stock = toStockDTO(entity);
+						stockCache.put(stock);
+						found.put(stock.getId(), stock);
+					});
+		}
+		return stockIds.stream().map(found::get).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
+	/**
+	 * Writes a chunk of prices to the database with a single select and a batch of updates
+	 *
+	 * @param chunk      ids of the stocks to update
+	 * @param pricesById new price of every stock
+	 * @param failures   where the stocks not found are reported
+	 * @return updated stocks
+	 */
+	private List<StockDTO> applyPrices(List<Long> chunk, Map<Long, Double> pricesById, List<PriceUpdateFailureDTO> failures) {
+		Set<Long> missing = new HashSet<>(chunk);
+		List<Stock> stocks = stockRepository.findAllById(chunk);
+		stocks.forEach(stock -> {
+			stock.setCurrentPrice(pricesById.get(stock.getId()));
+			missing.remove(stock.getId());
+		});
+		// flushing runs the JDBC batch of the chunk, and clearing keeps the persistence context from growing
+		entityManager.flush();
+		List<StockDTO> updated = new ArrayList<>(stocks.size());
+		stocks.forEach(stock -> {
+			updated.add(new StockDTO(stock));
+			priceHistory.record(stock.getId(), stock.getCurrentPrice(), stock.getLastUpdate());
+		});
+		// the ticks need the time set by the first flush, and are inserted in their own batch
+		entityManager.flush();
+		entityManager.clear();
+		chunk.stream().filter(missing::contains).forEach(stockId -> failures.add(new PriceUpdateFailureDTO(stockId, "Stock not found")));
+		return updated;
+	}
+
+	/**
+	 * Queues a chunk of prices in the write-behind queue, once the stocks are known to exist
+	 *
+	 * @param chunk      ids of the stocks to update
+	 * @param pricesById new price of every stock
+	 * @param failures   where the stocks not found or not queued are reported
+	 * @return number of queued stocks
+	 */
+	private int queuePrices(List<Long> chunk, Map<Long, Double> pricesById, List<PriceUpdateFailureDTO> failures) {
+		Map<Long, StockDTO> stocks = new HashMap<>();
+		if (priceBook != null) {
+			chunk.stream().map(priceBook::get).filter(Objects::nonNull).forEach(stock -> stocks.put(stock.getId(), stock));
+		} else {
+			stockRepository.findAllById(chunk).forEach(stock -> stocks.put(stock.getId(), new StockDTO(stock)));
+			entityManager.clear();
+		}
+		int queued = 0;
+		for (Long stockId : chunk) {
+			StockDTO stock = stocks.get(stockId);
+			if (stock == null) {
+				failures.add(new PriceUpdateFailureDTO(stockId, "Stock not found"));
+				continue;
+			}
+			try {
+				stockWriteBehind.update(stockId, null, pricesById.get(stockId), pendingUpdate -> publishQueued(stockId, pendingUpdate, stock));
+				queued++;
+			} catch (ServiceUnavailableException e) {
+				failures.add(new PriceUpdateFailureDTO(stockId, e.getMessage()));
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Makes a queued update visible to readers
+	 *
+	 * @param stockId       that identify the stock
+	 * @param pendingUpdate coalesced update in the queue
+	 * @param known         state of the stock before the update, for the name and the version when it is not in memory
+	 * @return stock as published
+	 */
+	private StockDTO publishQueued(Long stockId, PendingUpdate pendingUpdate, StockDTO known) {
+		StockDTO current = priceBook != null ? priceBook.get(stockId) : stockCache.get(stockId);
+		StockDTO stock = toStockDTO(stockId, pendingUpdate, current != null ? current : known);
+		publish(stock);
+		return stock;
+	}
+
+	/**
+	 * Checks whether the current state of a stock matches an entity tag
+	 *
+	 * @param stockId that identify the stock
+	 * @param eTag    entity tag to match, or null to match any state
+	 * @return true when there is no tag, or the stock exists and matches it
+	 */
+	private boolean matches(Long stockId, String eTag) {
+		if (eTag == null) {
+			return true;
+		}
+		try {
+			return eTag.equals(StockETag.of(getById(stockId)));
+		} catch (NotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Makes a stock that has just been written visible to readers, appends it to the change log, and pushes it to the
+	 * subscribed clients
+	 *
+	 * @param stock written
+	 */
+	private void publish(StockDTO stock) {
+		if (priceBook != null) {
+			priceBook.put(stock);
+		} else {
+			stockCache.put(stock);
+		}
+		if (stockSingleFlight != null) {
+			stockSingleFlight.forget(stock.getId());
+		}
+		if (stockSearchIndex != null && stock.getName() != null) {
+			stockSearchIndex.put(stock);
+		}
+		if (stockChangeLog != null) {
+			stockChangeLog.put(stock);
+		}
+		if (stockMovers != null) {
+			stockMovers.put(stock);
+		}
+		stockVersion.increment();
+		stockBroadcaster.publish(stock);
+	}
+
+	static StockMovers.Ranking ranking(String by) throws BadRequestException {
+		if (by == null || by.equals("change")) {
+			return StockMovers.Ranking.CHANGE;
+		}
+		if (by.equals("price")) {
+			return StockMovers.Ranking.PRICE;
+		}
+		throw new BadRequestException("By must be one of change, price");
+	}
+
+	static boolean ascending(String order) throws BadRequestException {
+		if (order == null || order.equals("desc")) {
+			return false;
+		}
+		if (order.equals("asc")) {
+			return true;
+		}
+		throw new BadRequestException("Order must be one of asc, desc");
+	}
+
+	static List<Long> distinctIds(List<Long> stockIds) throws BadRequestException {
+		if (stockIds == null || stockIds.isEmpty() || stockIds.size() > StockConstants.MULTI_GET_MAX_SIZE) {
+			throw new BadRequestException("Between 1 and " + StockConstants.MULTI_GET_MAX_SIZE + " ids must be provided");
+		}
+		if (stockIds.contains(null)) {
+			throw new BadRequestException("Ids cannot be null");
+		}
+		return stockIds.stream().distinct().collect(Collectors.toList());
+	}
+
+	static int pageSize(Integer limit) throws BadRequestException {
+		int pageSize = limit == null ? StockConstants.PAGE_DEFAULT_LIMIT : limit;
+		if (pageSize < 1 || pageSize > StockConstants.PAGE_MAX_LIMIT) {
+			throw new BadRequestException("Limit must be between 1 and " + StockConstants.PAGE_MAX_LIMIT);
+		}
+		return pageSize;
+	}
+
+	/**
+	 * Maps a stock read from the database, applying its queued update if any, since the database lags behind the queue
+	 *
+	 * @param stock read from the database
+	 * @return latest state of the stock
+	 */
+	private StockDTO toStockDTO(Stock stock) {
+		long start = System.nanoTime();
+		StockDTO result = withQueuedUpdate(new StockDTO(stock));
+		stockMetrics.recordMapping(start);
+		return result;
+	}
+
+	/**
+	 * Applies the queued update of a stock read from the database, if any
+	 *
+	 * @param stock read from the database
+	 * @return latest state of the stock
+	 */
+	private StockDTO withQueuedUpdate(StockDTO stock) {
+		PendingUpdate pendingUpdate = stockWriteBehind != null ? stockWriteBehind.get(stock.getId()) : null;
+		return pendingUpdate != null ? toStockDTO(stock.getId(), pendingUpdate, stock) : stock;
+	}
+
+	/**
+	 * Builds the state of a stock with a queued update. The version is the one of the database, which only changes when
+	 * the queue is flushed.
+	 */
+	private static StockDTO toStockDTO(Long stockId, PendingUpdate pendingUpdate, StockDTO current) {
+		String name = pendingUpdate.getName() != null ? pendingUpdate.getName() : current.getName();
+		return new StockDTO(stockId, name, pendingUpdate.getCurrentPrice(), pendingUpdate.getLastUpdate(), current.getVersion());
+	}
+
+	/**
+	 * Writes a chunk of imported stocks
+	 */
+	@FunctionalInterface
+	public interface ChunkWriter {
+		/**
+		 * Writes the stocks of a chunk
+		 *
+		 * @param stocks to write, with distinct ids
+		 * @return number of stocks written
+		 * @throws ConflictException when a stock is updated or created concurrently
+		 */
+		int write(List<StockDTO> stocks) throws ConflictException;
 	}
 }
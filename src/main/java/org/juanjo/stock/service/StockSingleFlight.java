@@ -0,0 +1,140 @@
+package org.juanjo.stock.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent loads of the same stock, so a burst of reads of a stock missing from the cache runs a single
+ * query. The first caller loads the stock in its own thread, and the callers that ask for it meanwhile wait for that
+ * load and get its result, or its error. Waiters give up after the timeout, while the load goes on for the rest.
+ * <p>
+ * A write forgets the load in flight of its stock, so the reads that start after it never get a stock read before it.
+ * Loads, coalesced calls and timeouts are published as metrics of {@code stock.single-flight}.
+ */
+@Component
+@ConditionalOnProperty(name = "stock.single-flight.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class StockSingleFlight implements MeterBinder {
+	private final ConcurrentMap<Long, CompletableFuture<StockDTO>> inFlight = new ConcurrentHashMap<>();
+	private final long timeoutNanos;
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	public StockSingleFlight(@Value("${stock.single-flight.timeout:2s}") Duration timeout) {
+		this.timeoutNanos = timeout.toNanos();
+	}
+
+	/**
+	 * Loads the stock, or waits for the load of it already in flight
+	 *
+	 * @param stockId that identify the stock
+	 * @param loader  that reads the stock when no load of it is in flight
+	 * @return loaded stock
+	 * @throws NotFoundException           when the stock does not exist
+	 * @throws ServiceUnavailableException when the load in flight does not finish before the timeout
+	 */
+	public StockDTO load(Long stockId, Loader loader) throws NotFoundException {
+		CompletableFuture<StockDTO> load = new CompletableFuture<>();
+		CompletableFuture<StockDTO> current = inFlight.putIfAbsent(stockId, load);
+		if (current != null) {
+			coalesced.increment();
+			return await(stockId, current);
+		}
+		loads.increment();
+		try {
+			StockDTO stock = loader.load();
+			load.complete(stock);
+			return stock;
+		} catch (NotFoundException | RuntimeException | Error e) {
+			load.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(stockId, load);
+		}
+	}
+
+	/**
+	 * Forgets the load in flight of the stock, so the next call loads it again. It must be called when the stock is
+	 * written.
+	 *
+	 * @param stockId that identify the stock
+	 */
+	public void forget(Long stockId) {
+		inFlight.remove(stockId);
+	}
+
+	/**
+	 * Gets the number of calls that waited for a load in flight instead of loading the stock
+	 *
+	 * @return coalesced calls since startup
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("stock.single-flight", loads, LongAdder::sum).description("Calls that loaded a stock")
+				.tag("result", "load").register(registry);
+		FunctionCounter.builder("stock.single-flight", coalesced, LongAdder::sum)
+				.description("Calls that waited for the load of a stock in flight").tag("result", "coalesced").register(registry);
+		FunctionCounter.builder("stock.single-flight", timeouts, LongAdder::sum)
+				.description("Calls that timed out waiting for the load of a stock in flight").tag("result", "timeout")
+				.register(registry);
+	}
+
+	private StockDTO await(Long stockId, CompletableFuture<StockDTO> load) throws NotFoundException {
+		try {
+			return load.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			timeouts.increment();
+			log.warn("Timed out waiting for the load of stock id {}", stockId);
+			throw new ServiceUnavailableException("Timed out waiting for the stock to load");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServiceUnavailableException("Interrupted waiting for the stock to load");
+		} catch (ExecutionException e) {
+			// every waiter gets the error of the load, as if it had loaded the stock itself
+			Throwable cause = e.getCause();
+			if (cause instanceof NotFoundException) {
+				throw new NotFoundException();
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	/**
+	 * Reads a stock
+	 */
+	@FunctionalInterface
+	public interface Loader {
+		/**
+		 * Reads the stock
+		 *
+		 * @return stock read
+		 * @throws NotFoundException when the stock does not exist
+		 */
+		StockDTO load() throws NotFoundException;
+	}
+}
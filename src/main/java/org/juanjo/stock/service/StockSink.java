@@ -0,0 +1,25 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connection that stock changes are pushed to
+ */
+public interface StockSink {
+
+	/**
+	 * Sends a batch of changed stocks. It is never called concurrently for the same sink.
+	 *
+	 * @param stocks latest state of every changed stock, at most one per stock
+	 * @throws IOException when the connection is broken
+	 */
+	void send(List<StockDTO> stocks) throws IOException;
+
+	/**
+	 * Closes the connection because it cannot keep up with the changes or the application is stopping
+	 */
+	void close();
+}
@@ -0,0 +1,70 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Subscription of a sink to stock changes. Changes waiting to be sent are conflated by stock, so a slow sink receives the
+ * latest state of every stock instead of every intermediate one, and they are bounded by the number of distinct stocks.
+ */
+public final class StockSubscription {
+	private final Set<Long> stockIds;
+	private final StockSink sink;
+	private final int bufferSize;
+	private final Map<Long, StockDTO> pending = new LinkedHashMap<>();
+	private boolean scheduled;
+
+	StockSubscription(Set<Long> stockIds, StockSink sink, int bufferSize) {
+		this.stockIds = stockIds == null || stockIds.isEmpty() ? null : Collections.unmodifiableSet(stockIds);
+		this.sink = sink;
+		this.bufferSize = bufferSize;
+	}
+
+	boolean accepts(Long stockId) {
+		return stockIds == null || stockIds.contains(stockId);
+	}
+
+	StockSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * Adds a change to the buffer, replacing the one of the same stock not sent yet
+	 *
+	 * @param stock changed
+	 * @return whether the subscription has to be scheduled for delivery
+	 * @throws IllegalStateException when the buffer is full
+	 */
+	synchronized boolean offer(StockDTO stock) {
+		pending.put(stock.getId(), stock);
+		if (pending.size() > bufferSize) {
+			throw new IllegalStateException("Stock subscription buffer is full");
+		}
+		if (scheduled) {
+			return false;
+		}
+		scheduled = true;
+		return true;
+	}
+
+	/**
+	 * Takes every buffered change. When there is none, the subscription is no longer scheduled.
+	 *
+	 * @return buffered changes in the order their stocks first changed
+	 */
+	synchronized List<StockDTO> drain() {
+		if (pending.isEmpty()) {
+			scheduled = false;
+			return Collections.emptyList();
+		}
+		List<StockDTO> stocks = new ArrayList<>(pending.values());
+		pending.clear();
+		return stocks;
+	}
+}
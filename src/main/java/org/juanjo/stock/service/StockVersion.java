@@ -0,0 +1,59 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockVersionDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of the whole collection of stocks, which changes whenever any stock is created or updated. It lets the lists
+ * be validated by clients without reading the stocks. The version starts again on every run, so it is combined with the
+ * startup time. In a cluster, the version of the collection is made of the versions of every node.
+ */
+@Component
+public class StockVersion {
+	private final long startedAt = System.currentTimeMillis();
+	private final AtomicLong version = new AtomicLong();
+	private volatile long lastModified = startedAt;
+
+	@Autowired(required = false)
+	private StockCluster stockCluster;
+
+	/**
+	 * Records that a stock has changed. It must be called once the change is visible to readers.
+	 */
+	public void increment() {
+		lastModified = System.currentTimeMillis();
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Gets the strong entity tag of the current version
+	 *
+	 * @return quoted entity tag
+	 */
+	public String getETag() {
+		return "\"" + Long.toHexString(startedAt) + "-" + Long.toHexString(version.get()) + "\"";
+	}
+
+	/**
+	 * Gets when any stock changed for the last time
+	 *
+	 * @return epoch milliseconds of the last change, or of the startup when nothing has changed
+	 */
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Gets the validators of the whole collection, which in a cluster are read from every node unless the request comes
+	 * from another node, which only reads the stocks of this one
+	 *
+	 * @return entity tag and last modification of the collection
+	 */
+	public StockVersionDTO current() {
+		StockVersionDTO local = new StockVersionDTO(getETag(), getLastModified());
+		return stockCluster == null || StockCluster.isForwarded() ? local : stockCluster.version(local);
+	}
+}
@@ -0,0 +1,363 @@
+package org.juanjo.stock.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.WriteBehindStatsDTO;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.juanjo.stock.persistence.StockRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind queue for stock updates. Updates are acknowledged as soon as they are queued in memory, and repeated
+ * updates of the same stock are coalesced so only its last state is written. The queue is bounded by the number of
+ * distinct stocks waiting, and it is flushed to the database in batches on a fixed interval, or as soon as a batch is
+ * full. Pending updates are drained before the application shuts down. As updates are coalesced, the price history only
+ * records the last price of every stock on each flush.
+ * <p>
+ * Updates stay pending until their batch commits, so readers keep seeing them over the stocks read from the database
+ * until the database has them too. They are written with the time they were queued, and the new versions of the stocks
+ * are handed to the flush listeners so the state kept in memory follows the database.
+ */
+@Component
+@ConditionalOnExpression("${stock.write-behind.enabled:false} or ${stock.price-book.enabled:false}")
+@Slf4j
+public class StockWriteBehind {
+	private static final int STRIPES = 64;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final ConcurrentHashMap<Long, PendingUpdate> pending = new ConcurrentHashMap<>();
+	private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+	private final Semaphore permits;
+	private final int capacity;
+	private final int batchSize;
+	private final Duration flushInterval;
+	private final Duration offerTimeout;
+	private final ScheduledExecutorService flusher =
+			Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "stock-write-behind"));
+	private final AtomicBoolean flushRequested = new AtomicBoolean();
+	private final LongAdder queued = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder flushed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final List<FlushListener> listeners = new CopyOnWriteArrayList<>();
+	private volatile long lastFlushLagNanos;
+	private TransactionTemplate transactionTemplate;
+
+	@Autowired
+	private StockRepository stockRepository;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private PriceHistory priceHistory;
+	@Autowired
+	private StockVersion stockVersion;
+	@Autowired
+	private StockChangeSequence stockChangeSequence;
+
+	public StockWriteBehind(@Value("${stock.write-behind.capacity:100000}") int capacity,
+			@Value("${stock.write-behind.batch-size:500}") int batchSize,
+			@Value("${stock.write-behind.flush-interval:1s}") Duration flushInterval,
+			@Value("${stock.write-behind.offer-timeout:1s}") Duration offerTimeout) {
+		this.capacity = capacity;
+		this.batchSize = batchSize;
+		this.flushInterval = flushInterval;
+		this.offerTimeout = offerTimeout;
+		this.permits = new Semaphore(capacity);
+		for (int i = 0; i < STRIPES; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Starts flushing the queue on the configured interval
+	 */
+	@PostConstruct
+	public void start() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		long interval = flushInterval.toMillis();
+		flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Queues the update of the given {@code stockId}, coalescing it with the one already waiting, if any. When the queue
+	 * is full, the caller waits for room up to the configured timeout. Updates of the same stock are serialized, so the
+	 * {@code onQueued} callback sees them in the same order the queue does. Waiting for room is done without holding the
+	 * stripe, as the flush that makes room takes it to complete the updates it writes.
+	 *
+	 * @param stockId      to update
+	 * @param name         new name of the stock, or null to keep the current one
+	 * @param currentPrice new current price of the stock
+	 * @param onQueued     receives the coalesced update once it is queued, to make it visible to readers
+	 * @throws ServiceUnavailableException when there is no room in the queue before the timeout
+	 */
+	public void update(Long stockId, String name, Double currentPrice, Consumer<PendingUpdate> onQueued) {
+		update(stockId, name, currentPrice, () -> true, onQueued);
+	}
+
+	/**
+	 * Queues the update of the given {@code stockId} like {@link #update(Long, String, Double, Consumer)}, only when the
+	 * {@code precondition} holds. The precondition is checked while holding the stripe of the stock, so no other update
+	 * of the stock can be queued between the check and the update. It is checked again if the caller had to wait for
+	 * room in the queue.
+	 *
+	 * @param stockId      to update
+	 * @param name         new name of the stock, or null to keep the current one
+	 * @param currentPrice new current price of the stock
+	 * @param precondition that the current state of the stock must meet
+	 * @param onQueued     receives the coalesced update once it is queued, to make it visible to readers
+	 * @return true when the update has been queued, false when the precondition did not hold
+	 * @throws ServiceUnavailableException when there is no room in the queue before the timeout
+	 */
+	public boolean update(Long stockId, String name, Double currentPrice, BooleanSupplier precondition,
+			Consumer<PendingUpdate> onQueued) {
+		ReentrantLock stripe = stripes[stripe(stockId)];
+		boolean permit = false;
+		try {
+			while (true) {
+				stripe.lock();
+				try {
+					if (!precondition.getAsBoolean()) {
+						return false;
+					}
+					LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MICROS);
+					PendingUpdate update =
+							pending.computeIfPresent(stockId, (id, queuedUpdate) -> queuedUpdate.coalesce(name, currentPrice, now));
+					if (update != null) {
+						coalesced.increment();
+						onQueued.accept(update);
+						break;
+					}
+					if (permit || permits.tryAcquire()) {
+						permit = false;
+						update = new PendingUpdate(name, currentPrice, now, System.nanoTime());
+						pending.put(stockId, update);
+						queued.increment();
+						onQueued.accept(update);
+						break;
+					}
+				} finally {
+					stripe.unlock();
+				}
+				// the queue is full, so wait for room without blocking the flush that completes the updates of the stripe
+				acquirePermit();
+				permit = true;
+			}
+		} finally {
+			if (permit) {
+				// a newer update was coalesced while waiting, or the precondition no longer holds, so the room is not needed
+				permits.release();
+			}
+		}
+		if (pending.size() >= batchSize) {
+			requestFlush();
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the update waiting to be persisted for the given {@code stockId}
+	 *
+	 * @param stockId that identify the stock
+	 * @return pending update, or null when there is none
+	 */
+	public PendingUpdate get(Long stockId) {
+		return pending.get(stockId);
+	}
+
+	/**
+	 * Registers a listener of the updates written by every flush
+	 *
+	 * @param listener to call with every update written
+	 */
+	public void onFlushed(FlushListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Writes every pending update to the database, in batches. Updates stay pending, with their room in the queue, until
+	 * their batch commits, and only leave the queue then if no newer update of the same stock has been coalesced with
+	 * them meanwhile. Batches that fail stay pending to be written again.
+	 */
+	public synchronized void flush() {
+		flushRequested.set(false);
+		Map<Long, PendingUpdate> batch = new HashMap<>();
+		Iterator<Long> stockIds = pending.keySet().iterator();
+		while (stockIds.hasNext()) {
+			Long stockId = stockIds.next();
+			PendingUpdate update = pending.get(stockId);
+			if (update != null) {
+				batch.put(stockId, update);
+			}
+			if (batch.size() == batchSize) {
+				write(batch);
+				batch = new HashMap<>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			write(batch);
+		}
+	}
+
+	/**
+	 * Gets the counters of the queue. The flush lag is the time the oldest pending update has been waiting.
+	 *
+	 * @return write-behind statistics
+	 */
+	public WriteBehindStatsDTO stats() {
+		long now = System.nanoTime();
+		long oldest = pending.values().stream().mapToLong(PendingUpdate::getQueuedAt).min().orElse(now);
+		return new WriteBehindStatsDTO(pending.size(), capacity, queued.sum(), coalesced.sum(), rejected.sum(), flushed.sum(),
+				failed.sum(), TimeUnit.NANOSECONDS.toMillis(now - oldest), TimeUnit.NANOSECONDS.toMillis(lastFlushLagNanos));
+	}
+
+	/**
+	 * Stops the periodic flush and drains the queue before the database is closed
+	 *
+	 * @throws InterruptedException when interrupted while waiting for the running flush
+	 */
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		flusher.shutdown();
+		if (!flusher.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+			log.warn("Stock write-behind flush still running after {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+		}
+		flush();
+		if (!pending.isEmpty()) {
+			log.error("{} stock updates could not be persisted on shutdown", pending.size());
+		}
+	}
+
+	private void acquirePermit() {
+		requestFlush();
+		try {
+			if (permits.tryAcquire(offerTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		rejected.increment();
+		throw new ServiceUnavailableException("Too many stock updates pending to be persisted");
+	}
+
+	private void requestFlush() {
+		if (flushRequested.compareAndSet(false, true)) {
+			try {
+				flusher.execute(this::flush);
+			} catch (RejectedExecutionException e) {
+				// shutting down, the queue is drained by shutdown()
+				flushRequested.set(false);
+			}
+		}
+	}
+
+	private void write(Map<Long, PendingUpdate> batch) {
+		long oldest = batch.values().stream().mapToLong(PendingUpdate::getQueuedAt).min().orElse(System.nanoTime());
+		Map<Long, StockRepository.WrittenStock> written = new HashMap<>();
+		try {
+			transactionTemplate.executeWithoutResult(status -> batch.forEach((stockId, update) ->
+					stockRepository.updateQueued(stockId, update.getName(), update.getCurrentPrice(), update.getLastUpdate(),
+							stockChangeSequence.next()).ifPresent(stock -> {
+						written.put(stockId, stock);
+						priceHistory.record(stockId, update.getCurrentPrice(), update.getLastUpdate());
+					})));
+		} catch (RuntimeException e) {
+			failed.add(batch.size());
+			log.error("{} stock updates could not be persisted, they will be retried", batch.size(), e);
+			return;
+		}
+		batch.forEach((stockId, update) -> complete(stockId, update, written.get(stockId)));
+		// lists read from the database have changed too
+		stockVersion.increment();
+		flushed.add(batch.size());
+		lastFlushLagNanos = System.nanoTime() - oldest;
+	}
+
+	/**
+	 * Takes a committed update out of the queue, unless a newer one has been coalesced with it, which keeps its room
+	 * until it is written too, and hands the written state to the listeners
+	 */
+	private void complete(Long stockId, PendingUpdate update, StockRepository.WrittenStock stock) {
+		ReentrantLock stripe = stripes[stripe(stockId)];
+		stripe.lock();
+		try {
+			if (pending.remove(stockId, update)) {
+				permits.release();
+			}
+			if (stock != null) {
+				PendingUpdate newer = pending.get(stockId);
+				PendingUpdate latest = newer != null ? newer : update;
+				String name = latest.getName() != null ? latest.getName() : stock.getName();
+				StockDTO flushedStock = new StockDTO(stockId, name, latest.getCurrentPrice(), latest.getLastUpdate(), stock.getVersion());
+				listeners.forEach(listener -> listener.flushed(flushedStock));
+			}
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	private static int stripe(Long stockId) {
+		return (int) (stockId & (STRIPES - 1));
+	}
+
+	/**
+	 * Listener of the updates written to the database
+	 */
+	@FunctionalInterface
+	public interface FlushListener {
+		/**
+		 * Receives the state of a stock once its update is committed, with the pending update coalesced after it, if
+		 * any, applied over it. It is called while holding the stripe of the stock, so it sees the updates of the
+		 * stock in the same order the queue does.
+		 *
+		 * @param stock written, with its new version
+		 */
+		void flushed(StockDTO stock);
+	}
+
+	/**
+	 * Last state queued for a stock
+	 */
+	@Getter
+	@AllArgsConstructor
+	public static final class PendingUpdate {
+		/**
+		 * New name, or null when only the price has been updated
+		 */
+		private final String name;
+		private final Double currentPrice;
+		private final LocalDateTime lastUpdate;
+		/**
+		 * {@link System#nanoTime()} when the stock started waiting
+		 */
+		private final long queuedAt;
+
+		private PendingUpdate coalesce(String newName, Double newPrice, LocalDateTime newLastUpdate) {
+			return new PendingUpdate(newName != null ? newName : name, newPrice, newLastUpdate, queuedAt);
+		}
+	}
+}
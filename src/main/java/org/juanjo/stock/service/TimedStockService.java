@@ -0,0 +1,220 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.CandleDTO;
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.service.StockMetrics.Operation;
+import org.juanjo.stock.utils.StockField;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Stock service that records the latency of every call to {@link StockServiceImpl}, or to {@link ClusterStockService}
+ * when the stocks are partitioned in a cluster, failed ones included. It is the primary {@link StockService}, so every
+ * caller is measured without the implementation knowing about it.
+ */
+@Service
+@Primary
+public class TimedStockService implements StockService {
+	@Autowired
+	private StockServiceImpl stockService;
+	@Autowired
+	private StockMetrics stockMetrics;
+	@Autowired(required = false)
+	private ClusterStockService clusterStockService;
+
+	@Override
+	public StockDTO getById(Long stockId) throws NotFoundException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getById(stockId);
+		} finally {
+			stockMetrics.record(Operation.GET_BY_ID, start);
+		}
+	}
+
+	@Override
+	public StockDTO getById(Long stockId, Set<StockField> fields) throws NotFoundException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getById(stockId, fields);
+		} finally {
+			stockMetrics.record(Operation.GET_BY_ID, start);
+		}
+	}
+
+	@Override
+	public StockBatchDTO getByIds(List<Long> stockIds) throws BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getByIds(stockIds);
+		} finally {
+			stockMetrics.record(Operation.GET_BY_IDS, start);
+		}
+	}
+
+	@Override
+	public void listStocks(Consumer<StockDTO> consumer) {
+		long start = System.nanoTime();
+		try {
+			delegate().listStocks(consumer);
+		} finally {
+			stockMetrics.record(Operation.LIST_STOCKS, start);
+		}
+	}
+
+	@Override
+	public void listStockFields(Set<StockField> fields, Consumer<StockDTO> consumer) {
+		long start = System.nanoTime();
+		try {
+			delegate().listStockFields(fields, consumer);
+		} finally {
+			stockMetrics.record(Operation.LIST_STOCKS, start);
+		}
+	}
+
+	@Override
+	public StockPageDTO listStocks(String cursor, Integer limit) throws BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().listStocks(cursor, limit);
+		} finally {
+			stockMetrics.record(Operation.LIST_STOCKS_PAGE, start);
+		}
+	}
+
+	@Override
+	public StockPageDTO listStocks(String cursor, Integer limit, Set<StockField> fields) throws BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().listStocks(cursor, limit, fields);
+		} finally {
+			stockMetrics.record(Operation.LIST_STOCKS_PAGE, start);
+		}
+	}
+
+	@Override
+	public StockChangesDTO getChanges(String watermark, Integer limit) throws BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getChanges(watermark, limit);
+		} finally {
+			stockMetrics.record(Operation.GET_CHANGES, start);
+		}
+	}
+
+	@Override
+	public StockPageDTO searchStocks(String query, String cursor, Integer limit) throws BadRequestException, NotFoundException {
+		long start = System.nanoTime();
+		try {
+			return delegate().searchStocks(query, cursor, limit);
+		} finally {
+			stockMetrics.record(Operation.SEARCH_STOCKS, start);
+		}
+	}
+
+	@Override
+	public StockDTO createStock(CreateStockDTO request) {
+		long start = System.nanoTime();
+		try {
+			return delegate().createStock(request);
+		} finally {
+			stockMetrics.record(Operation.CREATE_STOCK, start);
+		}
+	}
+
+	@Override
+	public List<Long> createStocks(List<CreateStockDTO> requests) throws BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().createStocks(requests);
+		} finally {
+			stockMetrics.record(Operation.CREATE_STOCKS, start);
+		}
+	}
+
+	@Override
+	public StockImportResultDTO importStocks(Iterator<StockDTO> stocks) throws ConflictException {
+		long start = System.nanoTime();
+		try {
+			return delegate().importStocks(stocks);
+		} finally {
+			stockMetrics.record(Operation.IMPORT_STOCKS, start);
+		}
+	}
+
+	@Override
+	public StockDTO updateStock(Long stockId, UpdateStockDTO request, String eTag) throws NotFoundException, PreconditionFailedException {
+		long start = System.nanoTime();
+		try {
+			return delegate().updateStock(stockId, request, eTag);
+		} finally {
+			stockMetrics.record(Operation.UPDATE_STOCK, start);
+		}
+	}
+
+	@Override
+	public PriceUpdateResultDTO updatePrices(List<PriceUpdateDTO> prices) throws BadRequestException, ConflictException {
+		long start = System.nanoTime();
+		try {
+			return delegate().updatePrices(prices);
+		} finally {
+			stockMetrics.record(Operation.UPDATE_PRICES, start);
+		}
+	}
+
+	@Override
+	public List<CandleDTO> getHistory(Long stockId, LocalDateTime from, LocalDateTime to, String interval)
+			throws NotFoundException, BadRequestException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getHistory(stockId, from, to, interval);
+		} finally {
+			stockMetrics.record(Operation.GET_HISTORY, start);
+		}
+	}
+
+	@Override
+	public List<StockMoverDTO> getTopStocks(String by, String order, Integer limit) throws BadRequestException, NotFoundException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getTopStocks(by, order, limit);
+		} finally {
+			stockMetrics.record(Operation.TOP_STOCKS, start);
+		}
+	}
+
+	@Override
+	public MarketStatsDTO getStats() throws NotFoundException {
+		long start = System.nanoTime();
+		try {
+			return delegate().getStats();
+		} finally {
+			stockMetrics.record(Operation.GET_STATS, start);
+		}
+	}
+
+	private StockService delegate() {
+		return clusterStockService != null ? clusterStockService : stockService;
+	}
+}
@@ -0,0 +1,40 @@
+package org.juanjo.stock.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.juanjo.stock.exception.BadRequestException;
+
+import java.time.Duration;
+
+/**
+ * Intervals that the price history can be aggregated in
+ */
+@Getter
+@AllArgsConstructor
+public enum CandleInterval {
+	ONE_MINUTE("1m", Duration.ofMinutes(1)),
+	FIVE_MINUTES("5m", Duration.ofMinutes(5)),
+	FIFTEEN_MINUTES("15m", Duration.ofMinutes(15)),
+	ONE_HOUR("1h", Duration.ofHours(1)),
+	FOUR_HOURS("4h", Duration.ofHours(4)),
+	ONE_DAY("1d", Duration.ofDays(1));
+
+	private final String value;
+	private final Duration duration;
+
+	/**
+	 * Gets the interval by the value used in requests, such as {@code 1m}
+	 *
+	 * @param value of the interval
+	 * @return interval
+	 * @throws BadRequestException when the value is not a supported interval
+	 */
+	public static CandleInterval fromValue(String value) throws BadRequestException {
+		for (CandleInterval interval : values()) {
+			if (interval.value.equals(value)) {
+				return interval;
+			}
+		}
+		throw new BadRequestException("Interval must be one of 1m, 5m, 15m, 1h, 4h, 1d");
+	}
+}
@@ -0,0 +1,131 @@
+package org.juanjo.stock.utils;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads stocks in the compact binary format written by {@link StockBinaryWriter}
+ */
+public final class StockBinaryReader {
+	private final InputStream in;
+	private long lastId;
+	private long lastUpdate;
+
+	public StockBinaryReader(InputStream in) {
+		this.in = new BufferedInputStream(in);
+	}
+
+	/**
+	 * Reads the record of a stock
+	 *
+	 * @return stock read, or null at the end of the stream
+	 * @throws IOException when the stream cannot be read or is not valid
+	 */
+	public StockDTO readStock() throws IOException {
+		int flags = in.read();
+		if (flags < 0) {
+			return null;
+		}
+		long id = lastId + unZigZag(readVarLong());
+		lastId = id;
+		String name = readString();
+		Double currentPrice = (flags & StockBinaryWriter.HAS_PRICE) != 0 ? Double.longBitsToDouble(readLong()) : null;
+		LocalDateTime lastUpdateDate = null;
+		if ((flags & StockBinaryWriter.HAS_LAST_UPDATE) != 0) {
+			lastUpdate += unZigZag(readVarLong());
+			lastUpdateDate = LocalDateTime.ofEpochSecond(Math.floorDiv(lastUpdate, StockBinaryWriter.MICROS_PER_SECOND),
+					(int) Math.floorMod(lastUpdate, StockBinaryWriter.MICROS_PER_SECOND) * StockBinaryWriter.NANOS_PER_MICRO,
+					ZoneOffset.UTC);
+		}
+		Long version = (flags & StockBinaryWriter.HAS_VERSION) != 0 ? readVarLong() : null;
+		return new StockDTO(id, name, currentPrice, lastUpdateDate, version);
+	}
+
+	/**
+	 * Reads every stock record until the end of the stream
+	 *
+	 * @return stocks read
+	 * @throws IOException when the stream cannot be read or is not valid
+	 */
+	public List<StockDTO> readList() throws IOException {
+		List<StockDTO> stocks = new ArrayList<>();
+		StockDTO stock;
+		while ((stock = readStock()) != null) {
+			stocks.add(stock);
+		}
+		return stocks;
+	}
+
+	/**
+	 * Reads a page of stocks with its next cursor
+	 *
+	 * @return page read
+	 * @throws IOException when the stream cannot be read or is not valid
+	 */
+	public StockPageDTO readPage() throws IOException {
+		int size = (int) readVarLong();
+		List<StockDTO> stocks = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			StockDTO stock = readStock();
+			if (stock == null) {
+				throw new EOFException();
+			}
+			stocks.add(stock);
+		}
+		return new StockPageDTO(stocks, readString());
+	}
+
+	private String readString() throws IOException {
+		long length = readVarLong();
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = in.readNBytes((int) (length - 1));
+		if (bytes.length != length - 1) {
+			throw new EOFException();
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private long readLong() throws IOException {
+		long value = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			value = (value << Byte.SIZE) | readByte();
+		}
+		return value;
+	}
+
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
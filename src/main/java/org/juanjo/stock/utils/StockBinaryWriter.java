@@ -0,0 +1,182 @@
+package org.juanjo.stock.utils;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Writes stocks in the compact binary format of {@link StockConstants#BINARY_MEDIA_TYPE}. Every stock is one record:
+ * <ul>
+ *     <li>flags byte, with bit 0 set when it has a current price, bit 1 when it has a last update and bit 2 when it
+ *     has a version</li>
+ *     <li>id, as the zigzag varint of its difference with the previous id of the message</li>
+ *     <li>name, as a string</li>
+ *     <li>current price, as the 8 bytes of the IEEE 754 double in big-endian order, when present</li>
+ *     <li>last update, as the zigzag varint of its difference in microseconds with the previous last update of the
+ *     message, when present. The date is read as UTC</li>
+ *     <li>version, as a varint, when present</li>
+ * </ul>
+ * Strings are the varint of their UTF-8 length plus one, with zero for null, followed by their UTF-8 bytes. A single
+ * stock is one record, a list is every record until the end of the stream, and a page is the varint number of stocks,
+ * their records and the next cursor as a string. Lists sorted by id with close dates take a few bytes per stock besides
+ * the name. Records are encoded in an internal buffer, so the stream is written in large chunks.
+ */
+public final class StockBinaryWriter {
+	private static final int BUFFER_SIZE = 8192;
+	/**
+	 * Longest record without its name: flags, 10 bytes per varint and the price
+	 */
+	private static final int MAX_RECORD_SIZE = 1 + 10 + 10 + Long.BYTES + 10 + 10;
+	static final int HAS_PRICE = 1;
+	static final int HAS_LAST_UPDATE = 1 << 1;
+	static final int HAS_VERSION = 1 << 2;
+	static final long MICROS_PER_SECOND = 1_000_000L;
+	static final int NANOS_PER_MICRO = 1000;
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private long lastId;
+	private long lastUpdate;
+
+	public StockBinaryWriter(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Writes the record of a stock
+	 *
+	 * @param stock to write
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void write(StockDTO stock) throws IOException {
+		ensureCapacity(MAX_RECORD_SIZE);
+		int flags = (stock.getCurrentPrice() != null ? HAS_PRICE : 0) | (stock.getLastUpdate() != null ? HAS_LAST_UPDATE : 0) |
+				(stock.getVersion() != null ? HAS_VERSION : 0);
+		buffer[position++] = (byte) flags;
+		writeVarLong(zigZag(stock.getId() - lastId));
+		lastId = stock.getId();
+		writeString(stock.getName());
+		ensureCapacity(MAX_RECORD_SIZE);
+		if (stock.getCurrentPrice() != null) {
+			writeLong(Double.doubleToLongBits(stock.getCurrentPrice()));
+		}
+		if (stock.getLastUpdate() != null) {
+			long micros = toEpochMicros(stock.getLastUpdate());
+			writeVarLong(zigZag(micros - lastUpdate));
+			lastUpdate = micros;
+		}
+		if (stock.getVersion() != null) {
+			writeVarLong(stock.getVersion());
+		}
+	}
+
+	/**
+	 * Writes a page of stocks with its next cursor
+	 *
+	 * @param page to write
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void write(StockPageDTO page) throws IOException {
+		ensureCapacity(10);
+		writeVarLong(page.getStocks().size());
+		for (StockDTO stock : page.getStocks()) {
+			write(stock);
+		}
+		writeString(page.getNextCursor());
+	}
+
+	/**
+	 * Writes the buffered bytes to the stream and flushes it
+	 *
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	static long toEpochMicros(LocalDateTime dateTime) {
+		return dateTime.toEpochSecond(ZoneOffset.UTC) * MICROS_PER_SECOND + dateTime.getNano() / NANOS_PER_MICRO;
+	}
+
+	private void writeString(String value) throws IOException {
+		ensureCapacity(10);
+		if (value == null) {
+			buffer[position++] = 0;
+			return;
+		}
+		int length = value.length();
+		if (isAscii(value, length)) {
+			writeVarLong(length + 1L);
+			int offset = 0;
+			while (offset < length) {
+				ensureCapacity(1);
+				int chunk = Math.min(length - offset, buffer.length - position);
+				for (int i = 0; i < chunk; i++) {
+					buffer[position++] = (byte) value.charAt(offset + i);
+				}
+				offset += chunk;
+			}
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(bytes.length + 1L);
+			writeBytes(bytes);
+		}
+	}
+
+	private void writeBytes(byte[] bytes) throws IOException {
+		if (bytes.length > buffer.length - position) {
+			drain();
+			out.write(bytes);
+			return;
+		}
+		System.arraycopy(bytes, 0, buffer, position, bytes.length);
+		position += bytes.length;
+	}
+
+	private void writeVarLong(long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[position++] = (byte) value;
+	}
+
+	private void writeLong(long value) {
+		for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+			buffer[position++] = (byte) (value >>> shift);
+		}
+	}
+
+	private void ensureCapacity(int bytes) throws IOException {
+		if (buffer.length - position < bytes) {
+			drain();
+		}
+	}
+
+	private void drain() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	private static boolean isAscii(String value, int length) {
+		for (int i = 0; i < length; i++) {
+			if (value.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+}
@@ -6,4 +6,24 @@ package org.juanjo.stock.utils;
 public final class StockConstants {
 	public static final int NAME_MAX_LENGTH = 250;
 	public static final int NAME_MIN_LENGTH = 1;
+	public static final int PAGE_DEFAULT_LIMIT = 100;
+	public static final int PAGE_MAX_LIMIT = 1000;
+	public static final String STREAM_FETCH_SIZE = "500";
+	public static final int BULK_UPDATE_MAX_SIZE = 50000;
+	public static final int BULK_UPDATE_CHUNK_SIZE = 500;
+	public static final int MULTI_GET_MAX_SIZE = 1000;
+	public static final int BATCH_CREATE_MAX_SIZE = 100000;
+	public static final int BATCH_CREATE_MAX_ERRORS = 10;
+	public static final int ID_ALLOCATION_SIZE = 500;
+	public static final int IMPORT_MAX_ERRORS = 100;
+	public static final int IMPORT_MAX_RECORD_LENGTH = 8192;
+	public static final int HISTORY_DEFAULT_DAYS = 1;
+	public static final int HISTORY_MAX_CANDLES = 50000;
+	public static final int HISTORY_BLOCK_CANDLES = 1000;
+	public static final int SEARCH_MAX_OFFSET = 100000;
+	public static final int TOP_DEFAULT_LIMIT = 10;
+	public static final String BINARY_MEDIA_TYPE = "application/x-stock";
+	public static final String CSV_MEDIA_TYPE = "text/csv";
+	public static final String PREFER_HEADER = "Prefer";
+	public static final String CLUSTER_FORWARDED_HEADER = "X-Stock-Forwarded";
 }
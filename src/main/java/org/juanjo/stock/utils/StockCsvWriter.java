@@ -0,0 +1,85 @@
+package org.juanjo.stock.utils;
+
+import org.juanjo.stock.dto.StockDTO;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Writes stocks as CSV, following RFC 4180: a header line with {@link #HEADER} and a line per stock, in UTF-8 with CRLF
+ * line endings. Names are quoted when they hold commas, quotes or line breaks, with quotes doubled. Last updates are ISO
+ * local date-times, and missing values are empty. Lines are written in an internal buffer, so the stream is written in
+ * large chunks.
+ */
+public final class StockCsvWriter {
+	public static final String HEADER = "id,name,currentPrice,lastUpdate,version";
+	private static final String LINE_END = "\r\n";
+
+	private final Writer out;
+
+	public StockCsvWriter(OutputStream out) {
+		this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Writes the header line
+	 *
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void writeHeader() throws IOException {
+		out.write(HEADER);
+		out.write(LINE_END);
+	}
+
+	/**
+	 * Writes the line of a stock
+	 *
+	 * @param stock to write
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void write(StockDTO stock) throws IOException {
+		out.write(String.valueOf(stock.getId()));
+		out.write(',');
+		writeString(stock.getName());
+		out.write(',');
+		if (stock.getCurrentPrice() != null) {
+			out.write(String.valueOf(stock.getCurrentPrice()));
+		}
+		out.write(',');
+		if (stock.getLastUpdate() != null) {
+			out.write(DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(stock.getLastUpdate()));
+		}
+		out.write(',');
+		if (stock.getVersion() != null) {
+			out.write(String.valueOf(stock.getVersion()));
+		}
+		out.write(LINE_END);
+	}
+
+	/**
+	 * Writes the buffered lines to the stream
+	 *
+	 * @throws IOException when the stream cannot be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	private void writeString(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == '\r' || c == '\n')) {
+			out.write(value);
+			return;
+		}
+		out.write('"');
+		out.write(value.replace("\"", "\"\""));
+		out.write('"');
+	}
+}
@@ -0,0 +1,66 @@
+package org.juanjo.stock.utils;
+
+import org.juanjo.stock.exception.BadRequestException;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Encodes and decodes the opaque cursors used by the keyset pagination of stocks
+ */
+public final class StockCursor {
+
+	private StockCursor() {
+	}
+
+	/**
+	 * Encodes the position of the last stock of a page as an opaque cursor
+	 *
+	 * @param position values that locate the last stock returned, usually just its id
+	 * @return opaque cursor
+	 */
+	public static String encode(long... position) {
+		ByteBuffer buffer = ByteBuffer.allocate(position.length * Long.BYTES);
+		for (long value : position) {
+			buffer.putLong(value);
+		}
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+	}
+
+	/**
+	 * Decodes a cursor previously generated by {@link #encode(long...)} from a single value
+	 *
+	 * @param cursor opaque cursor
+	 * @return id of the last stock returned
+	 * @throws BadRequestException when the cursor is not valid
+	 */
+	public static long decode(String cursor) throws BadRequestException {
+		return decode(cursor, 1)[0];
+	}
+
+	/**
+	 * Decodes a cursor previously generated by {@link #encode(long...)}
+	 *
+	 * @param cursor opaque cursor
+	 * @param size   number of values the cursor must have
+	 * @return values that locate the last stock returned
+	 * @throws BadRequestException when the cursor is not valid
+	 */
+	public static long[] decode(String cursor, int size) throws BadRequestException {
+		byte[] bytes;
+		try {
+			bytes = Base64.getUrlDecoder().decode(cursor);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException("Invalid cursor");
+		}
+		if (bytes.length != size * Long.BYTES) {
+			throw new BadRequestException("Invalid cursor");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		long[] position = new long[size];
+		for (int i = 0; i < size; i++) {
+			position[i] = buffer.getLong();
+		}
+		return position;
+	}
+}
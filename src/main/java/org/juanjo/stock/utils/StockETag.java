@@ -0,0 +1,73 @@
+package org.juanjo.stock.utils;
+
+import org.juanjo.stock.dto.StockDTO;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Strong entity tags of single stocks. A tag is made of the id, the version, the time of the last update and a hash of
+ * the name and the price, so it changes whenever the stock is updated, even while the version in the database lags
+ * behind the write-behind queue.
+ */
+public final class StockETag {
+	private static final int PARTS = 4;
+
+	private StockETag() {
+	}
+
+	/**
+	 * Builds the entity tag of a stock
+	 *
+	 * @param stock to tag
+	 * @return quoted entity tag
+	 */
+	public static String of(StockDTO stock) {
+		return of(stock, Objects.hash(stock.getName(), stock.getCurrentPrice()));
+	}
+
+	/**
+	 * Builds the entity tag of a projection of a stock. Only the id, the version, the time of the last update and the
+	 * projected fields are tagged, so the tag is the same whether the stock was read whole or only those fields.
+	 *
+	 * @param stock  to tag, with at least its id, version, last update and the projected fields
+	 * @param fields of the projection
+	 * @return quoted entity tag of the projection
+	 */
+	public static String of(StockDTO stock, Set<StockField> fields) {
+		Object[] values = fields.stream().sorted().map(field -> field.get(stock)).toArray();
+		return StockField.eTag(of(stock, Arrays.hashCode(values)), fields);
+	}
+
+	private static String of(StockDTO stock, int hash) {
+		long updatedAt = stock.getLastUpdate() == null ? 0 :
+				stock.getLastUpdate().toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + stock.getLastUpdate().getNano();
+		long version = stock.getVersion() == null ? 0 : stock.getVersion();
+		return "\"" + Long.toHexString(stock.getId()) + "-" + Long.toHexString(version) + "-" + Long.toHexString(updatedAt) +
+				"-" + Integer.toHexString(hash) + "\"";
+	}
+
+	/**
+	 * Gets the version of the stock a tag was built from
+	 *
+	 * @param eTag    quoted entity tag
+	 * @param stockId that identify the stock the tag must belong to
+	 * @return version of the stock, or null when the tag is weak, malformed or belongs to another stock
+	 */
+	public static Long version(String eTag, long stockId) {
+		if (eTag.length() < 2 || eTag.charAt(0) != '"' || eTag.charAt(eTag.length() - 1) != '"') {
+			return null;
+		}
+		String[] parts = eTag.substring(1, eTag.length() - 1).split("-");
+		if (parts.length != PARTS) {
+			return null;
+		}
+		try {
+			return Long.parseLong(parts[0], 16) == stockId ? Long.parseLong(parts[1], 16) : null;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package org.juanjo.stock.utils;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Fields of a stock that can be requested on their own, so only their columns are read from the database and only they
+ * are written in the response. The name of every field is the one of its JSON property and of its entity attribute.
+ */
+@AllArgsConstructor
+public enum StockField {
+	ID("id", StockDTO::getId, (stock, value) -> stock.setId((Long) value)),
+	NAME("name", StockDTO::getName, (stock, value) -> stock.setName((String) value)),
+	CURRENT_PRICE("currentPrice", StockDTO::getCurrentPrice, (stock, value) -> stock.setCurrentPrice((Double) value)),
+	LAST_UPDATE("lastUpdate", StockDTO::getLastUpdate, (stock, value) -> stock.setLastUpdate((LocalDateTime) value)),
+	VERSION("version", StockDTO::getVersion, (stock, value) -> stock.setVersion((Long) value));
+
+	/**
+	 * Id of the JSON filter of stocks, which writes every field unless a projection is requested
+	 */
+	public static final String FILTER_ID = "stockFields";
+
+	@Getter
+	private final String property;
+	private final Function<StockDTO, Object> getter;
+	private final BiConsumer<StockDTO, Object> setter;
+
+	/**
+	 * Gets the value of this field from a stock
+	 *
+	 * @param stock to get the value from
+	 * @return value of the field, or null when it has not been read
+	 */
+	public Object get(StockDTO stock) {
+		return getter.apply(stock);
+	}
+
+	/**
+	 * Sets the value of this field on a stock
+	 *
+	 * @param stock to set the value on
+	 * @param value read from the database
+	 */
+	public void set(StockDTO stock, Object value) {
+		setter.accept(stock, value);
+	}
+
+	/**
+	 * Parses the fields requested as a list of property names separated by commas, such as {@code id,currentPrice}
+	 *
+	 * @param fields requested
+	 * @return requested fields
+	 * @throws BadRequestException when no field is requested or any of them is unknown
+	 */
+	public static Set<StockField> parse(String fields) throws BadRequestException {
+		Set<StockField> parsed = EnumSet.noneOf(StockField.class);
+		for (String property : fields.split(",")) {
+			parsed.add(fromProperty(property.trim()));
+		}
+		return parsed;
+	}
+
+	/**
+	 * Builds the JSON filter that only writes the given fields of the stocks
+	 *
+	 * @param fields to write
+	 * @return filters to write the stocks with
+	 */
+	public static FilterProvider filter(Set<StockField> fields) {
+		return new SimpleFilterProvider().addFilter(FILTER_ID,
+				SimpleBeanPropertyFilter.filterOutAllExcept(fields.stream().map(StockField::getProperty).collect(Collectors.toSet())));
+	}
+
+	/**
+	 * Builds the JSON filter that writes every field of the stocks
+	 *
+	 * @return filters to write whole stocks with
+	 */
+	public static FilterProvider all() {
+		return new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll());
+	}
+
+	/**
+	 * Tells apart the entity tag of a projection from the one of the whole representation and of any other projection
+	 *
+	 * @param eTag   quoted entity tag of the stocks
+	 * @param fields of the projection
+	 * @return quoted entity tag of the projection
+	 */
+	public static String eTag(String eTag, Set<StockField> fields) {
+		int mask = fields.stream().mapToInt(field -> 1 << field.ordinal()).sum();
+		return eTag.substring(0, eTag.length() - 1) + "-f" + Integer.toHexString(mask) + "\"";
+	}
+
+	private static StockField fromProperty(String property) throws BadRequestException {
+		for (StockField field : values()) {
+			if (field.property.equals(property)) {
+				return field;
+			}
+		}
+		throw new BadRequestException("Fields must be some of id, name, currentPrice, lastUpdate, version");
+	}
+}
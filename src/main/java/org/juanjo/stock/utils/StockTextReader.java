@@ -0,0 +1,253 @@
+package org.juanjo.stock.utils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.juanjo.stock.dto.StockDTO;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Reads the stocks to import from text, one record at a time, so memory use does not depend on the size of the input.
+ * Records are either CSV lines, as written by {@link StockCsvWriter}, or NDJSON lines, and only their id, name and
+ * current price are read. Blank lines are skipped, and so is a CSV header line. A record that cannot be read, because
+ * it is not valid or is longer than {@link StockConstants#IMPORT_MAX_RECORD_LENGTH} characters, is reported with an
+ * {@link IllegalArgumentException} when it is returned by the iterator, and reading goes on with the next record.
+ * Failures of the stream itself are thrown as {@link UncheckedIOException}.
+ */
+public final class StockTextReader {
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader in;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private final StringBuilder field = new StringBuilder();
+	private int position;
+	private int limit;
+
+	public StockTextReader(InputStream in) {
+		this.in = new InputStreamReader(in, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads the input as CSV
+	 *
+	 * @return stocks of every record
+	 */
+	public Iterator<StockDTO> csv() {
+		return new RecordIterator<>(new RecordReader<>() {
+			private boolean first = true;
+
+			@Override
+			public List<String> read() throws IOException {
+				List<String> fields;
+				do {
+					fields = readCsvRecord();
+				} while (fields != null && fields.size() == 1 && fields.get(0).isBlank());
+				if (first && fields != null && fields.get(0).trim().equalsIgnoreCase("id")) {
+					first = false;
+					return read();
+				}
+				first = false;
+				return fields;
+			}
+		}, StockTextReader::parseCsv);
+	}
+
+	/**
+	 * Reads the input as NDJSON
+	 *
+	 * @param reader to parse every line as a stock
+	 * @return stocks of every line
+	 */
+	public Iterator<StockDTO> ndjson(ObjectReader reader) {
+		return new RecordIterator<>(() -> {
+			String line;
+			do {
+				line = readLine();
+			} while (line != null && line.isBlank());
+			return line;
+		}, line -> {
+			try {
+				return reader.readValue(line);
+			} catch (JsonProcessingException e) {
+				throw new IllegalArgumentException("Invalid JSON: " + e.getOriginalMessage());
+			}
+		});
+	}
+
+	private String readLine() throws IOException {
+		field.setLength(0);
+		int c;
+		while ((c = read()) >= 0 && c != '\n') {
+			if (field.length() == StockConstants.IMPORT_MAX_RECORD_LENGTH) {
+				skipLine();
+				throw tooLong();
+			}
+			field.append((char) c);
+		}
+		if (c < 0 && field.length() == 0) {
+			return null;
+		}
+		if (field.length() > 0 && field.charAt(field.length() - 1) == '\r') {
+			field.setLength(field.length() - 1);
+		}
+		return field.toString();
+	}
+
+	private List<String> readCsvRecord() throws IOException {
+		List<String> fields = new ArrayList<>();
+		field.setLength(0);
+		boolean quoted = false;
+		int length = 0;
+		int c;
+		while ((c = read()) >= 0) {
+			if (++length > StockConstants.IMPORT_MAX_RECORD_LENGTH) {
+				if (c != '\n') {
+					skipLine();
+				}
+				throw tooLong();
+			}
+			if (quoted) {
+				if (c != '"') {
+					field.append((char) c);
+				} else if (peek() == '"') {
+					field.append((char) read());
+					length++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else if (c == '\n') {
+				break;
+			} else if (c != '\r') {
+				field.append((char) c);
+			}
+		}
+		if (c < 0 && length == 0) {
+			return null;
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private void skipLine() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c >= 0 && c != '\n');
+	}
+
+	private int read() throws IOException {
+		int c = peek();
+		if (c >= 0) {
+			position++;
+		}
+		return c;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer);
+			position = 0;
+			if (limit < 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position];
+	}
+
+	private static IllegalArgumentException tooLong() {
+		return new IllegalArgumentException("Record is longer than " + StockConstants.IMPORT_MAX_RECORD_LENGTH + " characters");
+	}
+
+	private static StockDTO parseCsv(List<String> fields) {
+		if (fields.size() < 3) {
+			throw new IllegalArgumentException("Id, name and current price are expected");
+		}
+		Long id;
+		try {
+			id = fields.get(0).isBlank() ? null : Long.valueOf(fields.get(0).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid id");
+		}
+		Double currentPrice;
+		try {
+			currentPrice = fields.get(2).isBlank() ? null : Double.valueOf(fields.get(2).trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid current price");
+		}
+		if (currentPrice != null && !Double.isFinite(currentPrice)) {
+			throw new IllegalArgumentException("Invalid current price");
+		}
+		return new StockDTO(id, fields.get(1).isEmpty() ? null : fields.get(1), currentPrice, null, null);
+	}
+
+	@FunctionalInterface
+	private interface RecordReader<T> {
+		/**
+		 * Reads the next record
+		 *
+		 * @return record read, or null at the end of the input
+		 * @throws IOException when the input cannot be read
+		 */
+		T read() throws IOException;
+	}
+
+	/**
+	 * Reads a record ahead, so a record that cannot be read is only reported when it is its turn
+	 */
+	private static final class RecordIterator<T> implements Iterator<StockDTO> {
+		private final RecordReader<T> reader;
+		private final Function<T, StockDTO> parser;
+		private T next;
+		private IllegalArgumentException failure;
+
+		private RecordIterator(RecordReader<T> reader, Function<T, StockDTO> parser) {
+			this.reader = reader;
+			this.parser = parser;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && failure == null) {
+				try {
+					next = reader.read();
+				} catch (IllegalArgumentException e) {
+					failure = e;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			return next != null || failure != null;
+		}
+
+		@Override
+		public StockDTO next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			IllegalArgumentException error = failure;
+			T record = next;
+			failure = null;
+			next = null;
+			if (error != null) {
+				throw error;
+			}
+			return parser.apply(record);
+		}
+	}
+}
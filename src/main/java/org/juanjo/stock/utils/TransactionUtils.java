@@ -0,0 +1,32 @@
+package org.juanjo.stock.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers to coordinate in-memory state with database transactions
+ */
+public final class TransactionUtils {
+
+	private TransactionUtils() {
+	}
+
+	/**
+	 * Runs the given {@code action} once the current transaction commits, so in-memory state never exposes a write that
+	 * may still be rolled back. It runs immediately when there is no transaction.
+	 *
+	 * @param action to run
+	 */
+	public static void afterCommit(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+}
@@ -1,22 +1,25 @@
-INSERT INTO stock (name, current_price, last_update) VALUES
-('Apple Inc', 141.20, current_timestamp()),
-('Microsoft Corp', 225.66, current_timestamp()),
-('ABN AMRO', 7.972, current_timestamp()),
-('Ajax', 15.76, current_timestamp()),
-('ING Groep', 7.362, current_timestamp()),
-('Takeaway.com', 94.92, current_timestamp()),
-('TOMTOM N.V.', 9.45, current_timestamp()),
-('Alphabet', 1870.01, current_timestamp()),
-('Amazon.com Inc', 3279.14, current_timestamp()),
-('Boeing', 200.88, current_timestamp()),
-('Coca-Cola', 48.415, current_timestamp()),
-('Facebook', 275.02, current_timestamp()),
-('Ford Motor', 11.08, current_timestamp()),
-('IBM', 118.34, current_timestamp()),
-('Intel Corp', 54.91, current_timestamp()),
-('Netflix Inc', 558.72, current_timestamp()),
-('NVIDIA Corp', 539.715, current_timestamp()),
-('Oracle Corp', 60.20, current_timestamp()),
-('Qualcomm', 163.60, current_timestamp()),
-('Walt Disney', 170.33, current_timestamp()),
-('Tesla', 862, current_timestamp());
+INSERT INTO stock (id, name, current_price, last_update) VALUES
+(1, 'Apple Inc', 141.20, CURRENT_TIMESTAMP),
+(2, 'Microsoft Corp', 225.66, CURRENT_TIMESTAMP),
+(3, 'ABN AMRO', 7.972, CURRENT_TIMESTAMP),
+(4, 'Ajax', 15.76, CURRENT_TIMESTAMP),
+(5, 'ING Groep', 7.362, CURRENT_TIMESTAMP),
+(6, 'Takeaway.com', 94.92, CURRENT_TIMESTAMP),
+(7, 'TOMTOM N.V.', 9.45, CURRENT_TIMESTAMP),
+(8, 'Alphabet', 1870.01, CURRENT_TIMESTAMP),
+(9, 'Amazon.com Inc', 3279.14, CURRENT_TIMESTAMP),
+(10, 'Boeing', 200.88, CURRENT_TIMESTAMP),
+(11, 'Coca-Cola', 48.415, CURRENT_TIMESTAMP),
+(12, 'Facebook', 275.02, CURRENT_TIMESTAMP),
+(13, 'Ford Motor', 11.08, CURRENT_TIMESTAMP),
+(14, 'IBM', 118.34, CURRENT_TIMESTAMP),
+(15, 'Intel Corp', 54.91, CURRENT_TIMESTAMP),
+(16, 'Netflix Inc', 558.72, CURRENT_TIMESTAMP),
+(17, 'NVIDIA Corp', 539.715, CURRENT_TIMESTAMP),
+(18, 'Oracle Corp', 60.20, CURRENT_TIMESTAMP),
+(19, 'Qualcomm', 163.60, CURRENT_TIMESTAMP),
+(20, 'Walt Disney', 170.33, CURRENT_TIMESTAMP),
+(21, 'Tesla', 862, CURRENT_TIMESTAMP);
+
+-- ids are allocated from the sequence in blocks starting at its next value
+ALTER SEQUENCE stock_seq RESTART WITH 22;
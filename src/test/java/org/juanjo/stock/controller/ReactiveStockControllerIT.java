@@ -0,0 +1,110 @@
+package org.juanjo.stock.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockPageDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.StockService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests of the reactive read endpoints, through a running server handling requests on virtual threads
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(locations = "classpath:application-test.properties",
+		properties = {"stock.reactive.enabled=true", "stock.reactive.url=r2dbc:pool:h2:mem:///reactive",
+				"spring.threads.virtual.enabled=true", "spring.datasource.url=jdbc:h2:mem:reactive;LAZY_QUERY_EXECUTION=TRUE"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class ReactiveStockControllerIT {
+	@LocalServerPort
+	private int port;
+	@Autowired
+	private StockService stockService;
+	@Autowired
+	private StockRepository stockRepository;
+	private ObjectMapper mapper;
+
+	@BeforeAll
+	public void setup() {
+		mapper = new ObjectMapper();
+		mapper.registerModule(new JavaTimeModule());
+	}
+
+	@Test
+	public void testGetStockByIdFromDatabase() throws JsonProcessingException {
+		// loaded by data.sql, so it has never been cached
+		StockDTO expected = new StockDTO(stockRepository.findById(1L).orElseThrow());
+		String jsonResponse = RestAssured.given().port(port).when().get("/api/reactive/stocks/1").then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		assertEquals(expected, mapper.readValue(jsonResponse, StockDTO.class));
+	}
+
+	@Test
+	public void testGetStockByIdCreated() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String jsonResponse = RestAssured.given().port(port).when().get("/api/reactive/stocks/" + createdStock.getId()).then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		assertEquals(createdStock, mapper.readValue(jsonResponse, StockDTO.class));
+	}
+
+	@Test
+	public void testGetStockByIdNotFound() {
+		RestAssured.given().port(port).when().get("/api/reactive/stocks/-1").then().statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testListStocks() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String jsonResponse = RestAssured.given().port(port).when().get("/api/reactive/stocks").then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		List<StockDTO> stockList = mapper.readValue(jsonResponse, new TypeReference<List<StockDTO>>() {
+		});
+		assertEquals(stockRepository.count(), stockList.size());
+		assertTrue(stockList.contains(createdStock));
+	}
+
+	@Test
+	public void testListStocksPages() throws JsonProcessingException {
+		StockPageDTO firstPage = mapper.readValue(RestAssured.given().port(port).queryParam("limit", 1).when()
+				.get("/api/reactive/stocks/page").then().statusCode(HttpStatus.OK.value()).extract().asString(), StockPageDTO.class);
+		assertEquals(1, firstPage.getStocks().size());
+		assertNotNull(firstPage.getNextCursor());
+		StockPageDTO secondPage = mapper.readValue(RestAssured.given().port(port).queryParam("limit", 1)
+				.queryParam("cursor", firstPage.getNextCursor()).when().get("/api/reactive/stocks/page").then()
+				.statusCode(HttpStatus.OK.value()).extract().asString(), StockPageDTO.class);
+		assertEquals(1, secondPage.getStocks().size());
+		assertTrue(secondPage.getStocks().get(0).getId() > firstPage.getStocks().get(0).getId());
+	}
+
+	@Test
+	public void testListStocksPageKOInvalidCursor() {
+		RestAssured.given().port(port).queryParam("cursor", "invalid").when().get("/api/reactive/stocks/page").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	private StockDTO createStock() {
+		CreateStockDTO request = new CreateStockDTO();
+		request.setName(RandomStringUtils.randomAlphabetic(10));
+		request.setCurrentPrice(RandomUtils.nextDouble(0, 1000));
+		return stockService.createStock(request);
+	}
+}
@@ -0,0 +1,45 @@
+package org.juanjo.stock.controller;
+
+import io.restassured.RestAssured;
+import org.juanjo.stock.utils.StockConstants;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Integration tests of the admission control, through a running server so requests go through the filter
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(locations = "classpath:application-test.properties",
+		properties = {"spring.datasource.url=jdbc:h2:mem:admission;LAZY_QUERY_EXECUTION=TRUE", "stock.admission.enabled=true",
+				"stock.admission.client-rate=0.01", "stock.admission.client-burst=2"})
+public class StockAdmissionIT {
+	@LocalServerPort
+	private int port;
+
+	@Test
+	public void testThrottleClient() {
+		RestAssured.given().port(port).when().get("/api/stocks/1").then().statusCode(HttpStatus.OK.value());
+		RestAssured.given().port(port).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value());
+		RestAssured.given().port(port).when().get("/api/stocks/1").then().statusCode(HttpStatus.TOO_MANY_REQUESTS.value())
+				.header(HttpHeaders.RETRY_AFTER, notNullValue());
+
+		// clients are told apart by their address, so neither an untrusted client header nor a forwarded header from
+		// outside the cluster gets them a new bucket
+		RestAssured.given().port(port).header("X-Client-Id", "other").when().get("/api/stocks/1").then()
+				.statusCode(HttpStatus.TOO_MANY_REQUESTS.value());
+		RestAssured.given().port(port).header(StockConstants.CLUSTER_FORWARDED_HEADER, "http://127.0.0.1:8081").when()
+				.get("/api/stocks/1").then().statusCode(HttpStatus.TOO_MANY_REQUESTS.value());
+		// requests outside the API are not limited
+		for (int i = 0; i < 3; i++) {
+			RestAssured.given().port(port).when().get("/actuator/health").then().statusCode(HttpStatus.OK.value())
+					.header(HttpHeaders.RETRY_AFTER, nullValue());
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package org.juanjo.stock.controller;
+
+import io.restassured.RestAssured;
+import io.restassured.http.ContentType;
+import org.juanjo.stock.StockApplication;
+import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.StockCluster;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests of a cluster of two nodes running on loopback ports, each one with its own database. The second
+ * node joins once the first one is running, so the stocks loaded by both are rebalanced between them.
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockClusterIT {
+	private static final long REBALANCE_TIMEOUT_MILLIS = 10_000;
+
+	private int portA;
+	private int portB;
+	private ConfigurableApplicationContext nodeA;
+	private ConfigurableApplicationContext nodeB;
+	private long seedCount;
+
+	@BeforeAll
+	public void setup() throws IOException, InterruptedException {
+		portA = freePort();
+		portB = freePort();
+		String urlA = "http://127.0.0.1:" + portA;
+		String urlB = "http://127.0.0.1:" + portB;
+		nodeA = startNode("clusterA", portA, urlA);
+		seedCount = nodeA.getBean(StockRepository.class).count();
+		nodeB = startNode("clusterB", portB, urlA + "," + urlB);
+		long deadline = System.currentTimeMillis() + REBALANCE_TIMEOUT_MILLIS;
+		while (!isRebalanced() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+	}
+
+	@AfterAll
+	public void shutdown() {
+		nodeB.close();
+		nodeA.close();
+	}
+
+	@Test
+	public void testStocksPartitioned() {
+		assertTrue(isRebalanced());
+		assertEquals(List.of("http://127.0.0.1:" + portA, "http://127.0.0.1:" + portB).stream().sorted().collect(Collectors.toList()),
+				nodeA.getBean(StockCluster.class).nodes());
+		assertEquals(nodeA.getBean(StockCluster.class).nodes(), nodeB.getBean(StockCluster.class).nodes());
+		assertTrue(nodeA.getBean(StockCluster.class).isPeer("127.0.0.1"));
+		assertFalse(nodeA.getBean(StockCluster.class).isPeer("192.0.2.1"));
+		assertTrue(nodeA.getBean(StockRepository.class).count() > 0);
+		assertTrue(nodeB.getBean(StockRepository.class).count() > 0);
+	}
+
+	@Test
+	public void testListStocksMerged() {
+		List<Long> allIds = allIds();
+		for (int port : new int[]{portA, portB}) {
+			List<Long> listed = RestAssured.given().port(port).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+					.contentType(ContentType.JSON).extract().jsonPath().getList("id", Long.class);
+			assertEquals(allIds, listed);
+		}
+	}
+
+	@Test
+	public void testListStocksPagesMerged() {
+		List<Long> allIds = allIds();
+		List<Long> paged = new ArrayList<>();
+		String cursor = null;
+		do {
+			var request = RestAssured.given().port(portB).queryParam("limit", 7);
+			if (cursor != null) {
+				request.queryParam("cursor", cursor);
+			}
+			var page = request.when().get("/api/stocks/page").then().statusCode(HttpStatus.OK.value()).extract().jsonPath();
+			List<Long> ids = page.getList("stocks.id", Long.class);
+			assertTrue(ids.size() <= 7);
+			paged.addAll(ids);
+			cursor = page.getString("nextCursor");
+		} while (cursor != null);
+		assertEquals(allIds, paged);
+	}
+
+	@Test
+	public void testGetByIdsRouted() {
+		List<Long> requested = new ArrayList<>(allIds());
+		Collections.reverse(requested);
+		requested.add(1, -1L);
+		for (int port : new int[]{portA, portB}) {
+			var batch = RestAssured.given().port(port).contentType(ContentType.JSON).body(requested).when().post("/api/stocks/lookup")
+					.then().statusCode(HttpStatus.OK.value()).extract().jsonPath();
+			assertEquals(requested.stream().filter(stockId -> stockId > 0).collect(Collectors.toList()),
+					batch.getList("stocks.id", Long.class));
+			assertEquals(List.of(-1L), batch.getList("missing", Long.class));
+		}
+	}
+
+	@Test
+	public void testTopStocksAndStatsMerged() {
+		List<Long> allIds = allIds();
+		for (int port : new int[]{portA, portB}) {
+			var top = RestAssured.given().port(port).queryParam("by", "price").queryParam("n", allIds.size()).when()
+					.get("/api/stocks/top").then().statusCode(HttpStatus.OK.value()).extract().jsonPath();
+			assertEquals(allIds, top.getList("id", Long.class).stream().sorted().collect(Collectors.toList()));
+			List<Double> prices = top.getList("currentPrice", Double.class);
+			assertEquals(prices.stream().sorted(Comparator.reverseOrder()).collect(Collectors.toList()), prices);
+			var stats = RestAssured.given().port(port).when().get("/api/stocks/stats").then().statusCode(HttpStatus.OK.value())
+					.extract().jsonPath();
+			assertEquals(allIds.size(), stats.getLong("count"));
+			assertEquals(prices.get(0), stats.getDouble("maxPrice"));
+			assertEquals(prices.get(prices.size() - 1), stats.getDouble("minPrice"));
+		}
+	}
+
+	@Test
+	public void testGetChangesMerged() {
+		List<Long> allIds = allIds();
+		for (int port : new int[]{portA, portB}) {
+			List<Long> changedIds = new ArrayList<>();
+			String watermark = null;
+			boolean more = true;
+			while (more) {
+				var request = RestAssured.given().port(port).queryParam("limit", 10);
+				if (watermark != null) {
+					request.queryParam("since", watermark);
+				}
+				var changes = request.when().get("/api/stocks/changes").then().statusCode(HttpStatus.OK.value()).extract().jsonPath();
+				changedIds.addAll(changes.getList("stocks.id", Long.class));
+				watermark = changes.getString("watermark");
+				more = changes.getBoolean("more");
+			}
+			assertEquals(allIds, changedIds.stream().sorted().collect(Collectors.toList()));
+			RestAssured.given().port(port).queryParam("since", watermark).when().get("/api/stocks/changes").then()
+					.statusCode(HttpStatus.OK.value()).body("stocks", empty());
+		}
+	}
+
+	@Test
+	public void testGetStockByIdRouted() {
+		for (Long stockId : allIds()) {
+			String fromA = RestAssured.given().port(portA).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+					.statusCode(HttpStatus.OK.value()).extract().asString();
+			String fromB = RestAssured.given().port(portB).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+					.statusCode(HttpStatus.OK.value()).extract().asString();
+			assertEquals(fromA, fromB);
+		}
+		RestAssured.given().port(portA).when().get("/api/stocks/{stockId}", String.valueOf(-1)).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+		RestAssured.given().port(portB).when().get("/api/stocks/{stockId}", String.valueOf(-1)).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testCreateAndUpdateRouted() {
+		StockDTO created = RestAssured.given().port(portA).contentType(ContentType.JSON)
+				.body(Map.of("name", "Routed Holdings", "currentPrice", 10.5)).when().post("/api/stocks").then()
+				.statusCode(HttpStatus.CREATED.value()).extract().as(StockDTO.class);
+		assertTrue(nodeA.getBean(StockCluster.class).isLocal(created.getId()));
+		assertTrue(nodeA.getBean(StockRepository.class).existsById(created.getId()));
+		assertTrue(allIds().stream().allMatch(stockId -> stockId <= created.getId()));
+
+		String eTag = RestAssured.given().port(portB).when().get("/api/stocks/{stockId}", String.valueOf(created.getId())).then()
+				.statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		String updatedETag = RestAssured.given().port(portB).contentType(ContentType.JSON).header(HttpHeaders.IF_MATCH, eTag)
+				.body(Map.of("name", "Routed Holdings", "currentPrice", 11.5)).when()
+				.put("/api/stocks/{stockId}", String.valueOf(created.getId())).then().statusCode(HttpStatus.NO_CONTENT.value())
+				.extract().header(HttpHeaders.ETAG);
+		assertNotEquals(eTag, updatedETag);
+		RestAssured.given().port(portA).when().get("/api/stocks/{stockId}", String.valueOf(created.getId())).then()
+				.statusCode(HttpStatus.OK.value()).header(HttpHeaders.ETAG, updatedETag);
+		Stock stored = nodeA.getBean(StockRepository.class).findById(created.getId()).orElseThrow();
+		assertEquals(11.5, stored.getCurrentPrice());
+
+		RestAssured.given().port(portB).contentType(ContentType.JSON).header(HttpHeaders.IF_MATCH, eTag)
+				.body(Map.of("name", "Routed Holdings", "currentPrice", 12.5)).when()
+				.put("/api/stocks/{stockId}", String.valueOf(created.getId())).then().statusCode(HttpStatus.PRECONDITION_FAILED.value());
+		RestAssured.given().port(portB).contentType(ContentType.JSON)
+				.body(Map.of("name", "Routed Holdings", "currentPrice", 12.5)).when()
+				.put("/api/stocks/{stockId}", String.valueOf(-1)).then().statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testUpdatePricesSplit() {
+		List<Long> allIds = allIds();
+		List<Map<String, Object>> prices = new ArrayList<>();
+		allIds.forEach(stockId -> prices.add(Map.of("id", stockId, "currentPrice", 99.0)));
+		prices.add(Map.of("id", -1, "currentPrice", 99.0));
+		RestAssured.given().port(portA).contentType(ContentType.JSON).body(prices).when().patch("/api/stocks/prices").then()
+				.statusCode(HttpStatus.OK.value()).body("updated", equalTo(allIds.size()))
+				.body("failures.id", contains(-1));
+	}
+
+	@Test
+	public void testImportSplit() {
+		StringBuilder body = new StringBuilder();
+		for (long stockId = 5001; stockId <= 5020; stockId++) {
+			body.append("{\"id\":").append(stockId).append(",\"name\":\"Imported ").append(stockId).append("\",\"currentPrice\":1.0}\n");
+		}
+		RestAssured.given().port(portB).contentType("application/x-ndjson").body(body.toString().getBytes(StandardCharsets.UTF_8)).when().post("/api/stocks/import")
+				.then().statusCode(HttpStatus.OK.value()).body("imported", equalTo(20));
+		StockCluster clusterA = nodeA.getBean(StockCluster.class);
+		long maxImportedA = 0;
+		for (long stockId = 5001; stockId <= 5020; stockId++) {
+			ConfigurableApplicationContext owner = clusterA.isLocal(stockId) ? nodeA : nodeB;
+			assertTrue(owner.getBean(StockRepository.class).existsById(stockId));
+			maxImportedA = clusterA.isLocal(stockId) ? stockId : maxImportedA;
+		}
+		// the owner never assigns an imported id to a new stock
+		long created = RestAssured.given().port(portA).contentType(ContentType.JSON).body(Map.of("name", "After Import", "currentPrice", 1.0))
+				.when().post("/api/stocks").then().statusCode(HttpStatus.CREATED.value()).extract().jsonPath().getLong("id");
+		assertTrue(created > maxImportedA);
+	}
+
+	@Test
+	public void testSearchMerged() {
+		List<Long> ids = new ArrayList<>();
+		for (int port : new int[]{portA, portB, portA, portB}) {
+			ids.add(RestAssured.given().port(port).contentType(ContentType.JSON)
+					.body(Map.of("name", "Clusterzz " + (char) ('D' - ids.size()), "currentPrice", 1.0)).when().post("/api/stocks")
+					.then().statusCode(HttpStatus.CREATED.value()).extract().jsonPath().getLong("id"));
+		}
+		List<String> names = RestAssured.given().port(portA).queryParam("q", "clusterzz").queryParam("limit", 3).when()
+				.get("/api/stocks/search").then().statusCode(HttpStatus.OK.value()).extract().jsonPath().getList("stocks.name");
+		assertEquals(List.of("Clusterzz A", "Clusterzz B", "Clusterzz C"), names);
+		String cursor = RestAssured.given().port(portA).queryParam("q", "clusterzz").queryParam("limit", 3).when()
+				.get("/api/stocks/search").then().extract().jsonPath().getString("nextCursor");
+		names = RestAssured.given().port(portB).queryParam("q", "clusterzz").queryParam("cursor", cursor).when()
+				.get("/api/stocks/search").then().statusCode(HttpStatus.OK.value()).extract().jsonPath().getList("stocks.name");
+		assertEquals(List.of("Clusterzz D"), names);
+	}
+
+	@Test
+	public void testListVersionChangesOnAnyNode() {
+		String eTag = RestAssured.given().port(portA).when().get("/api/stocks/page").then().statusCode(HttpStatus.OK.value())
+				.extract().header(HttpHeaders.ETAG);
+		RestAssured.given().port(portA).header(HttpHeaders.IF_NONE_MATCH, eTag).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.NOT_MODIFIED.value());
+		RestAssured.given().port(portB).contentType(ContentType.JSON).body(Map.of("name", "Versioned Corp", "currentPrice", 3.0))
+				.when().post("/api/stocks").then().statusCode(HttpStatus.CREATED.value());
+		RestAssured.given().port(portA).header(HttpHeaders.IF_NONE_MATCH, eTag).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value());
+	}
+
+	@Test
+	public void testInternalCallsOnlyFromNodes() throws IOException {
+		long stocksA = nodeA.getBean(StockRepository.class).count();
+		// 127.0.0.2 is a loopback address too, but not the one of any node
+		assertEquals(HttpStatus.FORBIDDEN.value(), postFrom("127.0.0.2", portA, "/internal/cluster/nodes",
+				"{\"url\":\"http://127.0.0.2:1\"}"));
+		assertEquals(HttpStatus.FORBIDDEN.value(), postFrom("127.0.0.2", portA, "/internal/cluster/stocks",
+				"[{\"id\":9001,\"name\":\"Injected\",\"currentPrice\":1.0}]"));
+		assertEquals(2, nodeA.getBean(StockCluster.class).nodes().size());
+		assertEquals(stocksA, nodeA.getBean(StockRepository.class).count());
+		assertEquals(HttpStatus.NO_CONTENT.value(), postFrom("127.0.0.1", portA, "/internal/cluster/stocks", "[]"));
+	}
+
+	private boolean isRebalanced() {
+		List<Stock> stocksA = nodeA.getBean(StockRepository.class).findAll();
+		List<Stock> stocksB = nodeB.getBean(StockRepository.class).findAll();
+		StockCluster clusterA = nodeA.getBean(StockCluster.class);
+		StockCluster clusterB = nodeB.getBean(StockCluster.class);
+		return clusterA.nodes().size() == 2 && stocksA.size() + stocksB.size() >= seedCount &&
+				stocksA.stream().allMatch(stock -> clusterA.isLocal(stock.getId())) &&
+				stocksB.stream().allMatch(stock -> clusterB.isLocal(stock.getId()));
+	}
+
+	private List<Long> allIds() {
+		List<Long> ids = new ArrayList<>();
+		nodeA.getBean(StockRepository.class).findAll().forEach(stock -> ids.add(stock.getId()));
+		nodeB.getBean(StockRepository.class).findAll().forEach(stock -> ids.add(stock.getId()));
+		return ids.stream().sorted().collect(Collectors.toList());
+	}
+
+	private static ConfigurableApplicationContext startNode(String database, int port, String nodes) {
+		// arguments override application.properties, as when the nodes are started as separate processes
+		return new SpringApplicationBuilder(StockApplication.class).run(
+				"--server.port=" + port,
+				"--spring.datasource.url=jdbc:h2:mem:" + database + ";LAZY_QUERY_EXECUTION=TRUE",
+				"--stock.cluster.enabled=true",
+				"--stock.cluster.self=http://127.0.0.1:" + port,
+				"--stock.cluster.nodes=" + nodes);
+	}
+
+	/**
+	 * Posts a JSON body from the given local address, which RestAssured cannot choose, and returns the status code
+	 */
+	private static int postFrom(String localAddress, int port, String path, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port, InetAddress.getByName(localAddress), 0)) {
+			OutputStream out = socket.getOutputStream();
+			out.write(("POST " + path + " HTTP/1.1\r\nHost: 127.0.0.1:" + port + "\r\nContent-Type: application/json\r\n" +
+					"Content-Length: " + body.length + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(body);
+			out.flush();
+			String statusLine = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII)).readLine();
+			return Integer.parseInt(statusLine.split(" ")[1]);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -6,23 +6,49 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.restassured.http.ContentType;
 import io.restassured.module.mockmvc.RestAssuredMockMvc;
+import io.restassured.module.mockmvc.specification.MockMvcRequestSpecification;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.CandleDTO;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
 import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.service.StockCache;
+import org.juanjo.stock.utils.StockBinaryReader;
 import org.juanjo.stock.utils.StockConstants;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import static org.hamcrest.Matchers.empty;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -34,6 +60,10 @@ import static org.junit.jupiter.api.Assertions.*;
 public class StockControllerIT {
 	@Autowired
 	private StockController controller;
+	@Autowired
+	private WebApplicationContext context;
+	@Autowired
+	private StockCache stockCache;
 	private ObjectMapper mapper;
 
 	@BeforeAll
@@ -85,11 +115,115 @@ public class StockControllerIT {
 				.post("/api/stocks").then().statusCode(HttpStatus.BAD_REQUEST.value());
 	}
 
+	@Test
+	public void testCreateStocksOK() throws JsonProcessingException {
+		List<CreateStockDTO> initialRequest = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			CreateStockDTO stock = new CreateStockDTO();
+			stock.setName(RandomStringUtils.randomAlphanumeric(32));
+			stock.setCurrentPrice(RandomUtils.nextDouble());
+			initialRequest.add(stock);
+		}
+		String jsonResponse =
+				RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE)
+						.when().post("/api/stocks/batch").then().statusCode(HttpStatus.CREATED.value()).contentType(ContentType.JSON)
+						.extract().asString();
+		List<Long> response = mapper.readValue(jsonResponse, new TypeReference<List<Long>>() {
+		});
+		assertEquals(initialRequest.size(), response.size());
+		for (int i = 0; i < response.size(); i++) {
+			StockDTO stock = getStockById(response.get(i));
+			assertEquals(initialRequest.get(i).getName(), stock.getName());
+			assertEquals(initialRequest.get(i).getCurrentPrice(), stock.getCurrentPrice());
+		}
+	}
+
+	@Test
+	public void testCreateStocksNdjsonOK() throws JsonProcessingException {
+		String names = RandomStringUtils.randomAlphanumeric(32);
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body("{\"name\":\"" + names + "1\",\"currentPrice\":1.5}\n{\"name\":\"" + names + "2\",\"currentPrice\":2.5}\n")
+				.contentType(MediaType.APPLICATION_NDJSON_VALUE).when().post("/api/stocks/batch").then()
+				.statusCode(HttpStatus.CREATED.value()).extract().asString();
+		List<Long> response = mapper.readValue(jsonResponse, new TypeReference<List<Long>>() {
+		});
+		assertEquals(2, response.size());
+		assertTrue(response.get(0) < response.get(1));
+		assertEquals(names + "2", getStockById(response.get(1)).getName());
+	}
+
+	@Test
+	public void testCreateStocksKOInvalid() throws JsonProcessingException {
+		String name = RandomStringUtils.randomAlphanumeric(32);
+		CreateStockDTO valid = new CreateStockDTO();
+		valid.setName(name);
+		valid.setCurrentPrice(RandomUtils.nextDouble());
+		CreateStockDTO negative = new CreateStockDTO();
+		negative.setName(RandomStringUtils.randomAlphanumeric(32));
+		negative.setCurrentPrice(RandomUtils.nextDouble() * -1);
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(Arrays.asList(valid, negative))
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().post("/api/stocks/batch").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+		List<StockDTO> stockList = mapper.readValue(
+				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+						.extract().asString(), new TypeReference<List<StockDTO>>() {
+				});
+		assertTrue(stockList.stream().noneMatch(stock -> name.equals(stock.getName())));
+	}
+
+	@Test
+	public void testExportImportStocksCsv() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String csv = RestAssuredMockMvc.given().standaloneSetup(controller).accept(StockConstants.CSV_MEDIA_TYPE).when()
+				.get("/api/stocks/export").then().statusCode(HttpStatus.OK.value()).extract().asString();
+		assertTrue(csv.startsWith("id,name,currentPrice,lastUpdate,version\r\n"));
+		assertTrue(csv.contains("\r\n" + createdStock.getId() + "," + createdStock.getName() + "," + createdStock.getCurrentPrice() + ","));
+
+		// a new id within the block of ids already allocated for new stocks
+		long importedId = createdStock.getId() + 10;
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body(createdStock.getId() + ",Renamed,12.5\n" + importedId + ",\"Imported, Inc\",7.25\n" + importedId + ",Bad,-1\n")
+				.contentType(StockConstants.CSV_MEDIA_TYPE).when().post("/api/stocks/import").then().statusCode(HttpStatus.OK.value())
+				.extract().asString();
+		StockImportResultDTO response = mapper.readValue(jsonResponse, StockImportResultDTO.class);
+		assertEquals(2, response.getImported());
+		assertEquals(Collections.singletonList("Stock 2: Current Price cannot be negative"), response.getErrors());
+		StockDTO updatedStock = getStockById(createdStock.getId());
+		assertEquals("Renamed", updatedStock.getName());
+		assertEquals(createdStock.getVersion() + 1, updatedStock.getVersion());
+		assertEquals("Imported, Inc", getStockById(importedId).getName());
+		assertTrue(createStock().getId() > importedId);
+	}
+
+	@Test
+	public void testExportImportStocksNdjson() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String ndjson = RestAssuredMockMvc.given().standaloneSetup(controller).accept(MediaType.APPLICATION_NDJSON_VALUE).when()
+				.get("/api/stocks/export").then().statusCode(HttpStatus.OK.value()).extract().asString();
+		List<StockDTO> exported = new ArrayList<>();
+		for (String line : ndjson.split("\n")) {
+			exported.add(mapper.readValue(line, StockDTO.class));
+		}
+		assertTrue(exported.contains(createdStock));
+
+		// a new id beyond the sequence
+		long importedId = createdStock.getId() + 10 * StockConstants.ID_ALLOCATION_SIZE;
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body("{\"id\":" + importedId + ",\"name\":\"Imported\",\"currentPrice\":7.25}\n{\"id\":")
+				.contentType(MediaType.APPLICATION_NDJSON_VALUE).when().post("/api/stocks/import").then().statusCode(HttpStatus.OK.value())
+				.extract().asString();
+		StockImportResultDTO response = mapper.readValue(jsonResponse, StockImportResultDTO.class);
+		assertEquals(1, response.getImported());
+		assertEquals(1, response.getFailed());
+		assertEquals(7.25, getStockById(importedId).getCurrentPrice());
+		assertTrue(createStock().getId() > importedId);
+	}
+
 	@Test
 	public void testGetStockByIdOk() throws JsonProcessingException {
 		StockDTO stock = createStock();
 		String jsonResponse =
-				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", stock.getId()).then()
+				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stock.getId())).then()
 						.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
 		StockDTO response = mapper.readValue(jsonResponse, StockDTO.class);
 		assertNotNull(response);
@@ -102,7 +236,7 @@ public class StockControllerIT {
 	@Test
 	public void testGetStockByIdNotFound() {
 		long stockId = -1;
-		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", stockId).then()
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
 				.statusCode(HttpStatus.NOT_FOUND.value());
 	}
 
@@ -124,6 +258,221 @@ public class StockControllerIT {
 		assertEquals(createdStock.getLastUpdate(), foundStock.getLastUpdate());
 	}
 
+	@Test
+	public void testGetStocksByIds() throws JsonProcessingException {
+		StockDTO first = createStock();
+		StockDTO second = createStock();
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller)
+				.queryParam("ids", second.getId() + ",-1," + first.getId()).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		StockBatchDTO batch = mapper.readValue(jsonResponse, StockBatchDTO.class);
+		assertEquals(Arrays.asList(second, first), batch.getStocks());
+		assertEquals(Collections.singletonList(-1L), batch.getMissing());
+		jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).body(Arrays.asList(first.getId(), second.getId()))
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().post("/api/stocks/lookup").then().statusCode(HttpStatus.OK.value())
+				.extract().asString();
+		assertEquals(new StockBatchDTO(Arrays.asList(first, second), Collections.emptyList()),
+				mapper.readValue(jsonResponse, StockBatchDTO.class));
+	}
+
+	@Test
+	public void testListStocksGzip() throws IOException {
+		String plain = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value()).extract().asString();
+		StockDTO createdStock = createStock();
+		byte[] gzipped = RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.ACCEPT_ENCODING, "gzip").when()
+				.get("/api/stocks").then().statusCode(HttpStatus.OK.value()).header(HttpHeaders.CONTENT_ENCODING, "gzip").extract()
+				.asByteArray();
+		List<StockDTO> stockList;
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+			stockList = mapper.readValue(in, new TypeReference<List<StockDTO>>() {
+			});
+		}
+		assertEquals(mapper.readValue(plain, new TypeReference<List<StockDTO>>() {
+		}).size() + 1, stockList.size());
+		assertEquals(createdStock, stockList.get(stockList.size() - 1));
+	}
+
+	@Test
+	public void testListStocksPages() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		List<StockDTO> fullList = mapper.readValue(
+				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+						.extract().asString(), new TypeReference<List<StockDTO>>() {
+				});
+		List<StockDTO> pagedList = new ArrayList<>();
+		String cursor = null;
+		do {
+			MockMvcRequestSpecification request = RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("limit", 5);
+			if (cursor != null) {
+				request.queryParam("cursor", cursor);
+			}
+			String jsonResponse = request.when().get("/api/stocks/page").then().statusCode(HttpStatus.OK.value())
+					.contentType(ContentType.JSON).extract().asString();
+			StockPageDTO page = mapper.readValue(jsonResponse, StockPageDTO.class);
+			assertTrue(page.getStocks().size() <= 5);
+			pagedList.addAll(page.getStocks());
+			cursor = page.getNextCursor();
+		} while (cursor != null);
+		assertEquals(fullList.stream().map(StockDTO::getId).collect(Collectors.toList()),
+				pagedList.stream().map(StockDTO::getId).collect(Collectors.toList()));
+		assertTrue(pagedList.stream().anyMatch(s -> s.getId().equals(createdStock.getId())));
+	}
+
+	@Test
+	public void testListStocksBinary() throws IOException {
+		createStock();
+		List<StockDTO> jsonList = mapper.readValue(
+				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+						.extract().asString(), new TypeReference<List<StockDTO>>() {
+				});
+		// the whole application context is set up, so the binary converter is registered
+		MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+		byte[] binaryList = RestAssuredMockMvc.given().mockMvc(mockMvc).accept(StockConstants.BINARY_MEDIA_TYPE).when()
+				.get("/api/stocks").then().statusCode(HttpStatus.OK.value()).contentType(StockConstants.BINARY_MEDIA_TYPE)
+				.extract().asByteArray();
+		assertEquals(jsonList, new StockBinaryReader(new ByteArrayInputStream(binaryList)).readList());
+		byte[] binaryStock = RestAssuredMockMvc.given().mockMvc(mockMvc).accept(StockConstants.BINARY_MEDIA_TYPE).when()
+				.get("/api/stocks/{stockId}", String.valueOf(jsonList.get(0).getId())).then().statusCode(HttpStatus.OK.value())
+				.contentType(StockConstants.BINARY_MEDIA_TYPE).extract().asByteArray();
+		assertEquals(jsonList.get(0), new StockBinaryReader(new ByteArrayInputStream(binaryStock)).readStock());
+	}
+
+	@Test
+	public void testGetStockFields() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		// the whole application context is set up, so the filter of the fields is registered
+		MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+		String stockJson = RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "currentPrice,id").when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value())
+				.contentType(ContentType.JSON).extract().asString();
+		Map<String, Object> stock = mapper.readValue(stockJson, new TypeReference<Map<String, Object>>() {
+		});
+		assertEquals(Set.of("id", "currentPrice"), stock.keySet());
+		assertEquals(createdStock.getCurrentPrice(), stock.get("currentPrice"));
+
+		String pageJson = RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "name").queryParam("limit", 2).when()
+				.get("/api/stocks/page").then().statusCode(HttpStatus.OK.value()).extract().asString();
+		StockPageDTO page = mapper.readValue(pageJson, StockPageDTO.class);
+		assertEquals(2, page.getStocks().size());
+		assertNotNull(page.getNextCursor());
+		page.getStocks().forEach(pageStock -> {
+			assertNotNull(pageStock.getName());
+			assertNull(pageStock.getId());
+			assertNull(pageStock.getCurrentPrice());
+		});
+
+		String listJson = RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "id,lastUpdate").when().get("/api/stocks")
+				.then().statusCode(HttpStatus.OK.value()).extract().asString();
+		List<Map<String, Object>> list = mapper.readValue(listJson, new TypeReference<List<Map<String, Object>>>() {
+		});
+		assertTrue(list.size() > 1);
+		list.forEach(listed -> assertEquals(Set.of("id", "lastUpdate"), listed.keySet()));
+		// the whole stocks are still written when no fields are requested
+		StockDTO whole = mapper.readValue(RestAssuredMockMvc.given().mockMvc(mockMvc).when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value()).extract()
+				.asString(), StockDTO.class);
+		assertEquals(createdStock.getName(), whole.getName());
+
+		RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "id,price").when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void testGetStockFieldsSameValidatorsOnCacheMiss() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		MockMvc mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
+		// the created stock is cached whole
+		var hit = RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "currentPrice").when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value()).extract();
+		stockCache.invalidate(createdStock.getId());
+		// only the projected columns are read now
+		var miss = RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "currentPrice").when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value()).extract();
+		assertEquals(hit.header(HttpHeaders.ETAG), miss.header(HttpHeaders.ETAG));
+		assertNotNull(miss.header(HttpHeaders.LAST_MODIFIED));
+		assertEquals(hit.header(HttpHeaders.LAST_MODIFIED), miss.header(HttpHeaders.LAST_MODIFIED));
+		stockCache.invalidate(createdStock.getId());
+		RestAssuredMockMvc.given().mockMvc(mockMvc).queryParam("fields", "currentPrice").header(HttpHeaders.IF_NONE_MATCH,
+				hit.header(HttpHeaders.ETAG)).when().get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then()
+				.statusCode(HttpStatus.NOT_MODIFIED.value());
+	}
+
+	@Test
+	public void testSearchStocks() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String infix = createdStock.getName().substring(10, 20).toLowerCase();
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("q", infix).when()
+				.get("/api/stocks/search").then().statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		StockPageDTO page = mapper.readValue(jsonResponse, StockPageDTO.class);
+		assertEquals(Collections.singletonList(createdStock), page.getStocks());
+		assertNull(page.getNextCursor());
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName("Renamed " + createdStock.getName().substring(0, 10));
+		request.setCurrentPrice(createdStock.getCurrentPrice());
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(request).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("q", infix).when().get("/api/stocks/search").then()
+				.statusCode(HttpStatus.OK.value()).body("stocks", empty());
+	}
+
+	@Test
+	public void testTopStocksAndStats() throws JsonProcessingException {
+		MarketStatsDTO before = getStats();
+		StockDTO createdStock = createStock();
+		MarketStatsDTO after = getStats();
+		assertEquals(before.getCount() + 1, after.getCount());
+		assertEquals(after.getCount(), after.getAdvancing() + after.getDeclining() + after.getUnchanged());
+		assertTrue(after.getMaxPrice() >= createdStock.getCurrentPrice());
+		RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body(Collections.singletonList(new PriceUpdateDTO(createdStock.getId(), 0.0)))
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().patch("/api/stocks/prices").then().statusCode(HttpStatus.OK.value());
+		// no stock can fall more than to zero, so it is among the first ones
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("by", "change").queryParam("order", "asc")
+				.queryParam("n", StockConstants.PAGE_MAX_LIMIT).when().get("/api/stocks/top").then().statusCode(HttpStatus.OK.value())
+				.contentType(ContentType.JSON).extract().asString();
+		List<StockMoverDTO> top = mapper.readValue(jsonResponse, new TypeReference<List<StockMoverDTO>>() {
+		});
+		StockMoverDTO mover = top.stream().filter(stock -> stock.getId().equals(createdStock.getId())).findFirst().orElseThrow();
+		assertEquals(-100.0, mover.getChange());
+		assertEquals(createdStock.getCurrentPrice(), mover.getOpenPrice());
+		assertEquals(0.0, mover.getCurrentPrice());
+		assertEquals(-100.0, top.get(0).getChange());
+		assertEquals(0.0, getStats().getMinPrice());
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("by", "volume").when().get("/api/stocks/top").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void testGetChanges() throws JsonProcessingException {
+		StockChangesDTO changes = getChanges(null);
+		while (changes.isMore()) {
+			changes = getChanges(changes.getWatermark());
+		}
+		String watermark = changes.getWatermark();
+		StockDTO updated = createStock();
+		StockDTO created = createStock();
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName(RandomStringUtils.randomAlphanumeric(32));
+		request.setCurrentPrice(RandomUtils.nextDouble());
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(request).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(updated.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
+		changes = getChanges(watermark);
+		assertEquals(Arrays.asList(created, getStockById(updated.getId())), changes.getStocks());
+		assertFalse(changes.isMore());
+		StockChangesDTO unchanged = getChanges(changes.getWatermark());
+		assertTrue(unchanged.getStocks().isEmpty());
+		assertEquals(changes.getWatermark(), unchanged.getWatermark());
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("since", "not a watermark").when().get("/api/stocks/changes")
+				.then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void testListStocksPageKOInvalidLimit() {
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("limit", StockConstants.PAGE_MAX_LIMIT + 1).when()
+				.get("/api/stocks/page").then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
 	@Test
 	public void testUpdateStockOK() throws JsonProcessingException {
 		StockDTO createdStock = createStock();
@@ -131,7 +480,7 @@ public class StockControllerIT {
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", createdStock.getId()).then().statusCode(HttpStatus.NO_CONTENT.value());
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
 		StockDTO updatedStock = getStockById(createdStock.getId());
 		assertNotNull(updatedStock);
 		assertEquals(initialRequest.getName(), updatedStock.getName());
@@ -148,7 +497,7 @@ public class StockControllerIT {
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", createdStock.getId()).then().statusCode(HttpStatus.NO_CONTENT.value());
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
 		StockDTO updatedStock = getStockById(createdStock.getId());
 		assertNotNull(updatedStock);
 		assertEquals(initialRequest.getName(), updatedStock.getName());
@@ -158,6 +507,128 @@ public class StockControllerIT {
 		assertNotEquals(createdStock.getCurrentPrice(), updatedStock.getCurrentPrice());
 	}
 
+	@Test
+	public void testUpdatePricesPartialFailures() throws JsonProcessingException {
+		StockDTO first = createStock();
+		StockDTO second = createStock();
+		long missingId = -1;
+		List<PriceUpdateDTO> initialRequest = Arrays.asList(new PriceUpdateDTO(first.getId(), RandomUtils.nextDouble()),
+				new PriceUpdateDTO(second.getId(), RandomUtils.nextDouble()), new PriceUpdateDTO(missingId, RandomUtils.nextDouble()),
+				new PriceUpdateDTO(second.getId(), RandomUtils.nextDouble() * -1));
+		String jsonResponse =
+				RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE)
+						.when().patch("/api/stocks/prices").then().statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract()
+						.asString();
+		PriceUpdateResultDTO response = mapper.readValue(jsonResponse, PriceUpdateResultDTO.class);
+		assertEquals(2, response.getUpdated());
+		assertEquals(2, response.getFailures().size());
+		assertTrue(response.getFailures().stream().allMatch(f -> f.getId() == missingId || f.getId().equals(second.getId())));
+		assertEquals(initialRequest.get(0).getCurrentPrice(), getStockById(first.getId()).getCurrentPrice());
+		assertEquals(initialRequest.get(1).getCurrentPrice(), getStockById(second.getId()).getCurrentPrice());
+	}
+
+	@Test
+	public void testGetStockHistory() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		UpdateStockDTO updateRequest = new UpdateStockDTO();
+		updateRequest.setName(createdStock.getName());
+		updateRequest.setCurrentPrice(createdStock.getCurrentPrice() + 10);
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(updateRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
+		double lastPrice = createdStock.getCurrentPrice() / 2;
+		RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body(Collections.singletonList(new PriceUpdateDTO(createdStock.getId(), lastPrice)))
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().patch("/api/stocks/prices").then().statusCode(HttpStatus.OK.value());
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("interval", "1h").when()
+				.get("/api/stocks/{stockId}/history", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value())
+				.contentType(ContentType.JSON).extract().asString();
+		List<CandleDTO> candles = mapper.readValue(jsonResponse, new TypeReference<List<CandleDTO>>() {
+		});
+		assertFalse(candles.isEmpty());
+		assertEquals(3, candles.stream().mapToInt(CandleDTO::getTicks).sum());
+		assertEquals(createdStock.getCurrentPrice(), candles.get(0).getOpen());
+		assertEquals(lastPrice, candles.get(candles.size() - 1).getClose());
+		assertEquals(updateRequest.getCurrentPrice(), candles.stream().mapToDouble(CandleDTO::getHigh).max().getAsDouble());
+	}
+
+	@Test
+	public void testGetStockHistoryKOInvalidInterval() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("interval", "2m").when()
+				.get("/api/stocks/{stockId}/history", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void testGetStockHistoryKONotFound() {
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}/history", String.valueOf(-1)).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testListStocksNotModified() throws JsonProcessingException {
+		String eTag = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.NOT_MODIFIED.value());
+		createStock();
+		String newETag = RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when()
+				.get("/api/stocks").then().statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		assertNotEquals(eTag, newETag);
+	}
+
+	@Test
+	public void testGetStockByIdNotModified() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String eTag = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(createdStock.getId()))
+				.then().statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NOT_MODIFIED.value());
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName(createdStock.getName());
+		request.setCurrentPrice(createdStock.getCurrentPrice() / 2);
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(request).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when()
+				.get("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.OK.value());
+	}
+
+	@Test
+	public void testUpdateStockIfMatch() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String eTag = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(createdStock.getId()))
+				.then().statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName(RandomStringUtils.randomAlphanumeric(32));
+		request.setCurrentPrice(RandomUtils.nextDouble());
+		String newETag = RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, eTag).body(request)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(createdStock.getId()))
+				.then().statusCode(HttpStatus.NO_CONTENT.value()).extract().header(HttpHeaders.ETAG);
+		StockDTO updatedStock = getStockById(createdStock.getId());
+		assertEquals(createdStock.getVersion() + 1, updatedStock.getVersion());
+		assertEquals(request.getName(), updatedStock.getName());
+		// a second writer holding the first tag has lost the race
+		UpdateStockDTO lostUpdate = new UpdateStockDTO();
+		lostUpdate.setName(RandomStringUtils.randomAlphanumeric(32));
+		lostUpdate.setCurrentPrice(RandomUtils.nextDouble());
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, eTag).body(lostUpdate)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(createdStock.getId()))
+				.then().statusCode(HttpStatus.PRECONDITION_FAILED.value());
+		assertEquals(updatedStock, getStockById(createdStock.getId()));
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, newETag).body(lostUpdate)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(createdStock.getId()))
+				.then().statusCode(HttpStatus.NO_CONTENT.value());
+		assertEquals(lostUpdate.getName(), getStockById(createdStock.getId()).getName());
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, newETag).body(lostUpdate)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", "-1")
+				.then().statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testUpdatePricesKOEmpty() {
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(Collections.emptyList()).contentType(MediaType.APPLICATION_JSON_VALUE)
+				.when().patch("/api/stocks/prices").then().statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
 	@Test
 	public void testUpdateStockKONotFound() {
 		long stockId = -1;
@@ -165,7 +636,7 @@ public class StockControllerIT {
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.NOT_FOUND.value());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.NOT_FOUND.value());
 	}
 
 	@Test
@@ -174,7 +645,7 @@ public class StockControllerIT {
 		UpdateStockDTO initialRequest = new UpdateStockDTO();
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
 	}
 
 	@Test
@@ -184,7 +655,7 @@ public class StockControllerIT {
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(StockConstants.NAME_MAX_LENGTH + 1));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
 	}
 
 	@Test
@@ -194,7 +665,7 @@ public class StockControllerIT {
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble() * -1);
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
 	}
 
 	/**
@@ -203,6 +674,16 @@ public class StockControllerIT {
 	 * @return created stock
 	 * @throws JsonProcessingException if parsing fails
 	 */
+	private StockChangesDTO getChanges(String since) throws JsonProcessingException {
+		MockMvcRequestSpecification request = RestAssuredMockMvc.given().standaloneSetup(controller);
+		if (since != null) {
+			request.queryParam("since", since);
+		}
+		String jsonResponse = request.queryParam("limit", StockConstants.PAGE_MAX_LIMIT).when().get("/api/stocks/changes").then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		return mapper.readValue(jsonResponse, StockChangesDTO.class);
+	}
+
 	private StockDTO createStock() throws JsonProcessingException {
 		CreateStockDTO initialRequest = new CreateStockDTO();
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
@@ -221,8 +702,14 @@ public class StockControllerIT {
 	 * @return stockDTO
 	 * @throws JsonProcessingException if parsing fails
 	 */
+	private MarketStatsDTO getStats() throws JsonProcessingException {
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/stats").then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		return mapper.readValue(jsonResponse, MarketStatsDTO.class);
+	}
+
 	private StockDTO getStockById(Long stockId) throws JsonProcessingException {
-		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", stockId).then()
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
 				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
 		return mapper.readValue(jsonResponse, StockDTO.class);
 	}
@@ -0,0 +1,130 @@
+package org.juanjo.stock.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.restassured.http.ContentType;
+import io.restassured.module.mockmvc.RestAssuredMockMvc;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.PriceBook;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests with the price book serving reads
+ */
+@SpringBootTest
+@TestPropertySource(locations = "classpath:application-test.properties",
+		properties = {"stock.price-book.enabled=true", "spring.datasource.url=jdbc:h2:mem:pricebook;LAZY_QUERY_EXECUTION=TRUE"})
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockControllerPriceBookIT {
+	@Autowired
+	private StockController controller;
+	@Autowired
+	private PriceBook priceBook;
+	@Autowired
+	private StockRepository stockRepository;
+	private ObjectMapper mapper;
+
+	@BeforeAll
+	public void setup() {
+		mapper = new ObjectMapper();
+		mapper.registerModule(new JavaTimeModule());
+	}
+
+	@Test
+	public void testPriceBookLoaded() {
+		assertEquals(stockRepository.count(), priceBook.size());
+	}
+
+	@Test
+	public void testCreateAndGetStock() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		assertEquals(createdStock, priceBook.get(createdStock.getId()));
+		assertEquals(createdStock, getStockById(createdStock.getId()));
+	}
+
+	@Test
+	public void testGetStockByIdNotFound() {
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(-1)).then()
+				.statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testListStocks() throws JsonProcessingException {
+		StockDTO createdStock = createStock();
+		String jsonResponse =
+				RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+						.contentType(ContentType.JSON).extract().asString();
+		List<StockDTO> stockList = mapper.readValue(jsonResponse, new TypeReference<List<StockDTO>>() {
+		});
+		assertEquals(priceBook.size(), stockList.size());
+		assertTrue(stockList.contains(createdStock));
+	}
+
+	@Test
+	public void testUpdateStockPersistedAsynchronously() throws JsonProcessingException, InterruptedException {
+		StockDTO createdStock = createStock();
+		UpdateStockDTO initialRequest = new UpdateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(createdStock.getId())).then().statusCode(HttpStatus.NO_CONTENT.value());
+		StockDTO updatedStock = getStockById(createdStock.getId());
+		assertEquals(initialRequest.getName(), updatedStock.getName());
+		assertEquals(initialRequest.getCurrentPrice(), updatedStock.getCurrentPrice());
+		Stock persisted = null;
+		for (int i = 0; i < 50; i++) {
+			persisted = stockRepository.findById(createdStock.getId()).orElseThrow(AssertionError::new);
+			if (initialRequest.getCurrentPrice().equals(persisted.getCurrentPrice())) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		assertEquals(initialRequest.getName(), persisted.getName());
+		assertEquals(initialRequest.getCurrentPrice(), persisted.getCurrentPrice());
+	}
+
+	@Test
+	public void testUpdateStockKONotFound() {
+		UpdateStockDTO initialRequest = new UpdateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.put("/api/stocks/{stockId}", String.valueOf(-1)).then().statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	private StockDTO createStock() throws JsonProcessingException {
+		CreateStockDTO initialRequest = new CreateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		String jsonResponse =
+				RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE)
+						.when().post("/api/stocks").then().statusCode(HttpStatus.CREATED.value()).contentType(ContentType.JSON).extract()
+						.asString();
+		return mapper.readValue(jsonResponse, StockDTO.class);
+	}
+
+	private StockDTO getStockById(Long stockId) throws JsonProcessingException {
+		String jsonResponse = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.OK.value()).contentType(ContentType.JSON).extract().asString();
+		return mapper.readValue(jsonResponse, StockDTO.class);
+	}
+}
@@ -1,27 +1,68 @@
 package org.juanjo.stock.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.restassured.module.mockmvc.RestAssuredMockMvc;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.config.StockBinaryMessageConverter;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockPageDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
 import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.service.StockListSnapshot;
 import org.juanjo.stock.service.StockService;
+import org.juanjo.stock.service.StockVersion;
+import org.juanjo.stock.utils.StockBinaryReader;
 import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockETag;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 
 public class StockControllerTest {
@@ -29,6 +70,10 @@ public class StockControllerTest {
 	private StockController controller;
 	@Mock
 	private StockService stockService;
+	@Spy
+	private ObjectMapper objectMapper = new ObjectMapper();
+	@Spy
+	private StockVersion stockVersion = new StockVersion();
 
 	@BeforeEach
 	public void init() {
@@ -38,15 +83,174 @@ public class StockControllerTest {
 	@Test
 	public void testGetStockById() throws NotFoundException {
 		long stockId = RandomUtils.nextLong();
-		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", stockId).then()
-				.statusCode(HttpStatus.OK.value());
+		when(stockService.getById(stockId)).thenReturn(generateRandomStock(stockId));
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.OK.value()).header(HttpHeaders.ETAG, notNullValue())
+				.header(HttpHeaders.LAST_MODIFIED, notNullValue());
 		verify(stockService).getById(stockId);
 	}
 
+	@Test
+	public void testGetStockByIdNotModified() throws NotFoundException {
+		long stockId = RandomUtils.nextLong();
+		StockDTO stock = generateRandomStock(stockId);
+		when(stockService.getById(stockId)).thenReturn(stock);
+		String eTag = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.OK.value()).extract().header(HttpHeaders.ETAG);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when()
+				.get("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.NOT_MODIFIED.value()).body(equalTo(""));
+		stock.setCurrentPrice(stock.getCurrentPrice() / 2);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when()
+				.get("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.OK.value())
+				.header(HttpHeaders.ETAG, not(equalTo(eTag)));
+	}
+
 	@Test
 	public void testListStocks() {
-		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value());
-		verify(stockService).listStocks();
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value())
+				.header(HttpHeaders.ETAG, equalTo(stockVersion.getETag())).body(equalTo("[]"));
+		verify(stockService).listStocks(any(Consumer.class));
+	}
+
+	@Test
+	public void testGetStocksByIds() throws BadRequestException {
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("ids", "3,1,2").when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value());
+		verify(stockService).getByIds(Arrays.asList(3L, 1L, 2L));
+		verify(stockService, never()).listStocks(any(Consumer.class));
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(Arrays.asList(5L, 4L)).contentType(MediaType.APPLICATION_JSON_VALUE)
+				.when().post("/api/stocks/lookup").then().statusCode(HttpStatus.OK.value());
+		verify(stockService).getByIds(Arrays.asList(5L, 4L));
+	}
+
+	@Test
+	public void testGetStocksByIdsKOInvalid() throws BadRequestException {
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("ids", "1,abc").when().get("/api/stocks").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).getByIds(any());
+	}
+
+	@Test
+	public void testListStocksSnapshot() throws IOException {
+		List<StockDTO> stocks = Collections.singletonList(new StockDTO(RandomUtils.nextLong(), "Ünïcödé €", RandomUtils.nextDouble(), null, 0L));
+		doAnswer(invocation -> {
+			Consumer<StockDTO> consumer = invocation.getArgument(0);
+			stocks.forEach(consumer);
+			return null;
+		}).when(stockService).listStocks(any(Consumer.class));
+		StockListSnapshot listSnapshot = new StockListSnapshot(DataSize.ofMegabytes(1));
+		ReflectionTestUtils.setField(listSnapshot, "stockService", stockService);
+		ReflectionTestUtils.setField(listSnapshot, "objectMapper", objectMapper);
+		ReflectionTestUtils.setField(controller, "stockListSnapshot", listSnapshot);
+		String plain = RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value()).header(HttpHeaders.CONTENT_ENCODING, nullValue())
+				.header(HttpHeaders.VARY, equalTo(HttpHeaders.ACCEPT_ENCODING)).extract().asString();
+		assertEquals(objectMapper.writeValueAsString(stocks), plain);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.ACCEPT_ENCODING, "br, gzip;q=0").when()
+				.get("/api/stocks").then().statusCode(HttpStatus.OK.value()).header(HttpHeaders.CONTENT_ENCODING, nullValue());
+		byte[] gzipped = RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate, br")
+				.when().get("/api/stocks").then().statusCode(HttpStatus.OK.value()).header(HttpHeaders.CONTENT_ENCODING, equalTo("gzip"))
+				.extract().asByteArray();
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+			assertEquals(plain, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+		verify(stockService).listStocks(any(Consumer.class));
+	}
+
+	@Test
+	public void testListStocksNotModified() {
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, stockVersion.getETag()).when()
+				.get("/api/stocks").then().statusCode(HttpStatus.NOT_MODIFIED.value()).body(equalTo(""));
+		verify(stockService, never()).listStocks(any(Consumer.class));
+		String eTag = stockVersion.getETag();
+		stockVersion.increment();
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_NONE_MATCH, eTag).when().get("/api/stocks").then()
+				.statusCode(HttpStatus.OK.value()).header(HttpHeaders.ETAG, not(equalTo(eTag)));
+		verify(stockService).listStocks(any(Consumer.class));
+	}
+
+	@Test
+	public void testListStocksPage() throws BadRequestException {
+		String cursor = RandomStringUtils.randomAlphanumeric(12);
+		int limit = RandomUtils.nextInt(1, StockConstants.PAGE_MAX_LIMIT);
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("cursor", cursor).queryParam("limit", limit).when()
+				.get("/api/stocks/page").then().statusCode(HttpStatus.OK.value());
+		verify(stockService).listStocks(cursor, limit);
+	}
+
+	@Test
+	public void testListStocksPageKOInvalidCursor() throws BadRequestException {
+		when(stockService.listStocks(anyString(), any())).thenThrow(new BadRequestException("Invalid cursor"));
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("cursor", "invalid").when().get("/api/stocks/page").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+	}
+
+	@Test
+	public void testSearchStocks() throws BadRequestException, NotFoundException {
+		String query = RandomStringUtils.randomAlphanumeric(8);
+		String cursor = RandomStringUtils.randomAlphanumeric(12);
+		int limit = RandomUtils.nextInt(1, StockConstants.PAGE_MAX_LIMIT);
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("q", query).queryParam("cursor", cursor)
+				.queryParam("limit", limit).when().get("/api/stocks/search").then().statusCode(HttpStatus.OK.value())
+				.header(HttpHeaders.ETAG, equalTo(stockVersion.getETag()));
+		verify(stockService).searchStocks(query, cursor, limit);
+	}
+
+	@Test
+	public void testSearchStocksKONoQuery() throws BadRequestException, NotFoundException {
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/search").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).searchStocks(any(), any(), any());
+	}
+
+	@Test
+	public void testGetTopStocks() throws BadRequestException, NotFoundException {
+		int n = RandomUtils.nextInt(1, StockConstants.PAGE_MAX_LIMIT);
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("by", "price").queryParam("order", "asc").queryParam("n", n)
+				.when().get("/api/stocks/top").then().statusCode(HttpStatus.OK.value());
+		verify(stockService).getTopStocks("price", "asc", n);
+	}
+
+	@Test
+	public void testGetTopStocksKODisabled() throws BadRequestException, NotFoundException {
+		when(stockService.getTopStocks(any(), any(), any())).thenThrow(new NotFoundException());
+		RestAssuredMockMvc.given().standaloneSetup(controller).when().get("/api/stocks/top").then().statusCode(HttpStatus.NOT_FOUND.value());
+	}
+
+	@Test
+	public void testGetStockByIdBinary() throws NotFoundException, IOException {
+		long stockId = RandomUtils.nextLong();
+		StockDTO stock = generateRandomStock(stockId);
+		when(stockService.getById(stockId)).thenReturn(stock);
+		byte[] response = RestAssuredMockMvc.given().mockMvc(binaryMockMvc()).accept(StockConstants.BINARY_MEDIA_TYPE).when()
+				.get("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.OK.value())
+				.contentType(StockConstants.BINARY_MEDIA_TYPE).header(HttpHeaders.ETAG, notNullValue()).extract().asByteArray();
+		assertEquals(stock, new StockBinaryReader(new ByteArrayInputStream(response)).readStock());
+	}
+
+	@Test
+	public void testListStocksBinary() throws IOException {
+		List<StockDTO> stocks = Arrays.asList(generateRandomStock(RandomUtils.nextLong(0, Long.MAX_VALUE / 2)),
+				generateRandomStock(RandomUtils.nextLong(0, Long.MAX_VALUE / 2)), new StockDTO(1L, "Ünïcödé €", null, null, null));
+		doAnswer(invocation -> {
+			Consumer<StockDTO> consumer = invocation.getArgument(0);
+			stocks.forEach(consumer);
+			return null;
+		}).when(stockService).listStocks(any(Consumer.class));
+		byte[] response = RestAssuredMockMvc.given().standaloneSetup(controller).accept(StockConstants.BINARY_MEDIA_TYPE).when()
+				.get("/api/stocks").then().statusCode(HttpStatus.OK.value()).contentType(StockConstants.BINARY_MEDIA_TYPE)
+				.header(HttpHeaders.ETAG, equalTo(stockVersion.getETag())).extract().asByteArray();
+		assertEquals(stocks, new StockBinaryReader(new ByteArrayInputStream(response)).readList());
+	}
+
+	@Test
+	public void testListStocksPageBinary() throws BadRequestException, IOException {
+		StockPageDTO page = new StockPageDTO(Arrays.asList(generateRandomStock(1), generateRandomStock(2)), "AAAAAAAAAAI");
+		when(stockService.listStocks(null, null)).thenReturn(page);
+		byte[] response = RestAssuredMockMvc.given().mockMvc(binaryMockMvc()).accept(StockConstants.BINARY_MEDIA_TYPE).when()
+				.get("/api/stocks/page").then().statusCode(HttpStatus.OK.value()).contentType(StockConstants.BINARY_MEDIA_TYPE)
+				.extract().asByteArray();
+		assertEquals(page, new StockBinaryReader(new ByteArrayInputStream(response)).readPage());
 	}
 
 	@Test
@@ -94,15 +298,18 @@ public class StockControllerTest {
 	}
 
 	@Test
-	public void testUpdateStockOK() throws NotFoundException {
+	public void testUpdateStockOK() throws NotFoundException, PreconditionFailedException {
 		long stockId = RandomUtils.nextLong();
 		UpdateStockDTO initialRequest = new UpdateStockDTO();
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		StockDTO updated = generateRandomStock(stockId);
+		when(stockService.updateStock(eq(stockId), any(), isNull())).thenReturn(updated);
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.NO_CONTENT.value());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.NO_CONTENT.value())
+				.header(HttpHeaders.ETAG, equalTo(StockETag.of(updated)));
 		ArgumentCaptor<UpdateStockDTO> requestCaptor = ArgumentCaptor.forClass(UpdateStockDTO.class);
-		verify(stockService).updateStock(eq(stockId), requestCaptor.capture());
+		verify(stockService).updateStock(eq(stockId), requestCaptor.capture(), isNull());
 		UpdateStockDTO requestToService = requestCaptor.getValue();
 		assertNotNull(requestToService);
 		assertEquals(initialRequest.getName(), requestToService.getName());
@@ -110,34 +317,185 @@ public class StockControllerTest {
 	}
 
 	@Test
-	public void testUpdateStockKONoName() throws NotFoundException {
+	public void testUpdateStockReturnRepresentation() throws NotFoundException, PreconditionFailedException {
+		long stockId = RandomUtils.nextLong();
+		UpdateStockDTO initialRequest = new UpdateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		StockDTO updated = generateRandomStock(stockId);
+		when(stockService.updateStock(eq(stockId), any(), isNull())).thenReturn(updated);
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(StockConstants.PREFER_HEADER, "return=representation")
+				.body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(stockId))
+				.then().statusCode(HttpStatus.OK.value()).header(HttpHeaders.ETAG, equalTo(StockETag.of(updated)))
+				.body("name", equalTo(updated.getName()));
+	}
+
+	@Test
+	public void testUpdateStockIfMatch() throws NotFoundException, PreconditionFailedException {
+		long stockId = RandomUtils.nextLong();
+		UpdateStockDTO initialRequest = new UpdateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		String eTag = StockETag.of(generateRandomStock(stockId));
+		when(stockService.updateStock(eq(stockId), any(), any())).thenReturn(generateRandomStock(stockId));
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, eTag).body(initialRequest)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.NO_CONTENT.value());
+		verify(stockService).updateStock(eq(stockId), any(), eq(eTag));
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, "*").body(initialRequest)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.NO_CONTENT.value());
+		verify(stockService).updateStock(eq(stockId), any(), isNull());
+	}
+
+	@Test
+	public void testUpdateStockKOPreconditionFailed() throws NotFoundException, PreconditionFailedException {
+		long stockId = RandomUtils.nextLong();
+		UpdateStockDTO initialRequest = new UpdateStockDTO();
+		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
+		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
+		when(stockService.updateStock(eq(stockId), any(), any())).thenThrow(new PreconditionFailedException());
+		RestAssuredMockMvc.given().standaloneSetup(controller).header(HttpHeaders.IF_MATCH, "\"stale\"").body(initialRequest)
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().put("/api/stocks/{stockId}", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.PRECONDITION_FAILED.value());
+	}
+
+	@Test
+	public void testUpdateStockKONoName() throws NotFoundException, PreconditionFailedException {
 		long stockId = RandomUtils.nextLong();
 		UpdateStockDTO initialRequest = new UpdateStockDTO();
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
-		verify(stockService, never()).updateStock(anyLong(), any());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).updateStock(anyLong(), any(), any());
 	}
 
 	@Test
-	public void testUpdateStockKONameMaxSize() throws NotFoundException {
+	public void testUpdateStockKONameMaxSize() throws NotFoundException, PreconditionFailedException {
 		long stockId = RandomUtils.nextLong();
 		UpdateStockDTO initialRequest = new UpdateStockDTO();
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(StockConstants.NAME_MAX_LENGTH + 1));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble());
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
-		verify(stockService, never()).updateStock(anyLong(), any());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).updateStock(anyLong(), any(), any());
 	}
 
 	@Test
-	public void testUpdateStockKOPriceNegative() throws NotFoundException {
+	public void testUpdateStockKOPriceNegative() throws NotFoundException, PreconditionFailedException {
 		long stockId = RandomUtils.nextLong();
 		UpdateStockDTO initialRequest = new UpdateStockDTO();
 		initialRequest.setName(RandomStringUtils.randomAlphanumeric(32));
 		initialRequest.setCurrentPrice(RandomUtils.nextDouble() * -1);
 		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
-				.put("/api/stocks/{stockId}", stockId).then().statusCode(HttpStatus.BAD_REQUEST.value());
-		verify(stockService, never()).updateStock(anyLong(), any());
+				.put("/api/stocks/{stockId}", String.valueOf(stockId)).then().statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).updateStock(anyLong(), any(), any());
+	}
+
+	@Test
+	public void testUpdatePricesOK() throws BadRequestException, ConflictException {
+		List<PriceUpdateDTO> initialRequest = Arrays.asList(new PriceUpdateDTO(RandomUtils.nextLong(), RandomUtils.nextDouble()),
+				new PriceUpdateDTO(RandomUtils.nextLong(), RandomUtils.nextDouble()));
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(initialRequest).contentType(MediaType.APPLICATION_JSON_VALUE).when()
+				.patch("/api/stocks/prices").then().statusCode(HttpStatus.OK.value());
+		ArgumentCaptor<List<PriceUpdateDTO>> requestCaptor = ArgumentCaptor.forClass(List.class);
+		verify(stockService).updatePrices(requestCaptor.capture());
+		assertEquals(initialRequest, requestCaptor.getValue());
+	}
+
+	@Test
+	public void testCreateStocksNdjson() throws BadRequestException {
+		when(stockService.createStocks(anyList())).thenReturn(Arrays.asList(22L, 23L));
+		RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body("{\"name\":\"Ajax\",\"currentPrice\":15.76}\n{\"name\":\"Bayer\",\"currentPrice\":52.1}\n")
+				.contentType(MediaType.APPLICATION_NDJSON_VALUE).when().post("/api/stocks/batch").then()
+				.statusCode(HttpStatus.CREATED.value()).body("$", contains(22, 23));
+		ArgumentCaptor<List<CreateStockDTO>> requestCaptor = ArgumentCaptor.forClass(List.class);
+		verify(stockService).createStocks(requestCaptor.capture());
+		assertEquals(Arrays.asList("Ajax", "Bayer"),
+				requestCaptor.getValue().stream().map(CreateStockDTO::getName).collect(Collectors.toList()));
+		assertEquals(52.1, requestCaptor.getValue().get(1).getCurrentPrice());
+	}
+
+	@Test
+	public void testCreateStocksNdjsonKOInvalidLine() throws BadRequestException {
+		RestAssuredMockMvc.given().standaloneSetup(controller).body("{\"name\":\"Ajax\",\"currentPrice\":15.76}\n{\"name\":")
+				.contentType(MediaType.APPLICATION_NDJSON_VALUE).when().post("/api/stocks/batch").then()
+				.statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).createStocks(anyList());
+	}
+
+	@Test
+	public void testExportStocksCsv() {
+		LocalDateTime lastUpdate = LocalDateTime.of(2024, 5, 1, 10, 30, 15, 123456000);
+		doAnswer(invocation -> {
+			Consumer<StockDTO> consumer = invocation.getArgument(0);
+			consumer.accept(new StockDTO(1L, "Apple Inc", 141.2, lastUpdate, 3L));
+			consumer.accept(new StockDTO(2L, "Say \"Hi\", Inc", null, null, null));
+			return null;
+		}).when(stockService).listStocks(any(Consumer.class));
+		RestAssuredMockMvc.given().standaloneSetup(controller).accept(StockConstants.CSV_MEDIA_TYPE).when().get("/api/stocks/export")
+				.then().statusCode(HttpStatus.OK.value()).body(equalTo("id,name,currentPrice,lastUpdate,version\r\n" +
+						"1,Apple Inc,141.2,2024-05-01T10:30:15.123456,3\r\n2,\"Say \"\"Hi\"\", Inc\",,,\r\n"));
+	}
+
+	@Test
+	public void testImportStocksCsv() throws ConflictException {
+		List<StockDTO> imported = new ArrayList<>();
+		List<String> errors = new ArrayList<>();
+		when(stockService.importStocks(any())).thenAnswer(invocation -> {
+			Iterator<StockDTO> stocks = invocation.getArgument(0);
+			while (stocks.hasNext()) {
+				try {
+					imported.add(stocks.next());
+				} catch (IllegalArgumentException e) {
+					errors.add(e.getMessage());
+				}
+			}
+			return new StockImportResultDTO(imported.size(), errors.size(), errors);
+		});
+		RestAssuredMockMvc.given().standaloneSetup(controller)
+				.body("id,name,currentPrice,lastUpdate,version\r\n1,Apple Inc,141.2,2024-05-01T10:30:15,3\r\n\r\n" +
+						"2,\"Multi\nline, \"\"quoted\"\"\",5\nx,Bad,1\n3,Short\n4,Ajax,15.76")
+				.contentType(StockConstants.CSV_MEDIA_TYPE).when().post("/api/stocks/import").then().statusCode(HttpStatus.OK.value())
+				.body("imported", equalTo(3)).body("failed", equalTo(2));
+		assertEquals(Arrays.asList(new StockDTO(1L, "Apple Inc", 141.2, null, null),
+				new StockDTO(2L, "Multi\nline, \"quoted\"", 5.0, null, null), new StockDTO(4L, "Ajax", 15.76, null, null)), imported);
+		assertEquals(Arrays.asList("Invalid id", "Id, name and current price are expected"), errors);
+	}
+
+	@Test
+	public void testUpdatePricesKOConflict() throws BadRequestException, ConflictException {
+		when(stockService.updatePrices(any())).thenThrow(new ConflictException("Conflict"));
+		RestAssuredMockMvc.given().standaloneSetup(controller).body(Collections.singletonList(new PriceUpdateDTO(1L, 1.0)))
+				.contentType(MediaType.APPLICATION_JSON_VALUE).when().patch("/api/stocks/prices").then()
+				.statusCode(HttpStatus.CONFLICT.value());
+	}
+
+	@Test
+	public void testGetStockHistory() throws NotFoundException, BadRequestException {
+		long stockId = RandomUtils.nextLong();
+		LocalDateTime from = LocalDateTime.of(2021, 1, 4, 9, 0);
+		LocalDateTime to = from.plusHours(8);
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("from", from.toString()).queryParam("to", to.toString())
+				.queryParam("interval", "15m").when().get("/api/stocks/{stockId}/history", String.valueOf(stockId)).then()
+				.statusCode(HttpStatus.OK.value());
+		verify(stockService).getHistory(stockId, from, to, "15m");
+	}
+
+	@Test
+	public void testGetStockHistoryKOInvalidDate() throws NotFoundException, BadRequestException {
+		RestAssuredMockMvc.given().standaloneSetup(controller).queryParam("from", "yesterday").when()
+				.get("/api/stocks/{stockId}/history", String.valueOf(RandomUtils.nextLong())).then().statusCode(HttpStatus.BAD_REQUEST.value());
+		verify(stockService, never()).getHistory(anyLong(), any(), any(), any());
+	}
+
+	private static StockDTO generateRandomStock(long stockId) {
+		return new StockDTO(stockId, RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(), LocalDateTime.now().truncatedTo(ChronoUnit.MICROS), RandomUtils.nextLong(0, 1000));
+	}
+
+	private MockMvc binaryMockMvc() {
+		return MockMvcBuilders.standaloneSetup(controller)
+				.setMessageConverters(new StockBinaryMessageConverter(), new MappingJackson2HttpMessageConverter()).build();
 	}
 }
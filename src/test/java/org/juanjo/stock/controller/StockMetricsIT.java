@@ -0,0 +1,51 @@
+package org.juanjo.stock.controller;
+
+import io.restassured.RestAssured;
+import io.restassured.config.DecoderConfig;
+import io.restassured.config.RestAssuredConfig;
+import org.juanjo.stock.utils.StockConstants;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.autoconfigure.actuate.observability.AutoConfigureObservability;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests of the metrics published in Prometheus format, through a running server
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureObservability(tracing = false)
+@TestPropertySource(locations = "classpath:application-test.properties",
+		properties = "spring.datasource.url=jdbc:h2:mem:metrics;LAZY_QUERY_EXECUTION=TRUE")
+public class StockMetricsIT {
+	@LocalServerPort
+	private int port;
+
+	@Test
+	public void testPrometheusMetrics() {
+		RestAssured.given().port(port).when().get("/api/stocks/1").then().statusCode(HttpStatus.OK.value());
+		RestAssured.given().port(port).when().get("/api/stocks/1").then().statusCode(HttpStatus.OK.value());
+		// the size of the bytes sent, so they are not decoded
+		int jsonSize = RestAssured.given().port(port).config(RestAssuredConfig.config().decoderConfig(DecoderConfig.decoderConfig()
+				.noContentDecoders())).when().get("/api/stocks").then().statusCode(HttpStatus.OK.value()).extract().asByteArray().length;
+		RestAssured.given().port(port).header(HttpHeaders.ACCEPT, StockConstants.BINARY_MEDIA_TYPE).when().get("/api/stocks")
+				.then().statusCode(HttpStatus.OK.value());
+		String metrics = RestAssured.given().port(port).when().get("/actuator/prometheus").then()
+				.statusCode(HttpStatus.OK.value()).extract().asString();
+
+		assertTrue(metrics.contains("http_server_requests_seconds{error=\"none\",exception=\"none\",method=\"GET\",outcome=\"SUCCESS\"," +
+				"status=\"200\",uri=\"/api/stocks/{stockId}\",quantile=\"0.99\",}"), metrics);
+		assertTrue(metrics.contains("stock_service_seconds_count{method=\"getById\",} 2.0"), metrics);
+		assertTrue(metrics.contains("stock_service_seconds{method=\"getById\",quantile=\"0.999\",}"), metrics);
+		assertTrue(metrics.contains("stock_service_seconds_count{method=\"listStocks\",} 2.0"), metrics);
+		assertTrue(metrics.contains("stock_mapping_seconds_count"), metrics);
+		assertTrue(metrics.contains("stock_response_size_bytes_count{uri=\"/api/stocks\",} 2.0"), metrics);
+		assertTrue(metrics.contains("stock_response_size_bytes_max{uri=\"/api/stocks\",} " + (double) jsonSize), metrics);
+		assertTrue(metrics.contains("cache_gets_total{cache=\"stocks\",result=\"hit\",} 1.0"), metrics);
+		assertTrue(metrics.contains("hibernate_statements_total"), metrics);
+	}
+}
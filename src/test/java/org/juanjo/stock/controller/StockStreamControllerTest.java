@@ -0,0 +1,68 @@
+package org.juanjo.stock.controller;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.service.StockBroadcaster;
+import org.juanjo.stock.service.StockSink;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+public class StockStreamControllerTest {
+	@InjectMocks
+	private StockStreamController controller;
+	@Mock
+	private StockBroadcaster stockBroadcaster;
+	private MockMvc mockMvc;
+
+	@BeforeEach
+	public void init() {
+		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(controller, "timeout", Duration.ofMinutes(1));
+		mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+	}
+
+	@Test
+	public void testStreamStocks() throws Exception {
+		mockMvc.perform(get("/api/stocks/stream").param("ids", "1,2").accept(MediaType.TEXT_EVENT_STREAM))
+				.andExpect(request().asyncStarted());
+		verify(stockBroadcaster).subscribe(eq(new HashSet<>(Arrays.asList(1L, 2L))), any());
+	}
+
+	@Test
+	public void testStreamStocksSendsEvents() throws Exception {
+		MvcResult result = mockMvc.perform(get("/api/stocks/stream").accept(MediaType.TEXT_EVENT_STREAM))
+				.andExpect(request().asyncStarted()).andReturn();
+		ArgumentCaptor<StockSink> sinkCaptor = ArgumentCaptor.forClass(StockSink.class);
+		verify(stockBroadcaster).subscribe(any(), sinkCaptor.capture());
+		StockDTO stock = new StockDTO(RandomUtils.nextLong(), RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(),
+				LocalDateTime.now(), 0L);
+		sinkCaptor.getValue().send(Collections.singletonList(stock));
+		String content = result.getResponse().getContentAsString();
+		assertTrue(content.contains("event:stock"));
+		assertTrue(content.contains("id:" + stock.getId()));
+		assertTrue(content.contains("\"name\":\"" + stock.getName() + "\""));
+	}
+}
@@ -0,0 +1,136 @@
+package org.juanjo.stock.controller;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.juanjo.stock.service.StockBroadcaster;
+import org.juanjo.stock.service.StockService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests of the stock change stream, through a running server
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(locations = "classpath:application-test.properties",
+		properties = "spring.datasource.url=jdbc:h2:mem:stream;LAZY_QUERY_EXECUTION=TRUE")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class StockStreamIT {
+	@LocalServerPort
+	private int port;
+	@Autowired
+	private StockService stockService;
+	@Autowired
+	private StockBroadcaster stockBroadcaster;
+	private ObjectMapper mapper;
+
+	@BeforeAll
+	public void setup() {
+		mapper = new ObjectMapper();
+		mapper.registerModule(new JavaTimeModule());
+	}
+
+	@Test
+	public void testWebSocket() throws Exception {
+		StockDTO stock = createStock();
+		BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+		WebSocketSession session = new StandardWebSocketClient().doHandshake(new TextWebSocketHandler() {
+			@Override
+			protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+				messages.add(message.getPayload());
+			}
+		}, "ws://localhost:" + port + "/api/ws/stocks?ids=" + stock.getId()).get(5, TimeUnit.SECONDS);
+		try {
+			createStock();
+			UpdateStockDTO request = updateStock(stock.getId());
+			String message = messages.poll(5, TimeUnit.SECONDS);
+			assertNotNull(message);
+			List<StockDTO> stocks = mapper.readValue(message, new TypeReference<List<StockDTO>>() {
+			});
+			assertEquals(1, stocks.size());
+			assertEquals(stock.getId(), stocks.get(0).getId());
+			assertEquals(request.getCurrentPrice(), stocks.get(0).getCurrentPrice());
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testWebSocketKOInvalidIds() throws Exception {
+		BlockingQueue<String> messages = new LinkedBlockingQueue<>();
+		WebSocketSession session = new StandardWebSocketClient().doHandshake(new TextWebSocketHandler(),
+				"ws://localhost:" + port + "/api/ws/stocks?ids=apple").get(5, TimeUnit.SECONDS);
+		for (int i = 0; i < 50 && session.isOpen(); i++) {
+			Thread.sleep(100);
+		}
+		assertFalse(session.isOpen());
+		assertTrue(messages.isEmpty());
+	}
+
+	@Test
+	public void testServerSentEvents() throws Exception {
+		StockDTO stock = createStock();
+		int subscriptions = stockBroadcaster.size();
+		HttpURLConnection connection =
+				(HttpURLConnection) new URL("http://localhost:" + port + "/api/stocks/stream?ids=" + stock.getId()).openConnection();
+		connection.setReadTimeout(5000);
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			assertTrue(connection.getContentType().startsWith("text/event-stream"));
+			assertEquals(subscriptions + 1, stockBroadcaster.size());
+			UpdateStockDTO request = updateStock(stock.getId());
+			String line;
+			do {
+				line = reader.readLine();
+			} while (line != null && !line.startsWith("data:"));
+			assertNotNull(line);
+			StockDTO received = mapper.readValue(line.substring("data:".length()), StockDTO.class);
+			assertEquals(stock.getId(), received.getId());
+			assertEquals(request.getCurrentPrice(), received.getCurrentPrice());
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private StockDTO createStock() {
+		CreateStockDTO request = new CreateStockDTO();
+		request.setName(RandomStringUtils.randomAlphanumeric(32));
+		request.setCurrentPrice(RandomUtils.nextDouble());
+		return stockService.createStock(request);
+	}
+
+	private UpdateStockDTO updateStock(long stockId) throws NotFoundException, PreconditionFailedException {
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName(RandomStringUtils.randomAlphanumeric(32));
+		request.setCurrentPrice(RandomUtils.nextDouble());
+		stockService.updateStock(stockId, request, null);
+		return request;
+	}
+}
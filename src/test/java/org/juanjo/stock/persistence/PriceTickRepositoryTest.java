@@ -0,0 +1,68 @@
+package org.juanjo.stock.persistence;
+
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dao.PriceTick;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestPropertySource(locations = "classpath:application-test.properties")
+@DataJpaTest
+public class PriceTickRepositoryTest {
+	@Autowired
+	private PriceTickRepository repository;
+
+	@Test
+	void testSave() {
+		PriceTick inserted = repository.save(new PriceTick(RandomUtils.nextLong(), RandomUtils.nextDouble(), LocalDateTime.now()));
+		assertNotNull(inserted.getId());
+	}
+
+	@Test
+	void testStreamTicks() {
+		long stockId = RandomUtils.nextLong();
+		LocalDateTime open = LocalDateTime.of(2021, 1, 4, 9, 0);
+		repository.save(new PriceTick(stockId, 3.0, open.plusMinutes(2)));
+		repository.save(new PriceTick(stockId, 1.0, open));
+		repository.save(new PriceTick(stockId, 2.0, open.plusMinutes(1)));
+		repository.save(new PriceTick(stockId, 4.0, open.plusMinutes(3)));
+		repository.save(new PriceTick(stockId + 1, 5.0, open.plusMinutes(1)));
+		List<PriceTick> result;
+		try (Stream<PriceTick> ticks = repository.streamTicks(stockId, open, open.plusMinutes(3))) {
+			result = ticks.collect(Collectors.toList());
+		}
+		assertEquals(3, result.size());
+		assertEquals(1.0, result.get(0).getPrice());
+		assertEquals(2.0, result.get(1).getPrice());
+		assertEquals(3.0, result.get(2).getPrice());
+		assertTrue(result.stream().allMatch(tick -> tick.getStockId() == stockId && tick.getId() == null));
+	}
+
+	@Test
+	void testStreamOpenPrices() {
+		LocalDateTime start = LocalDateTime.of(2021, 1, 4, 0, 0);
+		repository.save(new PriceTick(1L, 1.0, start.minusHours(2)));
+		repository.save(new PriceTick(1L, 2.0, start.minusHours(1)));
+		repository.save(new PriceTick(1L, 3.0, start.plusHours(1)));
+		repository.save(new PriceTick(2L, 4.0, start.plusHours(2)));
+		repository.save(new PriceTick(2L, 5.0, start.plusHours(1)));
+		Map<Long, Double> openPrices = new HashMap<>();
+		try (Stream<Object[]> prices = repository.streamOpenPrices(start)) {
+			prices.forEach(row -> openPrices.put(((Number) row[0]).longValue(), row[1] == null ? null : ((Number) row[1]).doubleValue()));
+		}
+		assertEquals(2.0, openPrices.get(1L));
+		assertEquals(5.0, openPrices.get(2L));
+		assertTrue(openPrices.containsKey(3L));
+		assertNull(openPrices.get(3L));
+	}
+}
@@ -3,22 +3,34 @@ package org.juanjo.stock.persistence;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.service.StockChangeSequence;
+import org.juanjo.stock.utils.StockField;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.TestPropertySource;
 
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @TestPropertySource(locations = "classpath:application-test.properties")
 @DataJpaTest
+@Import(StockChangeSequence.class)
 public class StockRepositoryTest {
 	@Autowired
 	private StockRepository repository;
+	@Autowired
+	private StockChangeSequence stockChangeSequence;
 
 	@Test
 	void testSave() {
@@ -83,4 +95,95 @@ public class StockRepositoryTest {
 			assertNotNull(stock.getLastUpdate());
 		});
 	}
+
+	@Test
+	void testFindPageAfter() {
+		List<StockDTO> firstPage = repository.findPageAfter(0, PageRequest.of(0, 5));
+		assertEquals(5, firstPage.size());
+		List<StockDTO> secondPage = repository.findPageAfter(firstPage.get(4).getId(), PageRequest.of(0, 5));
+		assertEquals(5, secondPage.size());
+		assertTrue(secondPage.get(0).getId() > firstPage.get(4).getId());
+		for (int i = 1; i < secondPage.size(); i++) {
+			assertTrue(secondPage.get(i).getId() > secondPage.get(i - 1).getId());
+		}
+	}
+
+	@Test
+	void testStreamAll() {
+		List<StockDTO> result;
+		try (Stream<StockDTO> stocks = repository.streamAll()) {
+			result = stocks.collect(Collectors.toList());
+		}
+		assertEquals(21, result.size());
+		for (int i = 1; i < result.size(); i++) {
+			assertTrue(result.get(i).getId() > result.get(i - 1).getId());
+		}
+	}
+
+	@Test
+	void testFindProjections() {
+		StockDTO first = repository.findPageAfter(0, PageRequest.of(0, 1)).get(0);
+		StockDTO projection = repository.findProjectionById(first.getId(), Set.of(StockField.CURRENT_PRICE)).orElseThrow();
+		assertEquals(new StockDTO(first.getId(), null, first.getCurrentPrice(), null, first.getVersion()), projection);
+		assertFalse(repository.findProjectionById(-1L, Set.of(StockField.NAME)).isPresent());
+
+		List<StockDTO> page = repository.findProjectionPageAfter(first.getId(), Set.of(StockField.NAME), 5);
+		assertEquals(repository.findPageAfter(first.getId(), PageRequest.of(0, 5)).stream()
+				.map(stock -> new StockDTO(stock.getId(), stock.getName(), null, null, stock.getVersion()))
+				.collect(Collectors.toList()), page);
+
+		List<StockDTO> result;
+		try (Stream<StockDTO> stocks = repository.streamAllProjections(Set.of(StockField.LAST_UPDATE))) {
+			result = stocks.collect(Collectors.toList());
+		}
+		assertEquals(21, result.size());
+		result.forEach(stock -> {
+			assertNull(stock.getName());
+			assertNull(stock.getCurrentPrice());
+			assertNotNull(stock.getLastUpdate());
+		});
+	}
+
+	@Test
+	void testFindChangesAfter() {
+		Stock updated = repository.findById(repository.findPageAfter(0, PageRequest.of(0, 1)).get(0).getId()).orElseThrow();
+		assertEquals(0L, updated.getChangeSeq());
+		updated.setCurrentPrice(updated.getCurrentPrice() + 1);
+		repository.saveAndFlush(updated);
+		Stock stock = new Stock();
+		stock.setName(RandomStringUtils.randomAlphanumeric(32));
+		stock.setCurrentPrice(RandomUtils.nextDouble());
+		Stock inserted = repository.saveAndFlush(stock);
+		assertTrue(updated.getChangeSeq() > 0);
+		assertTrue(inserted.getChangeSeq() > updated.getChangeSeq());
+		// the writes of this transaction are not complete yet
+		assertTrue(stockChangeSequence.watermark() < updated.getChangeSeq());
+		assertEquals(inserted.getChangeSeq(), repository.findMaxChangeSeq());
+
+		List<Stock> changed = repository.findChangesAfter(-1, 0, Long.MAX_VALUE, PageRequest.of(0, 100));
+		assertEquals(22, changed.size());
+		changed.subList(0, 20).forEach(seeded -> assertEquals(0L, seeded.getChangeSeq()));
+		assertEquals(List.of(updated.getId(), inserted.getId()),
+				changed.subList(20, 22).stream().map(Stock::getId).collect(Collectors.toList()));
+		Stock lastSeeded = changed.get(19);
+		List<Stock> page = repository.findChangesAfter(0, lastSeeded.getId(), updated.getChangeSeq(), PageRequest.of(0, 100));
+		assertEquals(List.of(updated.getId()), page.stream().map(Stock::getId).collect(Collectors.toList()));
+		assertTrue(repository.findChangesAfter(inserted.getChangeSeq(), inserted.getId(), Long.MAX_VALUE, PageRequest.of(0, 100))
+				.isEmpty());
+	}
+
+	@Test
+	void testUpdateQueued() {
+		StockDTO first = repository.findPageAfter(0, PageRequest.of(0, 1)).get(0);
+		LocalDateTime queuedAt = LocalDateTime.of(2020, 1, 1, 0, 0);
+		StockRepository.WrittenStock written = repository.updateQueued(first.getId(), null, 10.0, queuedAt, stockChangeSequence.next())
+				.orElseThrow();
+		// a null name keeps the current one
+		assertEquals(first.getName(), written.getName());
+		assertEquals(first.getVersion() + 1, written.getVersion());
+		Stock stock = repository.findById(first.getId()).orElseThrow();
+		assertEquals(10.0, stock.getCurrentPrice());
+		assertEquals(queuedAt, stock.getLastUpdate());
+		assertFalse(repository.updateQueued(-1L, null, 10.0, queuedAt, stockChangeSequence.next()).isPresent());
+	}
 }
@@ -0,0 +1,61 @@
+package org.juanjo.stock.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConsistentHashRingTest {
+	private static final int VIRTUAL_NODES = 160;
+	private static final int STOCKS = 100_000;
+	private static final List<String> NODES = Arrays.asList("http://127.0.0.1:8081", "http://127.0.0.1:8082", "http://127.0.0.1:8083");
+
+	@Test
+	public void testOwnerIsStable() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, VIRTUAL_NODES);
+		List<String> reversed = new ArrayList<>(NODES);
+		Collections.reverse(reversed);
+		ConsistentHashRing other = new ConsistentHashRing(reversed, VIRTUAL_NODES);
+		for (long stockId = 1; stockId <= 1000; stockId++) {
+			assertEquals(ring.owner(stockId), other.owner(stockId));
+		}
+		assertEquals(NODES, ring.nodes());
+	}
+
+	@Test
+	public void testStocksBalanced() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, VIRTUAL_NODES);
+		Map<String, Integer> owned = new HashMap<>();
+		for (long stockId = 1; stockId <= STOCKS; stockId++) {
+			owned.merge(ring.owner(stockId), 1, Integer::sum);
+		}
+		assertEquals(NODES.size(), owned.size());
+		// every node owns its share of the stocks within a 20% margin
+		owned.values().forEach(count -> assertEquals(STOCKS / NODES.size(), count, STOCKS / NODES.size() * 0.2));
+	}
+
+	@Test
+	public void testJoinOnlyMovesStocksToTheNewNode() {
+		ConsistentHashRing ring = new ConsistentHashRing(NODES, VIRTUAL_NODES);
+		String joining = "http://127.0.0.1:8084";
+		ConsistentHashRing extended = ring.with(joining);
+		int moved = 0;
+		for (long stockId = 1; stockId <= STOCKS; stockId++) {
+			String owner = extended.owner(stockId);
+			if (!owner.equals(ring.owner(stockId))) {
+				assertEquals(joining, owner);
+				moved++;
+			}
+		}
+		assertEquals(STOCKS / 4, moved, STOCKS / 4 * 0.2);
+		assertSame(extended, extended.with(joining));
+		assertEquals(4, extended.nodes().size());
+	}
+
+	@Test
+	public void testEmptyRing() {
+		assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(Collections.emptyList(), VIRTUAL_NODES));
+		assertThrows(IllegalArgumentException.class, () -> new ConsistentHashRing(NODES, 0));
+	}
+}
@@ -0,0 +1,116 @@
+package org.juanjo.stock.service;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.StockDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriceBookTest {
+	private static final int CAPACITY = 1 << 16;
+
+	private PriceBook priceBook;
+
+	@BeforeEach
+	public void setup() {
+		priceBook = new PriceBook(CAPACITY);
+	}
+
+	@Test
+	public void testPutAndGet() {
+		StockDTO stock = generateRandomStock(RandomUtils.nextLong(1, CAPACITY));
+		assertNull(priceBook.get(stock.getId()));
+		priceBook.put(stock);
+		assertEquals(stock, priceBook.get(stock.getId()));
+		assertEquals(1, priceBook.size());
+	}
+
+	@Test
+	public void testPutKeepsNewer() {
+		long stockId = RandomUtils.nextLong(1, CAPACITY);
+		LocalDateTime now = LocalDateTime.now();
+		StockDTO newer = new StockDTO(stockId, "Newer", 2.0, now.minusSeconds(1), 3L);
+		priceBook.put(newer);
+		// a lower version loses even with a later last update
+		priceBook.put(new StockDTO(stockId, "Older", 1.0, now, 2L));
+		assertEquals(newer, priceBook.get(stockId));
+		// equal versions are decided by the last update
+		priceBook.put(new StockDTO(stockId, "Older", 1.0, now.minusSeconds(2), 3L));
+		assertEquals(newer, priceBook.get(stockId));
+		StockDTO latest = new StockDTO(stockId, "Latest", 3.0, now, 3L);
+		priceBook.put(latest);
+		assertEquals(latest, priceBook.get(stockId));
+		assertEquals(1, priceBook.size());
+	}
+
+	@Test
+	public void testPutKOExceedsCapacity() {
+		assertThrows(IllegalArgumentException.class, () -> priceBook.put(generateRandomStock(CAPACITY)));
+		assertNull(priceBook.get(CAPACITY));
+		assertNull(priceBook.get(-1));
+	}
+
+	@Test
+	public void testPageAndForEach() {
+		List<StockDTO> stocks = Arrays.asList(generateRandomStock(1), generateRandomStock(2), generateRandomStock(5000),
+				generateRandomStock(CAPACITY - 1));
+		stocks.forEach(priceBook::put);
+		assertEquals(stocks.subList(0, 2), priceBook.page(0, 2));
+		assertEquals(stocks.subList(2, 4), priceBook.page(2, 10));
+		assertTrue(priceBook.page(CAPACITY - 1, 10).isEmpty());
+		List<StockDTO> all = new ArrayList<>();
+		priceBook.forEach(all::add);
+		assertEquals(stocks, all);
+	}
+
+	@Test
+	public void testConcurrentReadsAreConsistent() throws Exception {
+		long stockId = RandomUtils.nextLong(1, CAPACITY);
+		priceBook.put(new StockDTO(stockId, "0", 0.0, LocalDateTime.now(), 0L));
+		AtomicBoolean running = new AtomicBoolean(true);
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Future<?>> writers = Arrays.asList(1, 2).stream().map(writer -> executor.submit(() -> {
+				for (int i = 0; i < 100_000; i++) {
+					double price = writer * 1_000_000 + i;
+					// both writers share the versions, so most writes of either one are newer
+					priceBook.put(new StockDTO(stockId, String.valueOf(price), price, LocalDateTime.now(), (long) i));
+				}
+			})).collect(Collectors.toList());
+			Future<Integer> reader = executor.submit(() -> {
+				int inconsistent = 0;
+				while (running.get()) {
+					StockDTO stock = priceBook.get(stockId);
+					if (!stock.getName().equals(String.valueOf(stock.getCurrentPrice()))) {
+						inconsistent++;
+					}
+				}
+				return inconsistent;
+			});
+			for (Future<?> writer : writers) {
+				writer.get(30, TimeUnit.SECONDS);
+			}
+			running.set(false);
+			assertEquals(0, reader.get(30, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private StockDTO generateRandomStock(long stockId) {
+		return new StockDTO(stockId, RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(), LocalDateTime.now(), 0L);
+	}
+}
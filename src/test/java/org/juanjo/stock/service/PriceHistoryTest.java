@@ -0,0 +1,119 @@
+package org.juanjo.stock.service;
+
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dao.PriceTick;
+import org.juanjo.stock.dto.CandleDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.persistence.PriceTickRepository;
+import org.juanjo.stock.utils.CandleInterval;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+public class PriceHistoryTest {
+	private static final LocalDateTime OPEN = LocalDateTime.of(2021, 1, 4, 9, 0);
+
+	private PriceHistory priceHistory;
+	@Mock
+	private PriceTickRepository priceTickRepository;
+	private List<PriceTick> ticks;
+	private long stockId;
+
+	@BeforeEach
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		priceHistory = new PriceHistory(1000, Duration.ofSeconds(10));
+		ReflectionTestUtils.setField(priceHistory, "priceTickRepository", priceTickRepository);
+		stockId = RandomUtils.nextLong();
+		ticks = new ArrayList<>();
+		when(priceTickRepository.streamTicks(anyLong(), any(), any())).thenAnswer(invocation -> {
+			LocalDateTime from = invocation.getArgument(1);
+			LocalDateTime to = invocation.getArgument(2);
+			return ticks.stream().filter(tick -> !tick.getTickTime().isBefore(from) && tick.getTickTime().isBefore(to));
+		});
+	}
+
+	@Test
+	public void testRecord() {
+		priceHistory.record(stockId, 10.0, OPEN);
+		verify(priceTickRepository).save(new PriceTick(stockId, 10.0, OPEN));
+	}
+
+	@Test
+	public void testGetCandles() throws BadRequestException {
+		addTick(OPEN.plusSeconds(10), 10.0);
+		addTick(OPEN.plusSeconds(50), 12.0);
+		addTick(OPEN.plusSeconds(59), 9.0);
+		addTick(OPEN.plusMinutes(2), 11.0);
+		List<CandleDTO> candles = priceHistory.getCandles(stockId, OPEN, OPEN.plusMinutes(5), CandleInterval.ONE_MINUTE);
+		assertEquals(2, candles.size());
+		assertEquals(new CandleDTO(OPEN, 10.0, 12.0, 9.0, 9.0, 3), candles.get(0));
+		assertEquals(new CandleDTO(OPEN.plusMinutes(2), 11.0, 11.0, 11.0, 11.0, 1), candles.get(1));
+	}
+
+	@Test
+	public void testGetCandlesWidenedToIntervals() throws BadRequestException {
+		addTick(OPEN.minusMinutes(20), 8.0);
+		addTick(OPEN.plusMinutes(5), 10.0);
+		addTick(OPEN.plusMinutes(20), 12.0);
+		addTick(OPEN.plusHours(1), 14.0);
+		List<CandleDTO> candles = priceHistory.getCandles(stockId, OPEN.plusMinutes(10), OPEN.plusMinutes(30), CandleInterval.ONE_HOUR);
+		assertEquals(1, candles.size());
+		assertEquals(new CandleDTO(OPEN, 10.0, 12.0, 10.0, 12.0, 2), candles.get(0));
+	}
+
+	@Test
+	public void testGetCandlesCachesCompletedBlocks() throws BadRequestException {
+		addTick(OPEN.plusSeconds(10), 10.0);
+		List<CandleDTO> first = priceHistory.getCandles(stockId, OPEN, OPEN.plusDays(3), CandleInterval.ONE_MINUTE);
+		List<CandleDTO> second = priceHistory.getCandles(stockId, OPEN.minusHours(1), OPEN.plusDays(2), CandleInterval.ONE_MINUTE);
+		assertEquals(first, second);
+		// every missing block is read at once
+		verify(priceTickRepository, times(1)).streamTicks(anyLong(), any(), any());
+	}
+
+	@Test
+	public void testGetCandlesLateTickEvictsSettledBlock() throws BadRequestException {
+		addTick(OPEN.plusSeconds(10), 10.0);
+		assertEquals(1, priceHistory.getCandles(stockId, OPEN, OPEN.plusMinutes(5), CandleInterval.ONE_MINUTE).size());
+		addTick(OPEN.plusMinutes(2), 11.0);
+		priceHistory.record(stockId, 11.0, OPEN.plusMinutes(2));
+		List<CandleDTO> candles = priceHistory.getCandles(stockId, OPEN, OPEN.plusMinutes(5), CandleInterval.ONE_MINUTE);
+		assertEquals(2, candles.size());
+		assertEquals(new CandleDTO(OPEN.plusMinutes(2), 11.0, 11.0, 11.0, 11.0, 1), candles.get(1));
+		verify(priceTickRepository, times(2)).streamTicks(anyLong(), any(), any());
+	}
+
+	@Test
+	public void testGetCandlesLatestBlockNotCached() throws BadRequestException {
+		LocalDateTime now = LocalDateTime.now();
+		addTick(now.minusSeconds(1), 10.0);
+		assertEquals(1, priceHistory.getCandles(stockId, now.minusMinutes(1), now, CandleInterval.ONE_MINUTE).size());
+		addTick(now, 11.0);
+		List<CandleDTO> candles = priceHistory.getCandles(stockId, now.minusMinutes(1), now.plusSeconds(1), CandleInterval.ONE_MINUTE);
+		assertEquals(11.0, candles.get(candles.size() - 1).getClose());
+	}
+
+	@Test
+	public void testGetCandlesKOTooMany() {
+		assertThrows(BadRequestException.class,
+				() -> priceHistory.getCandles(stockId, OPEN.minusYears(1), OPEN, CandleInterval.ONE_MINUTE));
+		verify(priceTickRepository, never()).streamTicks(anyLong(), any(), any());
+	}
+
+	private void addTick(LocalDateTime time, double price) {
+		ticks.add(new PriceTick(stockId, price, time));
+	}
+}
@@ -0,0 +1,88 @@
+package org.juanjo.stock.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockAdmissionTest {
+
+	@Test
+	public void testThrottle() {
+		StockAdmission admission = new StockAdmission(1, 2, 100, 10, 1000, Duration.ZERO);
+		assertEquals(0, admission.throttle("client-a"));
+		assertEquals(0, admission.throttle("client-a"));
+		long wait = admission.throttle("client-a");
+		assertTrue(wait > 0 && wait <= TimeUnit.SECONDS.toNanos(1), String.valueOf(wait));
+		// every client has a bucket of its own
+		assertEquals(0, admission.throttle("client-b"));
+	}
+
+	@Test
+	public void testAcquireByPriority() {
+		StockAdmission admission = new StockAdmission(1, 1, 10, 10, 10, Duration.ofMinutes(1));
+		assertEquals(5, acquireAll(admission, StockAdmission.Priority.BULK));
+		assertEquals(4, acquireAll(admission, StockAdmission.Priority.READ));
+		assertEquals(1, acquireAll(admission, StockAdmission.Priority.WRITE));
+		assertEquals(10, admission.getInFlight());
+		admission.release(System.nanoTime());
+		assertFalse(admission.acquire(StockAdmission.Priority.BULK));
+		assertTrue(admission.acquire(StockAdmission.Priority.WRITE));
+	}
+
+	@Test
+	public void testLimitFollowsLatency() {
+		StockAdmission admission = new StockAdmission(1, 1, 100, 10, 1000, Duration.ZERO);
+		acquireAll(admission, StockAdmission.Priority.WRITE);
+		for (int i = 0; i < 50; i++) {
+			// the limit is full, so the latency measures it
+			admission.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1));
+			acquireAll(admission, StockAdmission.Priority.WRITE);
+		}
+		int grown = admission.getLimit();
+		assertTrue(grown > 100, String.valueOf(grown));
+
+		for (int i = 0; i < 20; i++) {
+			admission.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(20));
+			acquireAll(admission, StockAdmission.Priority.WRITE);
+		}
+		int shrunk = admission.getLimit();
+		assertTrue(shrunk < grown / 2, shrunk + " < " + grown);
+		assertTrue(shrunk >= 10);
+	}
+
+	@Test
+	public void testLimitKeptWhenNotFull() {
+		StockAdmission admission = new StockAdmission(1, 1, 100, 10, 1000, Duration.ZERO);
+		for (int i = 0; i < 50; i++) {
+			assertTrue(admission.acquire(StockAdmission.Priority.READ));
+			admission.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		assertEquals(100, admission.getLimit());
+	}
+
+	@Test
+	public void testReleaseWithoutSample() {
+		StockAdmission admission = new StockAdmission(1, 1, 100, 10, 1000, Duration.ZERO);
+		acquireAll(admission, StockAdmission.Priority.WRITE);
+		for (int i = 0; i < 20; i++) {
+			// a long transfer would shrink the limit if it were sampled
+			admission.release();
+			acquireAll(admission, StockAdmission.Priority.WRITE);
+			admission.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1));
+			acquireAll(admission, StockAdmission.Priority.WRITE);
+		}
+		assertTrue(admission.getLimit() >= 100, String.valueOf(admission.getLimit()));
+		assertEquals(admission.getLimit(), admission.getInFlight());
+	}
+
+	private static int acquireAll(StockAdmission admission, StockAdmission.Priority priority) {
+		int acquired = 0;
+		while (admission.acquire(priority)) {
+			acquired++;
+		}
+		return acquired;
+	}
+}
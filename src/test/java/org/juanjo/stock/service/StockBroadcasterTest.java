@@ -0,0 +1,146 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockBroadcasterTest {
+	private static final int BUFFER_SIZE = 2;
+
+	private StockBroadcaster broadcaster;
+
+	@BeforeEach
+	public void setup() {
+		broadcaster = new StockBroadcaster(BUFFER_SIZE, 2);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		broadcaster.shutdown();
+	}
+
+	@Test
+	public void testPublishFiltered() throws InterruptedException {
+		QueueSink all = new QueueSink();
+		QueueSink filtered = new QueueSink();
+		broadcaster.subscribe(null, all);
+		broadcaster.subscribe(new HashSet<>(Collections.singletonList(1L)), filtered);
+		broadcaster.publish(stock(2L, 20.0));
+		broadcaster.publish(stock(1L, 10.0));
+		List<StockDTO> received = new ArrayList<>();
+		while (received.size() < 2) {
+			List<StockDTO> batch = all.batches.poll(1, TimeUnit.SECONDS);
+			assertNotNull(batch);
+			received.addAll(batch);
+		}
+		assertEquals(Arrays.asList(stock(2L, 20.0), stock(1L, 10.0)), received);
+		assertEquals(Collections.singletonList(stock(1L, 10.0)), filtered.batches.poll(1, TimeUnit.SECONDS));
+		assertNull(filtered.batches.poll(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testPublishConflated() throws InterruptedException {
+		QueueSink sink = new QueueSink();
+		sink.blocked = new CountDownLatch(1);
+		broadcaster.subscribe(null, sink);
+		broadcaster.publish(stock(1L, 10.0));
+		assertTrue(sink.sending.await(1, TimeUnit.SECONDS));
+		broadcaster.publish(stock(1L, 11.0));
+		broadcaster.publish(stock(2L, 20.0));
+		broadcaster.publish(stock(1L, 12.0));
+		sink.blocked.countDown();
+		assertEquals(Collections.singletonList(stock(1L, 10.0)), sink.batches.poll(1, TimeUnit.SECONDS));
+		assertEquals(Arrays.asList(stock(1L, 12.0), stock(2L, 20.0)), sink.batches.poll(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testPublishSlowSinkClosed() throws InterruptedException {
+		QueueSink sink = new QueueSink();
+		sink.blocked = new CountDownLatch(1);
+		broadcaster.subscribe(null, sink);
+		broadcaster.publish(stock(1L, 10.0));
+		assertTrue(sink.sending.await(1, TimeUnit.SECONDS));
+		for (long stockId = 2; stockId <= BUFFER_SIZE + 2; stockId++) {
+			broadcaster.publish(stock(stockId, 10.0));
+		}
+		assertTrue(sink.closed);
+		assertEquals(0, broadcaster.size());
+		sink.blocked.countDown();
+	}
+
+	@Test
+	public void testPublishBrokenSinkUnsubscribed() throws InterruptedException {
+		CountDownLatch sent = new CountDownLatch(1);
+		broadcaster.subscribe(null, new StockSink() {
+			@Override
+			public void send(List<StockDTO> stocks) throws IOException {
+				sent.countDown();
+				throw new IOException("Broken pipe");
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		broadcaster.publish(stock(1L, 10.0));
+		assertTrue(sent.await(1, TimeUnit.SECONDS));
+		for (int i = 0; i < 50 && broadcaster.size() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, broadcaster.size());
+	}
+
+	@Test
+	public void testUnsubscribe() throws InterruptedException {
+		QueueSink sink = new QueueSink();
+		StockSubscription subscription = broadcaster.subscribe(null, sink);
+		broadcaster.unsubscribe(subscription);
+		broadcaster.publish(stock(1L, 10.0));
+		assertNull(sink.batches.poll(100, TimeUnit.MILLISECONDS));
+		assertEquals(0, broadcaster.size());
+	}
+
+	private static StockDTO stock(long stockId, double price) {
+		return new StockDTO(stockId, "Stock " + stockId, price, LocalDateTime.of(2021, 1, 4, 9, 0), 0L);
+	}
+
+	private static class QueueSink implements StockSink {
+		private final BlockingQueue<List<StockDTO>> batches = new LinkedBlockingQueue<>();
+		private final CountDownLatch sending = new CountDownLatch(1);
+		private CountDownLatch blocked;
+		private volatile boolean closed;
+
+		@Override
+		public void send(List<StockDTO> stocks) {
+			sending.countDown();
+			if (blocked != null) {
+				try {
+					blocked.await(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			batches.add(stocks);
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package org.juanjo.stock.service;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.CacheStatsDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockCacheTest {
+	private StockCache cache;
+
+	@BeforeEach
+	public void setup() {
+		cache = new StockCache(DataSize.ofMegabytes(1), Duration.ofMinutes(1));
+	}
+
+	@Test
+	public void testPutAndGet() {
+		StockDTO stock = generateRandomStock(LocalDateTime.now());
+		assertNull(cache.get(stock.getId()));
+		cache.put(stock);
+		assertEquals(stock, cache.get(stock.getId()));
+	}
+
+	@Test
+	public void testPutKeepsNewerStock() {
+		LocalDateTime now = LocalDateTime.now();
+		StockDTO newer = generateRandomStock(now);
+		StockDTO older = new StockDTO(newer.getId(), RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(),
+				now.minusSeconds(1), 0L);
+		cache.put(newer);
+		cache.put(older);
+		assertEquals(newer, cache.get(newer.getId()));
+		StockDTO newest = new StockDTO(newer.getId(), RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(),
+				now.plusSeconds(1), 2L);
+		cache.put(newest);
+		assertEquals(newest, cache.get(newer.getId()));
+	}
+
+	@Test
+	public void testPutKeepsLastCommittedVersion() {
+		LocalDateTime now = LocalDateTime.now();
+		// the write that waited for the lock commits last, with an earlier last update, and publishes first
+		StockDTO committedLast = new StockDTO(RandomUtils.nextLong(), RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(),
+				now.minusSeconds(1), 3L);
+		StockDTO committedFirst = new StockDTO(committedLast.getId(), committedLast.getName(), RandomUtils.nextDouble(), now, 2L);
+		cache.put(committedLast);
+		cache.put(committedFirst);
+		assertEquals(committedLast, cache.get(committedLast.getId()));
+
+		// updates queued for write-behind keep the version, so the last update decides between them
+		StockDTO queued = new StockDTO(committedLast.getId(), committedLast.getName(), RandomUtils.nextDouble(), now.plusSeconds(1), 3L);
+		cache.put(queued);
+		cache.put(committedLast);
+		assertEquals(queued, cache.get(committedLast.getId()));
+	}
+
+	@Test
+	public void testInvalidate() {
+		StockDTO stock = generateRandomStock(LocalDateTime.now());
+		cache.put(stock);
+		cache.invalidate(stock.getId());
+		assertNull(cache.get(stock.getId()));
+	}
+
+	@Test
+	public void testStats() {
+		StockDTO stock = generateRandomStock(LocalDateTime.now());
+		cache.get(stock.getId());
+		cache.put(stock);
+		cache.get(stock.getId());
+		cache.cleanUp();
+		CacheStatsDTO stats = cache.stats();
+		assertEquals(1, stats.getSize());
+		assertEquals(1, stats.getHitCount());
+		assertEquals(1, stats.getMissCount());
+		assertTrue(stats.getWeight() > 0);
+	}
+
+	@Test
+	public void testEvictsWhenFull() {
+		cache = new StockCache(DataSize.ofKilobytes(10), Duration.ofMinutes(1));
+		LocalDateTime now = LocalDateTime.now();
+		for (int i = 0; i < 1000; i++) {
+			cache.put(generateRandomStock(now));
+		}
+		cache.cleanUp();
+		CacheStatsDTO stats = cache.stats();
+		assertTrue(stats.getWeight() <= DataSize.ofKilobytes(10).toBytes());
+		assertTrue(stats.getEvictionCount() > 0);
+	}
+
+	private StockDTO generateRandomStock(LocalDateTime lastUpdate) {
+		return new StockDTO(RandomUtils.nextLong(), RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(), lastUpdate, 1L);
+	}
+}
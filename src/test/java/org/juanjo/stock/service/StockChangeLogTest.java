@@ -0,0 +1,184 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockSummaryDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class StockChangeLogTest {
+	private static final LocalDateTime NOW = LocalDateTime.of(2024, 5, 1, 10, 30, 15, 123456000);
+	private static final StockSummaryDTO SUMMARY = new StockSummaryDTO(2L, 2L, NOW);
+
+	@TempDir
+	private Path directory;
+	private StockRepository stockRepository;
+	private StockChangeLog changeLog;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		stockRepository = mock(StockRepository.class);
+		when(stockRepository.streamAll()).thenAnswer(invocation -> Stream.of(
+				new StockDTO(1L, "Apple Inc", 141.2, NOW, 0L),
+				new StockDTO(2L, "Microsoft Corp", 225.66, NOW, 0L)));
+		when(stockRepository.findSummary()).thenReturn(SUMMARY);
+		changeLog = open(DataSize.ofMegabytes(1));
+	}
+
+	@AfterEach
+	public void tearDown() throws IOException, InterruptedException {
+		changeLog.close();
+	}
+
+	@Test
+	public void testRestoreFromDatabase() {
+		assertEquals(List.of(new StockDTO(1L, "Apple Inc", 141.2, NOW, 0L), new StockDTO(2L, "Microsoft Corp", 225.66, NOW, 0L)),
+				restore(changeLog));
+		assertEquals(0, changeLog.getLastSequence());
+		verify(stockRepository).streamAll();
+	}
+
+	@Test
+	public void testRestoreWithChanges() {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		changeLog.put(new StockDTO(1L, "Apple Inc", 150.0, NOW.plusSeconds(1), 1L));
+		changeLog.remove(2L);
+		// appended out of order by a concurrent writer, so it does not replace the newer version
+		changeLog.put(new StockDTO(1L, "Apple Inc", 145.0, NOW, 0L));
+		changeLog.put(new StockDTO(4L, "Ñandú", null, null, null));
+
+		assertEquals(List.of(new StockDTO(1L, "Apple Inc", 150.0, NOW.plusSeconds(1), 1L), new StockDTO(3L, "Ajax", 15.76, NOW, 0L),
+				new StockDTO(4L, "Ñandú", null, null, null)), restore(changeLog));
+		assertEquals(5, changeLog.getLastSequence());
+	}
+
+	@Test
+	public void testRead() {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		changeLog.remove(2L);
+		changeLog.put(new StockDTO(1L, "Apple Inc", 150.0, NOW, 1L));
+
+		List<StockChangeLog.Change> changes = changeLog.read(0, 10);
+		assertEquals(List.of(1L, 2L, 3L), changes.stream().map(StockChangeLog.Change::getSequence).collect(Collectors.toList()));
+		assertEquals(new StockDTO(3L, "Ajax", 15.76, NOW, 0L), changes.get(0).getStock());
+		assertEquals(2L, changes.get(1).getStockId());
+		assertNull(changes.get(1).getStock());
+		assertEquals(List.of(2L), changeLog.read(1, 1).stream().map(StockChangeLog.Change::getSequence).collect(Collectors.toList()));
+		assertTrue(changeLog.read(3, 10).isEmpty());
+		// a sequence ahead of the log has nothing to read either
+		assertTrue(changeLog.read(10, 10).isEmpty());
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		changeLog.remove(1L);
+		changeLog.snapshot();
+		changeLog.put(new StockDTO(2L, "Microsoft Corp", 230.0, NOW, 1L));
+
+		assertEquals(2, changeLog.getSnapshotSequence());
+		assertEquals(List.of(new StockDTO(2L, "Microsoft Corp", 230.0, NOW, 1L), new StockDTO(3L, "Ajax", 15.76, NOW, 0L)),
+				restore(changeLog));
+		assertThrows(IllegalArgumentException.class, () -> changeLog.read(1, 10));
+		assertEquals(1, changeLog.read(2, 10).size());
+		assertEquals(List.of("changes-00000000000000000003.log", "snapshot-00000000000000000002.bin"), files());
+	}
+
+	@Test
+	public void testSegmentsRolled() throws IOException, InterruptedException {
+		changeLog.close();
+		changeLog = open(DataSize.ofKilobytes(16));
+		List<StockDTO> expected = new ArrayList<>(restore(changeLog));
+		for (long stockId = 3; stockId < 3000; stockId++) {
+			StockDTO stock = new StockDTO(stockId, "Stock " + stockId, (double) stockId, NOW, 0L);
+			changeLog.put(stock);
+			expected.add(stock);
+		}
+
+		assertTrue(files().stream().filter(name -> name.startsWith("changes-")).count() > 1);
+		assertEquals(expected, restore(changeLog));
+		assertEquals(2997, changeLog.read(0, Integer.MAX_VALUE).size());
+		assertEquals(2000L, changeLog.read(1999, 1).get(0).getSequence());
+	}
+
+	@Test
+	public void testRecoverAfterClose() throws IOException, InterruptedException {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		changeLog.snapshot();
+		changeLog.put(new StockDTO(3L, "Ajax", 16.0, NOW, 1L));
+		changeLog.close();
+
+		changeLog = open(DataSize.ofMegabytes(1));
+		assertEquals(List.of(new StockDTO(1L, "Apple Inc", 141.2, NOW, 0L), new StockDTO(2L, "Microsoft Corp", 225.66, NOW, 0L),
+				new StockDTO(3L, "Ajax", 16.0, NOW, 1L)), restore(changeLog));
+		assertEquals(2, changeLog.getLastSequence());
+		verify(stockRepository, times(1)).streamAll();
+
+		changeLog.put(new StockDTO(3L, "Ajax", 17.0, NOW, 2L));
+		assertEquals(3, changeLog.read(2, 10).get(0).getSequence());
+	}
+
+	@Test
+	public void testRebuildWhenDatabaseChanged() throws IOException, InterruptedException {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		changeLog.close();
+		when(stockRepository.findSummary()).thenReturn(new StockSummaryDTO(2L, 2L, NOW.plusSeconds(1)));
+
+		changeLog = open(DataSize.ofMegabytes(1));
+		assertEquals(List.of(new StockDTO(1L, "Apple Inc", 141.2, NOW, 0L), new StockDTO(2L, "Microsoft Corp", 225.66, NOW, 0L)),
+				restore(changeLog));
+		assertEquals(0, changeLog.getLastSequence());
+		verify(stockRepository, times(2)).streamAll();
+	}
+
+	@Test
+	public void testRebuildWhenNotClosed() throws IOException, InterruptedException {
+		changeLog.put(new StockDTO(3L, "Ajax", 15.76, NOW, 0L));
+		StockChangeLog crashed = changeLog;
+
+		changeLog = open(DataSize.ofMegabytes(1));
+		assertEquals(2, restore(changeLog).size());
+		verify(stockRepository, times(2)).streamAll();
+		crashed.close();
+	}
+
+	private StockChangeLog open(DataSize segmentSize) throws IOException {
+		StockChangeLog log = new StockChangeLog(directory.toString(), segmentSize, Duration.ofHours(1));
+		ReflectionTestUtils.setField(log, "stockRepository", stockRepository);
+		ReflectionTestUtils.setField(log, "transactionManager", mock(PlatformTransactionManager.class));
+		log.open();
+		return log;
+	}
+
+	private static List<StockDTO> restore(StockChangeLog changeLog) {
+		List<StockDTO> stocks = new ArrayList<>();
+		changeLog.restore(stocks::add);
+		return stocks;
+	}
+
+	private List<String> files() {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package org.juanjo.stock.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockVersionDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class StockListSnapshotTest {
+	private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+	private final List<StockDTO> stocks = Arrays.asList(new StockDTO(1L, "Apple Inc", 141.2, LocalDateTime.now(), 0L),
+			new StockDTO(2L, "Microsoft Corp", 225.66, LocalDateTime.now(), 3L));
+	private StockService stockService;
+
+	@BeforeEach
+	public void setup() {
+		stockService = mock(StockService.class);
+		doAnswer(invocation -> {
+			Consumer<StockDTO> consumer = invocation.getArgument(0);
+			stocks.forEach(consumer);
+			return null;
+		}).when(stockService).listStocks(any(Consumer.class));
+	}
+
+	@Test
+	public void testGetSerializedOncePerVersion() throws IOException {
+		StockListSnapshot listSnapshot = listSnapshot(DataSize.ofMegabytes(1));
+		StockListSnapshot.Snapshot snapshot = listSnapshot.get(new StockVersionDTO("\"1-1\"", 0));
+		assertEquals(objectMapper.writeValueAsString(stocks), new String(snapshot.getJson(), StandardCharsets.UTF_8));
+		assertEquals("\"1-1\"", snapshot.getETag());
+		assertSame(snapshot, listSnapshot.get(new StockVersionDTO("\"1-1\"", 0)));
+		verify(stockService, times(1)).listStocks(any(Consumer.class));
+		StockListSnapshot.Snapshot next = listSnapshot.get(new StockVersionDTO("\"1-2\"", 0));
+		assertNotSame(snapshot, next);
+		verify(stockService, times(2)).listStocks(any(Consumer.class));
+	}
+
+	@Test
+	public void testGetGzipped() throws IOException {
+		StockListSnapshot.Snapshot snapshot = listSnapshot(DataSize.ofMegabytes(1)).get(new StockVersionDTO("\"1-1\"", 0));
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(snapshot.getGzip()))) {
+			assertArrayEquals(snapshot.getJson(), in.readAllBytes());
+		}
+	}
+
+	@Test
+	public void testGetTooLarge() throws IOException {
+		StockListSnapshot listSnapshot = listSnapshot(DataSize.ofBytes(64));
+		assertNull(listSnapshot.get(new StockVersionDTO("\"1-1\"", 0)));
+		assertNull(listSnapshot.get(new StockVersionDTO("\"1-1\"", 0)));
+		verify(stockService, times(1)).listStocks(any(Consumer.class));
+	}
+
+	private StockListSnapshot listSnapshot(DataSize maxSize) {
+		StockListSnapshot listSnapshot = new StockListSnapshot(maxSize);
+		ReflectionTestUtils.setField(listSnapshot, "stockService", stockService);
+		ReflectionTestUtils.setField(listSnapshot, "objectMapper", objectMapper);
+		return listSnapshot;
+	}
+}
@@ -0,0 +1,155 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.MarketStatsDTO;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.persistence.PriceTickRepository;
+import org.juanjo.stock.persistence.StockRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StockMoversTest {
+	private StockMovers movers;
+
+	@BeforeEach
+	public void setup() {
+		movers = new StockMovers(LocalTime.MIDNIGHT);
+		ReflectionTestUtils.setField(movers, "sessionStart", LocalDate.now().atStartOfDay());
+		movers.put(stock(1, "Apple Inc", 100.0));
+		movers.put(stock(2, "Microsoft Corp", 200.0));
+		movers.put(stock(3, "Intel Corp", 50.0));
+		movers.put(stock(4, "Tesla Inc", 800.0));
+	}
+
+	@AfterEach
+	public void tearDown() {
+		movers.shutdown();
+	}
+
+	@Test
+	public void testTopByChange() {
+		movers.put(stock(1, "Apple Inc", 110.0));
+		movers.put(stock(2, "Microsoft Corp", 190.0));
+		movers.put(stock(3, "Intel Corp", 60.0));
+		List<StockMoverDTO> top = movers.top(StockMovers.Ranking.CHANGE, false, 2);
+		assertEquals(Arrays.asList(3L, 1L), ids(top));
+		assertEquals(20.0, top.get(0).getChange(), 1e-9);
+		assertEquals(50.0, top.get(0).getOpenPrice());
+		assertEquals(60.0, top.get(0).getCurrentPrice());
+		assertEquals("Intel Corp", top.get(0).getName());
+		assertEquals(Arrays.asList(2L, 4L, 1L, 3L), ids(movers.top(StockMovers.Ranking.CHANGE, true, 10)));
+	}
+
+	@Test
+	public void testPutKeepsNewer() {
+		movers.put(new StockDTO(1L, "Apple Inc", 120.0, LocalDateTime.now(), 2L));
+		// a copy published late with an older version does not overwrite the entry
+		movers.put(new StockDTO(1L, "Apple Inc", 90.0, LocalDateTime.now(), 1L));
+		assertEquals(120.0, movers.top(StockMovers.Ranking.PRICE, false, 4).stream().filter(stock -> stock.getId() == 1L)
+				.findFirst().orElseThrow().getCurrentPrice());
+	}
+
+	@Test
+	public void testTopByPrice() {
+		assertEquals(Arrays.asList(4L, 2L, 1L), ids(movers.top(StockMovers.Ranking.PRICE, false, 3)));
+		movers.put(stock(4, null, 10.0));
+		assertEquals(Arrays.asList(4L, 3L), ids(movers.top(StockMovers.Ranking.PRICE, true, 2)));
+		assertEquals("Tesla Inc", movers.top(StockMovers.Ranking.PRICE, true, 1).get(0).getName());
+	}
+
+	@Test
+	public void testStats() {
+		movers.put(stock(1, "Apple Inc", 110.0));
+		movers.put(stock(2, "Microsoft Corp", 190.0));
+		movers.put(stock(5, "Amazon.com Inc", null));
+		MarketStatsDTO stats = movers.stats();
+		assertEquals(4, stats.getCount());
+		assertEquals(50.0, stats.getMinPrice());
+		assertEquals(800.0, stats.getMaxPrice());
+		assertEquals(287.5, stats.getAveragePrice(), 1e-9);
+		assertEquals(1, stats.getAdvancing());
+		assertEquals(1, stats.getDeclining());
+		assertEquals(2, stats.getUnchanged());
+		assertEquals(LocalDate.now().atStartOfDay(), stats.getSessionStart());
+	}
+
+	@Test
+	public void testRemove() {
+		movers.put(stock(4, "Tesla Inc", 900.0));
+		movers.remove(4);
+		movers.remove(42);
+		MarketStatsDTO stats = movers.stats();
+		assertEquals(3, stats.getCount());
+		assertEquals(200.0, stats.getMaxPrice());
+		assertEquals(0, stats.getAdvancing());
+		assertEquals(Arrays.asList(2L, 1L, 3L), ids(movers.top(StockMovers.Ranking.PRICE, false, 10)));
+		movers.remove(1);
+		movers.remove(2);
+		movers.remove(3);
+		assertEquals(new MarketStatsDTO(0, null, null, null, 0, 0, 0, LocalDate.now().atStartOfDay()), movers.stats());
+		assertTrue(movers.top(StockMovers.Ranking.CHANGE, false, 10).isEmpty());
+	}
+
+	@Test
+	public void testStartSession() {
+		movers.put(stock(1, "Apple Inc", 110.0));
+		movers.startSession();
+		MarketStatsDTO stats = movers.stats();
+		assertEquals(0, stats.getAdvancing());
+		assertEquals(4, stats.getUnchanged());
+		assertEquals(LocalDate.now().plusDays(1).atStartOfDay(), stats.getSessionStart());
+		movers.put(stock(1, "Apple Inc", 99.0));
+		StockMoverDTO top = movers.top(StockMovers.Ranking.CHANGE, true, 1).get(0);
+		assertEquals(1L, top.getId());
+		assertEquals(110.0, top.getOpenPrice());
+		assertEquals(-10.0, top.getChange(), 1e-9);
+	}
+
+	@Test
+	public void testLoad() {
+		StockRepository stockRepository = mock(StockRepository.class);
+		PriceTickRepository priceTickRepository = mock(PriceTickRepository.class);
+		when(priceTickRepository.streamOpenPrices(any(LocalDateTime.class)))
+				.thenReturn(Stream.of(new Object[]{1L, 100.0}, new Object[]{2L, null}, new Object[]{3L, 40.0}));
+		when(stockRepository.streamAll()).thenReturn(Stream.of(stock(1, "Apple Inc", 110.0), stock(2, "Microsoft Corp", 200.0),
+				stock(3, "Intel Corp", null)));
+		StockMovers loaded = new StockMovers(LocalTime.MIDNIGHT);
+		ReflectionTestUtils.setField(loaded, "stockRepository", stockRepository);
+		ReflectionTestUtils.setField(loaded, "priceTickRepository", priceTickRepository);
+		ReflectionTestUtils.setField(loaded, "transactionManager", mock(PlatformTransactionManager.class));
+		try {
+			loaded.load();
+			List<StockMoverDTO> top = loaded.top(StockMovers.Ranking.CHANGE, false, 10);
+			assertEquals(Arrays.asList(1L, 2L), ids(top));
+			assertEquals(10.0, top.get(0).getChange(), 1e-9);
+			assertEquals(200.0, top.get(1).getOpenPrice());
+			assertEquals(LocalDate.now().atStartOfDay(), loaded.stats().getSessionStart());
+		} finally {
+			loaded.shutdown();
+		}
+	}
+
+	private static StockDTO stock(long stockId, String name, Double currentPrice) {
+		return new StockDTO(stockId, name, currentPrice, LocalDateTime.now(), 0L);
+	}
+
+	private static List<Long> ids(List<StockMoverDTO> stocks) {
+		return stocks.stream().map(StockMoverDTO::getId).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,123 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.persistence.StockRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StockSearchIndexTest {
+	private StockSearchIndex index;
+
+	@BeforeEach
+	public void setup() {
+		index = new StockSearchIndex();
+		index.put(stock(1, "Apple Inc"));
+		index.put(stock(2, "Microsoft Corp"));
+		index.put(stock(3, "Pineapple Holdings"));
+		index.put(stock(4, "APPLE"));
+		index.put(stock(5, "Snapple Group"));
+		index.put(stock(6, "Big Apple Foods"));
+	}
+
+	@Test
+	public void testSearchPrefixFirst() {
+		// names starting with the query in alphabetical order, then a word starting with it, then any other
+		assertEquals(Arrays.asList(4L, 1L, 6L, 3L, 5L), index.search("apple", 0, 10));
+		assertEquals(Arrays.asList(4L, 1L, 6L, 3L, 5L), index.search("ApPlE", 0, 10));
+	}
+
+	@Test
+	public void testSearchInfix() {
+		assertEquals(Collections.singletonList(2L), index.search("soft", 0, 10));
+		assertEquals(Collections.singletonList(2L), index.search("ft co", 0, 10));
+		assertEquals(Collections.emptyList(), index.search("softer", 0, 10));
+	}
+
+	@Test
+	public void testSearchShortQueryOnlyPrefix() {
+		assertEquals(Arrays.asList(4L, 1L), index.search("ap", 0, 10));
+		assertEquals(Collections.emptyList(), index.search("pl", 0, 10));
+	}
+
+	@Test
+	public void testSearchPages() {
+		assertEquals(Arrays.asList(4L, 1L), index.search("apple", 0, 2));
+		assertEquals(Arrays.asList(6L, 3L), index.search("apple", 2, 2));
+		assertEquals(Collections.singletonList(5L), index.search("apple", 4, 2));
+		assertEquals(Collections.emptyList(), index.search("apple", 6, 2));
+	}
+
+	@Test
+	public void testPutRenamed() {
+		index.put(stock(2, "Soft Apple Ltd"));
+		assertEquals(Collections.emptyList(), index.search("microsoft", 0, 10));
+		assertEquals(Arrays.asList(4L, 1L, 6L, 2L, 3L, 5L), index.search("apple", 0, 10));
+		assertEquals(Collections.singletonList(2L), index.search("soft", 0, 10));
+		assertEquals(6, index.size());
+	}
+
+	@Test
+	public void testPutKeepsNewer() {
+		index.put(new StockDTO(2L, "Soft Apple Ltd", 1.0, LocalDateTime.now(), 2L));
+		// a rename published late with an older version is not indexed
+		index.put(new StockDTO(2L, "Microsoft Corp", 1.0, LocalDateTime.now(), 1L));
+		assertEquals(Collections.emptyList(), index.search("microsoft", 0, 10));
+		assertEquals(Collections.singletonList(2L), index.search("soft", 0, 10));
+	}
+
+	@Test
+	public void testRemove() {
+		index.remove(1);
+		index.remove(42);
+		assertEquals(Arrays.asList(4L, 6L, 3L, 5L), index.search("apple", 0, 10));
+		assertEquals(5, index.size());
+	}
+
+	@Test
+	public void testRanking() {
+		LocalDateTime now = LocalDateTime.now();
+		List<StockDTO> stocks = Arrays.asList(new StockDTO(5L, "Snapple Group", 1.0, now, 0L),
+				new StockDTO(6L, "Big Apple Foods", 1.0, now, 0L), new StockDTO(1L, "Apple Inc", 1.0, now, 0L),
+				new StockDTO(3L, "Pineapple Holdings", 1.0, now, 0L), new StockDTO(4L, "APPLE", 1.0, now, 0L));
+		List<Long> ranked = stocks.stream().sorted(StockSearchIndex.ranking("Apple")).map(StockDTO::getId).collect(Collectors.toList());
+		assertEquals(index.search("apple", 0, 10), ranked);
+	}
+
+	@Test
+	public void testLoad() {
+		StockRepository stockRepository = mock(StockRepository.class);
+		LocalDateTime now = LocalDateTime.now();
+		List<StockDTO> stocks = LongStream.rangeClosed(1, 1500).mapToObj(id -> new StockDTO(id, "Stock " + id, 1.0, now, 0L))
+				.collect(Collectors.toList());
+		when(stockRepository.findPageAfter(anyLong(), any(Pageable.class))).thenAnswer(invocation -> {
+			long afterId = invocation.getArgument(0);
+			int size = invocation.<Pageable>getArgument(1).getPageSize();
+			return stocks.stream().filter(stock -> stock.getId() > afterId).limit(size).collect(Collectors.toList());
+		});
+		StockSearchIndex loaded = new StockSearchIndex();
+		ReflectionTestUtils.setField(loaded, "stockRepository", stockRepository);
+		loaded.load();
+		assertEquals(stocks.size(), loaded.size());
+		assertEquals(Collections.singletonList(1234L), loaded.search("stock 1234", 0, 10));
+		assertEquals(Arrays.asList(234L, 1234L), loaded.search("234", 0, 10));
+	}
+
+	private static StockDTO stock(long stockId, String name) {
+		return new StockDTO(stockId, name, 1.0, LocalDateTime.now(), 0L);
+	}
+}
@@ -3,22 +3,52 @@ package org.juanjo.stock.service;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.RandomUtils;
 import org.juanjo.stock.dao.Stock;
+import org.juanjo.stock.dto.CandleDTO;
 import org.juanjo.stock.dto.CreateStockDTO;
+import org.juanjo.stock.dto.PriceUpdateDTO;
+import org.juanjo.stock.dto.PriceUpdateResultDTO;
+import org.juanjo.stock.dto.StockBatchDTO;
+import org.juanjo.stock.dto.StockChangesDTO;
 import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.StockImportResultDTO;
+import org.juanjo.stock.dto.StockMoverDTO;
+import org.juanjo.stock.dto.StockPageDTO;
 import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.ConflictException;
 import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
 import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.utils.CandleInterval;
+import org.juanjo.stock.utils.StockConstants;
+import org.juanjo.stock.utils.StockCursor;
+import org.juanjo.stock.utils.StockETag;
+import org.juanjo.stock.utils.StockField;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.hibernate.Session;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.OptimisticLockException;
+import jakarta.validation.Validation;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -29,10 +59,35 @@ public class StockServiceImplTest {
 	private StockServiceImpl service;
 	@Mock
 	private StockRepository stockRepository;
+	@Spy
+	private StockCache stockCache;
+	@Mock
+	private EntityManager entityManager;
+	@Mock
+	private PriceHistory priceHistory;
+	@Mock
+	private StockBroadcaster stockBroadcaster;
+	@Mock
+	private StockVersion stockVersion;
+	@Spy
+	private StockSearchIndex stockSearchIndex;
+	@Spy
+	private StockMovers stockMovers;
+	@Mock
+	private StockMetrics stockMetrics;
+	@Mock
+	private StockChangeSequence stockChangeSequence;
 
 	@BeforeEach
 	public void setup() {
+		stockCache = new StockCache(DataSize.ofMegabytes(1), Duration.ofMinutes(1));
+		stockSearchIndex = new StockSearchIndex();
+		stockMovers = new StockMovers(LocalTime.MIDNIGHT);
 		MockitoAnnotations.initMocks(this);
+		ReflectionTestUtils.setField(service, "priceBook", null);
+		ReflectionTestUtils.setField(service, "stockWriteBehind", null);
+		ReflectionTestUtils.setField(service, "validator", Validation.buildDefaultValidatorFactory().getValidator());
+		when(stockRepository.save(any(Stock.class))).thenAnswer(invocation -> invocation.getArgument(0));
 	}
 
 	@Test
@@ -47,6 +102,75 @@ public class StockServiceImplTest {
 		assertEquals(stockFromDb.getName(), result.getName());
 		assertEquals(stockFromDb.getCurrentPrice(), result.getCurrentPrice());
 		assertEquals(stockFromDb.getLastUpdate(), result.getLastUpdate());
+		verify(stockMetrics).recordMapping(anyLong());
+	}
+
+	@Test
+	public void testGetByIdCached() throws NotFoundException {
+		Stock stockFromDb = generateRandomStock();
+		when(stockRepository.findById(stockFromDb.getId())).thenReturn(Optional.of(stockFromDb));
+
+		StockDTO first = service.getById(stockFromDb.getId());
+		StockDTO second = service.getById(stockFromDb.getId());
+		assertEquals(first, second);
+		verify(stockRepository, times(1)).findById(stockFromDb.getId());
+	}
+
+	@Test
+	public void testGetByIdProjection() throws NotFoundException {
+		StockDTO projection = new StockDTO(1L, null, RandomUtils.nextDouble(), LocalDateTime.now(), 3L);
+		// the last update is always read, for the Last-Modified header
+		Set<StockField> columns = Set.of(StockField.CURRENT_PRICE, StockField.LAST_UPDATE);
+		when(stockRepository.findProjectionById(1L, columns)).thenReturn(Optional.of(projection));
+
+		assertEquals(projection, service.getById(1L, Set.of(StockField.CURRENT_PRICE)));
+		// projections are not cached, so the next request reads them again
+		assertEquals(projection, service.getById(1L, Set.of(StockField.CURRENT_PRICE)));
+		verify(stockRepository, times(2)).findProjectionById(1L, columns);
+		verify(stockRepository, never()).findById(anyLong());
+
+		StockDTO cached = new StockDTO(2L, "Cached", RandomUtils.nextDouble(), LocalDateTime.now(), 0L);
+		stockCache.put(cached);
+		assertEquals(cached, service.getById(2L, Set.of(StockField.NAME)));
+		assertThrows(NotFoundException.class, () -> service.getById(3L, Set.of(StockField.NAME)));
+	}
+
+	@Test
+	public void testGetByIds() throws BadRequestException {
+		StockDTO cached = new StockDTO(1L, "Cached", RandomUtils.nextDouble(), LocalDateTime.now(), 0L);
+		stockCache.put(cached);
+		Stock stored = generateRandomStock();
+		stored.setId(2L);
+		when(stockRepository.findAllById(Arrays.asList(3L, 2L))).thenReturn(Collections.singletonList(stored));
+
+		StockBatchDTO result = service.getByIds(Arrays.asList(3L, 2L, 1L, 2L));
+		assertEquals(Arrays.asList(2L, 1L), result.getStocks().stream().map(StockDTO::getId).collect(Collectors.toList()));
+		assertEquals(cached, result.getStocks().get(1));
+		assertEquals(stored.getName(), result.getStocks().get(0).getName());
+		assertEquals(Collections.singletonList(3L), result.getMissing());
+		// the stocks read are cached for the next request
+		assertEquals(Collections.emptyList(), service.getByIds(Arrays.asList(1L, 2L)).getMissing());
+		verify(stockRepository, times(1)).findAllById(any());
+	}
+
+	@Test
+	public void testGetByIdsChunked() throws BadRequestException {
+		List<Long> stockIds = LongStream.rangeClosed(1, StockConstants.MULTI_GET_MAX_SIZE).boxed().collect(Collectors.toList());
+		when(stockRepository.findAllById(any())).thenReturn(Collections.emptyList());
+		StockBatchDTO result = service.getByIds(stockIds);
+		assertTrue(result.getStocks().isEmpty());
+		assertEquals(stockIds, result.getMissing());
+		verify(stockRepository, times(StockConstants.MULTI_GET_MAX_SIZE / StockConstants.BULK_UPDATE_CHUNK_SIZE)).findAllById(any());
+	}
+
+	@Test
+	public void testGetByIdsKOInvalid() {
+		assertThrows(BadRequestException.class, () -> service.getByIds(null));
+		assertThrows(BadRequestException.class, () -> service.getByIds(Collections.emptyList()));
+		assertThrows(BadRequestException.class, () -> service.getByIds(Arrays.asList(1L, null)));
+		assertThrows(BadRequestException.class, () -> service.getByIds(
+				LongStream.rangeClosed(1, StockConstants.MULTI_GET_MAX_SIZE + 1).boxed().collect(Collectors.toList())));
+		verify(stockRepository, never()).findAllById(any());
 	}
 
 	@Test
@@ -59,11 +183,11 @@ public class StockServiceImplTest {
 	@Test
 	public void testListStocksOKMany() {
 		int nItems = RandomUtils.nextInt(1, 10);
-		List<Stock> dbStocks = new ArrayList<>();
-		IntStream.range(0, nItems).forEach(i -> dbStocks.add(generateRandomStock()));
-		when(stockRepository.findAll()).thenReturn(dbStocks);
-		List<StockDTO> result = service.listStocks();
-		assertNotNull(result);
+		List<StockDTO> dbStocks = new ArrayList<>();
+		IntStream.range(0, nItems).forEach(i -> dbStocks.add(new StockDTO(generateRandomStock())));
+		when(stockRepository.streamAll()).thenReturn(dbStocks.stream());
+		List<StockDTO> result = new ArrayList<>();
+		service.listStocks(result::add);
 		assertEquals(nItems, result.size());
 		IntStream.range(0, nItems).forEach(i -> {
 			assertEquals(dbStocks.get(i).getId(), result.get(i).getId());
@@ -75,17 +199,170 @@ public class StockServiceImplTest {
 
 	@Test
 	public void testListStocksOKEmpty() {
-		when(stockRepository.findAll()).thenReturn(Collections.emptyList());
-		List<StockDTO> result = service.listStocks();
-		assertNotNull(result);
+		when(stockRepository.streamAll()).thenReturn(Stream.empty());
+		List<StockDTO> result = new ArrayList<>();
+		service.listStocks(result::add);
 		assertTrue(result.isEmpty());
 	}
 
+	@Test
+	public void testListStocksPageFirst() throws BadRequestException {
+		List<StockDTO> dbStocks = new ArrayList<>();
+		IntStream.range(0, 3).forEach(i -> dbStocks.add(new StockDTO(generateRandomStock())));
+		when(stockRepository.findPageAfter(0, PageRequest.of(0, 3))).thenReturn(dbStocks);
+		StockPageDTO result = service.listStocks(null, 2);
+		assertNotNull(result);
+		assertEquals(dbStocks.subList(0, 2), result.getStocks());
+		assertEquals(StockCursor.encode(dbStocks.get(1).getId()), result.getNextCursor());
+	}
+
+	@Test
+	public void testListStocksPageLast() throws BadRequestException {
+		long afterId = RandomUtils.nextLong();
+		List<StockDTO> dbStocks = Collections.singletonList(new StockDTO(generateRandomStock()));
+		when(stockRepository.findPageAfter(afterId, PageRequest.of(0, StockConstants.PAGE_DEFAULT_LIMIT + 1))).thenReturn(dbStocks);
+		StockPageDTO result = service.listStocks(StockCursor.encode(afterId), null);
+		assertNotNull(result);
+		assertEquals(dbStocks, result.getStocks());
+		assertNull(result.getNextCursor());
+	}
+
+	@Test
+	public void testListStocksPageKOInvalidCursor() {
+		assertThrows(BadRequestException.class, () -> service.listStocks("not a cursor", null));
+		verify(stockRepository, never()).findPageAfter(anyLong(), any());
+	}
+
+	@Test
+	public void testListStocksPageKOInvalidLimit() {
+		assertThrows(BadRequestException.class, () -> service.listStocks(null, 0));
+		assertThrows(BadRequestException.class, () -> service.listStocks(null, StockConstants.PAGE_MAX_LIMIT + 1));
+		verify(stockRepository, never()).findPageAfter(anyLong(), any());
+	}
+
+	@Test
+	public void testGetChanges() throws BadRequestException {
+		List<Stock> dbStocks = new ArrayList<>();
+		IntStream.range(0, 3).forEach(i -> {
+			Stock stock = generateRandomStock();
+			stock.setChangeSeq(10L + i);
+			dbStocks.add(stock);
+		});
+		when(stockChangeSequence.watermark()).thenReturn(20L);
+		when(stockRepository.findChangesAfter(-1, 0, 20, PageRequest.of(0, 3))).thenReturn(dbStocks);
+		StockChangesDTO first = service.getChanges(null, 2);
+		assertEquals(Arrays.asList(new StockDTO(dbStocks.get(0)), new StockDTO(dbStocks.get(1))), first.getStocks());
+		assertEquals(StockCursor.encode(11L, dbStocks.get(1).getId()), first.getWatermark());
+		assertTrue(first.isMore());
+
+		when(stockRepository.findChangesAfter(11, dbStocks.get(1).getId(), 20, PageRequest.of(0, 3)))
+				.thenReturn(dbStocks.subList(2, 3));
+		StockChangesDTO last = service.getChanges(first.getWatermark(), 2);
+		assertEquals(Collections.singletonList(new StockDTO(dbStocks.get(2))), last.getStocks());
+		assertEquals(StockCursor.encode(12L, dbStocks.get(2).getId()), last.getWatermark());
+		assertFalse(last.isMore());
+
+		StockChangesDTO unchanged = service.getChanges(last.getWatermark(), 2);
+		assertTrue(unchanged.getStocks().isEmpty());
+		assertEquals(last.getWatermark(), unchanged.getWatermark());
+		assertFalse(unchanged.isMore());
+	}
+
+	@Test
+	public void testGetChangesKOInvalid() {
+		assertThrows(BadRequestException.class, () -> service.getChanges("not a watermark", null));
+		assertThrows(BadRequestException.class, () -> service.getChanges(StockCursor.encode(1L), null));
+		assertThrows(BadRequestException.class, () -> service.getChanges(null, 0));
+		verify(stockRepository, never()).findChangesAfter(anyLong(), anyLong(), anyLong(), any());
+	}
+
+	@Test
+	public void testSearchStocks() throws BadRequestException, NotFoundException {
+		StockDTO cached = new StockDTO(1L, "Alpha One", RandomUtils.nextDouble(), LocalDateTime.now(), 0L);
+		Stock first = generateRandomStock();
+		first.setId(2L);
+		first.setName("Alpha Two");
+		Stock second = generateRandomStock();
+		second.setId(3L);
+		second.setName("Beta Alpha");
+		stockCache.put(cached);
+		stockSearchIndex.put(cached);
+		stockSearchIndex.put(new StockDTO(first));
+		stockSearchIndex.put(new StockDTO(second));
+		stockSearchIndex.put(new StockDTO(4L, "Gamma", 1.0, LocalDateTime.now(), 0L));
+		when(stockRepository.findAllById(Collections.singletonList(first.getId()))).thenReturn(Collections.singletonList(first));
+		when(stockRepository.findAllById(Collections.singletonList(second.getId()))).thenReturn(Collections.singletonList(second));
+
+		StockPageDTO firstPage = service.searchStocks("alpha", null, 2);
+		assertEquals(Arrays.asList(cached, new StockDTO(first)), firstPage.getStocks());
+		assertEquals(StockCursor.encode(2), firstPage.getNextCursor());
+		StockPageDTO lastPage = service.searchStocks("alpha", firstPage.getNextCursor(), 2);
+		assertEquals(Collections.singletonList(new StockDTO(second)), lastPage.getStocks());
+		assertNull(lastPage.getNextCursor());
+		// stocks read from the database are cached
+		assertEquals(new StockDTO(first), stockCache.get(first.getId()));
+	}
+
+	@Test
+	public void testSearchStocksKOInvalid() {
+		assertThrows(BadRequestException.class, () -> service.searchStocks(" ", null, null));
+		assertThrows(BadRequestException.class,
+				() -> service.searchStocks(RandomStringUtils.randomAlphabetic(StockConstants.NAME_MAX_LENGTH + 1), null, null));
+		assertThrows(BadRequestException.class, () -> service.searchStocks("alpha", null, 0));
+		assertThrows(BadRequestException.class, () -> service.searchStocks("alpha", StockCursor.encode(-1), null));
+		assertThrows(BadRequestException.class, () -> service.searchStocks("alpha", "not a cursor", null));
+		verify(stockSearchIndex, never()).search(anyString(), anyInt(), anyInt());
+	}
+
+	@Test
+	public void testSearchStocksKODisabled() {
+		ReflectionTestUtils.setField(service, "stockSearchIndex", null);
+		assertThrows(NotFoundException.class, () -> service.searchStocks("alpha", null, null));
+	}
+
+	@Test
+	public void testGetTopStocks() throws BadRequestException, NotFoundException {
+		for (long stockId = 1; stockId <= StockConstants.TOP_DEFAULT_LIMIT + 1; stockId++) {
+			stockMovers.put(new StockDTO(stockId, "Stock " + stockId, (double) stockId, LocalDateTime.now(), 0L));
+		}
+		List<Long> ids = service.getTopStocks(null, null, null).stream().map(StockMoverDTO::getId).collect(Collectors.toList());
+		assertEquals(StockConstants.TOP_DEFAULT_LIMIT, ids.size());
+		// every stock is unchanged, so the ties are ranked by id
+		assertEquals(11L, ids.get(0));
+		assertEquals(Arrays.asList(1L, 2L), service.getTopStocks("price", "asc", 2).stream().map(StockMoverDTO::getId)
+				.collect(Collectors.toList()));
+		assertEquals(Collections.singletonList(11L), service.getTopStocks("price", "desc", 1).stream().map(StockMoverDTO::getId)
+				.collect(Collectors.toList()));
+		verify(stockMovers).top(StockMovers.Ranking.CHANGE, false, StockConstants.TOP_DEFAULT_LIMIT);
+		assertEquals(StockConstants.TOP_DEFAULT_LIMIT + 1, service.getStats().getCount());
+	}
+
+	@Test
+	public void testGetTopStocksKOInvalid() {
+		assertThrows(BadRequestException.class, () -> service.getTopStocks("volume", null, null));
+		assertThrows(BadRequestException.class, () -> service.getTopStocks(null, "up", null));
+		assertThrows(BadRequestException.class, () -> service.getTopStocks(null, null, 0));
+		assertThrows(BadRequestException.class, () -> service.getTopStocks(null, null, StockConstants.PAGE_MAX_LIMIT + 1));
+		verify(stockMovers, never()).top(any(), anyBoolean(), anyInt());
+	}
+
+	@Test
+	public void testGetTopStocksKODisabled() {
+		ReflectionTestUtils.setField(service, "stockMovers", null);
+		assertThrows(NotFoundException.class, () -> service.getTopStocks(null, null, null));
+		assertThrows(NotFoundException.class, () -> service.getStats());
+	}
+
 	@Test
 	public void testCreateStockOk() {
 		CreateStockDTO request = new CreateStockDTO();
 		request.setName(RandomStringUtils.randomAlphanumeric(12));
 		request.setCurrentPrice(RandomUtils.nextDouble());
+		when(stockRepository.save(any(Stock.class))).thenAnswer(invocation -> {
+			Stock stock = invocation.getArgument(0);
+			stock.setId(RandomUtils.nextLong());
+			return stock;
+		});
 		StockDTO result = service.createStock(request);
 		ArgumentCaptor<Stock> saveCaptor = ArgumentCaptor.forClass(Stock.class);
 		verify(stockRepository).save(saveCaptor.capture());
@@ -94,30 +371,355 @@ public class StockServiceImplTest {
 		assertNotNull(stockToDB);
 		assertEquals(request.getName(), stockToDB.getName());
 		assertEquals(request.getCurrentPrice(), stockToDB.getCurrentPrice());
+		verify(stockCache).put(result);
+		verify(stockBroadcaster).publish(result);
+		assertEquals(Collections.singletonList(result.getId()), stockSearchIndex.search(request.getName(), 0, 1));
+		verify(priceHistory).record(result.getId(), request.getCurrentPrice(), result.getLastUpdate());
+	}
+
+	@Test
+	public void testCreateStocksOK() throws BadRequestException {
+		List<CreateStockDTO> requests = IntStream.range(0, StockConstants.BULK_UPDATE_CHUNK_SIZE + 1).mapToObj(i -> {
+			CreateStockDTO request = new CreateStockDTO();
+			request.setName("Stock " + i);
+			request.setCurrentPrice((double) i);
+			return request;
+		}).collect(Collectors.toList());
+		when(entityManager.unwrap(Session.class)).thenReturn(mock(Session.class));
+		AtomicLong nextId = new AtomicLong(100);
+		doAnswer(invocation -> {
+			Stock stock = invocation.getArgument(0);
+			stock.setId(nextId.getAndIncrement());
+			return null;
+		}).when(entityManager).persist(any(Stock.class));
+
+		List<Long> result = service.createStocks(requests);
+		assertEquals(LongStream.range(100, 100 + requests.size()).boxed().collect(Collectors.toList()), result);
+		verify(entityManager, times(requests.size())).persist(any(Stock.class));
+		verify(entityManager, times(4)).flush();
+		verify(entityManager, times(2)).clear();
+		verify(priceHistory).record(eq(100L), eq(0.0), any());
+		verify(stockBroadcaster, times(requests.size())).publish(any());
+		assertEquals(Collections.singletonList(200L), stockSearchIndex.search("Stock 100", 0, 2));
+	}
+
+	@Test
+	public void testCreateStocksKOInvalid() {
+		CreateStockDTO valid = new CreateStockDTO();
+		valid.setName(RandomStringUtils.randomAlphanumeric(12));
+		valid.setCurrentPrice(RandomUtils.nextDouble());
+		CreateStockDTO noName = new CreateStockDTO();
+		noName.setCurrentPrice(RandomUtils.nextDouble());
+		BadRequestException exception =
+				assertThrows(BadRequestException.class, () -> service.createStocks(Arrays.asList(valid, noName, null)));
+		assertTrue(exception.getMessage().startsWith("Stock 1: "));
+		assertTrue(exception.getMessage().endsWith("; Stock 2: Stock is mandatory"));
+		verify(entityManager, never()).persist(any());
+	}
+
+	@Test
+	public void testCreateStocksKOEmpty() {
+		assertThrows(BadRequestException.class, () -> service.createStocks(Collections.emptyList()));
+		verify(entityManager, never()).persist(any());
 	}
 
 	@Test
 	public void testUpdateStockNotFound() {
 		long stockId = RandomUtils.nextLong();
-		when(stockRepository.findById(stockId)).thenReturn(Optional.empty());
-		assertThrows(NotFoundException.class, () -> service.updateStock(stockId, new UpdateStockDTO()));
+		when(stockRepository.updateReturningVersion(anyLong(), any(), anyDouble(), any(), anyLong())).thenReturn(Optional.empty());
+		assertThrows(NotFoundException.class, () -> service.updateStock(stockId, randomUpdate(), null));
+		verify(stockBroadcaster, never()).publish(any());
 	}
 
 	@Test
-	public void testUpdateStockOk() throws NotFoundException {
+	public void testUpdateStockOk() throws NotFoundException, PreconditionFailedException {
 		long stockId = RandomUtils.nextLong();
+		UpdateStockDTO request = randomUpdate();
+		when(stockRepository.updateReturningVersion(eq(stockId), eq(request.getName()), eq(request.getCurrentPrice()), any(), anyLong()))
+				.thenReturn(Optional.of(4L));
+		StockDTO result = service.updateStock(stockId, request, null);
+		assertEquals(stockId, result.getId());
+		assertEquals(request.getName(), result.getName());
+		assertEquals(request.getCurrentPrice(), result.getCurrentPrice());
+		assertEquals(4L, result.getVersion());
+		assertNotNull(result.getLastUpdate());
+		verify(stockRepository, never()).findById(any());
+		verify(stockRepository, never()).saveAndFlush(any());
+		verify(priceHistory).record(stockId, request.getCurrentPrice(), result.getLastUpdate());
+	}
+
+	@Test
+	public void testUpdateStockRefreshesCache() throws NotFoundException, PreconditionFailedException {
 		Stock existingStock = generateRandomStock();
+		long stockId = existingStock.getId();
 		when(stockRepository.findById(stockId)).thenReturn(Optional.of(existingStock));
+		service.getById(stockId);
+		UpdateStockDTO request = randomUpdate();
+		when(stockRepository.updateReturningVersion(eq(stockId), any(), anyDouble(), any(), anyLong())).thenReturn(Optional.of(existingStock.getVersion() + 1));
+		service.updateStock(stockId, request, null);
+		StockDTO result = service.getById(stockId);
+		assertEquals(request.getName(), result.getName());
+		assertEquals(request.getCurrentPrice(), result.getCurrentPrice());
+		assertEquals(existingStock.getVersion() + 1, result.getVersion());
+		verify(stockBroadcaster).publish(result);
+		verify(stockVersion).increment();
+	}
+
+	@Test
+	public void testUpdateStockIfMatch() throws NotFoundException, PreconditionFailedException {
+		StockDTO current = new StockDTO(generateRandomStock());
+		UpdateStockDTO request = randomUpdate();
+		when(stockRepository.updateIfVersion(eq(current.getId()), eq(current.getVersion()), eq(request.getName()),
+				eq(request.getCurrentPrice()), any(), anyLong())).thenReturn(Optional.of(current.getVersion() + 1));
+		StockDTO result = service.updateStock(current.getId(), request, StockETag.of(current));
+		assertEquals(current.getVersion() + 1, result.getVersion());
+		assertNotEquals(StockETag.of(current), StockETag.of(result));
+		verify(stockRepository, never()).updateReturningVersion(anyLong(), any(), anyDouble(), any(), anyLong());
+		verify(stockRepository, never()).existsById(any());
+		verify(stockBroadcaster).publish(result);
+	}
+
+	@Test
+	public void testUpdateStockKOPreconditionFailed() {
+		StockDTO current = new StockDTO(generateRandomStock());
+		String eTag = StockETag.of(current);
+		when(stockRepository.updateIfVersion(anyLong(), anyLong(), any(), anyDouble(), any(), anyLong())).thenReturn(Optional.empty());
+		when(stockRepository.existsById(current.getId())).thenReturn(true);
+		when(stockRepository.existsById(current.getId() + 1)).thenReturn(true);
+		assertThrows(PreconditionFailedException.class, () -> service.updateStock(current.getId(), randomUpdate(), eTag));
+		assertThrows(PreconditionFailedException.class, () -> service.updateStock(current.getId(), randomUpdate(), "W/" + eTag));
+		assertThrows(PreconditionFailedException.class, () -> service.updateStock(current.getId() + 1, randomUpdate(), eTag));
+		assertThrows(NotFoundException.class, () -> service.updateStock(current.getId() + 2, randomUpdate(), eTag));
+		verify(stockRepository, times(1)).updateIfVersion(anyLong(), anyLong(), any(), anyDouble(), any(), anyLong());
+		verify(priceHistory, never()).record(anyLong(), anyDouble(), any());
+		verify(stockBroadcaster, never()).publish(any());
+	}
+
+	@Test
+	public void testUpdatePricesOK() throws BadRequestException, ConflictException, NotFoundException {
+		Stock first = generateRandomStock();
+		Stock second = generateRandomStock();
+		List<PriceUpdateDTO> request = Arrays.asList(new PriceUpdateDTO(first.getId(), RandomUtils.nextDouble()),
+				new PriceUpdateDTO(second.getId(), RandomUtils.nextDouble()), new PriceUpdateDTO(first.getId(), RandomUtils.nextDouble()));
+		when(stockRepository.findAllById(Arrays.asList(first.getId(), second.getId()))).thenReturn(Arrays.asList(first, second));
+		PriceUpdateResultDTO result = service.updatePrices(request);
+		assertEquals(2, result.getUpdated());
+		assertTrue(result.getFailures().isEmpty());
+		assertEquals(request.get(2).getCurrentPrice(), first.getCurrentPrice());
+		assertEquals(request.get(1).getCurrentPrice(), second.getCurrentPrice());
+		verify(entityManager, times(2)).flush();
+		verify(priceHistory).record(first.getId(), request.get(2).getCurrentPrice(), first.getLastUpdate());
+		verify(priceHistory).record(second.getId(), request.get(1).getCurrentPrice(), second.getLastUpdate());
+		assertEquals(request.get(2).getCurrentPrice(), service.getById(first.getId()).getCurrentPrice());
+		verify(stockRepository, never()).findById(first.getId());
+	}
+
+	@Test
+	public void testImportStocksChunked() throws ConflictException {
+		List<StockDTO> stocks = LongStream.rangeClosed(1, StockConstants.BULK_UPDATE_CHUNK_SIZE + 1)
+				.mapToObj(stockId -> new StockDTO(stockId, "Stock " + stockId, (double) stockId, null, null)).collect(Collectors.toList());
+		// a repeated id is written once within the chunk, with its last state
+		stocks.add(1, new StockDTO(1L, "Renamed", 1.0, null, null));
+		stocks.add(2, new StockDTO(null, "No id", 1.0, null, null));
+		stocks.add(3, new StockDTO(7L, "", -1.0, null, null));
+		List<List<StockDTO>> chunks = new ArrayList<>();
+		StockImportResultDTO result = service.importStocks(stocks.iterator(), chunk -> {
+			chunks.add(chunk);
+			return chunk.size();
+		});
+		assertEquals(StockConstants.BULK_UPDATE_CHUNK_SIZE + 1, result.getImported());
+		assertEquals(2, result.getFailed());
+		assertEquals(Arrays.asList("Stock 2: Id must be a positive number",
+				"Stock 3: Current Price cannot be negative, Name length must be between 1 and 250 characters"), result.getErrors());
+		assertEquals(2, chunks.size());
+		assertEquals(StockConstants.BULK_UPDATE_CHUNK_SIZE, chunks.get(0).size());
+		assertEquals("Renamed", chunks.get(0).get(0).getName());
+		assertEquals(Collections.singletonList(StockConstants.BULK_UPDATE_CHUNK_SIZE + 1L),
+				chunks.get(1).stream().map(StockDTO::getId).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testImportStocksUnreadable() throws ConflictException {
+		Iterator<StockDTO> stocks = Arrays.asList(new StockDTO(1L, "Apple Inc", 141.2, null, null), null).iterator();
+		Iterator<StockDTO> unreadable = new Iterator<>() {
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < 3;
+			}
+
+			@Override
+			public StockDTO next() {
+				if (index++ == 1) {
+					throw new IllegalArgumentException("Invalid id");
+				}
+				return stocks.next();
+			}
+		};
+		StockImportResultDTO result = service.importStocks(unreadable, List::size);
+		assertEquals(1, result.getImported());
+		assertEquals(Arrays.asList("Stock 1: Invalid id", "Stock 2: Stock is mandatory"), result.getErrors());
+	}
+
+	@Test
+	public void testUpdatePricesPartialFailures() throws BadRequestException, ConflictException {
+		Stock existing = generateRandomStock();
+		long missingId = RandomUtils.nextLong();
+		List<PriceUpdateDTO> request = Arrays.asList(new PriceUpdateDTO(existing.getId(), RandomUtils.nextDouble()),
+				new PriceUpdateDTO(missingId, RandomUtils.nextDouble()), new PriceUpdateDTO(RandomUtils.nextLong(), null),
+				new PriceUpdateDTO(RandomUtils.nextLong(), RandomUtils.nextDouble() * -1), new PriceUpdateDTO(null, RandomUtils.nextDouble()));
+		when(stockRepository.findAllById(Arrays.asList(existing.getId(), missingId))).thenReturn(Collections.singletonList(existing));
+		PriceUpdateResultDTO result = service.updatePrices(request);
+		assertEquals(1, result.getUpdated());
+		assertEquals(4, result.getFailures().size());
+		assertTrue(result.getFailures().stream().anyMatch(f -> Objects.equals(f.getId(), missingId)));
+		assertTrue(result.getFailures().stream().anyMatch(f -> Objects.equals(f.getId(), request.get(2).getId())));
+		assertTrue(result.getFailures().stream().anyMatch(f -> Objects.equals(f.getId(), request.get(3).getId())));
+		assertTrue(result.getFailures().stream().anyMatch(f -> f.getId() == null));
+	}
+
+	@Test
+	public void testUpdatePricesChunked() throws BadRequestException, ConflictException {
+		int nItems = StockConstants.BULK_UPDATE_CHUNK_SIZE + 1;
+		List<PriceUpdateDTO> request = new ArrayList<>();
+		LongStream.rangeClosed(1, nItems).forEach(id -> request.add(new PriceUpdateDTO(id, RandomUtils.nextDouble())));
+		when(stockRepository.findAllById(anyList())).thenReturn(Collections.emptyList());
+		PriceUpdateResultDTO result = service.updatePrices(request);
+		assertEquals(0, result.getUpdated());
+		assertEquals(nItems, result.getFailures().size());
+		verify(stockRepository, times(2)).findAllById(anyList());
+		verify(entityManager, times(4)).flush();
+		verify(entityManager, times(2)).clear();
+	}
+
+	@Test
+	public void testUpdatePricesKOEmpty() {
+		assertThrows(BadRequestException.class, () -> service.updatePrices(Collections.emptyList()));
+		verify(stockRepository, never()).findAllById(any());
+	}
+
+	@Test
+	public void testGetByIdFromPriceBook() throws NotFoundException {
+		PriceBook priceBook = new PriceBook(1024);
+		ReflectionTestUtils.setField(service, "priceBook", priceBook);
+		StockDTO stock = new StockDTO(generateRandomStock());
+		stock.setId(RandomUtils.nextLong(1, 1024));
+		priceBook.put(stock);
+		assertEquals(stock, service.getById(stock.getId()));
+		assertThrows(NotFoundException.class, () -> service.getById(stock.getId() + 1024));
+		verify(stockRepository, never()).findById(any());
+	}
+
+	@Test
+	public void testUpdateStockWithPriceBook() throws NotFoundException, PreconditionFailedException {
+		PriceBook priceBook = new PriceBook(1024);
+		StockWriteBehind stockWriteBehind = spy(new StockWriteBehind(100, 100, Duration.ofHours(1), Duration.ofMillis(10)));
+		ReflectionTestUtils.setField(service, "priceBook", priceBook);
+		ReflectionTestUtils.setField(service, "stockWriteBehind", stockWriteBehind);
+		StockDTO stock = new StockDTO(generateRandomStock());
+		stock.setId(RandomUtils.nextLong(1, 1024));
+		priceBook.put(stock);
 		UpdateStockDTO request = new UpdateStockDTO();
 		request.setName(RandomStringUtils.randomAlphanumeric(12));
 		request.setCurrentPrice(RandomUtils.nextDouble());
-		service.updateStock(stockId, request);
-		ArgumentCaptor<Stock> saveCaptor = ArgumentCaptor.forClass(Stock.class);
-		verify(stockRepository).save(saveCaptor.capture());
-		Stock stockToDB = saveCaptor.getValue();
-		assertNotNull(stockToDB);
-		assertEquals(request.getName(), stockToDB.getName());
-		assertEquals(request.getCurrentPrice(), stockToDB.getCurrentPrice());
+		StockDTO result = service.updateStock(stock.getId(), request, null);
+		StockDTO updated = service.getById(stock.getId());
+		assertEquals(result, updated);
+		assertEquals(request.getName(), updated.getName());
+		assertEquals(request.getCurrentPrice(), updated.getCurrentPrice());
+		verify(stockWriteBehind).update(eq(stock.getId()), eq(request.getName()), eq(request.getCurrentPrice()), any(), any());
+		assertEquals(request.getCurrentPrice(), stockWriteBehind.get(stock.getId()).getCurrentPrice());
+		verify(stockRepository, never()).save(any());
+		assertThrows(NotFoundException.class, () -> service.updateStock(stock.getId() + 1024, request, null));
+	}
+
+	@Test
+	public void testUpdateStockWriteBehind() throws NotFoundException, PreconditionFailedException {
+		StockWriteBehind stockWriteBehind = new StockWriteBehind(100, 100, Duration.ofHours(1), Duration.ofMillis(10));
+		ReflectionTestUtils.setField(service, "stockWriteBehind", stockWriteBehind);
+		Stock existingStock = generateRandomStock();
+		long stockId = existingStock.getId();
+		when(stockRepository.findById(stockId)).thenReturn(Optional.of(existingStock));
+		UpdateStockDTO request = randomUpdate();
+		service.updateStock(stockId, request, null);
+		verify(stockRepository, never()).save(any());
+		assertEquals(request.getCurrentPrice(), stockWriteBehind.get(stockId).getCurrentPrice());
+		stockCache.invalidate(stockId);
+		StockDTO result = service.getById(stockId);
+		assertEquals(request.getName(), result.getName());
+		assertEquals(request.getCurrentPrice(), result.getCurrentPrice());
+	}
+
+	@Test
+	public void testUpdateStockWriteBehindIfMatch() throws NotFoundException, PreconditionFailedException {
+		StockWriteBehind stockWriteBehind = new StockWriteBehind(100, 100, Duration.ofHours(1), Duration.ofMillis(10));
+		ReflectionTestUtils.setField(service, "stockWriteBehind", stockWriteBehind);
+		Stock existingStock = generateRandomStock();
+		long stockId = existingStock.getId();
+		when(stockRepository.findById(stockId)).thenReturn(Optional.of(existingStock));
+		String eTag = StockETag.of(service.getById(stockId));
+		StockDTO first = service.updateStock(stockId, randomUpdate(), eTag);
+		// the version only changes when the queue is flushed, but the tag still tells both states apart
+		assertEquals(existingStock.getVersion(), first.getVersion());
+		assertThrows(PreconditionFailedException.class, () -> service.updateStock(stockId, randomUpdate(), eTag));
+		UpdateStockDTO request = randomUpdate();
+		StockDTO second = service.updateStock(stockId, request, StockETag.of(first));
+		assertEquals(request.getCurrentPrice(), stockWriteBehind.get(stockId).getCurrentPrice());
+		assertEquals(second, service.getById(stockId));
+	}
+
+	@Test
+	public void testUpdatePricesKOConflict() {
+		Stock existing = generateRandomStock();
+		when(stockRepository.findAllById(Collections.singletonList(existing.getId()))).thenReturn(Collections.singletonList(existing));
+		doThrow(new OptimisticLockException()).when(entityManager).flush();
+		assertThrows(ConflictException.class,
+				() -> service.updatePrices(Collections.singletonList(new PriceUpdateDTO(existing.getId(), RandomUtils.nextDouble()))));
+		verify(stockBroadcaster, never()).publish(any());
+	}
+
+	@Test
+	public void testUpdatePricesWriteBehind() throws BadRequestException, ConflictException, NotFoundException {
+		StockWriteBehind stockWriteBehind = new StockWriteBehind(100, 100, Duration.ofHours(1), Duration.ofMillis(10));
+		ReflectionTestUtils.setField(service, "stockWriteBehind", stockWriteBehind);
+		Stock existing = generateRandomStock();
+		long missingId = RandomUtils.nextLong();
+		List<PriceUpdateDTO> request = Arrays.asList(new PriceUpdateDTO(existing.getId(), RandomUtils.nextDouble()),
+				new PriceUpdateDTO(missingId, RandomUtils.nextDouble()));
+		when(stockRepository.findAllById(Arrays.asList(existing.getId(), missingId))).thenReturn(Collections.singletonList(existing));
+		PriceUpdateResultDTO result = service.updatePrices(request);
+		assertEquals(1, result.getUpdated());
+		assertEquals(1, result.getFailures().size());
+		assertEquals(missingId, result.getFailures().get(0).getId());
+		verify(entityManager, never()).flush();
+		StockDTO cached = service.getById(existing.getId());
+		assertEquals(existing.getName(), cached.getName());
+		assertEquals(request.get(0).getCurrentPrice(), cached.getCurrentPrice());
+		verify(stockRepository, never()).findById(existing.getId());
+	}
+
+	@Test
+	public void testGetHistoryDefaults() throws NotFoundException, BadRequestException {
+		Stock existingStock = generateRandomStock();
+		when(stockRepository.findById(existingStock.getId())).thenReturn(Optional.of(existingStock));
+		List<CandleDTO> candles = Collections.singletonList(new CandleDTO(LocalDateTime.now(), 1.0, 2.0, 0.5, 1.5, 4));
+		when(priceHistory.getCandles(eq(existingStock.getId()), any(), any(), eq(CandleInterval.ONE_MINUTE))).thenReturn(candles);
+		assertEquals(candles, service.getHistory(existingStock.getId(), null, null, null));
+		ArgumentCaptor<LocalDateTime> fromCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
+		ArgumentCaptor<LocalDateTime> toCaptor = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(priceHistory).getCandles(eq(existingStock.getId()), fromCaptor.capture(), toCaptor.capture(), eq(CandleInterval.ONE_MINUTE));
+		assertEquals(toCaptor.getValue().minusDays(StockConstants.HISTORY_DEFAULT_DAYS), fromCaptor.getValue());
+	}
+
+	@Test
+	public void testGetHistoryKOInvalidRange() {
+		Stock existingStock = generateRandomStock();
+		when(stockRepository.findById(existingStock.getId())).thenReturn(Optional.of(existingStock));
+		LocalDateTime now = LocalDateTime.now();
+		assertThrows(BadRequestException.class, () -> service.getHistory(existingStock.getId(), now, now.minusHours(1), "1h"));
+		assertThrows(BadRequestException.class, () -> service.getHistory(existingStock.getId(), null, null, "2m"));
+		assertThrows(NotFoundException.class, () -> service.getHistory(existingStock.getId() + 1, null, null, null));
 	}
 
 	private Stock generateRandomStock() {
@@ -126,6 +728,14 @@ public class StockServiceImplTest {
 		stockFromDb.setName(RandomStringUtils.randomAlphanumeric(32));
 		stockFromDb.setCurrentPrice(RandomUtils.nextDouble());
 		stockFromDb.setLastUpdate(LocalDateTime.now());
+		stockFromDb.setVersion(RandomUtils.nextLong(0, 1000));
 		return stockFromDb;
 	}
+
+	private UpdateStockDTO randomUpdate() {
+		UpdateStockDTO request = new UpdateStockDTO();
+		request.setName(RandomStringUtils.randomAlphanumeric(12));
+		request.setCurrentPrice(RandomUtils.nextDouble());
+		return request;
+	}
 }
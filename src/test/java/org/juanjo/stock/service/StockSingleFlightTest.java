@@ -0,0 +1,157 @@
+package org.juanjo.stock.service;
+
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StockSingleFlightTest {
+	private static final int WAITERS = 8;
+
+	private StockSingleFlight singleFlight;
+	private ExecutorService executor;
+
+	@BeforeEach
+	public void setup() {
+		singleFlight = new StockSingleFlight(Duration.ofSeconds(10));
+		executor = Executors.newFixedThreadPool(WAITERS + 1);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testLoadCoalesced() throws Exception {
+		StockDTO stock = new StockDTO(1L, "Apple Inc", 141.2, LocalDateTime.now(), 0L);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger queries = new AtomicInteger();
+		Future<StockDTO> leader = executor.submit(() -> singleFlight.load(1L, () -> {
+			queries.incrementAndGet();
+			started.countDown();
+			await(release);
+			return stock;
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		List<Future<StockDTO>> waiters = startWaiters(1L, queries);
+		release.countDown();
+
+		assertEquals(stock, leader.get(5, TimeUnit.SECONDS));
+		for (Future<StockDTO> waiter : waiters) {
+			assertEquals(stock, waiter.get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(1, queries.get());
+		assertEquals(WAITERS, singleFlight.getCoalesced());
+		// nothing is kept once the load is done, so the next call loads the stock again
+		assertEquals(stock, singleFlight.load(1L, () -> {
+			queries.incrementAndGet();
+			return stock;
+		}));
+		assertEquals(2, queries.get());
+	}
+
+	@Test
+	public void testLoadErrorToEveryWaiter() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger queries = new AtomicInteger();
+		Future<StockDTO> leader = executor.submit(() -> singleFlight.load(2L, () -> {
+			queries.incrementAndGet();
+			started.countDown();
+			await(release);
+			throw new NotFoundException();
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		List<Future<StockDTO>> waiters = startWaiters(2L, queries);
+		release.countDown();
+
+		assertInstanceOf(NotFoundException.class, assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS))
+				.getCause());
+		for (Future<StockDTO> waiter : waiters) {
+			assertInstanceOf(NotFoundException.class,
+					assertThrows(ExecutionException.class, () -> waiter.get(5, TimeUnit.SECONDS)).getCause());
+		}
+		assertEquals(1, queries.get());
+	}
+
+	@Test
+	public void testLoadTimeout() throws Exception {
+		singleFlight = new StockSingleFlight(Duration.ofMillis(50));
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StockDTO stock = new StockDTO(3L, "Intel Corp", 50.0, LocalDateTime.now(), 0L);
+		Future<StockDTO> leader = executor.submit(() -> singleFlight.load(3L, () -> {
+			started.countDown();
+			await(release);
+			return stock;
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertThrows(ServiceUnavailableException.class, () -> singleFlight.load(3L, () -> fail("Coalesced call loaded the stock")));
+		release.countDown();
+		assertEquals(stock, leader.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testForget() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StockDTO stale = new StockDTO(4L, "Tesla Inc", 800.0, LocalDateTime.now(), 0L);
+		StockDTO written = new StockDTO(4L, "Tesla Inc", 900.0, LocalDateTime.now(), 1L);
+		Future<StockDTO> leader = executor.submit(() -> singleFlight.load(4L, () -> {
+			started.countDown();
+			await(release);
+			return stale;
+		}));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		singleFlight.forget(4L);
+		// a read after the write does not wait for the load that started before it
+		assertEquals(written, singleFlight.load(4L, () -> written));
+		release.countDown();
+		assertEquals(stale, leader.get(5, TimeUnit.SECONDS));
+		assertEquals(0, singleFlight.getCoalesced());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Starts the waiters and returns once all of them are waiting for the load in flight
+	 */
+	private List<Future<StockDTO>> startWaiters(Long stockId, AtomicInteger queries) throws InterruptedException {
+		List<Future<StockDTO>> waiters = new ArrayList<>();
+		for (int i = 0; i < WAITERS; i++) {
+			waiters.add(executor.submit(() -> singleFlight.load(stockId, () -> {
+				queries.incrementAndGet();
+				return null;
+			})));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (singleFlight.getCoalesced() < WAITERS && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		return waiters;
+	}
+}
@@ -0,0 +1,219 @@
+package org.juanjo.stock.service;
+
+import org.apache.commons.lang3.RandomStringUtils;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.WriteBehindStatsDTO;
+import org.juanjo.stock.exception.ServiceUnavailableException;
+import org.juanjo.stock.persistence.StockRepository;
+import org.juanjo.stock.service.StockWriteBehind.PendingUpdate;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class StockWriteBehindTest {
+	private static final int CAPACITY = 4;
+	private static final int BATCH_SIZE = 2;
+
+	private StockWriteBehind writeBehind;
+	@Mock
+	private StockRepository stockRepository;
+	@Mock
+	private PlatformTransactionManager transactionManager;
+	@Mock
+	private PriceHistory priceHistory;
+	@Mock
+	private StockVersion stockVersion;
+	@Mock
+	private StockChangeSequence stockChangeSequence;
+
+	@BeforeEach
+	public void setup() {
+		MockitoAnnotations.initMocks(this);
+		writeBehind = new StockWriteBehind(CAPACITY, BATCH_SIZE, Duration.ofHours(1), Duration.ofMillis(10));
+		setup(writeBehind);
+	}
+
+	private void setup(StockWriteBehind writeBehind) {
+		ReflectionTestUtils.setField(writeBehind, "stockRepository", stockRepository);
+		ReflectionTestUtils.setField(writeBehind, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(writeBehind, "priceHistory", priceHistory);
+		ReflectionTestUtils.setField(writeBehind, "stockVersion", stockVersion);
+		ReflectionTestUtils.setField(writeBehind, "stockChangeSequence", stockChangeSequence);
+		writeBehind.start();
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		writeBehind.shutdown();
+	}
+
+	@Test
+	public void testUpdateCoalesces() {
+		long stockId = RandomUtils.nextLong();
+		String name = RandomStringUtils.randomAlphanumeric(32);
+		List<PendingUpdate> published = new ArrayList<>();
+		writeBehind.update(stockId, name, 1.0, published::add);
+		writeBehind.update(stockId, null, 2.0, published::add);
+		PendingUpdate pendingUpdate = writeBehind.get(stockId);
+		assertEquals(name, pendingUpdate.getName());
+		assertEquals(2.0, pendingUpdate.getCurrentPrice());
+		assertEquals(2, published.size());
+		assertSame(pendingUpdate, published.get(1));
+		WriteBehindStatsDTO stats = writeBehind.stats();
+		assertEquals(1, stats.getPending());
+		assertEquals(1, stats.getQueuedCount());
+		assertEquals(1, stats.getCoalescedCount());
+	}
+
+	@Test
+	public void testUpdateKOQueueFull() {
+		doThrow(new IllegalStateException("Database down")).when(stockRepository).updateQueued(anyLong(), any(), anyDouble(), any(),
+				anyLong());
+		for (int i = 0; i < CAPACITY; i++) {
+			writeBehind.update((long) i, RandomStringUtils.randomAlphanumeric(32), RandomUtils.nextDouble(), update -> {
+			});
+		}
+		// the requested flushes fail, so nothing leaves the queue
+		assertThrows(ServiceUnavailableException.class, () -> writeBehind.update((long) CAPACITY, RandomStringUtils.randomAlphanumeric(32),
+				RandomUtils.nextDouble(), update -> {
+				}));
+		assertEquals(1, writeBehind.stats().getRejectedCount());
+	}
+
+	@Test
+	public void testUpdateWaitsForRoomOutsideStripe() throws InterruptedException {
+		writeBehind.shutdown();
+		writeBehind = new StockWriteBehind(1, BATCH_SIZE, Duration.ofHours(1), Duration.ofSeconds(10));
+		setup(writeBehind);
+		when(stockRepository.updateQueued(anyLong(), any(), anyDouble(), any(), anyLong()))
+				.thenReturn(Optional.of(written(RandomStringUtils.randomAlphanumeric(32), 1L)));
+		long firstId = 1;
+		// same stripe as the first stock, which the flush takes to complete it
+		long secondId = firstId + 64;
+		writeBehind.update(firstId, null, 1.0, update -> {
+		});
+		long start = System.nanoTime();
+		writeBehind.update(secondId, null, 2.0, update -> {
+		});
+		assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(5)) < 0);
+		assertNull(writeBehind.get(firstId));
+		assertEquals(2.0, writeBehind.get(secondId).getCurrentPrice());
+		assertEquals(0, writeBehind.stats().getRejectedCount());
+	}
+
+	@Test
+	public void testFlush() {
+		long firstId = RandomUtils.nextLong();
+		long secondId = RandomUtils.nextLong();
+		String newName = RandomStringUtils.randomAlphanumeric(32);
+		String secondName = RandomStringUtils.randomAlphanumeric(32);
+		when(stockRepository.updateQueued(eq(firstId), eq(newName), eq(1.0), any(), anyLong()))
+				.thenReturn(Optional.of(written(newName, 3L)));
+		when(stockRepository.updateQueued(eq(secondId), isNull(), eq(2.0), any(), anyLong()))
+				.thenReturn(Optional.of(written(secondName, 5L)));
+		List<StockDTO> flushed = new ArrayList<>();
+		writeBehind.onFlushed(flushed::add);
+		List<PendingUpdate> queued = new ArrayList<>();
+		// the second update fills a batch, so the flusher may write both before the flush below
+		writeBehind.update(firstId, newName, 1.0, queued::add);
+		writeBehind.update(secondId, null, 2.0, queued::add);
+		PendingUpdate first = queued.get(0);
+		PendingUpdate second = queued.get(1);
+		writeBehind.flush();
+		// the time the updates were queued is the one written
+		verify(stockRepository).updateQueued(eq(firstId), eq(newName), eq(1.0), eq(first.getLastUpdate()), anyLong());
+		verify(priceHistory).record(firstId, 1.0, first.getLastUpdate());
+		verify(priceHistory).record(secondId, 2.0, second.getLastUpdate());
+		assertEquals(2, flushed.size());
+		assertTrue(flushed.contains(new StockDTO(firstId, newName, 1.0, first.getLastUpdate(), 3L)));
+		assertTrue(flushed.contains(new StockDTO(secondId, secondName, 2.0, second.getLastUpdate(), 5L)));
+		assertNull(writeBehind.get(firstId));
+		WriteBehindStatsDTO stats = writeBehind.stats();
+		assertEquals(0, stats.getPending());
+		assertEquals(2, stats.getFlushedCount());
+		assertEquals(0, stats.getFlushLagMillis());
+		verify(transactionManager, atLeastOnce()).commit(any());
+		verify(stockVersion).increment();
+	}
+
+	@Test
+	public void testFlushKeepsPendingUntilCommitted() {
+		long stockId = RandomUtils.nextLong();
+		String name = RandomStringUtils.randomAlphanumeric(32);
+		List<StockDTO> flushed = new ArrayList<>();
+		writeBehind.onFlushed(flushed::add);
+		when(stockRepository.updateQueued(eq(stockId), eq(name), eq(1.0), any(), anyLong())).thenAnswer(invocation -> {
+			// readers still see the update while its batch is written, and a newer one is coalesced with it
+			assertEquals(1.0, writeBehind.get(stockId).getCurrentPrice());
+			writeBehind.update(stockId, null, 2.0, update -> {
+			});
+			return Optional.of(written(name, 1L));
+		});
+		writeBehind.update(stockId, name, 1.0, update -> {
+		});
+		writeBehind.flush();
+		PendingUpdate newer = writeBehind.get(stockId);
+		assertEquals(2.0, newer.getCurrentPrice());
+		assertEquals(1, writeBehind.stats().getPending());
+		assertEquals(Collections.singletonList(new StockDTO(stockId, name, 2.0, newer.getLastUpdate(), 1L)), flushed);
+	}
+
+	@Test
+	public void testFlushFailedStaysPending() {
+		long stockId = RandomUtils.nextLong();
+		doThrow(new IllegalStateException("Database down")).when(stockRepository).updateQueued(anyLong(), any(), anyDouble(), any(),
+				anyLong());
+		writeBehind.update(stockId, RandomStringUtils.randomAlphanumeric(32), 1.0, update -> {
+		});
+		writeBehind.flush();
+		assertEquals(1.0, writeBehind.get(stockId).getCurrentPrice());
+		assertEquals(1, writeBehind.stats().getFailedCount());
+		assertEquals(1, writeBehind.stats().getPending());
+		verify(stockVersion, never()).increment();
+	}
+
+	@Test
+	public void testShutdownDrains() throws InterruptedException {
+		long stockId = RandomUtils.nextLong();
+		when(stockRepository.updateQueued(eq(stockId), isNull(), eq(3.0), any(), anyLong()))
+				.thenReturn(Optional.of(written(RandomStringUtils.randomAlphanumeric(32), 1L)));
+		writeBehind.update(stockId, null, 3.0, update -> {
+		});
+		writeBehind.shutdown();
+		verify(stockRepository).updateQueued(eq(stockId), isNull(), eq(3.0), any(), anyLong());
+		assertNull(writeBehind.get(stockId));
+	}
+
+	private static StockRepository.WrittenStock written(String name, Long version) {
+		return new StockRepository.WrittenStock() {
+			@Override
+			public String getName() {
+				return name;
+			}
+
+			@Override
+			public Long getVersion() {
+				return version;
+			}
+		};
+	}
+}
@@ -0,0 +1,78 @@
+package org.juanjo.stock.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.lang3.RandomUtils;
+import org.juanjo.stock.dto.StockDTO;
+import org.juanjo.stock.dto.UpdateStockDTO;
+import org.juanjo.stock.exception.BadRequestException;
+import org.juanjo.stock.exception.NotFoundException;
+import org.juanjo.stock.exception.PreconditionFailedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class TimedStockServiceTest {
+	@InjectMocks
+	private TimedStockService service;
+	@Mock
+	private StockServiceImpl stockService;
+	@Spy
+	private StockMetrics stockMetrics;
+	private MeterRegistry registry;
+
+	@BeforeEach
+	public void setup() {
+		registry = new SimpleMeterRegistry();
+		stockMetrics = new StockMetrics(registry);
+		MockitoAnnotations.initMocks(this);
+	}
+
+	@Test
+	public void testRecordsCalls() throws NotFoundException {
+		long stockId = RandomUtils.nextLong();
+		StockDTO stock = new StockDTO(stockId, "Apple Inc", 141.2, LocalDateTime.now(), 0L);
+		when(stockService.getById(stockId)).thenReturn(stock);
+		assertEquals(stock, service.getById(stockId));
+		assertEquals(stock, service.getById(stockId));
+		assertEquals(2, timer("getById").count());
+		assertTrue(timer("getById").totalTime(TimeUnit.NANOSECONDS) > 0);
+		assertEquals(0, timer("updateStock").count());
+	}
+
+	@Test
+	public void testRecordsFailedCalls() throws NotFoundException, PreconditionFailedException, BadRequestException {
+		when(stockService.updateStock(anyLong(), any(), any())).thenThrow(new PreconditionFailedException());
+		when(stockService.listStocks(any(), any())).thenThrow(new BadRequestException("Invalid cursor"));
+		assertThrows(PreconditionFailedException.class, () -> service.updateStock(1L, new UpdateStockDTO(), "\"1-0-0-0\""));
+		assertThrows(BadRequestException.class, () -> service.listStocks("cursor", 10));
+		service.listStocks(stock -> {
+		});
+		assertEquals(1, timer("updateStock").count());
+		assertEquals(1, timer("listStocksPage").count());
+		assertEquals(1, timer("listStocks").count());
+		verify(stockService).listStocks(any());
+	}
+
+	@Test
+	public void testRegistersEveryMethod() {
+		assertEquals(StockMetrics.Operation.values().length, registry.find("stock.service").timers().size());
+		assertNotNull(registry.find("stock.service").tag("method", "searchStocks").timer());
+		assertNotNull(registry.find("stock.mapping").timer());
+	}
+
+	private Timer timer(String method) {
+		return registry.get("stock.service").tag("method", method).timer();
+	}
+}